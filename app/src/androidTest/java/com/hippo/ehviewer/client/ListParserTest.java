@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.hippo.ehviewer.data.GalleryInfo;
+import com.hippo.ehviewer.data.LofiGalleryInfo;
+import com.hippo.util.Utils;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks the streaming {@link ListParser} against the regex parser it
+ * replaced, {@link RegexListParser}, on saved g, ex and lofi pages.
+ */
+public class ListParserTest extends TestCase {
+
+    private static final String TAG = ListParserTest.class.getSimpleName();
+
+    private static final int WARM_UP_ROUNDS = 500;
+    private static final int TIMING_ROUNDS = 100;
+    // Streaming parser can take at most this times as long as the regex one
+    private static final int MAX_SLOWDOWN = 3;
+
+    private static String readFixture(String name) {
+        InputStream is = ListParserTest.class.getResourceAsStream(name);
+        assertNotNull("Missing fixture " + name, is);
+        return Utils.inputStream2String(is, "UTF-8", 32 * 1024);
+    }
+
+    private static void assertGalleryInfoEquals(int index, GalleryInfo expected, GalleryInfo actual) {
+        String message = "Row " + index + " ";
+        assertEquals(message + "class", expected.getClass(), actual.getClass());
+        assertEquals(message + "gid", expected.gid, actual.gid);
+        assertEquals(message + "token", expected.token, actual.token);
+        assertEquals(message + "title", expected.title, actual.title);
+        assertEquals(message + "posted", expected.posted, actual.posted);
+        assertEquals(message + "category", expected.category, actual.category);
+        assertEquals(message + "thumb", expected.thumb, actual.thumb);
+        assertEquals(message + "thumbWidth", expected.thumbWidth, actual.thumbWidth);
+        assertEquals(message + "thumbHeight", expected.thumbHeight, actual.thumbHeight);
+        assertEquals(message + "uploader", expected.uploader, actual.uploader);
+        assertEquals(message + "rating", expected.rating, actual.rating, 0.0f);
+        assertEquals(message + "simpleLanguage", expected.simpleLanguage, actual.simpleLanguage);
+        if (expected instanceof LofiGalleryInfo) {
+            assertTrue(message + "lofiTags", Arrays.equals(((LofiGalleryInfo) expected).lofiTags,
+                    ((LofiGalleryInfo) actual).lofiTags));
+        }
+    }
+
+    private static void assertSameResult(RegexListParser expected, ListParser actual) {
+        assertEquals("pageNum", expected.pageNum, actual.pageNum);
+        List<GalleryInfo> expectedList = expected.giList;
+        List<GalleryInfo> actualList = actual.giList;
+        assertEquals("size", expectedList.size(), actualList.size());
+        for (int i = 0, n = expectedList.size(); i < n; i++) {
+            assertGalleryInfoEquals(i, expectedList.get(i), actualList.get(i));
+        }
+    }
+
+    private static ListParser assertParity(String fixture, int source) throws Exception {
+        String body = readFixture(fixture);
+        RegexListParser expected = new RegexListParser();
+        expected.parse(body, source);
+        ListParser actual = new ListParser();
+        actual.parse(body, source);
+        assertSameResult(expected, actual);
+        return actual;
+    }
+
+    public void testParseG() throws Exception {
+        ListParser parser = assertParity("list_g.html", EhClient.SOURCE_G);
+        assertEquals(1042, parser.pageNum);
+        assertEquals(25, parser.giList.size());
+
+        GalleryInfo gi = parser.giList.get(0);
+        assertEquals(836041, gi.gid);
+        assertEquals("5f1a2b3c4d", gi.token);
+        assertEquals("2015-06-28 00:00", gi.posted);
+        assertEquals("http://ehgt.org/t/c9/c1/5f1a2b3c4d-1024-200x283-jpg_l.jpg", gi.thumb);
+        assertEquals(200, gi.thumbWidth);
+        assertEquals(283, gi.thumbHeight);
+        assertEquals(5.0f, gi.rating, 0.0f);
+        assertEquals("Pokom", gi.uploader);
+        assertEquals(GalleryInfo.S_LANG_EN, gi.simpleLanguage);
+
+        // Thumb loaded by javascript, init~host~path~title
+        gi = parser.giList.get(1);
+        assertEquals("http://ehgt.org/t/a4/c1/5f1a2b5b3c-1025-200x141-jpg_l.jpg", gi.thumb);
+        assertEquals("[作者] タイトル (オリジナル) [中国翻訳]", gi.title);
+        assertEquals(4.5f, gi.rating, 0.0f);
+        assertEquals("zzz_2015", gi.uploader);
+
+        // Escaped title
+        gi = parser.giList.get(2);
+        assertEquals("[Group] Tom & Jerry's Night [Chinese] [Decensored]", gi.title);
+        assertEquals(GalleryInfo.S_LANG_ZH, gi.simpleLanguage);
+        assertEquals("Hentai Uploader", gi.uploader);
+    }
+
+    public void testParseEx() throws Exception {
+        ListParser parser = assertParity("list_ex.html", EhClient.SOURCE_EX);
+        assertEquals(36, parser.pageNum);
+        assertEquals(25, parser.giList.size());
+    }
+
+    public void testParseLofi() throws Exception {
+        ListParser parser = assertParity("list_lofi.html", EhClient.SOURCE_LOFI);
+        assertEquals(Integer.MAX_VALUE, parser.pageNum);
+        assertEquals(25, parser.giList.size());
+
+        LofiGalleryInfo lgi = (LofiGalleryInfo) parser.giList.get(2);
+        assertEquals("[Group] Tom & Jerry's Night [Chinese] [Decensored]", lgi.title);
+        assertEquals("Hentai Uploader", lgi.uploader);
+        assertEquals(2.0f, lgi.rating, 0.0f);
+        assertTrue(Arrays.equals(new String[] {"female:tag2", "male:tag3", "language:translated"},
+                lgi.lofiTags));
+
+        // "-" for no tags and no rating
+        lgi = (LofiGalleryInfo) parser.giList.get(5);
+        assertEquals(0, lgi.lofiTags.length);
+        lgi = (LofiGalleryInfo) parser.giList.get(6);
+        assertTrue(Float.isNaN(lgi.rating));
+    }
+
+    public void testParseStream() throws Exception {
+        String body = readFixture("list_g.html");
+        ListParser expected = new ListParser();
+        expected.parse(body, EhClient.SOURCE_G);
+        ListParser actual = new ListParser();
+        actual.parse(new ByteArrayInputStream(body.getBytes("UTF-8")), "UTF-8", EhClient.SOURCE_G);
+
+        assertEquals(expected.pageNum, actual.pageNum);
+        assertEquals(expected.giList.size(), actual.giList.size());
+        for (int i = 0, n = expected.giList.size(); i < n; i++) {
+            assertGalleryInfoEquals(i, expected.giList.get(i), actual.giList.get(i));
+        }
+    }
+
+    public void testNoHits() throws Exception {
+        String body = readFixture("list_no_hits.html");
+        try {
+            new RegexListParser().parse(body, EhClient.SOURCE_G);
+            fail("RegexListParser should throw for empty page");
+        } catch (EhException e) {
+            // Empty
+        }
+        try {
+            new ListParser().parse(body, EhClient.SOURCE_G);
+            fail("ListParser should throw for empty page");
+        } catch (EhException e) {
+            // Empty
+        }
+
+        assertParity("list_lofi_no_hits.html", EhClient.SOURCE_LOFI);
+    }
+
+    /**
+     * A reader that records how many chars have been read
+     */
+    private static class CountingReader extends FilterReader {
+
+        private int mCount;
+
+        CountingReader(Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read(@NonNull char[] cbuf, int off, int len) throws IOException {
+            int read = super.read(cbuf, off, len);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        int getCount() {
+            return mCount;
+        }
+    }
+
+    /**
+     * The first rows must be handed out while most of the page is still
+     * unread, so the body is never held as a whole.
+     */
+    public void testRowsBeforeEnd() throws Exception {
+        final String body = readFixture("list_g.html");
+        // Many small reads, like a slow network
+        final CountingReader reader = new CountingReader(new StringReader(body)) {
+            @Override
+            public int read(@NonNull char[] cbuf, int off, int len) throws IOException {
+                return super.read(cbuf, off, Math.min(len, 1024));
+            }
+        };
+        final int[] readAtFirstRow = {-1};
+        ListParser parser = new ListParser();
+        parser.setOnParseGalleryInfoListener(new ListParser.OnParseGalleryInfoListener() {
+            @Override
+            public void onParseGalleryInfo(GalleryInfo gi) {
+                if (readAtFirstRow[0] == -1) {
+                    readAtFirstRow[0] = reader.getCount();
+                }
+            }
+        });
+        parser.parse(reader, EhClient.SOURCE_G);
+
+        assertEquals(25, parser.giList.size());
+        assertTrue("First row after " + readAtFirstRow[0] + " of " + body.length() + " chars",
+                readAtFirstRow[0] > 0 && readAtFirstRow[0] < body.length() / 2);
+    }
+
+    private static long timeRegex(byte[] body, int source) throws Exception {
+        long time = System.nanoTime();
+        for (int i = 0; i < TIMING_ROUNDS; i++) {
+            // The old path, whole body to a String, then regex
+            new RegexListParser().parse(new String(body, "UTF-8"), source);
+        }
+        return System.nanoTime() - time;
+    }
+
+    private static long timeStream(byte[] body, int source) throws Exception {
+        long time = System.nanoTime();
+        for (int i = 0; i < TIMING_ROUNDS; i++) {
+            new ListParser().parse(new ByteArrayInputStream(body), "UTF-8", source);
+        }
+        return System.nanoTime() - time;
+    }
+
+    /**
+     * Compare the time of the old path, decoding the whole body and running
+     * the regex, and of the streaming parser reading the bytes. The
+     * streaming parser is not faster than the regex one on a finished
+     * body, it only must not be much slower, the gain is that rows are
+     * shown while the page downloads.
+     */
+    public void testTiming() throws Exception {
+        byte[] g = readFixture("list_g.html").getBytes("UTF-8");
+        byte[] lofi = readFixture("list_lofi.html").getBytes("UTF-8");
+
+        for (int i = 0; i < WARM_UP_ROUNDS / TIMING_ROUNDS; i++) {
+            timeRegex(g, EhClient.SOURCE_G);
+            timeStream(g, EhClient.SOURCE_G);
+            timeRegex(lofi, EhClient.SOURCE_LOFI);
+            timeStream(lofi, EhClient.SOURCE_LOFI);
+        }
+
+        long regexG = timeRegex(g, EhClient.SOURCE_G);
+        long streamG = timeStream(g, EhClient.SOURCE_G);
+        long regexLofi = timeRegex(lofi, EhClient.SOURCE_LOFI);
+        long streamLofi = timeStream(lofi, EhClient.SOURCE_LOFI);
+
+        Log.i(TAG, String.format("g page: regex %.3f ms, streaming %.3f ms",
+                regexG / 1000000f / TIMING_ROUNDS, streamG / 1000000f / TIMING_ROUNDS));
+        Log.i(TAG, String.format("lofi page: regex %.3f ms, streaming %.3f ms",
+                regexLofi / 1000000f / TIMING_ROUNDS, streamLofi / 1000000f / TIMING_ROUNDS));
+
+        assertTrue("g page streaming is too slow", streamG < regexG * MAX_SLOWDOWN);
+        assertTrue("lofi page streaming is too slow", streamLofi < regexLofi * MAX_SLOWDOWN);
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.data;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class GalleryInfoListTest extends TestCase {
+
+    private static final String TAG = GalleryInfoListTest.class.getSimpleName();
+
+    private static final int BENCHMARK_ROWS = 10000;
+
+    private static final String[] UPLOADERS = {"Pokom", "zzz_2015", "Hentai Uploader", "tomaspok"};
+
+    private static GalleryInfo newGalleryInfo(int i) {
+        GalleryInfo gi = i % 5 == 4 ? new LofiGalleryInfo() : new GalleryInfo();
+        gi.gid = 836041 + i;
+        // New strings for each row, like parsed from a page
+        gi.token = new String("5f1a2b3c4d".toCharArray());
+        gi.title = "[Artist] Title " + i + " [English]";
+        gi.posted = String.format("2015-%02d-%02d %02d:%02d", 1 + i % 12, 1 + i % 28, i % 24, i % 60);
+        gi.category = i % 10;
+        gi.thumb = "http://ehgt.org/t/ab/cd/" + i + "_l.jpg";
+        gi.uploader = new String(UPLOADERS[i % UPLOADERS.length].toCharArray());
+        gi.rating = i % 11 == 10 ? Float.NaN : (i % 11) / 2.0f;
+        gi.thumbWidth = 200;
+        gi.thumbHeight = 283 - i % 3;
+        gi.simpleLanguage = GalleryInfo.S_LANG_EN;
+        gi.fileCount = i;
+        if (gi instanceof LofiGalleryInfo) {
+            ((LofiGalleryInfo) gi).lofiTags = new String[] {"female:tag" + i};
+        }
+        return gi;
+    }
+
+    private static void assertGalleryInfoEquals(GalleryInfo expected, GalleryInfo actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.gid, actual.gid);
+        assertEquals(expected.token, actual.token);
+        assertEquals(expected.title, actual.title);
+        assertEquals(expected.posted, actual.posted);
+        assertEquals(expected.category, actual.category);
+        assertEquals(expected.thumb, actual.thumb);
+        assertEquals(expected.uploader, actual.uploader);
+        assertEquals(expected.rating, actual.rating, 0.0f);
+        assertEquals(expected.thumbWidth, actual.thumbWidth);
+        assertEquals(expected.thumbHeight, actual.thumbHeight);
+        assertEquals(expected.simpleLanguage, actual.simpleLanguage);
+        assertTrue(Arrays.equals(expected.tags, actual.tags));
+        assertEquals(expected.fileCount, actual.fileCount);
+        if (expected instanceof LofiGalleryInfo) {
+            assertTrue(Arrays.equals(((LofiGalleryInfo) expected).lofiTags,
+                    ((LofiGalleryInfo) actual).lofiTags));
+        }
+    }
+
+    public void testAddGet() {
+        GalleryInfoList list = new GalleryInfoList(2);
+        List<GalleryInfo> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            GalleryInfo gi = newGalleryInfo(i);
+            expected.add(gi);
+            list.add(gi);
+        }
+        assertEquals(expected.size(), list.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertGalleryInfoEquals(expected.get(i), list.get(i));
+        }
+
+        // Insert and remove in the middle
+        GalleryInfo gi = newGalleryInfo(1000);
+        list.add(10, gi);
+        expected.add(10, gi);
+        list.remove(20);
+        expected.remove(20);
+        list.subList(30, 40).clear();
+        expected.subList(30, 40).clear();
+        assertEquals(expected.size(), list.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertGalleryInfoEquals(expected.get(i), list.get(i));
+        }
+    }
+
+    public void testAddAllFromList() {
+        GalleryInfoList source = new GalleryInfoList();
+        for (int i = 0; i < 30; i++) {
+            source.add(newGalleryInfo(i));
+        }
+        GalleryInfoList list = new GalleryInfoList();
+        list.add(newGalleryInfo(100));
+        list.addAll(0, source);
+        assertEquals(31, list.size());
+        for (int i = 0; i < source.size(); i++) {
+            assertGalleryInfoEquals(source.get(i), list.get(i));
+        }
+        assertGalleryInfoEquals(newGalleryInfo(100), list.get(30));
+    }
+
+    public void testGetIsSnapshot() {
+        GalleryInfoList list = new GalleryInfoList();
+        list.add(newGalleryInfo(0));
+
+        GalleryInfo gi = list.get(0);
+        gi.title = "Changed";
+        gi.rating = 1.0f;
+        assertFalse("Changed".equals(list.getTitle(0)));
+
+        // Write it back
+        GalleryInfo old = list.set(0, gi);
+        assertEquals("Changed", list.getTitle(0));
+        assertEquals(1.0f, list.getRating(0), 0.0f);
+        assertGalleryInfoEquals(newGalleryInfo(0), old);
+    }
+
+    public void testIndexOfGid() {
+        GalleryInfoList list = new GalleryInfoList();
+        assertEquals(-1, list.indexOfGid(836041));
+        for (int i = 0; i < 30; i++) {
+            list.add(newGalleryInfo(i));
+        }
+        assertEquals(0, list.indexOfGid(836041));
+        assertEquals(29, list.indexOfGid(836041 + 29));
+        assertEquals(-1, list.indexOfGid(836041 + 30));
+
+        // Removed rows are not found
+        list.remove(0);
+        assertEquals(-1, list.indexOfGid(836041));
+        assertEquals(0, list.indexOfGid(836041 + 1));
+        // Rows after an insert move
+        list.add(0, newGalleryInfo(100));
+        assertEquals(0, list.indexOfGid(836041 + 100));
+        assertEquals(1, list.indexOfGid(836041 + 1));
+
+        // Gid changed by set
+        GalleryInfo gi = list.get(1);
+        gi.gid = 1;
+        list.set(1, gi);
+        assertEquals(-1, list.indexOfGid(836041 + 1));
+        assertEquals(1, list.indexOfGid(1));
+
+        // First row wins
+        list.add(newGalleryInfo(100));
+        assertEquals(0, list.indexOfGid(836041 + 100));
+
+        list.clear();
+        assertEquals(-1, list.indexOfGid(836041 + 1));
+    }
+
+    public void testToken() {
+        String[] tokens = {
+            "5f1a2b3c4d", "0000000000", "ffffffffff", "5F1A2B3C4D", "5f1a2b3c4", "xyz", "", null,
+        };
+        GalleryInfoList list = new GalleryInfoList();
+        for (String token : tokens) {
+            GalleryInfo gi = newGalleryInfo(0);
+            gi.token = token;
+            list.add(gi);
+        }
+        for (int i = 0; i < tokens.length; i++) {
+            assertEquals(tokens[i], list.getToken(i));
+        }
+        // Replace a kept one with a packed one
+        list.set(5, newGalleryInfo(0));
+        assertEquals("5f1a2b3c4d", list.getToken(5));
+    }
+
+    public void testText() {
+        String[] titles = {"[Artist] Title", "[作者] タイトル (オリジナル) [中国翻訳]", "café ü", "", null};
+        GalleryInfoList list = new GalleryInfoList(1);
+        for (String title : titles) {
+            GalleryInfo gi = newGalleryInfo(0);
+            gi.title = title;
+            gi.thumb = title == null ? null : "http://ehgt.org/t/" + title + ".jpg";
+            list.add(gi);
+        }
+        for (int i = 0; i < titles.length; i++) {
+            String thumb = titles[i] == null ? null : "http://ehgt.org/t/" + titles[i] + ".jpg";
+            assertEquals(titles[i], list.getTitle(i));
+            assertEquals(thumb, list.getThumb(i));
+            assertTrue(list.isThumbEquals(i, thumb));
+            assertFalse(list.isThumbEquals(i, "http://ehgt.org/t/other.jpg"));
+        }
+        assertFalse(list.isThumbEquals(0, null));
+        assertTrue(list.isThumbEquals(4, null));
+    }
+
+    public void testTextAfterChanges() {
+        GalleryInfoList list = new GalleryInfoList();
+        List<GalleryInfo> expected = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            GalleryInfo gi = newGalleryInfo(i);
+            list.add(gi);
+            expected.add(gi);
+        }
+        // Many sets and removes leave old text behind, it is dropped in time
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < list.size(); i++) {
+                GalleryInfo gi = list.get(i);
+                gi.title = gi.title + " " + round;
+                list.set(i, gi);
+                expected.set(i, gi);
+            }
+            list.remove(round);
+            expected.remove(round);
+        }
+        assertEquals(expected.size(), list.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertGalleryInfoEquals(expected.get(i), list.get(i));
+        }
+    }
+
+    public void testThumbSize() {
+        GalleryInfoList list = new GalleryInfoList(2);
+        for (int i = 0; i < 5; i++) {
+            list.add(newGalleryInfo(i));
+        }
+        // Unknown size, like a row from a page without thumb size
+        GalleryInfo gi = newGalleryInfo(5);
+        gi.thumbWidth = 0;
+        gi.thumbHeight = 0;
+        list.add(0, gi);
+
+        assertEquals(0, list.getThumbWidth(0));
+        assertEquals(0, list.getThumbHeight(0));
+        for (int i = 0; i < 5; i++) {
+            GalleryInfo expected = newGalleryInfo(i);
+            assertEquals(expected.thumbWidth, list.getThumbWidth(i + 1));
+            assertEquals(expected.thumbHeight, list.getThumbHeight(i + 1));
+        }
+        list.remove(0);
+        assertEquals(newGalleryInfo(0).thumbHeight, list.getThumbHeight(0));
+
+        try {
+            list.getThumbWidth(list.size());
+            fail("Out of range index should throw");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+
+    public void testRating() {
+        GalleryInfoList list = new GalleryInfoList();
+        // Ratings from api are not rounded to half stars
+        float[] ratings = {0f, 0.5f, 1f, 2.5f, 4.37f, 4.5f, 4.83f, 5f, Float.NaN};
+        for (float rating : ratings) {
+            GalleryInfo gi = newGalleryInfo(0);
+            gi.rating = rating;
+            list.add(gi);
+        }
+        for (int i = 0; i < ratings.length; i++) {
+            assertEquals(ratings[i], list.getRating(i), 0.0f);
+        }
+    }
+
+    public void testPostedRoundTrip() {
+        char[] buffer = new char[GalleryInfoList.POSTED_LENGTH];
+        String[] texts = {
+            "1970-01-01 00:00", "2000-02-29 23:59", "2015-07-01 12:34",
+            "2015-12-31 23:59", "2100-03-01 00:00", "9999-12-31 23:59",
+        };
+        for (String text : texts) {
+            long posted = GalleryInfoList.parsePosted(text);
+            assertTrue(text, posted != GalleryInfoList.NO_POSTED);
+            GalleryInfoList.formatPosted(posted, buffer);
+            assertEquals(text, new String(buffer));
+        }
+        // Every minute of a leap year
+        long start = GalleryInfoList.parsePosted("2016-01-01 00:00");
+        for (long posted = start; posted < start + 366L * 24 * 60 * 60 * 1000; posted += 7 * 60 * 1000) {
+            GalleryInfoList.formatPosted(posted, buffer);
+            assertEquals(posted, GalleryInfoList.parsePosted(new String(buffer)));
+        }
+    }
+
+    public void testUnparsedPosted() {
+        String[] texts = {
+            "2015-02-29 12:34", "1969-12-31 23:59", "2015-07-01 24:00", "2015-07-01",
+            "2015-07-01 12:34:56", "2 hours ago, posted by someone with a long name", "",
+        };
+        GalleryInfoList list = new GalleryInfoList();
+        for (String text : texts) {
+            assertEquals(text, GalleryInfoList.NO_POSTED, GalleryInfoList.parsePosted(text));
+            GalleryInfo gi = newGalleryInfo(0);
+            gi.posted = text;
+            list.add(gi);
+        }
+        GalleryInfo gi = newGalleryInfo(0);
+        gi.posted = null;
+        list.add(gi);
+
+        char[] buffer = new char[GalleryInfoList.POSTED_LENGTH];
+        for (int i = 0; i < texts.length; i++) {
+            // Kept as it is, not truncated
+            assertEquals(-1, list.getPosted(i, buffer));
+            assertEquals(texts[i], list.getPosted(i));
+            assertEquals(GalleryInfoList.NO_POSTED, list.getPostedTime(i));
+        }
+        assertEquals(0, list.getPosted(texts.length, buffer));
+        assertNull(list.getPosted(texts.length));
+
+        // Replaced by a parsable one
+        gi = newGalleryInfo(0);
+        list.set(0, gi);
+        assertEquals(GalleryInfoList.POSTED_LENGTH, list.getPosted(0, buffer));
+        assertEquals(gi.posted, new String(buffer));
+        assertEquals(gi.posted, list.getPosted(0));
+    }
+
+    private static long getUsedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Compare the heap taken by the same rows as objects and as columns,
+     * columns must take less than half. Strings are created for each row
+     * like the parser does.
+     */
+    public void testMemory() {
+        long base = getUsedMemory();
+        List<GalleryInfo> objects = new ArrayList<>(BENCHMARK_ROWS);
+        for (int i = 0; i < BENCHMARK_ROWS; i++) {
+            objects.add(newGalleryInfo(i));
+        }
+        long objectBytes = getUsedMemory() - base;
+        assertEquals(BENCHMARK_ROWS, objects.size());
+        objects = null;
+
+        base = getUsedMemory();
+        GalleryInfoList list = new GalleryInfoList(BENCHMARK_ROWS);
+        for (int i = 0; i < BENCHMARK_ROWS; i++) {
+            list.add(newGalleryInfo(i));
+        }
+        long listBytes = getUsedMemory() - base;
+        assertEquals(BENCHMARK_ROWS, list.size());
+
+        Log.i(TAG, String.format("%d rows: objects %d KB (%d B/row), columns %d KB (%d B/row)",
+                BENCHMARK_ROWS, objectBytes / 1024, objectBytes / BENCHMARK_ROWS,
+                listBytes / 1024, listBytes / BENCHMARK_ROWS));
+        assertTrue("Columns " + listBytes + " bytes, objects " + objectBytes + " bytes",
+                listBytes * 2 < objectBytes);
+    }
+}
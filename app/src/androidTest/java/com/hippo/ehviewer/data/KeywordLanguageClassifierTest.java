@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.data;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Checks {@link KeywordLanguageClassifier} against the regex loop
+ * in {@link GalleryInfo#generateSLang()} it replaced.
+ */
+public class KeywordLanguageClassifierTest extends TestCase {
+
+    private static final String[] TITLES = {
+        "(C88) [Circle (Artist)] Summer Book (Original) [English]",
+        "(C88) [Circle (Artist)] Summer Book (Original) [ENGLISH]",
+        "[Artist] Title (eng)",
+        "[Artist] Title [Eng] [Decensored]",
+        "[Artist] Title english",
+        "[作者] タイトル (オリジナル) [中国翻訳]",
+        "[作者] タイトル [中国翻訳] [English]",
+        "[Group] Title [Chinese] [Decensored]",
+        "（同人誌） タイトル （chinese）",
+        "（同人誌） タイトル （chinese]",
+        "[漢化組] Title",
+        "[某某汉化组] Title",
+        "Title 中國語",
+        "Title 中国语",
+        "Title 中文",
+        "[CN] Title",
+        "[cn] Title",
+        "Title [Spanish]",
+        "Title [Español]",
+        "Title [ESPAÑOL]",
+        "Title (Korean)",
+        "Title [korea]",
+        "Title [Russian]",
+        "Title [rus]",
+        "Title [Fr]",
+        "Title (French)",
+        "Title (Portuguese-BR)",
+        "Title [portuguese]",
+        "Title (Thai ภาษาไทย)",
+        "Title [thai]",
+        "Title (Thai ภาษา)",
+        "Title [German]",
+        "Title [Italian]",
+        "Title [Italiano]",
+        "Title [Vietnamese Tiếng Việt]",
+        "Title [vietnamese]",
+        "Title [Polish]",
+        "Title [Hungarian]",
+        "Title [hun]",
+        "Title [Dutch]",
+        "Title [Dutch] [English]",
+        "Title [Korean] [Chinese]",
+        "Title [English][Chinese]",
+        "[French] Title [English]",
+        "[Artist] 日本語のタイトル",
+        "Title (C88)",
+        "Title [Engrish]",
+        "Title [engl]",
+        "Title [frenchy]",
+        "Title (korean",
+        "Title korean)",
+        "",
+    };
+
+    private static final String[] PIECES = {
+        "[", "]", "(", ")", "（", "）", " ", "x", "Title",
+        "eng", "lish", "ENG", "chinese", "汉", "漢", "化", "中", "国", "國", "语", "語", "文",
+        "cn", "CN", "spanish", "español", "korea", "n", "rus", "sian", "fr", "ench",
+        "portuguese", "thai", " ภาษาไทย", "german", "italian", "o", "vietnamese",
+        " tiếng việt", "polish", "hun", "garian", "dutch",
+    };
+
+    private static String legacyClassify(String title) {
+        for (int i = 0; i < GalleryInfo.S_LANGS.length; i++) {
+            if (Pattern.compile(GalleryInfo.S_LANG_PATTERNS[i], Pattern.CASE_INSENSITIVE)
+                    .matcher(title).find()) {
+                return GalleryInfo.S_LANGS[i];
+            }
+        }
+        return null;
+    }
+
+    public void testSamples() {
+        KeywordLanguageClassifier classifier = KeywordLanguageClassifier.getInstance();
+        assertEquals(GalleryInfo.S_LANG_EN, classifier.classify(TITLES[0]));
+        assertEquals(GalleryInfo.S_LANG_EN, classifier.classify(TITLES[1]));
+        assertEquals(GalleryInfo.S_LANG_ZH, classifier.classify("（同人誌） タイトル （chinese）"));
+        assertEquals(GalleryInfo.S_LANG_ZH, classifier.classify("[某某汉化组] Title"));
+        assertEquals(GalleryInfo.S_LANG_TH, classifier.classify("Title (Thai ภาษาไทย)"));
+        assertEquals(GalleryInfo.S_LANG_VI, classifier.classify("Title [Vietnamese Tiếng Việt]"));
+        assertEquals(GalleryInfo.S_LANG_PT, classifier.classify("Title (Portuguese-BR)"));
+    }
+
+    public void testFirstLanguageWins() {
+        KeywordLanguageClassifier classifier = KeywordLanguageClassifier.getInstance();
+        // The order of GalleryInfo.S_LANGS counts, not the position in title
+        assertEquals(GalleryInfo.S_LANG_EN, classifier.classify("[French] Title [English]"));
+        assertEquals(GalleryInfo.S_LANG_ZH, classifier.classify("Title [Korean] [Chinese]"));
+        assertEquals(GalleryInfo.S_LANG_EN, classifier.classify("Title [Dutch] [English]"));
+    }
+
+    public void testCaseFolding() {
+        KeywordLanguageClassifier classifier = KeywordLanguageClassifier.getInstance();
+        assertEquals(GalleryInfo.S_LANG_EN, classifier.classify("Title [eNgLiSh]"));
+        assertEquals(GalleryInfo.S_LANG_ZH, classifier.classify("Title [cn]"));
+        assertEquals(GalleryInfo.S_LANG_ES, classifier.classify("Title [ESPAñOL]"));
+        // Only ASCII letters are folded
+        assertNull(classifier.classify("Title [ESPAÑOL]"));
+    }
+
+    public void testNoMatch() {
+        KeywordLanguageClassifier classifier = KeywordLanguageClassifier.getInstance();
+        assertNull(classifier.classify(""));
+        assertNull(classifier.classify("[Artist] 日本語のタイトル"));
+        assertNull(classifier.classify("Title [Engrish]"));
+        assertNull(classifier.classify("Title english"));
+        assertNull(classifier.classify("Title (Thai ภาษา)"));
+
+        GalleryInfo gi = new GalleryInfo();
+        gi.title = "[Artist] 日本語のタイトル";
+        gi.simpleLanguage = GalleryInfo.S_LANG_EN;
+        gi.generateSLang();
+        assertNull(gi.simpleLanguage);
+    }
+
+    public void testParity() {
+        KeywordLanguageClassifier classifier = KeywordLanguageClassifier.getInstance();
+        for (String title : TITLES) {
+            assertEquals(title, legacyClassify(title), classifier.classify(title));
+        }
+    }
+
+    public void testRandomParity() {
+        KeywordLanguageClassifier classifier = KeywordLanguageClassifier.getInstance();
+        Random random = new Random(20150701L);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.setLength(0);
+            for (int j = 0, n = 1 + random.nextInt(8); j < n; j++) {
+                sb.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            String title = sb.toString();
+            assertEquals(title, legacyClassify(title), classifier.classify(title));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.widget;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class QueryTrieTest extends TestCase {
+
+    public void testFindNewestFirst() {
+        SearchDatabase.QueryTrie trie = new SearchDatabase.QueryTrie();
+        trie.put("female:big", 1);
+        trie.put("Female:Big", 3);
+        trie.put("female:small", 2);
+        trie.put("male:big", 4);
+        // Case insensitive, one query for the same lower case
+        assertEquals(3, trie.size());
+        assertEquals(Arrays.asList("Female:Big", "female:small"), trie.find("FEM", 5));
+        assertEquals(Arrays.asList("Female:Big"), trie.find("fem", 1));
+        assertTrue(trie.find("x", 5).isEmpty());
+    }
+
+    public void testPutIfNewer() {
+        SearchDatabase.QueryTrie trie = new SearchDatabase.QueryTrie();
+        trie.put("abc", 10);
+        trie.putIfNewer("ABC", 5);
+        assertEquals(Arrays.asList("abc"), trie.find("a", 5));
+        trie.putIfNewer("ABC", 20);
+        assertEquals(Arrays.asList("ABC"), trie.find("a", 5));
+    }
+
+    public void testRemovePrunesNodes() {
+        SearchDatabase.QueryTrie trie = new SearchDatabase.QueryTrie();
+        trie.put("ab", 1);
+        trie.put("abcd", 2);
+        // Root, a, b, c, d
+        assertEquals(5, trie.getNodeCount());
+
+        // The other case is not removed
+        trie.remove("ABCD");
+        assertEquals(2, trie.size());
+
+        trie.remove("abcd");
+        assertEquals(1, trie.size());
+        assertEquals(3, trie.getNodeCount());
+        assertEquals(Arrays.asList("ab"), trie.find("a", 5));
+
+        trie.remove("ab");
+        assertEquals(0, trie.size());
+        assertEquals(1, trie.getNodeCount());
+    }
+
+    public void testTruncatePrunesOldest() {
+        SearchDatabase.QueryTrie trie = new SearchDatabase.QueryTrie();
+        trie.put("xyz", 1);
+        trie.put("ab", 2);
+        trie.put("ac", 3);
+        trie.truncate(2);
+        assertEquals(2, trie.size());
+        assertTrue(trie.find("x", 5).isEmpty());
+        // Root, a, b, c
+        assertEquals(4, trie.getNodeCount());
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import com.hippo.util.Utils;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.net.URL;
+
+public class CookieJarTest extends TestCase {
+
+    /**
+     * The longest time to wait for the background save, in ms
+     */
+    private static final long SAVE_TIMEOUT = 5000;
+
+    private File mFile;
+    private CookieJar mJar;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(System.getProperty("java.io.tmpdir"), "CookieJarTest");
+        Utils.deleteFile(mFile);
+        mJar = new CookieJar(null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Utils.deleteFile(mFile);
+        super.tearDown();
+    }
+
+    private static void store(CookieJar jar, String url, String header) throws Exception {
+        jar.storeCookie(new URL(url), header);
+    }
+
+    private static String get(CookieJar jar, String url) throws Exception {
+        return jar.getCookieHeader(new URL(url));
+    }
+
+    /**
+     * Load the file again until it gives the header, the save is in background
+     */
+    private String awaitSaved(String url, String expected) throws Exception {
+        long start = System.currentTimeMillis();
+        String header;
+        do {
+            header = get(new CookieJar(mFile), url);
+            if (expected == null ? header == null : expected.equals(header)) {
+                break;
+            }
+            Thread.sleep(20);
+        } while (System.currentTimeMillis() - start < SAVE_TIMEOUT);
+        return header;
+    }
+
+    public void testHostOnly() throws Exception {
+        store(mJar, "http://g.example.com/", "a=1");
+        assertEquals("a=1", get(mJar, "http://g.example.com/"));
+        assertEquals("a=1", get(mJar, "http://G.Example.com/s/1"));
+        assertNull(get(mJar, "http://example.com/"));
+        assertNull(get(mJar, "http://sub.g.example.com/"));
+        assertNull(get(mJar, "http://h.example.com/"));
+    }
+
+    public void testDomain() throws Exception {
+        store(mJar, "http://g.example.com/", "a=1; Domain=.example.com");
+        assertEquals("a=1", get(mJar, "http://example.com/"));
+        assertEquals("a=1", get(mJar, "http://g.example.com/"));
+        assertEquals("a=1", get(mJar, "http://x.y.example.com/"));
+        assertNull(get(mJar, "http://notexample.com/"));
+        assertNull(get(mJar, "http://example.com.cn/"));
+
+        // Without the leading dot, and the host itself as domain.
+        // For the same path, the cookies of the nearer domain go first.
+        store(mJar, "http://g.example.com/", "b=2; Domain=g.example.com");
+        assertEquals("b=2; a=1", get(mJar, "http://g.example.com/"));
+        assertEquals("b=2; a=1", get(mJar, "http://x.g.example.com/"));
+        assertEquals("a=1", get(mJar, "http://example.com/"));
+    }
+
+    public void testForeignDomain() throws Exception {
+        store(mJar, "http://g.example.com/", "a=1; Domain=other.com");
+        store(mJar, "http://g.example.com/", "b=2; Domain=x.g.example.com");
+        store(mJar, "http://g.example.com/", "c=3; Domain=com");
+        assertNull(get(mJar, "http://other.com/"));
+        assertNull(get(mJar, "http://x.g.example.com/"));
+        assertNull(get(mJar, "http://g.example.com/"));
+        assertNull(get(mJar, "http://a.com/"));
+    }
+
+    public void testPath() throws Exception {
+        store(mJar, "http://example.com/", "a=1; Path=/g");
+        assertEquals("a=1", get(mJar, "http://example.com/g"));
+        assertEquals("a=1", get(mJar, "http://example.com/g/1/"));
+        assertNull(get(mJar, "http://example.com/"));
+        assertNull(get(mJar, "http://example.com/gallery"));
+
+        // Longer path first
+        store(mJar, "http://example.com/", "b=2; Path=/g/1");
+        store(mJar, "http://example.com/", "c=3; Path=/");
+        assertEquals("b=2; a=1; c=3", get(mJar, "http://example.com/g/1/2"));
+        assertEquals("a=1; c=3", get(mJar, "http://example.com/g/2"));
+        assertEquals("c=3", get(mJar, "http://example.com"));
+    }
+
+    public void testDefaultPath() throws Exception {
+        // The directory of the url
+        store(mJar, "http://example.com/g/1/p", "a=1");
+        assertEquals("a=1", get(mJar, "http://example.com/g/1"));
+        assertEquals("a=1", get(mJar, "http://example.com/g/1/q"));
+        assertNull(get(mJar, "http://example.com/g/2"));
+
+        store(mJar, "http://example.com/index.php", "b=2");
+        assertEquals("b=2", get(mJar, "http://example.com/"));
+    }
+
+    public void testSecure() throws Exception {
+        store(mJar, "https://example.com/", "a=1; Secure");
+        store(mJar, "https://example.com/", "b=2");
+        assertEquals("a=1; b=2", get(mJar, "https://example.com/"));
+        assertEquals("b=2", get(mJar, "http://example.com/"));
+    }
+
+    public void testReplaceAndRemove() throws Exception {
+        store(mJar, "http://example.com/", "a=1");
+        store(mJar, "http://example.com/", "b=2");
+        store(mJar, "http://example.com/", "a=3");
+        assertEquals("b=2; a=3", get(mJar, "http://example.com/"));
+
+        // Another path is another cookie
+        store(mJar, "http://example.com/", "a=4; Path=/g");
+        assertEquals("a=4; b=2; a=3", get(mJar, "http://example.com/g"));
+
+        store(mJar, "http://example.com/", "a=; Max-Age=0");
+        assertEquals("a=4; b=2", get(mJar, "http://example.com/g"));
+        assertEquals("b=2", get(mJar, "http://example.com/"));
+    }
+
+    public void testExpiry() throws Exception {
+        store(mJar, "http://example.com/", "a=1; Max-Age=1");
+        store(mJar, "http://example.com/", "b=2");
+        // Collected and kept until a cookie expires
+        assertEquals("a=1; b=2", get(mJar, "http://example.com/"));
+        Thread.sleep(1100);
+        assertEquals("b=2", get(mJar, "http://example.com/"));
+    }
+
+    public void testClear() throws Exception {
+        store(mJar, "http://example.com/", "a=1");
+        assertEquals("a=1", get(mJar, "http://example.com/"));
+        mJar.clear();
+        assertNull(get(mJar, "http://example.com/"));
+    }
+
+    public void testBadHeader() throws Exception {
+        store(mJar, "http://example.com/", "");
+        store(mJar, "http://example.com/", "=1");
+        assertNull(get(mJar, "http://example.com/"));
+    }
+
+    public void testPersistence() throws Exception {
+        CookieJar jar = new CookieJar(mFile);
+        store(jar, "https://g.example.com/", "session=1");
+        store(jar, "https://g.example.com/", "host=2; Max-Age=3600");
+        store(jar, "https://g.example.com/", "domain=3; Max-Age=3600; Domain=example.com");
+        store(jar, "https://g.example.com/", "path=4; Max-Age=3600; Path=/g; Secure");
+        store(jar, "https://g.example.com/", "value=a=b\tc; Max-Age=3600");
+
+        // Session cookies are not saved
+        String expected = "host=2; value=a=b\tc; domain=3";
+        assertEquals(expected, awaitSaved("https://g.example.com/", expected));
+
+        CookieJar loaded = new CookieJar(mFile);
+        assertEquals("path=4; host=2; value=a=b\tc; domain=3",
+                get(loaded, "https://g.example.com/g/1"));
+        assertEquals("host=2; value=a=b\tc; domain=3", get(loaded, "http://g.example.com/g/1"));
+        // Host only and secure are kept
+        assertEquals("domain=3", get(loaded, "https://x.example.com/"));
+        assertEquals("domain=3", get(loaded, "https://x.g.example.com/g"));
+    }
+
+    public void testPersistenceRemove() throws Exception {
+        CookieJar jar = new CookieJar(mFile);
+        store(jar, "http://example.com/", "a=1; Max-Age=3600");
+        store(jar, "http://example.com/", "b=2; Max-Age=3600");
+        assertEquals("a=1; b=2", awaitSaved("http://example.com/", "a=1; b=2"));
+
+        store(jar, "http://example.com/", "a=; Max-Age=0");
+        assertEquals("b=2", awaitSaved("http://example.com/", "b=2"));
+
+        jar.clear();
+        assertNull(awaitSaved("http://example.com/", null));
+    }
+
+    public void testExpiredNotLoaded() throws Exception {
+        CookieJar jar = new CookieJar(mFile);
+        store(jar, "http://example.com/", "a=1; Max-Age=1");
+        store(jar, "http://example.com/", "b=2; Max-Age=3600");
+        assertEquals("a=1; b=2", awaitSaved("http://example.com/", "a=1; b=2"));
+
+        Thread.sleep(1100);
+        assertEquals("b=2", get(new CookieJar(mFile), "http://example.com/"));
+    }
+}
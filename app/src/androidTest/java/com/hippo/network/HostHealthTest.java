@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import junit.framework.TestCase;
+
+public class HostHealthTest extends TestCase {
+
+    private static final String HOST = "health.test";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        HostHealth.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        HostHealth.clear();
+        super.tearDown();
+    }
+
+    public void testSameHost() {
+        assertSame(HostHealth.get(HOST), HostHealth.get(HOST.toUpperCase()));
+    }
+
+    public void testRetryBudget() {
+        HostHealth health = HostHealth.get(HOST);
+        int retries = 0;
+        while (health.acquireRetry()) {
+            retries++;
+        }
+        assertEquals((int) (HostHealth.MAX_TOKENS / 2), retries);
+        assertEquals(retries, health.getRetryCount());
+
+        // Successes give tokens back slowly
+        health.onSuccess();
+        assertTrue(health.acquireRetry());
+        assertFalse(health.acquireRetry());
+        for (int i = 0; i < 5; i++) {
+            health.onSuccess();
+            assertFalse(health.acquireRetry());
+        }
+    }
+
+    public void testCircuitOpens() throws Exception {
+        HostHealth health = HostHealth.get(HOST);
+        for (int i = 0; i < HostHealth.FAILURE_THRESHOLD - 1; i++) {
+            health.checkCircuit();
+            health.onFailure();
+        }
+        // Success resets failures in a row
+        health.checkCircuit();
+        health.onSuccess();
+        for (int i = 0; i < HostHealth.FAILURE_THRESHOLD - 1; i++) {
+            health.checkCircuit();
+            health.onFailure();
+        }
+        assertEquals(HostHealth.STATE_CLOSED, health.getState());
+
+        health.checkCircuit();
+        health.onFailure();
+        assertEquals(HostHealth.STATE_OPEN, health.getState());
+        try {
+            health.checkCircuit();
+            fail("Circuit should be open");
+        } catch (CircuitOpenException e) {
+            // Empty
+        }
+        assertEquals(1, health.getRejectedCount());
+        assertEquals(2 * HostHealth.FAILURE_THRESHOLD - 1, health.getFailureCount());
+    }
+
+    public void testNeutralDoesNotCount() throws Exception {
+        HostHealth health = HostHealth.get(HOST);
+        for (int i = 0; i < HostHealth.FAILURE_THRESHOLD * 2; i++) {
+            health.checkCircuit();
+            health.onNeutral();
+        }
+        assertEquals(HostHealth.STATE_CLOSED, health.getState());
+        assertEquals(0, health.getFailureCount());
+    }
+}
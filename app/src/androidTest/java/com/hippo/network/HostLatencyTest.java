@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import junit.framework.TestCase;
+
+public class HostLatencyTest extends TestCase {
+
+    private static final String HOST = "latency.test";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        HostLatency.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        HostLatency.clear();
+        super.tearDown();
+    }
+
+    public void testDefaults() {
+        HostLatency latency = HostLatency.get(HOST);
+        assertEquals(-1, latency.getConnectTime());
+        assertEquals(5000, latency.getConnectTimeout());
+        assertEquals(5000, latency.getReadTimeout(HostLatency.TYPE_API));
+        assertEquals(15000, latency.getReadTimeout(HostLatency.TYPE_DOWNLOAD));
+    }
+
+    public void testKeptAliveConnectSkipped() {
+        HostLatency latency = HostLatency.get(HOST);
+        for (int i = 0; i < 20; i++) {
+            latency.onConnect(0);
+            latency.onConnect(1);
+        }
+        assertEquals(-1, latency.getConnectTime());
+
+        latency.onConnect(400);
+        for (int i = 0; i < 20; i++) {
+            latency.onConnect(0);
+        }
+        assertEquals(400, latency.getConnectTime());
+        // 400 + 4 * 200
+        assertEquals(2000, latency.getConnectTimeout());
+    }
+
+    public void testReusedConnectCount() {
+        HostLatency latency = HostLatency.get(HOST);
+        assertEquals(0, latency.getConnectCount());
+        latency.onConnect(0);
+        latency.onConnect(4);
+        latency.onConnect(5);
+        latency.onConnect(300);
+        assertEquals(4, latency.getConnectCount());
+        assertEquals(2, latency.getReusedConnectCount());
+    }
+
+    public void testConnectTimeout() {
+        HostLatency latency = HostLatency.get(HOST);
+        latency.onConnect(1000);
+        // 1000 + 4 * 500
+        assertEquals(3000, latency.getConnectTimeout());
+        latency.onConnect(30000);
+        assertEquals(15000, latency.getConnectTimeout());
+    }
+
+    public void testReadTimeoutClamped() {
+        HostLatency latency = HostLatency.get(HOST);
+        latency.onFirstByte(100);
+        assertEquals(3000, latency.getReadTimeout(HostLatency.TYPE_API));
+        assertEquals(4000, latency.getReadTimeout(HostLatency.TYPE_PAGE));
+        assertEquals(10000, latency.getReadTimeout(HostLatency.TYPE_DOWNLOAD));
+    }
+
+    public void testDownloadReadTimeoutFollowsThroughput() {
+        HostLatency latency = HostLatency.get(HOST);
+        latency.onFirstByte(100);
+
+        // Fast link, 64 KB in 0.5 s
+        latency.onTransfer(1024 * 1024, 8000);
+        assertEquals(128 * 1024, latency.getThroughput());
+        assertEquals(10000, latency.getReadTimeout(HostLatency.TYPE_DOWNLOAD));
+
+        // Slow link, 64 KB in 32 s
+        HostLatency.clear();
+        latency = HostLatency.get(HOST);
+        latency.onFirstByte(100);
+        latency.onTransfer(64 * 1024, 32000);
+        assertEquals(2048, latency.getThroughput());
+        assertEquals(32000, latency.getReadTimeout(HostLatency.TYPE_DOWNLOAD));
+        // Other types do not wait for bursts
+        assertEquals(4000, latency.getReadTimeout(HostLatency.TYPE_PAGE));
+
+        // Very slow link, 64 KB in 64 s, clamped
+        HostLatency.clear();
+        latency = HostLatency.get(HOST);
+        latency.onFirstByte(100);
+        latency.onTransfer(16 * 1024, 16000);
+        assertEquals(60000, latency.getReadTimeout(HostLatency.TYPE_DOWNLOAD));
+    }
+
+    public void testSmallBodyNoThroughput() {
+        HostLatency latency = HostLatency.get(HOST);
+        latency.onTransfer(1024, 10000);
+        assertEquals(-1, latency.getThroughput());
+        assertEquals(15000, latency.getReadTimeout(HostLatency.TYPE_DOWNLOAD));
+    }
+
+    public void testTimeoutFromPercentile() {
+        HostLatency latency = HostLatency.get(HOST);
+        for (int i = 0; i < 19; i++) {
+            latency.onConnect(1000);
+        }
+        // Twice the 95th percentile
+        assertEquals(2000, latency.getConnectTimeout());
+        // One slow connect in 20 is below the 95th percentile
+        latency.onConnect(6000);
+        assertEquals(2000, latency.getConnectTimeout());
+        latency.onConnect(6000);
+        assertEquals(12000, latency.getConnectTimeout());
+        // Kept-alive connects are not samples
+        latency.onConnect(0);
+        assertEquals(6000, latency.getConnectTimePercentile(100));
+        assertEquals(1000, latency.getConnectTimePercentile(50));
+
+        for (int i = 0; i < 10; i++) {
+            latency.onFirstByte(3000);
+        }
+        assertEquals(6000, latency.getReadTimeout(HostLatency.TYPE_PAGE));
+        assertEquals(6000, latency.getReadTimeout(HostLatency.TYPE_API));
+    }
+
+    public void testFirstByteTimePercentile() {
+        HostLatency latency = HostLatency.get(HOST);
+        assertEquals(-1, latency.getFirstByteTimePercentile(50));
+        for (int i = 1; i <= 100; i++) {
+            latency.onFirstByte(i);
+        }
+        // The last 64 samples, 37 to 100
+        assertEquals(37, latency.getFirstByteTimePercentile(0));
+        assertEquals(68, latency.getFirstByteTimePercentile(50));
+        assertEquals(100, latency.getFirstByteTimePercentile(100));
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import com.hippo.util.Utils;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.InputStream;
+
+public class HttpCacheTest extends TestCase {
+
+    private static final String URL = "http://exhentai.org/";
+    private static final String COOKIE_A = "ipb_member_id=1; ipb_pass_hash=a";
+    private static final String COOKIE_B = "ipb_member_id=2; ipb_pass_hash=b";
+
+    private File mDir;
+    private HttpCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = new File(System.getProperty("java.io.tmpdir"), "HttpCacheTest");
+        Utils.deleteFile(mDir);
+        mCache = new HttpCache(mDir, 1024 * 1024);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Utils.deleteFile(mDir);
+        super.tearDown();
+    }
+
+    private void store(String cookie, String body) {
+        HttpCache.Editor editor = mCache.edit(URL, cookie, "\"" + body + "\"", null, "UTF-8");
+        byte[] bytes = body.getBytes();
+        editor.write(bytes, 0, bytes.length);
+        assertTrue(editor.commit());
+    }
+
+    private static String readBody(HttpCache.Entry entry) throws Exception {
+        InputStream is = entry.openBody();
+        try {
+            byte[] buffer = new byte[64];
+            int length = is.read(buffer);
+            return new String(buffer, 0, Math.max(0, length));
+        } finally {
+            Utils.closeQuietly(is);
+        }
+    }
+
+    public void testKeyedByCookie() throws Exception {
+        store(COOKIE_A, "a");
+        assertNull(mCache.get(URL, COOKIE_B));
+        assertNull(mCache.get(URL, null));
+
+        store(COOKIE_B, "b");
+        store(null, "guest");
+        assertEquals("a", readBody(mCache.get(URL, COOKIE_A)));
+        assertEquals("b", readBody(mCache.get(URL, COOKIE_B)));
+        assertEquals("guest", readBody(mCache.get(URL, null)));
+
+        mCache.remove(URL, COOKIE_A);
+        assertNull(mCache.get(URL, COOKIE_A));
+        assertNotNull(mCache.get(URL, COOKIE_B));
+    }
+
+    public void testNotModifiedKeepsCookie() throws Exception {
+        store(COOKIE_A, "a");
+        HttpCache.Entry entry = mCache.get(URL, COOKIE_A);
+        mCache.onNotModified(entry, "\"a2\"", null);
+        assertEquals("\"a2\"", mCache.get(URL, COOKIE_A).getETag());
+        assertNull(mCache.get(URL, COOKIE_B));
+    }
+
+    public void testClearedWithCookies() throws Exception {
+        CookieJar cookieJar = new CookieJar(null);
+        cookieJar.setCache(mCache);
+        store(COOKIE_A, "a");
+        store(null, "guest");
+        cookieJar.clear();
+        assertNull(mCache.get(URL, COOKIE_A));
+        assertNull(mCache.get(URL, null));
+        assertEquals(0, mCache.getSize());
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import com.hippo.util.Utils;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Drives {@link HttpHelper#download(String, File, String, HttpHelper.DownloadControlor,
+ * HttpHelper.OnDownloadListener)} against {@link StubServer} to check resume.
+ */
+public class HttpHelperDownloadTest extends TestCase {
+
+    private static final RetryPolicy FAST_RETRY = new RetryPolicy(3, 10, 20, 2000);
+
+    private static final String BODY = "0123456789";
+    private static final String ETAG = "\"v1\"";
+
+    private StubServer mServer;
+    private RetryPolicy mOldRetryPolicy;
+    private File mDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        HostHealth.clear();
+        mServer = new StubServer();
+        mOldRetryPolicy = HttpHelper.getDefaultRetryPolicy();
+        HttpHelper.setDefaultRetryPolicy(FAST_RETRY);
+        mDir = new File(System.getProperty("java.io.tmpdir"), "HttpHelperDownloadTest");
+        Utils.deleteFile(mDir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Utils.deleteFile(mDir);
+        HttpHelper.setDefaultRetryPolicy(mOldRetryPolicy);
+        mServer.shutdown();
+        HostHealth.clear();
+        super.tearDown();
+    }
+
+    private static StubServer.Response newFullResponse(String body, String eTag) {
+        return new StubServer.Response(200, body)
+                .addHeader("ETag", eTag)
+                .addHeader("Accept-Ranges", "bytes");
+    }
+
+    private static StubServer.Response newPartialResponse(int start) {
+        return new StubServer.Response(206, BODY.substring(start))
+                .addHeader("ETag", ETAG)
+                .addHeader("Content-Range", "bytes " + start + "-" +
+                        (BODY.length() - 1) + "/" + BODY.length());
+    }
+
+    private String download() throws Exception {
+        new HttpHelper().download(mServer.getUrl("/file"), mDir, "file", null, null);
+        File file = new File(mDir, "file");
+        assertFalse(new File(mDir, "file.download").exists());
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int n = is.read(bytes, offset, bytes.length - offset);
+                if (n == -1) {
+                    throw new IOException("Unexpected end");
+                }
+                offset += n;
+            }
+            return new String(bytes, "UTF-8");
+        } finally {
+            is.close();
+        }
+    }
+
+    public void testDownload() throws Exception {
+        mServer.enqueue(newFullResponse(BODY, ETAG));
+        assertEquals(BODY, download());
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    public void testResume() throws Exception {
+        mServer.enqueue(newFullResponse(BODY, ETAG).truncate(4));
+        mServer.enqueue(newPartialResponse(4));
+
+        assertEquals(BODY, download());
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals("bytes=4-", mServer.getRequestHeader(1, "Range"));
+        assertEquals(ETAG, mServer.getRequestHeader(1, "If-Range"));
+    }
+
+    public void testResumeFromStart() throws Exception {
+        mServer.enqueue(newFullResponse(BODY, ETAG).truncate(0));
+        mServer.enqueue(newPartialResponse(0));
+
+        assertEquals(BODY, download());
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals("bytes=0-", mServer.getRequestHeader(1, "Range"));
+        assertEquals(ETAG, mServer.getRequestHeader(1, "If-Range"));
+    }
+
+    public void testChangedFileFromStart() throws Exception {
+        // Nothing is received, then the file is changed, 200 is not a resume
+        String newBody = "abcdefghijkl";
+        mServer.enqueue(newFullResponse(BODY, ETAG).truncate(0));
+        mServer.enqueue(newFullResponse(newBody, "\"v2\""));
+
+        assertEquals(newBody, download());
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(ETAG, mServer.getRequestHeader(1, "If-Range"));
+    }
+
+    public void testChangedFile() throws Exception {
+        String newBody = "abcdefghijkl";
+        mServer.enqueue(newFullResponse(BODY, ETAG).truncate(4));
+        mServer.enqueue(newFullResponse(newBody, "\"v2\""));
+
+        assertEquals(newBody, download());
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    public void testWrongRangeRestarts() throws Exception {
+        mServer.enqueue(newFullResponse(BODY, ETAG).truncate(4));
+        // Not where it is asked
+        mServer.enqueue(newPartialResponse(3));
+        mServer.enqueue(newFullResponse(BODY, ETAG));
+
+        assertEquals(BODY, download());
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals("bytes=4-", mServer.getRequestHeader(1, "Range"));
+        // Start again without the temp file
+        assertEquals("bytes=0-", mServer.getRequestHeader(2, "Range"));
+        assertNull(mServer.getRequestHeader(2, "If-Range"));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+
+/**
+ * Post helpers against {@link StubServer}, the body is written after the
+ * connect is timed.
+ */
+public class HttpHelperPostTest extends TestCase {
+
+    private StubServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        HostLatency.clear();
+        HostHealth.clear();
+        mServer = new StubServer();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        HostLatency.clear();
+        HostHealth.clear();
+        super.tearDown();
+    }
+
+    private static HostLatency getLatency() {
+        return HostLatency.get("127.0.0.1");
+    }
+
+    public void testPostForm() throws Exception {
+        mServer.enqueue(new StubServer.Response(200, "OK"));
+        String result = new HttpHelper().postForm(mServer.getUrl("/"),
+                new String[][] {{"a", "1"}, {"b", "x y"}});
+        assertEquals("OK", result);
+        assertEquals("a=1&b=x+y", mServer.getRequestBody(0));
+        assertEquals("application/x-www-form-urlencoded",
+                mServer.getRequestHeader(0, "Content-Type"));
+        assertEquals(1, getLatency().getConnectCount());
+        assertTrue(getLatency().getFirstByteTime() >= 0);
+    }
+
+    public void testPostJson() throws Exception {
+        mServer.enqueue(new StubServer.Response(200, "{}"));
+        JSONObject json = new JSONObject();
+        json.put("method", "gdata");
+        String result = new HttpHelper().postJson(mServer.getUrl("/api.php"), json);
+        assertEquals("{}", result);
+        assertEquals(json.toString(), mServer.getRequestBody(0));
+        assertEquals(1, getLatency().getConnectCount());
+    }
+}
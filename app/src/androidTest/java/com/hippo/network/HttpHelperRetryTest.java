@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import android.os.SystemClock;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives {@link HttpHelper#requst(HttpHelper.RequestHelper)} against {@link StubServer}
+ * to check retry, Retry-After, retry budget and circuit breaker.
+ */
+public class HttpHelperRetryTest extends TestCase {
+
+    private static final RetryPolicy FAST_RETRY = new RetryPolicy(3, 10, 20, 2000);
+
+    private StubServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        HostHealth.clear();
+        mServer = new StubServer();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        HostHealth.clear();
+        super.tearDown();
+    }
+
+    private Object request(RetryPolicy policy) throws Exception {
+        HttpHelper.GetHelper rh = new HttpHelper.GetHelper(mServer.getUrl("/"));
+        rh.setRetryPolicy(policy);
+        return new HttpHelper().requst(rh);
+    }
+
+    private void assertResponseCodeException(RetryPolicy policy, int code) throws Exception {
+        try {
+            request(policy);
+            fail("Request should fail with " + code);
+        } catch (ResponseCodeException e) {
+            assertEquals(code, e.getResponseCode());
+        }
+    }
+
+    private static HostHealth getHealth() {
+        return HostHealth.get("127.0.0.1");
+    }
+
+    public void testHostFailure() {
+        // ResponseCodeException needs SparseArray, so it is not in RetryPolicyTest
+        RetryPolicy policy = RetryPolicy.DEFAULT;
+        assertTrue(policy.isHostFailure(new IOException()));
+        assertTrue(policy.isHostFailure(new ResponseCodeException(500)));
+        assertTrue(policy.isHostFailure(new ResponseCodeException(503)));
+        assertTrue(policy.isHostFailure(new ResponseCodeException(429)));
+        assertFalse(policy.isHostFailure(new ResponseCodeException(404)));
+        assertFalse(policy.isHostFailure(new IllegalStateException()));
+    }
+
+    public void testSuccess() throws Exception {
+        mServer.enqueue(new StubServer.Response(200, "OK"));
+        assertEquals("OK", request(FAST_RETRY));
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(1, getHealth().getSuccessCount());
+    }
+
+    public void testServiceUnavailableWithRetryAfter() throws Exception {
+        mServer.enqueue(new StubServer.Response(503).addHeader("Retry-After", "1"));
+        mServer.enqueue(new StubServer.Response(200, "OK"));
+
+        assertEquals("OK", request(FAST_RETRY));
+        List<Long> times = mServer.getRequestTimes();
+        assertEquals(2, times.size());
+        // Retry-After is in seconds, allow some clock granularity
+        long wait = times.get(1) - times.get(0);
+        assertTrue("Waited " + wait + "ms", wait >= 900);
+    }
+
+    public void testRetryAfterTooLong() throws Exception {
+        RetryPolicy policy = new RetryPolicy(3, 10, 20, 500);
+        mServer.enqueue(new StubServer.Response(503).addHeader("Retry-After", "1"));
+        mServer.enqueue(new StubServer.Response(200, "OK"));
+
+        assertResponseCodeException(policy, 503);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    public void testTooManyRequests() throws Exception {
+        mServer.enqueue(new StubServer.Response(429).addHeader("Retry-After", "0"));
+        mServer.enqueue(new StubServer.Response(429));
+        mServer.enqueue(new StubServer.Response(200, "OK"));
+
+        assertEquals("OK", request(FAST_RETRY));
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(2, getHealth().getRetryCount());
+    }
+
+    public void testMaxTries() throws Exception {
+        mServer.setDefaultResponse(new StubServer.Response(503));
+
+        assertResponseCodeException(FAST_RETRY, 503);
+        assertEquals(FAST_RETRY.getMaxTries(), mServer.getRequestCount());
+
+        mServer.enqueue(new StubServer.Response(503));
+        assertResponseCodeException(RetryPolicy.NO_RETRY, 503);
+        assertEquals(FAST_RETRY.getMaxTries() + 1, mServer.getRequestCount());
+    }
+
+    public void testRetryBudget() throws Exception {
+        HostHealth health = getHealth();
+        int retried = 0;
+        while (true) {
+            // Every request fails once, the retry succeeds
+            mServer.enqueue(new StubServer.Response(503));
+            mServer.enqueue(new StubServer.Response(200, "OK"));
+            int count = mServer.getRequestCount();
+            try {
+                assertEquals("OK", request(FAST_RETRY));
+                assertEquals(count + 2, mServer.getRequestCount());
+                retried++;
+                assertTrue("Retry budget is not limited", retried <= HostHealth.MAX_TOKENS);
+            } catch (ResponseCodeException e) {
+                // Out of budget, no retry
+                assertEquals(503, e.getResponseCode());
+                assertEquals(count + 1, mServer.getRequestCount());
+                break;
+            }
+        }
+        assertTrue(retried > 0);
+        assertTrue(health.getRetryTokens() <= HostHealth.MAX_TOKENS / 2);
+        // Successes in between keep the circuit closed
+        assertEquals(HostHealth.STATE_CLOSED, health.getState());
+
+        // The 200 left in queue
+        assertEquals("OK", request(FAST_RETRY));
+    }
+
+    public void testCircuitBreaker() throws Exception {
+        HostHealth health = getHealth();
+        mServer.setDefaultResponse(new StubServer.Response(503));
+
+        for (int i = 0; i < HostHealth.FAILURE_THRESHOLD; i++) {
+            assertEquals(HostHealth.STATE_CLOSED, health.getState());
+            assertResponseCodeException(RetryPolicy.NO_RETRY, 503);
+        }
+        assertEquals(HostHealth.STATE_OPEN, health.getState());
+        assertEquals(HostHealth.FAILURE_THRESHOLD, mServer.getRequestCount());
+
+        // Fail fast without connecting
+        try {
+            request(RetryPolicy.NO_RETRY);
+            fail("Circuit should be open");
+        } catch (CircuitOpenException e) {
+            // Empty
+        }
+        assertEquals(HostHealth.FAILURE_THRESHOLD, mServer.getRequestCount());
+        assertEquals(1, health.getRejectedCount());
+
+        // One trial after open time, it succeeds and closes the circuit
+        SystemClock.sleep(HostHealth.MIN_OPEN_TIME + 100);
+        mServer.enqueue(new StubServer.Response(200, "OK"));
+        assertEquals("OK", request(RetryPolicy.NO_RETRY));
+        assertEquals(HostHealth.STATE_CLOSED, health.getState());
+        assertEquals(HostHealth.FAILURE_THRESHOLD + 1, mServer.getRequestCount());
+    }
+
+    public void testLongRetryAfterOnWorkerThread() throws Exception {
+        final RetryPolicy policy = new RetryPolicy(3, 10, 20, 30 * 1000);
+        mServer.enqueue(new StubServer.Response(503).addHeader("Retry-After", "10"));
+        mServer.enqueue(new StubServer.Response(200, "OK"));
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Exception[] exception = new Exception[1];
+        RequestScheduler scheduler = new RequestScheduler(1, Executors.defaultThreadFactory());
+        scheduler.submit(new RequestScheduler.Request(RequestScheduler.PRIORITY_FOREGROUND, null, null) {
+            @Override
+            protected void onRun() {
+                try {
+                    request(policy);
+                } catch (Exception e) {
+                    exception[0] = e;
+                }
+                latch.countDown();
+            }
+
+            @Override
+            protected void onCoalesce(RequestScheduler.Request leader) {
+            }
+        });
+
+        // Do not hold the worker for 10s
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(exception[0] instanceof ResponseCodeException);
+        assertEquals(503, ((ResponseCodeException) exception[0]).getResponseCode());
+        assertEquals(1, mServer.getRequestCount());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import android.support.annotation.NonNull;
+
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Checks the timeouts {@link HttpHelper} sets on connections come from
+ * {@link HostLatency}, and the requests feed it.
+ */
+public class HttpHelperTimeoutTest extends TestCase {
+
+    private StubServer mServer;
+    private Transport mOldTransport;
+    private HttpURLConnection mLastConnection;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        HostLatency.clear();
+        HostHealth.clear();
+        mServer = new StubServer();
+        mServer.setDefaultResponse(new StubServer.Response(200, "OK"));
+        mOldTransport = HttpHelper.getTransport();
+        HttpHelper.setTransport(new DefaultTransport() {
+            @Override
+            public @NonNull HttpURLConnection open(@NonNull URL url) throws IOException {
+                mLastConnection = super.open(url);
+                return mLastConnection;
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        HttpHelper.setTransport(mOldTransport);
+        mServer.shutdown();
+        HostLatency.clear();
+        HostHealth.clear();
+        super.tearDown();
+    }
+
+    private static HostLatency getLatency() {
+        return HostLatency.get("127.0.0.1");
+    }
+
+    public void testDefaultsForNewHost() throws Exception {
+        assertEquals("OK", new HttpHelper().get(mServer.getUrl("/")));
+        assertEquals(5000, mLastConnection.getConnectTimeout());
+        assertEquals(5000, mLastConnection.getReadTimeout());
+    }
+
+    public void testRequestsFeedLatency() throws Exception {
+        new HttpHelper().get(mServer.getUrl("/"));
+        new HttpHelper().get(mServer.getUrl("/"));
+        HostLatency latency = getLatency();
+        assertEquals(2, latency.getConnectCount());
+        assertTrue(latency.getFirstByteTime() >= 0);
+        assertTrue(latency.getFirstByteTimePercentile(0.5f) >= 0);
+    }
+
+    public void testTimeoutsFollowLatency() throws Exception {
+        HostLatency latency = getLatency();
+        latency.onConnect(1000);
+        latency.onFirstByte(1000);
+        int connectTimeout = latency.getConnectTimeout();
+        int readTimeout = latency.getReadTimeout(HostLatency.TYPE_PAGE);
+        assertTrue(connectTimeout != 5000);
+        assertTrue(readTimeout != 5000);
+
+        new HttpHelper().get(mServer.getUrl("/"));
+        assertEquals(connectTimeout, mLastConnection.getConnectTimeout());
+        assertEquals(readTimeout, mLastConnection.getReadTimeout());
+    }
+
+    public void testApiReadTimeout() throws Exception {
+        HostLatency latency = getLatency();
+        latency.onFirstByte(10);
+        int readTimeout = latency.getReadTimeout(HostLatency.TYPE_API);
+        assertTrue(readTimeout != latency.getReadTimeout(HostLatency.TYPE_PAGE));
+
+        new HttpHelper().postJson(mServer.getUrl("/api.php"), new JSONObject());
+        assertEquals(readTimeout, mLastConnection.getReadTimeout());
+    }
+}
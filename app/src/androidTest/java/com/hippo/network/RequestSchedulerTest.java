@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class RequestSchedulerTest extends TestCase {
+
+    private static final String KEY = "key";
+
+    private final List<String> mEvents = new ArrayList<>();
+    private RequestScheduler mScheduler;
+    private CountDownLatch mBlock;
+    private CountDownLatch mBlockStarted;
+
+    private class TestRequest extends RequestScheduler.Request {
+
+        private final String mName;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+
+        public TestRequest(String name, int priority, Object tag, String key) {
+            super(priority, tag, key);
+            mName = name;
+        }
+
+        @Override
+        protected void onRun() {
+            record(mName + " run");
+            mDone.countDown();
+        }
+
+        @Override
+        protected void onCoalesce(RequestScheduler.Request leader) {
+            record(mName + " coalesce " + ((TestRequest) leader).mName);
+            mDone.countDown();
+        }
+
+        @Override
+        protected void onCancel() {
+            record(mName + " cancel");
+        }
+
+        @Override
+        protected void onJoin(RequestScheduler.Request leader) {
+            record(mName + " join " + ((TestRequest) leader).mName);
+        }
+
+        public void await() throws InterruptedException {
+            assertTrue(mDone.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private void record(String event) {
+        synchronized (mEvents) {
+            mEvents.add(event);
+        }
+    }
+
+    private List<String> events() {
+        synchronized (mEvents) {
+            return new ArrayList<>(mEvents);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mScheduler = new RequestScheduler(1, Executors.defaultThreadFactory());
+        // Hold the only worker, so the requests below stay in queue
+        mBlock = new CountDownLatch(1);
+        mBlockStarted = new CountDownLatch(1);
+        mScheduler.submit(new RequestScheduler.Request(RequestScheduler.PRIORITY_FOREGROUND, null, null) {
+            @Override
+            protected void onRun() {
+                mBlockStarted.countDown();
+                try {
+                    mBlock.await();
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+            }
+
+            @Override
+            protected void onCoalesce(RequestScheduler.Request leader) {
+            }
+        });
+        assertTrue(mBlockStarted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mBlock.countDown();
+        super.tearDown();
+    }
+
+    public void testJoinQueuedLeader() throws Exception {
+        TestRequest a = new TestRequest("a", RequestScheduler.PRIORITY_PREFETCH, null, KEY);
+        TestRequest b = new TestRequest("b", RequestScheduler.PRIORITY_FOREGROUND, null, KEY);
+        mScheduler.submit(a);
+        mScheduler.submit(b);
+        assertEquals(1, mScheduler.getQueueDepth());
+        // The leader is raised to the priority of the follower
+        assertEquals(1, mScheduler.getQueueDepth(RequestScheduler.PRIORITY_FOREGROUND));
+        assertEquals(0, mScheduler.getCoalescedRunningCount());
+
+        mBlock.countDown();
+        b.await();
+        List<String> expected = new ArrayList<>();
+        expected.add("b join a");
+        expected.add("a run");
+        expected.add("b coalesce a");
+        assertEquals(expected, events());
+    }
+
+    public void testCancelQueuedLeader() throws Exception {
+        Object tagA = new Object();
+        TestRequest a = new TestRequest("a", RequestScheduler.PRIORITY_FOREGROUND, tagA, KEY);
+        TestRequest b = new TestRequest("b", RequestScheduler.PRIORITY_FOREGROUND, null, KEY);
+        TestRequest c = new TestRequest("c", RequestScheduler.PRIORITY_FOREGROUND, null, KEY);
+        mScheduler.submit(a);
+        mScheduler.submit(b);
+        mScheduler.submit(c);
+        assertEquals(1, mScheduler.cancel(tagA));
+
+        mBlock.countDown();
+        c.await();
+        List<String> expected = new ArrayList<>();
+        expected.add("b join a");
+        expected.add("c join a");
+        // The follower taking the place is joined again
+        expected.add("c join b");
+        expected.add("a cancel");
+        expected.add("b run");
+        expected.add("c coalesce b");
+        assertEquals(expected, events());
+    }
+
+    public void testCancelFollowerOfRunningLeader() throws Exception {
+        final CountDownLatch leaderStarted = new CountDownLatch(1);
+        final CountDownLatch leaderBlock = new CountDownLatch(1);
+        TestRequest a = new TestRequest("a", RequestScheduler.PRIORITY_FOREGROUND, null, KEY) {
+            @Override
+            protected void onRun() {
+                leaderStarted.countDown();
+                try {
+                    leaderBlock.await();
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+                super.onRun();
+            }
+        };
+        Object tagB = new Object();
+        TestRequest b = new TestRequest("b", RequestScheduler.PRIORITY_FOREGROUND, tagB, KEY);
+        mScheduler.submit(a);
+        mBlock.countDown();
+        assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+        mScheduler.submit(b);
+        assertEquals(1, mScheduler.getCoalescedRunningCount());
+        assertEquals(1, mScheduler.cancel(tagB));
+        leaderBlock.countDown();
+        a.await();
+
+        List<String> expected = new ArrayList<>();
+        expected.add("b join a");
+        expected.add("b cancel");
+        expected.add("a run");
+        assertEquals(expected, events());
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.hippo.util.Utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A HTTP server on localhost which answers with queued responses,
+ * one connection for each request. It is for tests.
+ */
+public class StubServer {
+
+    private final ServerSocket mServerSocket;
+    private final Thread mThread;
+
+    private final LinkedList<Response> mResponses = new LinkedList<>();
+    private final List<Long> mRequestTimes = new ArrayList<>();
+    private final List<List<String>> mRequestHeaders = new ArrayList<>();
+    private final List<String> mRequestBodies = new ArrayList<>();
+    private Response mDefaultResponse = new Response(404);
+
+    public static class Response {
+        private final int mCode;
+        private final String mBody;
+        private final List<String> mHeaders = new ArrayList<>();
+        private int mSentLength = -1;
+
+        public Response(int code) {
+            this(code, code + " body");
+        }
+
+        public Response(int code, @NonNull String body) {
+            mCode = code;
+            mBody = body;
+        }
+
+        public Response addHeader(@NonNull String name, @NonNull String value) {
+            mHeaders.add(name + ": " + value);
+            return this;
+        }
+
+        /**
+         * Close the connection after the first length bytes of the body,
+         * Content-Length is still the whole body
+         */
+        public Response truncate(int length) {
+            mSentLength = length;
+            return this;
+        }
+    }
+
+    public StubServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mThread = new Thread("StubServer") {
+            @Override
+            public void run() {
+                serve();
+            }
+        };
+        mThread.start();
+    }
+
+    public String getUrl(@NonNull String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    public synchronized void enqueue(@NonNull Response response) {
+        mResponses.add(response);
+    }
+
+    /**
+     * @param response the response when the queue is empty
+     */
+    public synchronized void setDefaultResponse(@NonNull Response response) {
+        mDefaultResponse = response;
+    }
+
+    public synchronized int getRequestCount() {
+        return mRequestTimes.size();
+    }
+
+    /**
+     * @return {@link SystemClock#elapsedRealtime()} when each request arrived
+     */
+    public synchronized List<Long> getRequestTimes() {
+        return new ArrayList<>(mRequestTimes);
+    }
+
+    /**
+     * @param index the index of the request
+     * @param name the header name
+     * @return the header value of the request, null for none
+     */
+    public synchronized String getRequestHeader(int index, @NonNull String name) {
+        String prefix = name.toLowerCase() + ":";
+        for (String line : mRequestHeaders.get(index)) {
+            if (line.toLowerCase().startsWith(prefix)) {
+                return line.substring(prefix.length()).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param index the index of the request
+     * @return the body of the request, empty for none
+     */
+    public synchronized String getRequestBody(int index) {
+        return mRequestBodies.get(index);
+    }
+
+    private synchronized Response nextResponse(List<String> headers, String body) {
+        mRequestTimes.add(SystemClock.elapsedRealtime());
+        mRequestHeaders.add(headers);
+        mRequestBodies.add(body);
+        Response response = mResponses.poll();
+        return response != null ? response : mDefaultResponse;
+    }
+
+    private void serve() {
+        while (!mServerSocket.isClosed()) {
+            Socket socket = null;
+            try {
+                socket = mServerSocket.accept();
+                InputStream is = socket.getInputStream();
+                List<String> headers = readRequest(is);
+                String body = readBody(is, headers);
+                writeResponse(socket.getOutputStream(), nextResponse(headers, body));
+            } catch (IOException e) {
+                // Closed or broken, go on
+            } finally {
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // Ignore
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<String> readRequest(InputStream is) throws IOException {
+        // Read until the empty line after headers
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = Utils.readAsciiLine(is)).length() != 0) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * Read the body of Content-Length, chunked body is not supported
+     */
+    private static String readBody(InputStream is, List<String> headers) throws IOException {
+        int length = 0;
+        for (String line : headers) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                length = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+        }
+        byte[] body = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = is.read(body, read, length - read);
+            if (n == -1) {
+                break;
+            }
+            read += n;
+        }
+        return new String(body, 0, read, "UTF-8");
+    }
+
+    private static void writeResponse(OutputStream os, Response response) throws IOException {
+        byte[] body = response.mBody.getBytes("UTF-8");
+        StringBuilder sb = new StringBuilder();
+        sb.append("HTTP/1.1 ").append(response.mCode).append(" Stub\r\n");
+        sb.append("Content-Type: text/plain; charset=utf-8\r\n");
+        sb.append("Content-Length: ").append(body.length).append("\r\n");
+        sb.append("Connection: close\r\n");
+        for (String header : response.mHeaders) {
+            sb.append(header).append("\r\n");
+        }
+        sb.append("\r\n");
+        os.write(sb.toString().getBytes("UTF-8"));
+        os.write(body, 0, response.mSentLength == -1 ? body.length :
+                Math.min(response.mSentLength, body.length));
+        os.flush();
+    }
+
+    public void shutdown() throws IOException, InterruptedException {
+        mServerSocket.close();
+        mThread.join();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.util;
+
+import android.content.ComponentCallbacks2;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+public class MemoryGovernorTest extends TestCase {
+
+    private static final float DELTA = 1e-5f;
+
+    public void testTrimRatioRunning() {
+        assertEquals(0.0f, MemoryGovernor.getTrimRatio(0), DELTA);
+        assertEquals(0.25f, MemoryGovernor.getTrimRatio(
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE), DELTA);
+        assertEquals(0.5f, MemoryGovernor.getTrimRatio(
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW), DELTA);
+        assertEquals(0.75f, MemoryGovernor.getTrimRatio(
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL), DELTA);
+    }
+
+    public void testTrimRatioBackground() {
+        assertEquals(0.0f, MemoryGovernor.getTrimRatio(
+                ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN), DELTA);
+        assertEquals(0.25f, MemoryGovernor.getTrimRatio(
+                ComponentCallbacks2.TRIM_MEMORY_BACKGROUND), DELTA);
+        assertEquals(0.5f, MemoryGovernor.getTrimRatio(
+                ComponentCallbacks2.TRIM_MEMORY_MODERATE), DELTA);
+        assertEquals(1.0f, MemoryGovernor.getTrimRatio(
+                ComponentCallbacks2.TRIM_MEMORY_COMPLETE), DELTA);
+    }
+
+    public void testTrimRatioUnknownLevel() {
+        // Unknown levels act like the known level below
+        assertEquals(0.25f, MemoryGovernor.getTrimRatio(
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE + 1), DELTA);
+        assertEquals(0.0f, MemoryGovernor.getTrimRatio(
+                ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN + 1), DELTA);
+        assertEquals(1.0f, MemoryGovernor.getTrimRatio(
+                ComponentCallbacks2.TRIM_MEMORY_COMPLETE + 20), DELTA);
+    }
+
+    public void testTrim() {
+        Pool<Object> pool = new Pool<>(10);
+        for (int i = 0; i < 8; i++) {
+            pool.recycle(new Object());
+        }
+        MemoryGovernor governor = MemoryGovernor.getInstance();
+        governor.register("test pool", pool);
+        try {
+            Map<String, Integer> sizes = governor.getCacheSizes();
+            assertEquals(Integer.valueOf(8), sizes.get("test pool"));
+
+            governor.trim(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+            assertEquals(8, pool.size());
+            governor.trim(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+            assertEquals(4, pool.size());
+            governor.trim(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            assertEquals(0, pool.size());
+        } finally {
+            governor.unregister(pool);
+        }
+        assertNull(governor.getCacheSizes().get("test pool"));
+    }
+
+    public void testCacheSizesAdded() {
+        Pool<Object> pool1 = new Pool<>(10);
+        Pool<Object> pool2 = new Pool<>(10);
+        pool1.recycle(new Object());
+        pool2.recycle(new Object());
+        pool2.recycle(new Object());
+        MemoryGovernor governor = MemoryGovernor.getInstance();
+        governor.register("test pools", pool1);
+        governor.register("test pools", pool2);
+        try {
+            assertEquals(Integer.valueOf(3), governor.getCacheSizes().get("test pools"));
+        } finally {
+            governor.unregister(pool1);
+            governor.unregister(pool2);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.util;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+public class MetricsTest extends TestCase {
+
+    private static final long TIME = 1435449600000L;
+
+    private static final class Value implements Metrics.Gauge {
+
+        private long mValue;
+
+        @Override
+        public long getValue() {
+            return mValue;
+        }
+    }
+
+    public void testLatestValues() {
+        Metrics metrics = new Metrics(4);
+        Value value = new Value();
+        metrics.register("value", value);
+        assertTrue(metrics.getLatestValues().isEmpty());
+
+        value.mValue = 7;
+        metrics.sample(TIME, 1000);
+        value.mValue = 9;
+        metrics.sample(TIME + 1000, 2000);
+        Map<String, Long> values = metrics.getLatestValues();
+        assertEquals(1, values.size());
+        assertEquals(Long.valueOf(9), values.get("value"));
+    }
+
+    public void testRateUsesElapsedTime() {
+        Metrics metrics = new Metrics(4);
+        Metrics.Counter counter = new Metrics.Counter();
+        metrics.registerRate("rate", counter);
+
+        // No interval for the first sample
+        counter.add(100);
+        metrics.sample(TIME, 1000);
+        assertEquals(Long.valueOf(0), metrics.getLatestValues().get("rate"));
+
+        // Wall time goes back, 2 s elapsed
+        counter.add(500);
+        metrics.sample(TIME - 60000, 3000);
+        assertEquals(Long.valueOf(250), metrics.getLatestValues().get("rate"));
+    }
+
+    public void testCsvKeepsNewest() {
+        Metrics metrics = new Metrics(2);
+        Value value = new Value();
+        metrics.register("a,b", value);
+        for (int i = 1; i <= 3; i++) {
+            value.mValue = i;
+            metrics.sample(TIME + i * 1000, i * 1000);
+        }
+        String[] lines = metrics.toCsv().split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("time,a b", lines[0]);
+        assertTrue(lines[1].endsWith(",2"));
+        assertTrue(lines[2].endsWith(",3"));
+    }
+}
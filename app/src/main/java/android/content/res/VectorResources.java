@@ -25,6 +25,7 @@ import android.util.Xml;
 
 import com.hippo.drawable.AnimatedVectorDrawable;
 import com.hippo.drawable.VectorDrawable;
+import com.hippo.util.MemoryGovernor;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -37,7 +38,7 @@ import java.lang.ref.WeakReference;
 /**
  * It is a wrap
  */
-public class VectorResources extends Resources {
+public class VectorResources extends Resources implements MemoryGovernor.Trimmable {
 
     private static final String TAG = VectorResources.class.getSimpleName();
 
@@ -56,6 +57,7 @@ public class VectorResources extends Resources {
         super(res.getAssets(), res.getDisplayMetrics(), res.getConfiguration());
         mContext = context;
         mBase = res;
+        MemoryGovernor.getInstance().register(TAG, this);
     }
 
     public boolean isBase(Resources res) {
@@ -152,6 +154,38 @@ public class VectorResources extends Resources {
         return dr;
     }
 
+    /**
+     * Remove the collected ones, clear all for ratio 1
+     */
+    @Override
+    public void trimMemory(float ratio) {
+        synchronized (mAccessLock) {
+            if (ratio >= 1.0f) {
+                mDrawableCache.clear();
+                mColorDrawableCache.clear();
+            } else {
+                removeCollected(mDrawableCache);
+                removeCollected(mColorDrawableCache);
+            }
+        }
+    }
+
+    private static void removeCollected(
+            LongSparseArray<WeakReference<Drawable.ConstantState>> drawableCache) {
+        for (int i = drawableCache.size() - 1; i >= 0; i--) {
+            if (drawableCache.valueAt(i).get() == null) {
+                drawableCache.removeAt(i);
+            }
+        }
+    }
+
+    @Override
+    public int getCacheSize() {
+        synchronized (mAccessLock) {
+            return mDrawableCache.size() + mColorDrawableCache.size();
+        }
+    }
+
     private Drawable getCachedDrawable(
             LongSparseArray<WeakReference<Drawable.ConstantState>> drawableCache,
             long key) {
@@ -17,27 +17,41 @@ package com.hippo.app;
 
 import android.annotation.SuppressLint;
 import android.content.res.Resources;
+import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.Debug;
 import android.os.Handler;
 import android.support.v7.app.AppCompatActivity;
 import android.view.Gravity;
+import android.view.View;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
 import android.widget.TextView;
+import android.widget.Toast;
 
+import com.hippo.ehviewer.AppConfig;
 import com.hippo.ehviewer.Constants;
 import com.hippo.ehviewer.R;
 import com.hippo.util.AppHandler;
+import com.hippo.util.FrameMonitor;
+import com.hippo.util.Log;
+import com.hippo.util.MemoryGovernor;
 import com.hippo.util.Messenger;
+import com.hippo.util.Metrics;
+import com.hippo.util.Utils;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Locale;
+import java.util.Map;
 
 public abstract class StatsActivity extends AppCompatActivity {
 
+    private static final String TAG = StatsActivity.class.getSimpleName();
+
     private static final int DEFAULT_MESSAGE_SIZE = 128;
     private static final long STATS_CLOCK_INTERVAL_MS = 1000;
     private static final int BYTES_IN_MEGABYTE = 1024 * 1024;
+    private static final String METRICS_FILENAME = "metrics.csv";
 
     private TextView mStatsTextView;
     private boolean mShowStats;
@@ -53,10 +67,12 @@ public abstract class StatsActivity extends AppCompatActivity {
                     mShowStats = showStats;
                     ViewGroup vg = (ViewGroup) getWindow().getDecorView();
                     if (showStats) {
+                        Metrics.getInstance().startRecording();
                         vg.addView(mStatsTextView, generateLayoutParams());
                         updateStats();
                         scheduleNextStatsClockTick();
                     } else {
+                        Metrics.getInstance().stopRecording();
                         vg.removeView(mStatsTextView);
                         cancelNextStatsClockTick();
                     }
@@ -84,6 +100,13 @@ public abstract class StatsActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
 
         mStatsTextView = new TextView(this);
+        // Tap to save the recorded metrics
+        mStatsTextView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                dumpMetrics();
+            }
+        });
         mHandler = AppHandler.getInstance();
         mStatsClockTickRunnable = new Runnable() {
             @Override
@@ -115,6 +138,7 @@ public abstract class StatsActivity extends AppCompatActivity {
         super.onResume();
 
         if (mShowStats) {
+            Metrics.getInstance().startRecording();
             updateStats();
             scheduleNextStatsClockTick();
         }
@@ -125,33 +149,86 @@ public abstract class StatsActivity extends AppCompatActivity {
         super.onPause();
 
         if (mShowStats) {
+            // Nothing is recorded while no overlay is visible
+            Metrics.getInstance().stopRecording();
             cancelNextStatsClockTick();
         }
     }
 
     private void scheduleNextStatsClockTick() {
         mHandler.postDelayed(mStatsClockTickRunnable, STATS_CLOCK_INTERVAL_MS);
+        FrameMonitor.getInstance().start();
     }
 
     private void cancelNextStatsClockTick() {
         mHandler.removeCallbacks(mStatsClockTickRunnable);
+        FrameMonitor.getInstance().stop();
+    }
+
+    private void dumpMetrics() {
+        final File file = AppConfig.getFileInAppDir(METRICS_FILENAME);
+        if (file == null) {
+            Toast.makeText(this, "Can't save metrics", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Utils.execute(false, new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... params) {
+                try {
+                    Metrics.getInstance().dump(file);
+                    return true;
+                } catch (IOException e) {
+                    Log.e(TAG, "Can't save metrics", e);
+                    return false;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Boolean result) {
+                Toast.makeText(StatsActivity.this, result ? "Metrics saved to " + file :
+                        "Can't save metrics", Toast.LENGTH_SHORT).show();
+            }
+        }, (Void[]) null);
     }
 
     private void updateStats() {
-        final Runtime runtime = Runtime.getRuntime();
-        final long heapMemory = runtime.totalMemory() - runtime.freeMemory();
         final StringBuilder sb = new StringBuilder(DEFAULT_MESSAGE_SIZE);
-        appendSize(sb, "Java allocated:          ", heapMemory, "\n");
-        appendSize(sb, "Native allocated:        ", Debug.getNativeHeapAllocatedSize(), "\n");
+        // Java and native allocated are in metrics
+        appendMetrics(sb);
+        appendCacheSizes(sb);
+        appendStats(sb);
         mStatsTextView.setText(sb.toString());
     }
 
-    private static void appendSize(StringBuilder sb, String prefix, long bytes, String suffix) {
+    private static void appendMetrics(StringBuilder sb) {
+        // Sampled by the recording
+        for (Map.Entry<String, Long> entry : Metrics.getInstance().getLatestValues().entrySet()) {
+            appendValue(sb, String.format(Locale.US, "%-25s", entry.getKey() + ":"),
+                    Long.toString(entry.getValue()), "\n");
+        }
+    }
+
+    private static void appendCacheSizes(StringBuilder sb) {
+        for (Map.Entry<String, Integer> entry :
+                MemoryGovernor.getInstance().getCacheSizes().entrySet()) {
+            int size = entry.getValue();
+            appendValue(sb, String.format(Locale.US, "%-25s", entry.getKey() + ":"),
+                    size < 0 ? "?" : Integer.toString(size), "\n");
+        }
+    }
+
+    /**
+     * Append more lines to show, end each line with "\n"
+     */
+    protected void appendStats(StringBuilder sb) {
+    }
+
+    protected static void appendSize(StringBuilder sb, String prefix, long bytes, String suffix) {
         String value = String.format(Locale.getDefault(), "%.2f", (float) bytes / BYTES_IN_MEGABYTE);
         appendValue(sb, prefix, value + " MB", suffix);
     }
 
-    private static void appendValue(StringBuilder sb, String prefix, String value, String suffix) {
+    protected static void appendValue(StringBuilder sb, String prefix, String value, String suffix) {
         sb.append(prefix).append(value).append(suffix);
     }
 }
@@ -16,21 +16,159 @@
 package com.hippo.ehviewer;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Debug;
 
 import com.facebook.drawee.backends.pipeline.Fresco;
+import com.facebook.imagepipeline.core.ImagePipelineConfig;
+import com.facebook.imagepipeline.core.ImagePipelineFactory;
 import com.hippo.content.VectorContext;
+import com.hippo.ehviewer.client.EhClient;
+import com.hippo.ehviewer.data.GalleryDatabase;
 import com.hippo.ehviewer.util.Config;
+import com.hippo.network.CookieJar;
+import com.hippo.network.HttpCache;
+import com.hippo.network.HttpHelper;
+import com.hippo.network.HostLatency;
+import com.hippo.network.RequestScheduler;
 import com.hippo.scene.SceneApplication;
+import com.hippo.util.FrameMonitor;
+import com.hippo.util.GcWatcher;
 import com.hippo.util.Log;
+import com.hippo.util.MemoryGovernor;
+import com.hippo.util.Metrics;
+
+import java.io.File;
 
 public class EhApplication extends SceneApplication {
 
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    private static final long KEEP_ALIVE_DURATION = 2 * 60 * 1000; // 2 min
+    private static final String HTTP_CACHE_DIR = "http";
+    private static final long HTTP_CACHE_SIZE = 10 * 1024 * 1024; // 10 MB
+    private static final String COOKIE_FILE = "cookies";
+
+    /**
+     * Fresco does not tell the size, clear memory caches for half or more
+     */
+    private final MemoryGovernor.Trimmable mFrescoTrimmable = new MemoryGovernor.Trimmable() {
+        @Override
+        public void trimMemory(float ratio) {
+            if (ratio >= 0.5f) {
+                Fresco.getImagePipeline().clearMemoryCaches();
+            }
+        }
+
+        @Override
+        public int getCacheSize() {
+            return -1;
+        }
+    };
+
     @Override
     public void onCreate() {
         super.onCreate();
 
-        Fresco.initialize(this);
+        // The platform HttpURLConnection keeps the idle connections, only config it.
+        // Set before any connection is made, or it might be ignored.
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", Integer.toString(MAX_IDLE_CONNECTIONS));
+        System.setProperty("http.keepAliveDuration", Long.toString(KEEP_ALIVE_DURATION));
+        HttpCache httpCache = new HttpCache(new File(getCacheDir(), HTTP_CACHE_DIR),
+                HTTP_CACHE_SIZE);
+        HttpHelper.setCache(httpCache);
+        CookieJar cookieJar = new CookieJar(new File(getFilesDir(), COOKIE_FILE));
+        cookieJar.setCache(httpCache);
+        HttpHelper.setCookieJar(cookieJar);
+        EhClient.setGalleryDatabase(GalleryDatabase.getInstance(this));
+        // Fresco only shows thumbnails, they are opaque JPEG
+        Fresco.initialize(this, ImagePipelineConfig.newBuilder(this)
+                .setBitmapsConfig(Bitmap.Config.RGB_565)
+                .build());
+        MemoryGovernor.getInstance().register("Fresco", mFrescoTrimmable);
         Config.initialize(this);
+        registerMetrics(httpCache);
+    }
+
+    /**
+     * Metrics are recorded while the stats overlay is shown, see
+     * {@link com.hippo.app.StatsActivity}
+     */
+    private static void registerMetrics(final HttpCache httpCache) {
+        Metrics metrics = Metrics.getInstance();
+        metrics.register("Java allocated KB", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                Runtime runtime = Runtime.getRuntime();
+                return (runtime.totalMemory() - runtime.freeMemory()) / 1024;
+            }
+        });
+        metrics.register("Native allocated KB", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return Debug.getNativeHeapAllocatedSize() / 1024;
+            }
+        });
+        metrics.register("Bitmap cache KB", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return ImagePipelineFactory.getInstance().getBitmapCountingMemoryCache()
+                        .getSizeInBytes() / 1024;
+            }
+        });
+        if (FrameMonitor.isSupported()) {
+            FrameMonitor frameMonitor = FrameMonitor.getInstance();
+            metrics.registerRate("Frames/s", frameMonitor.getFrameCount());
+            metrics.register("Max frame ms", frameMonitor.getMaxFrameTime());
+            metrics.register("Jank frames", frameMonitor.getJankCount());
+        }
+        metrics.register("Requests in flight", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return HttpHelper.getRequestsInFlight();
+            }
+        });
+        metrics.registerRate("Received bytes/s", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return HttpHelper.getBytesReceived();
+            }
+        });
+        metrics.register("Connection reuse %", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                long reused = 0;
+                long total = 0;
+                for (HostLatency latency : HostLatency.getAll()) {
+                    reused += latency.getReusedConnectCount();
+                    total += latency.getConnectCount();
+                }
+                return total == 0 ? 0 : reused * 100 / total;
+            }
+        });
+        metrics.register("Http cache hit %", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                long hit = httpCache.getHitCount();
+                long total = hit + httpCache.getMissCount();
+                return total == 0 ? 0 : hit * 100 / total;
+            }
+        });
+        metrics.register("EhClient queue", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return EhClient.getInstance().getScheduler().getQueueDepth();
+            }
+        });
+        metrics.register("EhClient wait ms", new Metrics.Gauge() {
+            @Override
+            public long getValue() {
+                return EhClient.getInstance().getScheduler()
+                        .getAverageWaitTime(RequestScheduler.PRIORITY_FOREGROUND);
+            }
+        });
+        GcWatcher.start();
+        metrics.register("GC count", GcWatcher.getGauge());
     }
 
     @Override
@@ -42,8 +180,14 @@ public class EhApplication extends SceneApplication {
     public void onTrimMemory(int level) {
         super.onTrimMemory(level);
 
-        if (level == TRIM_MEMORY_UI_HIDDEN) {
-            Log.d("Application hiden");
-        }
+        Log.d("Trim memory, level " + level);
+        MemoryGovernor.getInstance().trim(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+
+        MemoryGovernor.getInstance().trim(TRIM_MEMORY_COMPLETE);
     }
 }
@@ -22,19 +22,35 @@ import java.util.regex.Pattern;
 
 public class DetailUrlParser {
 
+    private static final Pattern URL_PATTERN = Pattern.compile("/(\\d+)/(\\w+)");
+
     public int gid;
     public String token;
 
     public void parser(String url) throws Exception {
         AssertUtils.assertNotNull("Url is null when parse detail url", url);
 
-        Pattern p = Pattern.compile("/(\\d+)/(\\w+)");
-        Matcher m = p.matcher(url);
+        if (!parse(url)) {
+            throw new EhException("Can not parse detail url");
+        }
+    }
+
+    /**
+     * @param url the detail url
+     * @return false if can not parse it
+     */
+    public boolean parse(String url) {
+        if (url == null) {
+            return false;
+        }
+
+        Matcher m = URL_PATTERN.matcher(url);
         if (m.find()) {
             gid = Integer.parseInt(m.group(1));
             token = m.group(2);
+            return true;
         } else {
-            throw new EhException("Can not parse detail url");
+            return false;
         }
     }
 }
@@ -15,24 +15,30 @@
 
 package com.hippo.ehviewer.client;
 
-import android.os.AsyncTask;
+import android.database.sqlite.SQLiteException;
 import android.os.Process;
+import android.support.annotation.NonNull;
 
+import com.hippo.ehviewer.data.GalleryDatabase;
 import com.hippo.ehviewer.data.GalleryInfo;
+import com.hippo.ehviewer.data.GalleryInfoList;
 import com.hippo.ehviewer.network.EhHttpHelper;
+import com.hippo.network.CachePolicy;
+import com.hippo.network.HttpHelper;
+import com.hippo.network.RequestScheduler;
 import com.hippo.network.ResponseCodeException;
+import com.hippo.util.Log;
+import com.hippo.util.Pipeline;
 import com.hippo.util.PriorityThreadFactory;
+import com.hippo.util.UiExecutor;
 
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 public final class EhClient {
 
-    @SuppressWarnings("unused")
     private static final String TAG = EhClient.class.getSimpleName();
 
     public static final int SOURCE_G = 0x0;
@@ -58,7 +64,14 @@ public final class EhClient {
 
     public static final String API_EHVIEWER = "http://www.ehviewer.com/API";
 
-    private final ThreadPoolExecutor mRequestThreadPool;
+    /**
+     * Max gid and token pairs in one gdata request
+     */
+    public static final int GDATA_BATCH_SIZE = 25;
+
+    private final RequestScheduler mScheduler;
+
+    private static volatile GalleryDatabase sGalleryDatabase;
 
     private static final EhClient sInstance;
 
@@ -72,11 +85,49 @@ public final class EhClient {
 
     private EhClient() {
         int poolSize = 3;
-        BlockingQueue<Runnable> requestWorkQueue = new LinkedBlockingQueue<>();
         ThreadFactory threadFactory = new PriorityThreadFactory(TAG,
                 Process.THREAD_PRIORITY_BACKGROUND);
-        mRequestThreadPool = new ThreadPoolExecutor(poolSize, poolSize,
-                1L, TimeUnit.SECONDS, requestWorkQueue, threadFactory);
+        mScheduler = new RequestScheduler(poolSize, threadFactory);
+    }
+
+    /**
+     * Set the database to keep gallery info got from list and api,
+     * null for not keeping them
+     */
+    public static void setGalleryDatabase(GalleryDatabase galleryDatabase) {
+        sGalleryDatabase = galleryDatabase;
+    }
+
+    /**
+     * Put gallery info to database in the thread which parses them
+     */
+    private static void saveGalleryInfos(List<GalleryInfo> galleryInfos) {
+        GalleryDatabase galleryDatabase = sGalleryDatabase;
+        if (galleryDatabase != null) {
+            try {
+                galleryDatabase.putGalleryInfos(galleryInfos);
+            } catch (SQLiteException e) {
+                // It is only a cache
+                Log.e(TAG, "Can't save gallery info", e);
+            }
+        }
+    }
+
+    /**
+     * Get the scheduler to read queue depth and wait time
+     */
+    public RequestScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    /**
+     * Cancel the requests with the tag which are still in queue.
+     * Their listeners will not be called.
+     *
+     * @param tag the tag
+     */
+    public void cancel(Object tag) {
+        mScheduler.cancel(tag);
     }
 
     public static String getReadableHost(int source) {
@@ -91,6 +142,17 @@ public final class EhClient {
         }
     }
 
+    public static String getApiUrl(int source) {
+        switch (source) {
+            default:
+            case SOURCE_G:
+            case SOURCE_LOFI:
+                return API_G;
+            case SOURCE_EX:
+                return API_EX;
+        }
+    }
+
     public static String getUrlHeader(int source) {
         switch (source) {
             default:
@@ -111,61 +173,104 @@ public final class EhClient {
         public abstract void onSuccess(List<GalleryInfo> glList, int pageNum);
     }
 
-    private void doBgJob(BgJobHelper bjh) {
-        new AsyncTask<BgJobHelper, Void, BgJobHelper>() {
-            @Override
-            protected BgJobHelper doInBackground(BgJobHelper... params) {
-                BgJobHelper bjh = params[0];
-                bjh.doInBackground();
-                return bjh;
-            }
-
-            @Override
-            protected void onPostExecute(BgJobHelper bjh) {
-                bjh.onPostExecute();
-            }
-        }.executeOnExecutor(mRequestThreadPool, bjh);
+    public abstract static class OnFillGalleryInfoListener implements EhClientListener {
+        /**
+         * Called in UI thread after a row of the list is updated
+         *
+         * @param index the index of the row
+         */
+        public abstract void onUpdate(int index);
+
+        /**
+         * Called after all requests end
+         */
+        public abstract void onSuccess();
     }
 
-    private interface BgJobHelper {
-        void doInBackground();
+    /**
+     * Get gallery info in parts while the page is downloading,
+     * before {@link #onSuccess(List, int)}
+     */
+    public abstract static class OnStreamGalleryListListener extends OnGetGalleryListListener {
+        /**
+         * Called in UI thread with the gallery info parsed since last call.
+         * The list in {@link #onSuccess(List, int)} still contains all of them.
+         *
+         * @param part the new gallery info
+         */
+        public abstract void onGetPart(List<GalleryInfo> part);
+    }
 
-        void onPostExecute();
+    /**
+     * The input of a task which can follow a task with the same key
+     */
+    private interface Follower<I> {
+
+        /**
+         * Called when the task is coalesced to a queued or running task
+         *
+         * @param leaderInput the input of the leader task
+         */
+        void follow(I leaderInput);
+
+        /**
+         * Called when the task is cancelled, in queue or while following,
+         * it must get nothing from the leader after it
+         */
+        void onCancel();
     }
 
-    private abstract class SimpleBgJobHelper implements BgJobHelper {
+    /**
+     * Run the task in the scheduler with the priority, tag and key
+     */
+    private static final class TaskRequest extends RequestScheduler.Request {
 
-        private EhClientListener mListener;
-        private Exception mException;
+        private final Pipeline.Task<?, ?> mTask;
 
-        public SimpleBgJobHelper(EhClientListener listener) {
-            mListener = listener;
+        public TaskRequest(Pipeline.Task<?, ?> task, int priority, Object tag, String key) {
+            super(priority, tag, key);
+            mTask = task;
         }
 
         @Override
-        public void doInBackground() {
-            try {
-                doBgJob();
-            } catch (Exception e) {
-                mException = e;
-            }
+        protected void onRun() {
+            mTask.run();
         }
 
+        @SuppressWarnings("unchecked")
         @Override
-        public void onPostExecute() {
-            if (mListener != null) {
-                if (mException == null) {
-                    doSuccessCallback();
-                } else {
-                    mListener.onFailure(mException);
-                }
-            }
+        protected void onCoalesce(@NonNull RequestScheduler.Request leader) {
+            ((Pipeline.Task) mTask).completeFrom(((TaskRequest) leader).mTask);
         }
 
-        public abstract void doBgJob() throws Exception;
+        @Override
+        protected void onCancel() {
+            mTask.cancel();
+            Object input = mTask.getInput();
+            if (input instanceof Follower) {
+                ((Follower) input).onCancel();
+            }
+        }
 
-        public abstract void doSuccessCallback();
+        @SuppressWarnings("unchecked")
+        @Override
+        protected void onJoin(@NonNull RequestScheduler.Request leader) {
+            Object input = mTask.getInput();
+            if (input instanceof Follower) {
+                ((Follower) input).follow(((TaskRequest) leader).mTask.getInput());
+            }
+        }
+    }
 
+    /**
+     * Run the pipeline in the scheduler, the callback is called in UI thread
+     *
+     * @param key tasks with the same key get the same result, null for none
+     */
+    private <I, O> void execute(Pipeline<I, O> pipeline, I input,
+            Pipeline.Callback<? super I, ? super O> callback, int priority, Object tag, String key) {
+        Pipeline.Task<I, O> task = pipeline.newTask(input, UiExecutor.getInstance(), callback);
+        mScheduler.submit(new TaskRequest(task, priority, tag, key));
     }
 
     private void checkRequest(EhHttpHelper ehh) throws ResponseCodeException {
@@ -175,56 +280,379 @@ public final class EhClient {
         }
     }
 
-    private Object[] doGetGalleryList(int source, String url) throws Exception {
-        EhHttpHelper ehh = new EhHttpHelper();
-        String body = ehh.get(url);
+    /**
+     * Collect parsed gallery info and post them to UI thread. Gallery info
+     * parsed before the posted task runs are delivered together.
+     * Cancelled requests get no more parts.
+     */
+    private static final class GalleryInfoPoster
+            implements ListParser.OnParseGalleryInfoListener, Runnable {
+
+        /**
+         * The requests to get parts, only touched in UI thread
+         */
+        private final List<GalleryListRequest> mRequests = new ArrayList<>(1);
+        /**
+         * Only touched in UI thread, for the requests added later.
+         * Released when the result is delivered.
+         */
+        private List<GalleryInfo> mDelivered = new ArrayList<>();
+        private boolean mFinished;
+        private List<GalleryInfo> mPending = new ArrayList<>();
+        private boolean mPosted;
+        private int mCount;
+
+        public GalleryInfoPoster(GalleryListRequest request) {
+            if (request.mListener instanceof OnStreamGalleryListListener) {
+                mRequests.add(request);
+            }
+        }
+
+        /**
+         * Add a request in any thread, it gets the delivered gallery info first.
+         * If the result has been delivered, it only gets the result.
+         */
+        public void addRequest(final GalleryListRequest request) {
+            if (!(request.mListener instanceof OnStreamGalleryListListener)) {
+                return;
+            }
+            // Same executor as the parts and the result, so it keeps the order
+            UiExecutor.getInstance().execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mFinished || request.mCancelled) {
+                        return;
+                    }
+                    if (!mDelivered.isEmpty()) {
+                        ((OnStreamGalleryListListener) request.mListener).onGetPart(
+                                new ArrayList<>(mDelivered));
+                    }
+                    mRequests.add(request);
+                }
+            });
+        }
+
+        /**
+         * Called in UI thread when the result is delivered, no part comes after it
+         */
+        public void finish() {
+            mFinished = true;
+            mDelivered = null;
+            mRequests.clear();
+        }
+
+        public synchronized int getCount() {
+            return mCount;
+        }
 
-        checkRequest(ehh);
+        @Override
+        public synchronized void onParseGalleryInfo(GalleryInfo gi) {
+            mPending.add(gi);
+            mCount++;
+            if (!mPosted) {
+                mPosted = true;
+                // Same executor as the result, so parts come first
+                UiExecutor.getInstance().execute(this);
+            }
+        }
 
-        ListParser parser = new ListParser();
-        parser.parse(body, source);
-        return new Object[]{parser.giList, parser.pageNum};
+        @Override
+        public void run() {
+            List<GalleryInfo> part;
+            synchronized (this) {
+                part = mPending;
+                mPending = new ArrayList<>();
+                mPosted = false;
+            }
+            if (mFinished) {
+                return;
+            }
+            mDelivered.addAll(part);
+            for (int i = 0, n = mRequests.size(); i < n; i++) {
+                GalleryListRequest request = mRequests.get(i);
+                // Checked for each part, nothing comes after cancel in UI thread
+                if (!request.mCancelled) {
+                    ((OnStreamGalleryListListener) request.mListener).onGetPart(part);
+                }
+            }
+        }
     }
 
-    private final class GetGalleryListHelper extends SimpleBgJobHelper {
+    private ListParser doGetGalleryList(final int source, String url, CachePolicy policy,
+            final GalleryInfoPoster poster) throws Exception {
+        final EhHttpHelper ehh = new EhHttpHelper();
+        final ListParser parser = new ListParser();
+        parser.setOnParseGalleryInfoListener(poster);
+        // Parse while downloading
+        ehh.get(url, new HttpHelper.BodyParser() {
+            @Override
+            public Object parse(InputStream is, String charset) throws Exception {
+                checkRequest(ehh);
+                parser.parse(is, charset, source);
+                return null;
+            }
+
+            @Override
+            public boolean onRetry(Exception previousException) {
+                // Parsing again would deliver the same gallery info twice
+                return poster.getCount() == 0;
+            }
+        }, policy);
+        saveGalleryInfos(parser.giList);
+        return parser;
+    }
 
-        private int mSource;
-        private String mUrl;
-        private OnGetGalleryListListener mListener;
+    private static final class GalleryListRequest implements Follower<GalleryListRequest> {
 
-        private List<GalleryInfo> mGlList;
-        private int mPageNum;
+        private final int mSource;
+        private final String mUrl;
+        private final CachePolicy mPolicy;
+        private final OnGetGalleryListListener mListener;
+        private final GalleryInfoPoster mPoster;
+        private volatile boolean mCancelled;
 
-        public GetGalleryListHelper(int source, String url, OnGetGalleryListListener listener) {
-            super(listener);
+        public GalleryListRequest(int source, String url, CachePolicy policy,
+                OnGetGalleryListListener listener) {
             mSource = source;
             mUrl = url;
+            mPolicy = policy;
             mListener = listener;
+            mPoster = new GalleryInfoPoster(this);
         }
 
         @Override
-        public void doBgJob() throws Exception {
-            Object[] objs = doGetGalleryList(mSource, mUrl);
-            mGlList = (List<GalleryInfo>) objs[0];
-            mPageNum = (int) objs[1];
+        public void follow(GalleryListRequest leaderInput) {
+            // Get the gallery info the leader has parsed, then the rest
+            leaderInput.mPoster.addRequest(this);
         }
 
         @Override
-        public void doSuccessCallback() {
-            mListener.onSuccess(mGlList, mPageNum);
+        public void onCancel() {
+            mCancelled = true;
         }
     }
 
+    private final Pipeline<GalleryListRequest, ListParser> mGalleryListPipeline =
+            Pipeline.create(new Pipeline.Stage<GalleryListRequest, ListParser>() {
+                @Override
+                public ListParser apply(GalleryListRequest request) throws Exception {
+                    return doGetGalleryList(request.mSource, request.mUrl, request.mPolicy,
+                            request.mPoster);
+                }
+            });
+
+    private static final Pipeline.Callback<GalleryListRequest, ListParser> GALLERY_LIST_CALLBACK =
+            new Pipeline.Callback<GalleryListRequest, ListParser>() {
+                @Override
+                public void onSuccess(GalleryListRequest request, ListParser parser) {
+                    request.mPoster.finish();
+                    if (request.mListener != null) {
+                        request.mListener.onSuccess(parser.giList, parser.pageNum);
+                    }
+                }
+
+                @Override
+                public void onFailure(GalleryListRequest request, Exception e) {
+                    request.mPoster.finish();
+                    if (request.mListener != null) {
+                        request.mListener.onFailure(e);
+                    }
+                }
+            };
+
     /**
      * Get gallery list
      *
      * @param source the source, one of {@link #SOURCE_G}, {@link #SOURCE_EX} and
      *               {@link #SOURCE_LOFI}
      * @param url the url to get gallery list
-     * @param listener the listener for callback
+     * @param listener the listener for callback, use {@link OnStreamGalleryListListener}
+     *                 to get gallery info before the whole page is downloaded
      */
     public void getGalleryList(int source, String url, OnGetGalleryListListener listener) {
-        doBgJob(new GetGalleryListHelper(source, url, listener));
+        getGalleryList(source, url, RequestScheduler.PRIORITY_FOREGROUND, null, null, listener);
+    }
+
+    /**
+     * Get gallery list
+     *
+     * @param source the source, one of {@link #SOURCE_G}, {@link #SOURCE_EX} and
+     *               {@link #SOURCE_LOFI}
+     * @param url the url to get gallery list
+     * @param priority the priority in {@link RequestScheduler}
+     * @param tag the tag for {@link #cancel(Object)}, null for none
+     * @param policy how to use {@link com.hippo.network.HttpCache}, null for not using it
+     * @param listener the listener for callback, use {@link OnStreamGalleryListListener}
+     *                 to get gallery info before the whole page is downloaded.
+     *                 If the same page is being got with the same policy, it shares
+     *                 the result, and gets the gallery info parsed so far at once.
+     */
+    public void getGalleryList(int source, String url, int priority, Object tag,
+            CachePolicy policy, OnGetGalleryListListener listener) {
+        execute(mGalleryListPipeline, new GalleryListRequest(source, url, policy, listener),
+                GALLERY_LIST_CALLBACK, priority, tag,
+                "gallery_list:" + source + ":" + getPolicyKey(policy) + ":" + url);
+    }
+
+    /**
+     * A request must not share a result which might be older than its policy allows
+     */
+    private static String getPolicyKey(CachePolicy policy) {
+        if (policy == null) {
+            return "none";
+        } else {
+            return policy.getFreshTime() + "+" + policy.getStaleTime();
+        }
+    }
+
+    private GdataParser doGetGdata(int source, List<GalleryInfo> batch) throws Exception {
+        EhHttpHelper ehh = EhHttpHelper.obtain();
+        try {
+            String body = ehh.postJson(getApiUrl(source), GdataParser.buildRequest(batch));
+            checkRequest(ehh);
+            GdataParser parser = new GdataParser();
+            parser.parse(body);
+            saveGalleryInfos(parser.giList);
+            return parser;
+        } finally {
+            EhHttpHelper.recycle(ehh);
+        }
+    }
+
+    /**
+     * All batches of a
+     * {@link #fillGalleryInfo(int, List, GalleryInfoList, Object, OnFillGalleryInfoListener)}
+     * call, only touched in UI thread
+     */
+    private static final class GdataBatches {
+
+        private final GalleryInfoList mTarget;
+        private final OnFillGalleryInfoListener mListener;
+        private int mRemaining;
+        private Exception mException;
+
+        public GdataBatches(GalleryInfoList target, OnFillGalleryInfoListener listener,
+                int count) {
+            mTarget = target;
+            mListener = listener;
+            mRemaining = count;
+        }
+
+        /**
+         * Merge the results to the rows with the same gid
+         */
+        public void merge(List<GalleryInfo> results) {
+            for (GalleryInfo result : results) {
+                int index = mTarget.indexOfGid(result.gid);
+                if (index != -1) {
+                    // The list keeps copies, write the merged one back
+                    GalleryInfo gi = mTarget.get(index);
+                    GdataParser.merge(gi, result);
+                    mTarget.set(index, gi);
+                    if (mListener != null) {
+                        mListener.onUpdate(index);
+                    }
+                }
+            }
+        }
+
+        public void onBatchDone(Exception e) {
+            if (e != null && mException == null) {
+                mException = e;
+            }
+            if (--mRemaining == 0 && mListener != null) {
+                if (mException == null) {
+                    mListener.onSuccess();
+                } else {
+                    mListener.onFailure(mException);
+                }
+            }
+        }
+    }
+
+    private static final class GdataRequest {
+
+        private final int mSource;
+        private final List<GalleryInfo> mBatch;
+        private final GdataBatches mBatches;
+
+        public GdataRequest(int source, List<GalleryInfo> batch, GdataBatches batches) {
+            mSource = source;
+            mBatch = batch;
+            mBatches = batches;
+        }
     }
 
+    private final Pipeline<GdataRequest, GdataParser> mGdataPipeline =
+            Pipeline.create(new Pipeline.Stage<GdataRequest, GdataParser>() {
+                @Override
+                public GdataParser apply(GdataRequest request) throws Exception {
+                    return doGetGdata(request.mSource, request.mBatch);
+                }
+            });
+
+    private static final Pipeline.Callback<GdataRequest, GdataParser> GDATA_CALLBACK =
+            new Pipeline.Callback<GdataRequest, GdataParser>() {
+                @Override
+                public void onSuccess(GdataRequest request, GdataParser parser) {
+                    // Merge in UI thread, the list might be shown
+                    request.mBatches.merge(parser.giList);
+                    request.mBatches.onBatchDone(null);
+                }
+
+                @Override
+                public void onFailure(GdataRequest request, Exception e) {
+                    request.mBatches.onBatchDone(e);
+                }
+            };
+
+    /**
+     * Get tags, file count, rating and other metadata from api, and merge
+     * them to the rows of the list with the same gid in UI thread. They are
+     * put to the database too. Every {@link #GDATA_BATCH_SIZE} gallery info
+     * take one request.
+     *
+     * @param source the source, one of {@link #SOURCE_G}, {@link #SOURCE_EX} and
+     *               {@link #SOURCE_LOFI}
+     * @param galleryInfos the gallery info with gid and token
+     * @param target the list to update, rows might be added or removed before the results come
+     * @param tag the tag for {@link #cancel(Object)}, null for none
+     * @param listener the listener for callback, called after all requests end.
+     *                 A batch being got for another call is shared.
+     */
+    public void fillGalleryInfo(int source, List<GalleryInfo> galleryInfos,
+            GalleryInfoList target, Object tag, final OnFillGalleryInfoListener listener) {
+        List<GalleryInfo> list = new ArrayList<>(galleryInfos);
+        int size = list.size();
+        if (size == 0) {
+            if (listener != null) {
+                UiExecutor.getInstance().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onSuccess();
+                    }
+                });
+            }
+            return;
+        }
+
+        int count = (size + GDATA_BATCH_SIZE - 1) / GDATA_BATCH_SIZE;
+        GdataBatches batches = new GdataBatches(target, listener, count);
+        for (int i = 0; i < size; i += GDATA_BATCH_SIZE) {
+            List<GalleryInfo> batch = list.subList(i, Math.min(size, i + GDATA_BATCH_SIZE));
+            execute(mGdataPipeline, new GdataRequest(source, batch, batches), GDATA_CALLBACK,
+                    RequestScheduler.PRIORITY_API, tag, getGdataKey(source, batch));
+        }
+    }
+
+    /**
+     * The same batch asked twice, like by a page and its prefetch, is sent once
+     */
+    private static String getGdataKey(int source, List<GalleryInfo> batch) {
+        StringBuilder sb = new StringBuilder("gdata:").append(source);
+        for (int i = 0, n = batch.size(); i < n; i++) {
+            sb.append(i == 0 ? ':' : ',').append(batch.get(i).gid);
+        }
+        return sb.toString();
+    }
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import com.hippo.ehviewer.data.GalleryInfo;
+import com.hippo.ehviewer.util.EhUtils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Parse the result of api.php gdata
+ */
+public class GdataParser {
+
+    /**
+     * Same as the posted in gallery list
+     */
+    private static final String POSTED_FORMAT = "yyyy-MM-dd HH:mm";
+
+    public List<GalleryInfo> giList;
+
+    /**
+     * Build the request body
+     *
+     * @param galleryInfos gallery info with gid and token, no more than
+     *                     {@link EhClient#GDATA_BATCH_SIZE}
+     * @return the json to post
+     */
+    public static JSONObject buildRequest(List<GalleryInfo> galleryInfos) throws Exception {
+        JSONArray gidList = new JSONArray();
+        for (GalleryInfo gi : galleryInfos) {
+            JSONArray pair = new JSONArray();
+            pair.put(gi.gid);
+            pair.put(gi.token);
+            gidList.put(pair);
+        }
+        JSONObject jo = new JSONObject();
+        jo.put("method", "gdata");
+        jo.put("apiuid", EhClient.APIUID);
+        jo.put("apikey", EhClient.APIKEY);
+        jo.put("gidlist", gidList);
+        // Tags with namespace
+        jo.put("namespace", 1);
+        return jo;
+    }
+
+    public void parse(String body) throws Exception {
+        JSONObject jo = new JSONObject(body);
+        if (jo.has("error")) {
+            throw new EhException(jo.getString("error"));
+        }
+
+        DateFormat dateFormat = new SimpleDateFormat(POSTED_FORMAT, Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        JSONArray gmetadata = jo.getJSONArray("gmetadata");
+        int length = gmetadata.length();
+        giList = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            JSONObject g = gmetadata.getJSONObject(i);
+            // Wrong token or removed gallery
+            if (g.has("error")) {
+                continue;
+            }
+
+            GalleryInfo gi = new GalleryInfo();
+            gi.gid = g.getInt("gid");
+            gi.token = g.getString("token");
+            gi.title = g.optString("title", null);
+            gi.category = EhUtils.getCategory(g.optString("category"));
+            gi.thumb = g.optString("thumb", null);
+            gi.uploader = g.optString("uploader", null);
+            // Numbers come as strings
+            gi.rating = (float) g.optDouble("rating", Float.NaN);
+            gi.fileCount = g.optInt("filecount", 0);
+            long posted = g.optLong("posted", -1);
+            if (posted != -1) {
+                gi.posted = dateFormat.format(new Date(posted * 1000));
+            }
+            JSONArray tags = g.optJSONArray("tags");
+            if (tags != null) {
+                gi.tags = new String[tags.length()];
+                for (int j = 0; j < gi.tags.length; j++) {
+                    gi.tags[j] = tags.getString(j);
+                }
+            }
+            gi.generateSLang();
+            giList.add(gi);
+        }
+    }
+
+    /**
+     * Copy what api knows to the gallery info with the same gid
+     *
+     * @param target the gallery info to update
+     * @param source the gallery info from api
+     */
+    public static void merge(GalleryInfo target, GalleryInfo source) {
+        if (source.title != null && !source.title.isEmpty()) {
+            target.title = source.title;
+            target.simpleLanguage = source.simpleLanguage;
+        }
+        target.category = source.category;
+        if (target.thumb == null) {
+            target.thumb = source.thumb;
+        }
+        if (source.uploader != null) {
+            target.uploader = source.uploader;
+        }
+        if (!Float.isNaN(source.rating)) {
+            target.rating = source.rating;
+        }
+        if (source.posted != null) {
+            target.posted = source.posted;
+        }
+        target.fileCount = source.fileCount;
+        target.tags = source.tags;
+    }
+}
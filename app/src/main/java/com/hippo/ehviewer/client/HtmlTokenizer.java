@@ -0,0 +1,514 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A pull tokenizer for html. It reads from a {@link Reader} with a small
+ * fixed buffer, so the whole document is never in memory.
+ * <p>
+ * It is not a validating parser, it only splits the document into start tags,
+ * end tags and text. Comments and doctype are skipped, content of
+ * <code>script</code> and <code>style</code> are skipped too.
+ * Text and attribute values are NOT unescaped.
+ */
+public class HtmlTokenizer {
+
+    public static final int EOF = 0;
+    public static final int START_TAG = 1;
+    public static final int END_TAG = 2;
+    public static final int TEXT = 3;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final Reader mReader;
+    // One more char for pushing back
+    private final char[] mBuffer = new char[BUFFER_SIZE + 1];
+    private int mPosition;
+    private int mLimit;
+
+    private final StringBuilder mName = new StringBuilder(16);
+    private final StringBuilder mContent = new StringBuilder(256);
+    private boolean mSelfClosing;
+    private int mType = EOF;
+
+    /**
+     * The tag name and the end tag of raw text waiting to be skipped,
+     * for script and style
+     */
+    private String mRawTextName;
+    private String mRawTextEnd;
+
+    public HtmlTokenizer(@NonNull Reader reader) {
+        mReader = reader;
+    }
+
+    private boolean fill() throws IOException {
+        int read = mReader.read(mBuffer, 0, BUFFER_SIZE);
+        if (read <= 0) {
+            mPosition = 0;
+            mLimit = 0;
+            return false;
+        } else {
+            mPosition = 0;
+            mLimit = read;
+            return true;
+        }
+    }
+
+    /**
+     * @return next char, -1 for end
+     */
+    private int read() throws IOException {
+        if (mPosition >= mLimit && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPosition++];
+    }
+
+    /**
+     * @return next char without consuming it, -1 for end
+     */
+    private int peek() throws IOException {
+        if (mPosition >= mLimit && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPosition];
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f';
+    }
+
+    private static char toLowerCase(int c) {
+        return (char) ((c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c);
+    }
+
+    /**
+     * Skip until the string, the string is consumed too
+     */
+    private void skipTo(String end) throws IOException {
+        int length = end.length();
+        // The last chars read, as a ring
+        char[] window = new char[length];
+        int count = 0;
+        int c;
+        while ((c = read()) != -1) {
+            window[count % length] = toLowerCase(c);
+            count++;
+            if (count >= length) {
+                boolean match = true;
+                for (int i = 0; i < length; i++) {
+                    if (window[(count + i) % length] != end.charAt(i)) {
+                        match = false;
+                        break;
+                    }
+                }
+                if (match) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void readTag() throws IOException {
+        mName.setLength(0);
+        mContent.setLength(0);
+        mSelfClosing = false;
+
+        int c;
+        // Tag name
+        while ((c = peek()) != -1 && !isWhitespace(c) && c != '>' && c != '/') {
+            mName.append(toLowerCase(read()));
+        }
+
+        // Attributes, keep quoted '>' in attribute value
+        char quote = 0;
+        while ((c = read()) != -1) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+                mContent.append((char) c);
+            } else if (c == '"' || c == '\'') {
+                quote = (char) c;
+                mContent.append((char) c);
+            } else if (c == '>') {
+                break;
+            } else {
+                mContent.append((char) c);
+            }
+        }
+
+        // Check self closing
+        int length = mContent.length();
+        while (length > 0 && isWhitespace(mContent.charAt(length - 1))) {
+            length--;
+        }
+        if (length > 0 && mContent.charAt(length - 1) == '/') {
+            mSelfClosing = true;
+            length--;
+        }
+        mContent.setLength(length);
+    }
+
+    private void readText(int first) throws IOException {
+        mName.setLength(0);
+        mContent.setLength(0);
+        mContent.append((char) first);
+
+        int c;
+        while ((c = peek()) != -1) {
+            if (c == '<') {
+                // Only '<' followed by letter, '/', '!' or '?' starts a tag
+                read();
+                int next = peek();
+                if (isLetter(next) || next == '/' || next == '!' || next == '?') {
+                    // Push back '<'
+                    mPosition--;
+                    if (mPosition < 0) {
+                        // '<' is at the end of last buffer
+                        System.arraycopy(mBuffer, 0, mBuffer, 1, mLimit);
+                        mBuffer[0] = '<';
+                        mPosition = 0;
+                        mLimit++;
+                    }
+                    break;
+                }
+                mContent.append('<');
+            } else {
+                mContent.append((char) read());
+            }
+        }
+    }
+
+    /**
+     * Move to next token
+     *
+     * @return the type of the token, one of {@link #START_TAG},
+     * {@link #END_TAG}, {@link #TEXT} and {@link #EOF}
+     * @throws IOException
+     */
+    public int next() throws IOException {
+        if (mRawTextEnd != null) {
+            skipTo(mRawTextEnd);
+            mName.setLength(0);
+            mName.append(mRawTextName);
+            mContent.setLength(0);
+            mRawTextName = null;
+            mRawTextEnd = null;
+            mSelfClosing = false;
+            return mType = END_TAG;
+        }
+
+        for (;;) {
+            int c = read();
+            if (c == -1) {
+                mName.setLength(0);
+                mContent.setLength(0);
+                return mType = EOF;
+            }
+
+            if (c != '<') {
+                readText(c);
+                return mType = TEXT;
+            }
+
+            c = peek();
+            if (c == '!') {
+                read();
+                if (peek() == '-') {
+                    skipTo("-->");
+                } else {
+                    // Doctype
+                    skipTo(">");
+                }
+            } else if (c == '?') {
+                skipTo(">");
+            } else if (c == '/') {
+                read();
+                readTag();
+                mContent.setLength(0);
+                return mType = END_TAG;
+            } else if (isLetter(c)) {
+                readTag();
+                if (!mSelfClosing && (isNameEquals("script") || isNameEquals("style"))) {
+                    // Skip raw text, the end tag will be returned in next time
+                    mRawTextName = mName.toString();
+                    mRawTextEnd = "</" + mRawTextName + ">";
+                }
+                return mType = START_TAG;
+            } else {
+                readText('<');
+                return mType = TEXT;
+            }
+        }
+    }
+
+    /**
+     * @return the type of current token
+     */
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     * @param name the name in lower case
+     * @return true if current tag has the name
+     */
+    public boolean isNameEquals(@NonNull String name) {
+        int length = name.length();
+        if (mName.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (mName.charAt(i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the tag name in lower case, empty for text
+     */
+    public @NonNull String getName() {
+        return mName.toString();
+    }
+
+    public boolean isSelfClosing() {
+        return mSelfClosing;
+    }
+
+    /**
+     * @return the raw text
+     */
+    public @NonNull String getText() {
+        return mType == TEXT ? mContent.toString() : "";
+    }
+
+    /**
+     * @return true if the text starts with the prefix
+     */
+    public boolean textStartsWith(@NonNull String prefix) {
+        if (mType != TEXT) {
+            return false;
+        }
+        int length = prefix.length();
+        if (mContent.length() < length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (mContent.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the text contains the string
+     */
+    public boolean textContains(@NonNull String str) {
+        return mType == TEXT && mContent.indexOf(str) != -1;
+    }
+
+    /**
+     * @return true if the text is empty or only contains whitespace
+     */
+    public boolean isTextBlank() {
+        if (mType != TEXT) {
+            return false;
+        }
+        for (int i = 0, n = mContent.length(); i < n; i++) {
+            if (!isWhitespace(mContent.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the int value of the text if the text only contains digits, or -1
+     */
+    public int textAsInt() {
+        int length = mContent.length();
+        if (mType != TEXT || length == 0 || length > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = mContent.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Append the raw text to the StringBuilder, do nothing if it is not text
+     */
+    public void appendText(@NonNull StringBuilder sb) {
+        if (mType == TEXT) {
+            sb.append(mContent);
+        }
+    }
+
+    /**
+     * Find attribute value range of current start tag
+     *
+     * @param name the attribute name in lower case
+     * @return start index in high 32 bits and end index in low 32 bits, -1 for not found
+     */
+    private long findAttribute(@NonNull String name) {
+        if (mType != START_TAG) {
+            return -1;
+        }
+
+        final StringBuilder content = mContent;
+        final int length = content.length();
+        final int nameLength = name.length();
+        int i = 0;
+        while (i < length) {
+            // Skip whitespace
+            while (i < length && isWhitespace(content.charAt(i))) {
+                i++;
+            }
+            // Read name
+            int nameStart = i;
+            while (i < length && !isWhitespace(content.charAt(i)) && content.charAt(i) != '=') {
+                i++;
+            }
+            int nameEnd = i;
+            // Skip whitespace
+            while (i < length && isWhitespace(content.charAt(i))) {
+                i++;
+            }
+
+            int valueStart;
+            int valueEnd;
+            if (i < length && content.charAt(i) == '=') {
+                i++;
+                while (i < length && isWhitespace(content.charAt(i))) {
+                    i++;
+                }
+                if (i < length && (content.charAt(i) == '"' || content.charAt(i) == '\'')) {
+                    char quote = content.charAt(i);
+                    valueStart = ++i;
+                    while (i < length && content.charAt(i) != quote) {
+                        i++;
+                    }
+                    valueEnd = i;
+                    i++;
+                } else {
+                    valueStart = i;
+                    while (i < length && !isWhitespace(content.charAt(i))) {
+                        i++;
+                    }
+                    valueEnd = i;
+                }
+            } else {
+                valueStart = nameEnd;
+                valueEnd = nameEnd;
+            }
+
+            if (nameEnd - nameStart == nameLength) {
+                boolean match = true;
+                for (int j = 0; j < nameLength; j++) {
+                    if (toLowerCase(content.charAt(nameStart + j)) != name.charAt(j)) {
+                        match = false;
+                        break;
+                    }
+                }
+                if (match) {
+                    return ((long) valueStart << 32) | valueEnd;
+                }
+            }
+
+            if (nameEnd == nameStart && valueEnd == valueStart) {
+                // Avoid dead loop
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get attribute value of current start tag
+     *
+     * @param name the attribute name in lower case
+     * @return null for not found
+     */
+    public @Nullable String getAttribute(@NonNull String name) {
+        long range = findAttribute(name);
+        if (range == -1) {
+            return null;
+        } else {
+            return mContent.substring((int) (range >>> 32), (int) range);
+        }
+    }
+
+    /**
+     * @param name the attribute name in lower case
+     * @param value the expected value
+     * @return true if the attribute exists and its value equals the value
+     */
+    public boolean isAttributeEquals(@NonNull String name, @NonNull String value) {
+        long range = findAttribute(name);
+        if (range == -1) {
+            return false;
+        }
+        int start = (int) (range >>> 32);
+        int end = (int) range;
+        int length = value.length();
+        if (end - start != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (mContent.charAt(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param name the attribute name in lower case
+     * @param str the string to find
+     * @return true if the attribute exists and its value contains the string
+     */
+    public boolean attributeContains(@NonNull String name, @NonNull String str) {
+        long range = findAttribute(name);
+        if (range == -1) {
+            return false;
+        }
+        int start = (int) (range >>> 32);
+        int end = (int) range;
+        int index = mContent.indexOf(str, start);
+        return index != -1 && index + str.length() <= end;
+    }
+}
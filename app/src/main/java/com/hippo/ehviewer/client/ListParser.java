@@ -15,6 +15,9 @@
 
 package com.hippo.ehviewer.client;
 
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
 import com.hippo.ehviewer.data.GalleryInfo;
 import com.hippo.ehviewer.data.LofiGalleryInfo;
 import com.hippo.ehviewer.util.EhUtils;
@@ -22,11 +25,17 @@ import com.hippo.util.AssertException;
 import com.hippo.util.AssertUtils;
 import com.hippo.util.Utils;
 
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/**
+ * Parse gallery list page. It reads the page with {@link HtmlTokenizer},
+ * gallery is added to {@link #giList} once its row is parsed.
+ */
 public class ListParser {
     private static final String PARSE_MESSAGE = "Gallery list parser error";
 
@@ -34,6 +43,45 @@ public class ListParser {
 
     public static final int CURRENT_PAGE_IS_LAST = -1;
 
+    // Page number states, for <a>(\d+)</a></td><td>(<a>)?&
+    private static final int PAGE_NONE = 0;
+    private static final int PAGE_A = 1;
+    private static final int PAGE_A_END = 2;
+    private static final int PAGE_TD_END = 3;
+    private static final int PAGE_TD = 4;
+    private static final int PAGE_NEXT = 5;
+    private static final int PAGE_NEXT_A = 6;
+
+    // Gallery row states
+    private static final int ROW_NONE = 0;
+    private static final int ROW_CATEGORY = 1;
+    private static final int ROW_POSTED_TD = 2;
+    private static final int ROW_POSTED = 3;
+    private static final int ROW_THUMB_DIV = 4;
+    private static final int ROW_THUMB = 5;
+    private static final int ROW_URL_DIV = 6;
+    private static final int ROW_URL = 7;
+    private static final int ROW_RATING = 8;
+    private static final int ROW_UPLOADER_TD = 9;
+    private static final int ROW_UPLOADER_A = 10;
+    private static final int ROW_UPLOADER = 11;
+
+    // Lofi gallery row states
+    private static final int LOFI_NONE = 0;
+    private static final int LOFI_URL = 1;
+    private static final int LOFI_THUMB = 2;
+    private static final int LOFI_TITLE_A = 3;
+    private static final int LOFI_TITLE = 4;
+    private static final int LOFI_LABEL_TD = 5;
+    private static final int LOFI_LABEL = 6;
+    private static final int LOFI_VALUE_TD = 7;
+    private static final int LOFI_VALUE = 8;
+
+    private static final String LOFI_LABEL_POSTED = "Posted:";
+    private static final String LOFI_LABEL_CATEGORY = "Category:";
+    private static final String LOFI_LABEL_TAGS = "Tags:";
+    private static final String LOFI_LABEL_RATING = "Rating:";
+
     /**
      * If NOT FOUND, pageNum is 0.<br>
      * For lofi, we can not get pages number,
@@ -44,70 +92,208 @@ public class ListParser {
 
     public List<GalleryInfo> giList;
 
-    private void parse(String body) throws EhException {
-        Pattern p;
-        Matcher m;
-
-        // Get page number
-        p = Pattern.compile("<a[^<>]+>([\\d]+)</a></td><td[^<>]+>(?:<a[^<>]+>)?&");
-        m = p.matcher(body);
-        if (m.find()) {
-            pageNum = Integer.parseInt(m.group(1));
-        } else if (body.contains("No hits found</p>")) {
-            pageNum = 0;
-        } else {
-            // Can not get page number
-            throw new EhException(PARSE_MESSAGE);
+    private OnParseGalleryInfoListener mListener;
+
+    private final StringBuilder mTextBuilder = new StringBuilder();
+
+    public interface OnParseGalleryInfoListener {
+        /**
+         * Called in parser thread once a gallery is parsed
+         *
+         * @param gi the gallery
+         */
+        void onParseGalleryInfo(GalleryInfo gi);
+    }
+
+    public void setOnParseGalleryInfoListener(@Nullable OnParseGalleryInfoListener listener) {
+        mListener = listener;
+    }
+
+    private void addGalleryInfo(@NonNull GalleryInfo gi) {
+        giList.add(gi);
+        if (mListener != null) {
+            mListener.onParseGalleryInfo(gi);
         }
+    }
 
-        // Get gallery
-        giList = new ArrayList<>(DEFAULT_LIST_SIZE);
+    private String getText() {
+        return mTextBuilder.toString().trim();
+    }
 
-        p = Pattern.compile("<td class=\"itdc\">(?:<a.+?>)?<img.+?alt=\"(.+?)\".+?/>(?:</a>)?</td>" // category
-                + "<td.+?>(.+?)</td>" // posted
-                + "<td.+?><div.+?><div.+?height:(\\d+)px; width:(\\d+)px\">"
-                + "(?:<img.+?src=\"(.+?)\".+?alt=\"(.+?)\" style.+?/>"
-                + "|init~([^<>\"~]+~[^<>\"~]+)~([^<>]+))" // thumb and title
-                + "</div>"
-                + ".+?"
-                + "<div class=\"it5\"><a href=\"([^<>\"]+)\"[^<>]+>(.+?)</a></div>" // url and title
-                + ".+?"
-                + "<div class=\"ir it4r\" style=\"([^<>\"]+)\">" // rating
-                + ".+?"
-                + "<td class=\"itu\"><div><a.+?>(.+?)</a>"); // uploader
-        m = p.matcher(body);
-        while (m.find()) {
-            GalleryInfo gi = new GalleryInfo();
-
-            gi.category = EhUtils.getCategory(m.group(1));
-            gi.posted = m.group(2);
-            gi.thumbHeight = Integer.parseInt(m.group(3));
-            gi.thumbWidth = Integer.parseInt(m.group(4));
-
-            if (m.group(5) == null) {
-                gi.thumb = Utils.unescapeXml("http://"
-                        + m.group(7).replace('~', '/'));
-                gi.title = Utils.unescapeXml(m.group(8));
-            } else {
-                gi.thumb = Utils.unescapeXml(m.group(5));
-                gi.title = Utils.unescapeXml(m.group(6));
+    private void parse(HtmlTokenizer tokenizer) throws Exception {
+        final StringBuilder sb = mTextBuilder;
+        final DetailUrlParser dup = new DetailUrlParser();
+
+        boolean pageFound = false;
+        boolean noHits = false;
+        int pageState = PAGE_NONE;
+        int pageCandidate = 0;
+
+        int rowState = ROW_NONE;
+        GalleryInfo gi = null;
+
+        int type;
+        while ((type = tokenizer.next()) != HtmlTokenizer.EOF) {
+            // Get page number
+            if (!pageFound && !(type == HtmlTokenizer.TEXT && tokenizer.isTextBlank())) {
+                switch (pageState) {
+                    case PAGE_A:
+                        pageCandidate = tokenizer.textAsInt();
+                        pageState = pageCandidate != -1 ? PAGE_A_END : PAGE_NONE;
+                        break;
+                    case PAGE_A_END:
+                        pageState = type == HtmlTokenizer.END_TAG &&
+                                tokenizer.isNameEquals("a") ? PAGE_TD_END : PAGE_NONE;
+                        break;
+                    case PAGE_TD_END:
+                        pageState = type == HtmlTokenizer.END_TAG &&
+                                tokenizer.isNameEquals("td") ? PAGE_TD : PAGE_NONE;
+                        break;
+                    case PAGE_TD:
+                        pageState = type == HtmlTokenizer.START_TAG &&
+                                tokenizer.isNameEquals("td") ? PAGE_NEXT : PAGE_NONE;
+                        break;
+                    case PAGE_NEXT:
+                    case PAGE_NEXT_A:
+                        if (tokenizer.textStartsWith("&")) {
+                            pageNum = pageCandidate;
+                            pageFound = true;
+                        } else if (pageState == PAGE_NEXT && type == HtmlTokenizer.START_TAG &&
+                                tokenizer.isNameEquals("a")) {
+                            pageState = PAGE_NEXT_A;
+                            break;
+                        }
+                        pageState = PAGE_NONE;
+                        break;
+                }
+                if (pageState == PAGE_NONE && type == HtmlTokenizer.START_TAG &&
+                        tokenizer.isNameEquals("a")) {
+                    pageState = PAGE_A;
+                }
             }
 
-            Pattern pattern = Pattern
-                    .compile("/(\\d+)/(\\w+)");
-            Matcher matcher = pattern.matcher(m.group(9));
-            if (matcher.find()) {
-                gi.gid = Integer.parseInt(matcher.group(1));
-                gi.token = matcher.group(2);
-            } else {
+            if (type == HtmlTokenizer.TEXT && !noHits && tokenizer.textContains("No hits found")) {
+                noHits = true;
+            }
+
+            // New row, drop the unfinished one
+            if (type == HtmlTokenizer.START_TAG && tokenizer.isNameEquals("td") &&
+                    tokenizer.isAttributeEquals("class", "itdc")) {
+                gi = new GalleryInfo();
+                rowState = ROW_CATEGORY;
                 continue;
             }
 
-            gi.rating = Utils.parseFloatSafely(getRate(m.group(11)), Float.NaN);
-            gi.uploader = m.group(12);
-            gi.generateSLang();
+            switch (rowState) {
+                case ROW_CATEGORY:
+                    if (type == HtmlTokenizer.START_TAG && tokenizer.isNameEquals("img")) {
+                        gi.category = EhUtils.getCategory(tokenizer.getAttribute("alt"));
+                        rowState = ROW_POSTED_TD;
+                    }
+                    break;
+                case ROW_POSTED_TD:
+                    if (type == HtmlTokenizer.START_TAG && tokenizer.isNameEquals("td")) {
+                        sb.setLength(0);
+                        rowState = ROW_POSTED;
+                    }
+                    break;
+                case ROW_POSTED:
+                    if (type == HtmlTokenizer.TEXT) {
+                        tokenizer.appendText(sb);
+                    } else if (type == HtmlTokenizer.END_TAG && tokenizer.isNameEquals("td")) {
+                        gi.posted = getText();
+                        rowState = ROW_THUMB_DIV;
+                    }
+                    break;
+                case ROW_THUMB_DIV:
+                    if (type == HtmlTokenizer.START_TAG && tokenizer.isNameEquals("div") &&
+                            parseThumbSize(tokenizer.getAttribute("style"), gi)) {
+                        rowState = ROW_THUMB;
+                    }
+                    break;
+                case ROW_THUMB:
+                    if (type == HtmlTokenizer.START_TAG && tokenizer.isNameEquals("img")) {
+                        gi.thumb = Utils.unescapeXml(tokenizer.getAttribute("src"));
+                        gi.title = Utils.unescapeXml(tokenizer.getAttribute("alt"));
+                        rowState = ROW_URL_DIV;
+                    } else if (tokenizer.textStartsWith("init~")) {
+                        // init~host~path~title
+                        String text = tokenizer.getText();
+                        int index1 = text.indexOf('~', 5);
+                        int index2 = index1 == -1 ? -1 : text.indexOf('~', index1 + 1);
+                        if (index2 == -1) {
+                            gi = null;
+                            rowState = ROW_NONE;
+                        } else {
+                            gi.thumb = Utils.unescapeXml("http://" + text.substring(5, index1)
+                                    + '/' + text.substring(index1 + 1, index2));
+                            gi.title = Utils.unescapeXml(text.substring(index2 + 1));
+                            rowState = ROW_URL_DIV;
+                        }
+                    } else if (!tokenizer.isTextBlank()) {
+                        // Can not get thumb
+                        gi = null;
+                        rowState = ROW_NONE;
+                    }
+                    break;
+                case ROW_URL_DIV:
+                    if (type == HtmlTokenizer.START_TAG && tokenizer.isNameEquals("div") &&
+                            tokenizer.isAttributeEquals("class", "it5")) {
+                        rowState = ROW_URL;
+                    }
+                    break;
+                case ROW_URL:
+                    if (type == HtmlTokenizer.START_TAG && tokenizer.isNameEquals("a")) {
+                        if (dup.parse(tokenizer.getAttribute("href"))) {
+                            gi.gid = dup.gid;
+                            gi.token = dup.token;
+                            rowState = ROW_RATING;
+                        } else {
+                            gi = null;
+                            rowState = ROW_NONE;
+                        }
+                    }
+                    break;
+                case ROW_RATING:
+                    if (type == HtmlTokenizer.START_TAG && tokenizer.isNameEquals("div") &&
+                            tokenizer.attributeContains("class", "it4r")) {
+                        gi.rating = getRate(tokenizer.getAttribute("style"));
+                        rowState = ROW_UPLOADER_TD;
+                    }
+                    break;
+                case ROW_UPLOADER_TD:
+                    if (type == HtmlTokenizer.START_TAG && tokenizer.isNameEquals("td") &&
+                            tokenizer.isAttributeEquals("class", "itu")) {
+                        rowState = ROW_UPLOADER_A;
+                    }
+                    break;
+                case ROW_UPLOADER_A:
+                    if (type == HtmlTokenizer.START_TAG && tokenizer.isNameEquals("a")) {
+                        sb.setLength(0);
+                        rowState = ROW_UPLOADER;
+                    }
+                    break;
+                case ROW_UPLOADER:
+                    if (type == HtmlTokenizer.TEXT) {
+                        tokenizer.appendText(sb);
+                    } else if (type == HtmlTokenizer.END_TAG && tokenizer.isNameEquals("a")) {
+                        gi.uploader = getText();
+                        gi.generateSLang();
+                        addGalleryInfo(gi);
+                        gi = null;
+                        rowState = ROW_NONE;
+                    }
+                    break;
+            }
+        }
 
-            giList.add(gi);
+        if (!pageFound) {
+            if (noHits) {
+                pageNum = 0;
+            } else {
+                // Can not get page number
+                throw new EhException(PARSE_MESSAGE);
+            }
         }
 
         if (giList.size() == 0) {
@@ -115,62 +301,138 @@ public class ListParser {
         }
     }
 
-    private void parseLofi(String body) throws Exception {
-        Pattern p;
-        Matcher m;
+    private void parseLofi(HtmlTokenizer tokenizer) throws Exception {
+        final StringBuilder sb = mTextBuilder;
+        final DetailUrlParser dup = new DetailUrlParser();
+        final String[] pau = new String[2];
+
+        boolean noHits = false;
+        boolean noMoreHits = false;
+        boolean hasNextPage = false;
+
+        int rowState = LOFI_NONE;
+        LofiGalleryInfo lgi = null;
+        String label = null;
+
+        int type;
+        while ((type = tokenizer.next()) != HtmlTokenizer.EOF) {
+            if (type == HtmlTokenizer.TEXT) {
+                if (!noHits && tokenizer.textContains("No hits found")) {
+                    noHits = true;
+                } else if (!noMoreHits && tokenizer.textContains("No more hits found")) {
+                    noMoreHits = true;
+                } else if (!hasNextPage && tokenizer.textContains("Next Page &gt;")) {
+                    hasNextPage = true;
+                }
+            }
 
-        // Get gallery
-        giList = new ArrayList<>(DEFAULT_LIST_SIZE);
-        p = Pattern.compile("<td class=\"ii\"><a href=\"(.+?)\">" // detail url
-                + "<img src=\"(.+?)\".+?/>" // thumb url
-                + ".+?<a class=\"b\" href=\".+?\">(.+?)</a>" // title
-                + ".+?<td class=\"ik ip\">Posted:</td><td class=\"ip\">(.+?)</td>" // Posted and uploader
-                + "</tr><tr><td class=\"ik\">Category:</td><td>(.+?)</td>" // Category
-                + "</tr><tr><td class=\"ik\">Tags:</td><td>(.+?)</td>" // Tags
-                + "</tr><tr><td class=\"ik\">Rating:</td><td class=\"ir\">(.+?)</td>"); // rating
-        m = p.matcher(body);
-        DetailUrlParser dup = new DetailUrlParser();
-        String[] pau = new String[2];
-        while (m.find()) {
-            LofiGalleryInfo lgi = new LofiGalleryInfo();
-
-            dup.parser(m.group(1));
-            lgi.gid = dup.gid;
-            lgi.token = dup.token;
-
-            lgi.thumb = Utils.unescapeXml(m.group(2));
-            lgi.title = Utils.unescapeXml(m.group(3));
-
-            getPostedAndUploader(m.group(4), pau);
-            lgi.posted = pau[0];
-            lgi.uploader = pau[1];
-
-            lgi.category = EhUtils.getCategory(m.group(5));
-            String tags = m.group(6);
-            if (tags.equals("-"))
-                lgi.lofiTags = new String[0];
-            else
-                lgi.lofiTags = tags.split(", ");
-            String rating = m.group(7);
-            if (rating.equals("-"))
-                lgi.rating = Float.NaN;
-            else
-                lgi.rating = getStartNum(rating);
-            lgi.generateSLang();
-
-            giList.add(lgi);
+            // New row, the second td.ii of the row is skipped
+            if ((rowState == LOFI_NONE || rowState == LOFI_URL) &&
+                    type == HtmlTokenizer.START_TAG && tokenizer.isNameEquals("td") &&
+                    tokenizer.isAttributeEquals("class", "ii")) {
+                lgi = new LofiGalleryInfo();
+                rowState = LOFI_URL;
+                continue;
+            }
+
+            switch (rowState) {
+                case LOFI_URL:
+                    if (type == HtmlTokenizer.START_TAG && tokenizer.isNameEquals("a")) {
+                        if (dup.parse(tokenizer.getAttribute("href"))) {
+                            lgi.gid = dup.gid;
+                            lgi.token = dup.token;
+                            rowState = LOFI_THUMB;
+                        } else {
+                            lgi = null;
+                            rowState = LOFI_NONE;
+                        }
+                    }
+                    break;
+                case LOFI_THUMB:
+                    if (type == HtmlTokenizer.START_TAG && tokenizer.isNameEquals("img")) {
+                        lgi.thumb = Utils.unescapeXml(tokenizer.getAttribute("src"));
+                        rowState = LOFI_TITLE_A;
+                    }
+                    break;
+                case LOFI_TITLE_A:
+                    if (type == HtmlTokenizer.START_TAG && tokenizer.isNameEquals("a") &&
+                            tokenizer.isAttributeEquals("class", "b")) {
+                        sb.setLength(0);
+                        rowState = LOFI_TITLE;
+                    }
+                    break;
+                case LOFI_TITLE:
+                    if (type == HtmlTokenizer.TEXT) {
+                        tokenizer.appendText(sb);
+                    } else if (type == HtmlTokenizer.END_TAG && tokenizer.isNameEquals("a")) {
+                        lgi.title = Utils.unescapeXml(getText());
+                        rowState = LOFI_LABEL_TD;
+                    }
+                    break;
+                case LOFI_LABEL_TD:
+                    if (type == HtmlTokenizer.START_TAG && tokenizer.isNameEquals("td") &&
+                            tokenizer.attributeContains("class", "ik")) {
+                        sb.setLength(0);
+                        rowState = LOFI_LABEL;
+                    }
+                    break;
+                case LOFI_LABEL:
+                    if (type == HtmlTokenizer.TEXT) {
+                        tokenizer.appendText(sb);
+                    } else if (type == HtmlTokenizer.END_TAG && tokenizer.isNameEquals("td")) {
+                        label = getText();
+                        rowState = LOFI_VALUE_TD;
+                    }
+                    break;
+                case LOFI_VALUE_TD:
+                    if (type == HtmlTokenizer.START_TAG && tokenizer.isNameEquals("td")) {
+                        sb.setLength(0);
+                        rowState = LOFI_VALUE;
+                    }
+                    break;
+                case LOFI_VALUE:
+                    if (type == HtmlTokenizer.TEXT) {
+                        tokenizer.appendText(sb);
+                    } else if (type == HtmlTokenizer.END_TAG && tokenizer.isNameEquals("td")) {
+                        String value = getText();
+                        rowState = LOFI_LABEL_TD;
+                        if (LOFI_LABEL_POSTED.equals(label)) {
+                            getPostedAndUploader(value, pau);
+                            lgi.posted = pau[0];
+                            lgi.uploader = pau[1];
+                        } else if (LOFI_LABEL_CATEGORY.equals(label)) {
+                            lgi.category = EhUtils.getCategory(value);
+                        } else if (LOFI_LABEL_TAGS.equals(label)) {
+                            if (value.equals("-"))
+                                lgi.lofiTags = new String[0];
+                            else
+                                lgi.lofiTags = value.split(", ");
+                        } else if (LOFI_LABEL_RATING.equals(label)) {
+                            // Rating is the last one
+                            if (value.equals("-"))
+                                lgi.rating = Float.NaN;
+                            else
+                                lgi.rating = getStartNum(value);
+                            lgi.generateSLang();
+                            addGalleryInfo(lgi);
+                            lgi = null;
+                            rowState = LOFI_NONE;
+                        }
+                    }
+                    break;
+            }
         }
 
         if (giList.size() == 0) {
-            if (body.contains("No hits found</div>")) {
+            if (noHits) {
                 pageNum = 0;
-            } else if (body.contains("No more hits found</div>")) {
+            } else if (noMoreHits) {
                 throw new EhException("Index is out of range");
             } else {
                 throw new EhException(PARSE_MESSAGE);
             }
         } else {
-            if (!body.contains("Next Page &gt;</a>")) {
+            if (!hasNextPage) {
                 pageNum = CURRENT_PAGE_IS_LAST;
             } else {
                 pageNum = Integer.MAX_VALUE;
@@ -180,44 +442,127 @@ public class ListParser {
 
     public void parse(String body, int source) throws Exception {
         AssertUtils.assertNotNull("Body is null when parse gallery list", body);
+        parse(new StringReader(body), source);
+    }
+
+    /**
+     * Parse the page from the stream directly
+     *
+     * @param is the stream
+     * @param charset the charset of the stream
+     * @param source the source
+     */
+    public void parse(InputStream is, String charset, int source) throws Exception {
+        AssertUtils.assertNotNull("InputStream is null when parse gallery list", is);
+        parse(new InputStreamReader(is, charset), source);
+    }
+
+    public void parse(Reader reader, int source) throws Exception {
+        HtmlTokenizer tokenizer = new HtmlTokenizer(reader);
+        pageNum = 0;
+        giList = new ArrayList<>(DEFAULT_LIST_SIZE);
 
         switch (source) {
             default:
             case EhClient.SOURCE_G:
             case EhClient.SOURCE_EX: {
-                parse(body);
+                parse(tokenizer);
                 break;
             }
             case EhClient.SOURCE_LOFI: {
-                parseLofi(body);
+                parseLofi(tokenizer);
                 break;
             }
         }
     }
 
-    private String getRate(String rawRate) {
-        Pattern p = Pattern.compile("\\d+px");
-        Matcher m = p.matcher(rawRate);
-        int num1;
-        int num2;
-        int rate = 5;
-        String re;
-        if (m.find())
-            num1 = Integer.parseInt(m.group().replace("px", ""));
-        else
-            return null;
-        if (m.find())
-            num2 = Integer.parseInt(m.group().replace("px", ""));
-        else
-            return null;
-        rate = rate - num1 / 16;
+    /**
+     * Get thumb size from style like <code>height:283px; width:200px</code>
+     *
+     * @return false for not found
+     */
+    private static boolean parseThumbSize(@Nullable String style, GalleryInfo gi) {
+        if (style == null) {
+            return false;
+        }
+        int height = parsePxValue(style, "height:");
+        int width = parsePxValue(style, "width:");
+        if (height == -1 || width == -1) {
+            return false;
+        }
+        gi.thumbHeight = height;
+        gi.thumbWidth = width;
+        return true;
+    }
+
+    /**
+     * @return the value of <code>key 123px</code>, -1 for not found
+     */
+    private static int parsePxValue(String style, String key) {
+        int index = style.indexOf(key);
+        if (index == -1) {
+            return -1;
+        }
+        index += key.length();
+        int length = style.length();
+        while (index < length && style.charAt(index) == ' ') {
+            index++;
+        }
+        int value = 0;
+        int start = index;
+        char c;
+        while (index < length && (c = style.charAt(index)) >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            index++;
+        }
+        if (index == start || !style.startsWith("px", index)) {
+            return -1;
+        }
+        return value;
+    }
+
+    /**
+     * Get rating from style like <code>background-position:-16px -21px</code>
+     *
+     * @return {@link Float#NaN} for not found
+     */
+    private static float getRate(@Nullable String rawRate) {
+        if (rawRate == null) {
+            return Float.NaN;
+        }
+
+        // Find two numbers followed by px
+        int num1 = -1;
+        int num2 = -1;
+        int length = rawRate.length();
+        for (int i = 0; i < length && num2 == -1; i++) {
+            char c = rawRate.charAt(i);
+            if (c < '0' || c > '9') {
+                continue;
+            }
+            int value = 0;
+            while (i < length && (c = rawRate.charAt(i)) >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                i++;
+            }
+            if (rawRate.startsWith("px", i)) {
+                if (num1 == -1) {
+                    num1 = value;
+                } else {
+                    num2 = value;
+                }
+            }
+        }
+        if (num2 == -1) {
+            return Float.NaN;
+        }
+
+        int rate = 5 - num1 / 16;
         if (num2 == 21) {
-            rate--;
-            re = Integer.toString(rate);
-            re = re + ".5";
-        } else
-            re = Integer.toString(rate);
-        return re;
+            return rate - 0.5f;
+        } else {
+            return rate;
+        }
     }
 
     private static final String PAU_SPACER = " by ";
@@ -0,0 +1,711 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import com.hippo.ehviewer.util.EhUtils;
+import com.hippo.util.Log;
+import com.hippo.util.PriorityThreadFactory;
+import com.hippo.util.SerialThreadExecutor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keep gallery info got from list and api, so the last list can be shown
+ * at once when the app starts, and gallery info can be filtered without network.
+ * Title, uploader and tags are indexed by FTS4 for {@link #search(String, int)}.
+ * At most 10000 galleries are kept, and a search only ranks the newest 500
+ * matches, so the cost of a search is bounded by them, not by how many
+ * galleries have been seen.
+ * <p>
+ * The database is opened in {@link #getExecutor()} after creation. The methods
+ * access the database in the calling thread, do not call them in UI thread.
+ * Use {@link #getExecutor()} to run them in background.
+ */
+public final class GalleryDatabase {
+
+    private static final String TAG = GalleryDatabase.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "gallery_database.db";
+    private static final int VERSION = 3;
+
+    private static final String TABLE_GALLERIES = "galleries";
+    private static final String TABLE_LAST_LIST = "last_list";
+    private static final String TABLE_FTS = "galleries_fts";
+
+    public static final String COLUMN_GID = "gid";
+    public static final String COLUMN_TOKEN = "token";
+    public static final String COLUMN_TITLE = "title";
+    public static final String COLUMN_POSTED = "posted";
+    public static final String COLUMN_CATEGORY = "category";
+    public static final String COLUMN_THUMB = "thumb";
+    public static final String COLUMN_THUMB_WIDTH = "thumb_width";
+    public static final String COLUMN_THUMB_HEIGHT = "thumb_height";
+    public static final String COLUMN_UPLOADER = "uploader";
+    public static final String COLUMN_RATING = "rating";
+    public static final String COLUMN_LANGUAGE = "language";
+    public static final String COLUMN_TAGS = "tags";
+    public static final String COLUMN_FILE_COUNT = "file_count";
+    public static final String COLUMN_UPDATED = "updated";
+    public static final String COLUMN_POSITION = "position";
+
+    private static final String TAG_SEPARATOR = "\n";
+
+    /**
+     * Rank weights of title, uploader and tags in FTS table
+     */
+    private static final float[] FTS_WEIGHTS = {1.0f, 1.5f, 2.0f};
+    /**
+     * Only the first 8 words of the query are used
+     */
+    private static final int MAX_QUERY_WORDS = 8;
+    /**
+     * Words shorter than it are not used as prefix
+     */
+    private static final int MIN_PREFIX_LENGTH = 2;
+    /**
+     * Only rank the newest 500 matched rows, so a common word is still fast
+     */
+    private static final int MAX_CANDIDATES = 500;
+
+    /**
+     * Keep at most 10000 gallery info, the old ones are removed
+     */
+    private static final int MAX_GALLERIES = 10000;
+    /**
+     * Check the size after every 20 writes
+     */
+    private static final int TRIM_INTERVAL = 20;
+
+    private static final String SQL_INSERT = "INSERT OR IGNORE INTO " + TABLE_GALLERIES +
+            " (" + COLUMN_GID + ") VALUES (?)";
+    // Keep what the new one does not have, list does not have tags and api
+    // does not have thumb size
+    private static final String SQL_UPDATE = "UPDATE " + TABLE_GALLERIES + " SET " +
+            COLUMN_TOKEN + " = COALESCE(?, " + COLUMN_TOKEN + "), " +
+            COLUMN_TITLE + " = COALESCE(?, " + COLUMN_TITLE + "), " +
+            COLUMN_POSTED + " = COALESCE(?, " + COLUMN_POSTED + "), " +
+            COLUMN_CATEGORY + " = ?, " +
+            COLUMN_THUMB + " = COALESCE(?, " + COLUMN_THUMB + "), " +
+            COLUMN_THUMB_WIDTH + " = CASE WHEN ? > 0 THEN ? ELSE " + COLUMN_THUMB_WIDTH + " END, " +
+            COLUMN_THUMB_HEIGHT + " = CASE WHEN ? > 0 THEN ? ELSE " + COLUMN_THUMB_HEIGHT + " END, " +
+            COLUMN_UPLOADER + " = COALESCE(?, " + COLUMN_UPLOADER + "), " +
+            COLUMN_RATING + " = COALESCE(?, " + COLUMN_RATING + "), " +
+            COLUMN_LANGUAGE + " = COALESCE(?, " + COLUMN_LANGUAGE + "), " +
+            COLUMN_TAGS + " = COALESCE(?, " + COLUMN_TAGS + "), " +
+            COLUMN_FILE_COUNT + " = CASE WHEN ? > 0 THEN ? ELSE " + COLUMN_FILE_COUNT + " END, " +
+            COLUMN_UPDATED + " = ?" +
+            " WHERE " + COLUMN_GID + " = ?";
+    private static final String SQL_INSERT_LAST_LIST = "INSERT INTO " + TABLE_LAST_LIST +
+            " (" + COLUMN_POSITION + ", " + COLUMN_GID + ") VALUES (?, ?)";
+
+    private static GalleryDatabase sInstance;
+
+    private final DatabaseHelper mDatabaseHelper;
+    /**
+     * Guarded by mDatabaseHelper
+     */
+    private SQLiteDatabase mDatabase;
+    private final SerialThreadExecutor mExecutor;
+    private int mWriteCount;
+
+    public static synchronized GalleryDatabase getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new GalleryDatabase(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private GalleryDatabase(Context context) {
+        mDatabaseHelper = new DatabaseHelper(context);
+        mExecutor = new SerialThreadExecutor(10L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new PriorityThreadFactory(TAG, Process.THREAD_PRIORITY_BACKGROUND));
+        // Open database in background
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getDatabase();
+                } catch (SQLiteException e) {
+                    Log.e(TAG, "Can't open database", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Open the database at the first call, it might take long,
+     * so do not call it in UI thread
+     */
+    private SQLiteDatabase getDatabase() {
+        synchronized (mDatabaseHelper) {
+            if (mDatabase == null) {
+                mDatabase = mDatabaseHelper.getWritableDatabase();
+            }
+            return mDatabase;
+        }
+    }
+
+    /**
+     * The executor to access the database in background,
+     * jobs run one by one in order
+     */
+    public Executor getExecutor() {
+        return mExecutor;
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index,
+            @Nullable String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private void putGalleryInfo(SQLiteStatement insert, SQLiteStatement update,
+            GalleryInfo gi, long now) {
+        insert.bindLong(1, gi.gid);
+        insert.executeInsert();
+
+        int i = 1;
+        bindStringOrNull(update, i++, gi.token);
+        bindStringOrNull(update, i++, gi.title);
+        long posted = GalleryInfoList.parsePosted(gi.posted);
+        if (posted == GalleryInfoList.NO_POSTED) {
+            update.bindNull(i++);
+        } else {
+            update.bindLong(i++, posted);
+        }
+        update.bindLong(i++, gi.category);
+        bindStringOrNull(update, i++, gi.thumb);
+        update.bindLong(i++, gi.thumbWidth);
+        update.bindLong(i++, gi.thumbWidth);
+        update.bindLong(i++, gi.thumbHeight);
+        update.bindLong(i++, gi.thumbHeight);
+        bindStringOrNull(update, i++, gi.uploader);
+        if (Float.isNaN(gi.rating)) {
+            update.bindNull(i++);
+        } else {
+            update.bindDouble(i++, gi.rating);
+        }
+        bindStringOrNull(update, i++, gi.simpleLanguage);
+        String[] tags = gi.tags;
+        if (tags == null && gi instanceof LofiGalleryInfo) {
+            tags = ((LofiGalleryInfo) gi).lofiTags;
+        }
+        bindStringOrNull(update, i++, tags == null || tags.length == 0 ? null :
+                TextUtils.join(TAG_SEPARATOR, tags));
+        update.bindLong(i++, gi.fileCount);
+        update.bindLong(i++, gi.fileCount);
+        update.bindLong(i++, now);
+        update.bindLong(i, gi.gid);
+        update.execute();
+    }
+
+    /**
+     * Add or update the gallery info in one transaction.
+     * Fields which are unknown in the new one are kept.
+     */
+    public void putGalleryInfos(@NonNull List<? extends GalleryInfo> galleryInfos) {
+        if (galleryInfos.isEmpty()) {
+            return;
+        }
+
+        SQLiteDatabase db = getDatabase();
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT);
+        SQLiteStatement update = db.compileStatement(SQL_UPDATE);
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            for (int i = 0, n = galleryInfos.size(); i < n; i++) {
+                putGalleryInfo(insert, update, galleryInfos.get(i), now);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+            update.close();
+        }
+
+        synchronized (this) {
+            if (++mWriteCount % TRIM_INTERVAL != 0) {
+                return;
+            }
+        }
+        trim(MAX_GALLERIES);
+    }
+
+    /**
+     * Remove the gallery info which are not updated for the longest time,
+     * the ones in last list are kept
+     */
+    private void trim(int maxCount) {
+        try {
+            getDatabase().delete(TABLE_GALLERIES, COLUMN_GID + " IN " +
+                    "(SELECT " + COLUMN_GID + " FROM " + TABLE_GALLERIES +
+                    " ORDER BY " + COLUMN_UPDATED + " DESC" +
+                    " LIMIT -1 OFFSET " + maxCount + ")" +
+                    " AND " + COLUMN_GID + " NOT IN (SELECT " + COLUMN_GID +
+                    " FROM " + TABLE_LAST_LIST + ")", null);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "trim", e);
+        }
+    }
+
+    /**
+     * Remember the gallery list shown, the gallery info should be put
+     * by {@link #putGalleryInfos(List)} before.
+     */
+    public void setLastList(@NonNull int[] gids) {
+        SQLiteDatabase db = getDatabase();
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT_LAST_LIST);
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_LAST_LIST, null, null);
+            for (int i = 0; i < gids.length; i++) {
+                insert.bindLong(1, i);
+                insert.bindLong(2, gids[i]);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    /**
+     * Call {@link #setLastList(int[])} in {@link #getExecutor()}
+     */
+    public void setLastListAsync(@NonNull List<? extends GalleryInfo> galleryInfos) {
+        final int[] gids = new int[galleryInfos.size()];
+        for (int i = 0; i < gids.length; i++) {
+            gids[i] = galleryInfos.get(i).gid;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    setLastList(gids);
+                } catch (SQLiteException e) {
+                    Log.e(TAG, "setLastList", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the list set by {@link #setLastList(int[])}
+     */
+    public @NonNull GalleryInfoList getLastList() {
+        String sql = "SELECT g.* FROM " + TABLE_LAST_LIST + " l JOIN " + TABLE_GALLERIES +
+                " g ON l." + COLUMN_GID + " = g." + COLUMN_GID +
+                " ORDER BY l." + COLUMN_POSITION;
+        return readGalleryInfos(getDatabase().rawQuery(sql, null));
+    }
+
+    /**
+     * Find gallery info, the newest first
+     *
+     * @param category the category bits like {@link EhUtils#DOUJINSHI},
+     *                 {@link EhUtils#NONE} for all
+     * @param uploader the uploader, null for all
+     * @param minRating the min rating, 0 for all
+     * @param offset how many to skip
+     * @param limit max count to get
+     */
+    public @NonNull GalleryInfoList query(int category, @Nullable String uploader,
+            float minRating, int offset, int limit) {
+        StringBuilder sb = new StringBuilder();
+        List<String> args = new ArrayList<>();
+        sb.append("SELECT * FROM ").append(TABLE_GALLERIES).append(" WHERE 1");
+        if (category != EhUtils.NONE) {
+            // Each gallery has one category, IN can use the index
+            sb.append(" AND ").append(COLUMN_CATEGORY).append(" IN (");
+            boolean first = true;
+            for (int bit = EhUtils.MISC; bit <= EhUtils.UNKNOWN; bit <<= 1) {
+                if ((category & bit) != 0) {
+                    if (!first) {
+                        sb.append(", ");
+                    }
+                    first = false;
+                    sb.append(bit);
+                }
+            }
+            sb.append(")");
+        }
+        if (uploader != null) {
+            sb.append(" AND ").append(COLUMN_UPLOADER).append(" = ?");
+            args.add(uploader);
+        }
+        if (minRating > 0) {
+            sb.append(" AND ").append(COLUMN_RATING).append(" >= ?");
+            args.add(Float.toString(minRating));
+        }
+        sb.append(" ORDER BY ").append(COLUMN_POSTED).append(" DESC")
+                .append(" LIMIT ").append(limit).append(" OFFSET ").append(offset);
+        return readGalleryInfos(getDatabase().rawQuery(sb.toString(),
+                args.toArray(new String[args.size()])));
+    }
+
+    /**
+     * Turn user input to FTS query, every word is a prefix. Each word is
+     * quoted, so OR, NOT and NEAR in user input are not operators.
+     *
+     * @return null if no word
+     */
+    static @Nullable String buildMatchQuery(@NonNull String query) {
+        StringBuilder sb = new StringBuilder();
+        int words = 0;
+        int length = query.length();
+        int i = 0;
+        while (i < length && words < MAX_QUERY_WORDS) {
+            // Skip separators, they are what FTS simple tokenizer splits at
+            while (i < length && !isWordChar(query.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && isWordChar(query.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                if (words > 0) {
+                    sb.append(' ');
+                }
+                sb.append('"').append(query, start, i);
+                if (i - start >= MIN_PREFIX_LENGTH) {
+                    sb.append('*');
+                }
+                sb.append('"');
+                words++;
+            }
+        }
+        return words == 0 ? null : sb.toString();
+    }
+
+    private static boolean isWordChar(char c) {
+        return c >= 0x80 || Character.isLetterOrDigit(c);
+    }
+
+    /**
+     * Score a row from matchinfo blob of default format pcx,
+     * a word found in fewer rows counts more
+     */
+    static float score(@NonNull byte[] matchinfo) {
+        IntBuffer ints = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phraseCount = ints.get(0);
+        int columnCount = ints.get(1);
+        float score = 0.0f;
+        for (int p = 0; p < phraseCount; p++) {
+            for (int c = 0; c < columnCount && c < FTS_WEIGHTS.length; c++) {
+                int index = 2 + 3 * (p * columnCount + c);
+                int hitsThisRow = ints.get(index);
+                int hitsAllRows = ints.get(index + 1);
+                if (hitsThisRow > 0) {
+                    score += FTS_WEIGHTS[c] * hitsThisRow / hitsAllRows;
+                }
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Keep the best scored rows, best first. For the same score,
+     * the newer one, with larger gid, goes first.
+     */
+    static final class TopRows {
+        private final int[] mGids;
+        private final float[] mScores;
+        private int mCount;
+
+        TopRows(int limit) {
+            mGids = new int[Math.max(limit, 0)];
+            mScores = new float[mGids.length];
+        }
+
+        private static boolean isBetter(float score, int gid, float otherScore, int otherGid) {
+            return score > otherScore || (score == otherScore && gid > otherGid);
+        }
+
+        void offer(int gid, float score) {
+            int limit = mGids.length;
+            if (limit == 0 || (mCount == limit &&
+                    !isBetter(score, gid, mScores[limit - 1], mGids[limit - 1]))) {
+                return;
+            }
+            // Insert to the sorted list, the last one is dropped if it is full
+            int i = mCount == limit ? limit - 1 : mCount++;
+            while (i > 0 && isBetter(score, gid, mScores[i - 1], mGids[i - 1])) {
+                mGids[i] = mGids[i - 1];
+                mScores[i] = mScores[i - 1];
+                i--;
+            }
+            mGids[i] = gid;
+            mScores[i] = score;
+        }
+
+        int[] getGids() {
+            return mCount == mGids.length ? mGids : Arrays.copyOf(mGids, mCount);
+        }
+    }
+
+    /**
+     * @return gid of the best matched rows, best first
+     */
+    private @NonNull int[] rank(@NonNull String matchQuery, int limit) {
+        Cursor cursor = getDatabase().rawQuery("SELECT docid, matchinfo(" + TABLE_FTS + ") FROM " +
+                TABLE_FTS + " WHERE " + TABLE_FTS + " MATCH ? ORDER BY docid DESC LIMIT " +
+                MAX_CANDIDATES, new String[]{matchQuery});
+        TopRows top = new TopRows(limit);
+        try {
+            while (cursor.moveToNext()) {
+                top.offer(cursor.getInt(0), score(cursor.getBlob(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return top.getGids();
+    }
+
+    private static String join(int[] gids) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < gids.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(gids[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Find gallery info by words in title, uploader or tags, ranked
+     * by how rare the matched words are.
+     *
+     * @param query the words, each one is a prefix
+     * @param limit max count to get
+     */
+    public @NonNull GalleryInfoList search(@NonNull String query, int limit) {
+        String matchQuery = buildMatchQuery(query);
+        int[] gids = matchQuery == null ? new int[0] : rank(matchQuery, limit);
+        if (gids.length == 0) {
+            return new GalleryInfoList();
+        }
+
+        GalleryInfoList unordered = readGalleryInfos(getDatabase().rawQuery("SELECT * FROM " +
+                TABLE_GALLERIES + " WHERE " + COLUMN_GID + " IN (" + join(gids) + ")", null));
+        // Keep the rank order
+        SparseIntArray positions = new SparseIntArray(unordered.size());
+        for (int i = 0, n = unordered.size(); i < n; i++) {
+            positions.put(unordered.getGid(i), i);
+        }
+        GalleryInfoList list = new GalleryInfoList(gids.length);
+        GalleryInfo gi = new GalleryInfo();
+        for (int gid : gids) {
+            int position = positions.get(gid, -1);
+            if (position != -1) {
+                unordered.read(position, gi);
+                list.add(gi);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Get titles which match the words, for search suggestions
+     *
+     * @param query the words, each one is a prefix
+     * @param limit max count to get
+     */
+    public @NonNull String[] suggest(@NonNull String query, int limit) {
+        String matchQuery = buildMatchQuery(query);
+        int[] gids = matchQuery == null ? new int[0] : rank(matchQuery, limit);
+        if (gids.length == 0) {
+            return new String[0];
+        }
+
+        SparseArray<String> titles = new SparseArray<>(gids.length);
+        Cursor cursor = getDatabase().rawQuery("SELECT " + COLUMN_GID + ", " + COLUMN_TITLE +
+                " FROM " + TABLE_GALLERIES + " WHERE " + COLUMN_GID + " IN (" + join(gids) + ")",
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                titles.put(cursor.getInt(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        List<String> result = new ArrayList<>(gids.length);
+        for (int gid : gids) {
+            String title = titles.get(gid);
+            if (title != null) {
+                result.add(title);
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    private static @NonNull GalleryInfoList readGalleryInfos(Cursor cursor) {
+        GalleryInfoList list = new GalleryInfoList(Math.max(cursor.getCount(), 1));
+        try {
+            int gidIndex = cursor.getColumnIndex(COLUMN_GID);
+            int tokenIndex = cursor.getColumnIndex(COLUMN_TOKEN);
+            int titleIndex = cursor.getColumnIndex(COLUMN_TITLE);
+            int postedIndex = cursor.getColumnIndex(COLUMN_POSTED);
+            int categoryIndex = cursor.getColumnIndex(COLUMN_CATEGORY);
+            int thumbIndex = cursor.getColumnIndex(COLUMN_THUMB);
+            int thumbWidthIndex = cursor.getColumnIndex(COLUMN_THUMB_WIDTH);
+            int thumbHeightIndex = cursor.getColumnIndex(COLUMN_THUMB_HEIGHT);
+            int uploaderIndex = cursor.getColumnIndex(COLUMN_UPLOADER);
+            int ratingIndex = cursor.getColumnIndex(COLUMN_RATING);
+            int languageIndex = cursor.getColumnIndex(COLUMN_LANGUAGE);
+            int tagsIndex = cursor.getColumnIndex(COLUMN_TAGS);
+            int fileCountIndex = cursor.getColumnIndex(COLUMN_FILE_COUNT);
+
+            // The list copies the fields, so one is enough
+            GalleryInfo gi = new GalleryInfo();
+            char[] posted = new char[GalleryInfoList.POSTED_LENGTH];
+            while (cursor.moveToNext()) {
+                gi.gid = cursor.getInt(gidIndex);
+                gi.token = cursor.getString(tokenIndex);
+                gi.title = cursor.getString(titleIndex);
+                if (cursor.isNull(postedIndex)) {
+                    gi.posted = null;
+                } else {
+                    GalleryInfoList.formatPosted(cursor.getLong(postedIndex), posted);
+                    gi.posted = new String(posted);
+                }
+                gi.category = cursor.getInt(categoryIndex);
+                gi.thumb = cursor.getString(thumbIndex);
+                gi.thumbWidth = cursor.getInt(thumbWidthIndex);
+                gi.thumbHeight = cursor.getInt(thumbHeightIndex);
+                gi.uploader = cursor.getString(uploaderIndex);
+                gi.rating = cursor.isNull(ratingIndex) ? Float.NaN : cursor.getFloat(ratingIndex);
+                gi.simpleLanguage = cursor.getString(languageIndex);
+                String tags = cursor.getString(tagsIndex);
+                gi.tags = tags == null ? null : TextUtils.split(tags, TAG_SEPARATOR);
+                gi.fileCount = cursor.getInt(fileCountIndex);
+                list.add(gi);
+            }
+        } finally {
+            cursor.close();
+        }
+        return list;
+    }
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+
+        public DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, VERSION);
+        }
+
+        private static void createIndex(SQLiteDatabase db, String column) {
+            db.execSQL("CREATE INDEX " + TABLE_GALLERIES + "_" + column + " ON " +
+                    TABLE_GALLERIES + " (" + column + ");");
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_GALLERIES + " (" +
+                    COLUMN_GID + " INTEGER PRIMARY KEY" +
+                    "," + COLUMN_TOKEN + " TEXT" +
+                    "," + COLUMN_TITLE + " TEXT" +
+                    "," + COLUMN_POSTED + " INTEGER" +
+                    "," + COLUMN_CATEGORY + " INTEGER" +
+                    "," + COLUMN_THUMB + " TEXT" +
+                    "," + COLUMN_THUMB_WIDTH + " INTEGER DEFAULT 0" +
+                    "," + COLUMN_THUMB_HEIGHT + " INTEGER DEFAULT 0" +
+                    "," + COLUMN_UPLOADER + " TEXT" +
+                    "," + COLUMN_RATING + " REAL" +
+                    "," + COLUMN_LANGUAGE + " TEXT" +
+                    "," + COLUMN_TAGS + " TEXT" +
+                    "," + COLUMN_FILE_COUNT + " INTEGER DEFAULT 0" +
+                    "," + COLUMN_UPDATED + " INTEGER" +
+                    ");");
+            createIndex(db, COLUMN_CATEGORY);
+            createIndex(db, COLUMN_UPLOADER);
+            createIndex(db, COLUMN_POSTED);
+            createIndex(db, COLUMN_RATING);
+            createIndex(db, COLUMN_UPDATED);
+
+            db.execSQL("CREATE TABLE " + TABLE_LAST_LIST + " (" +
+                    COLUMN_POSITION + " INTEGER PRIMARY KEY" +
+                    "," + COLUMN_GID + " INTEGER" +
+                    ");");
+
+            // Full text index, docid is gid, kept by triggers
+            String ftsColumns = COLUMN_TITLE + ", " + COLUMN_UPLOADER + ", " + COLUMN_TAGS;
+            try {
+                // Prefix index makes short prefix fast, it needs SQLite 3.7.7
+                db.execSQL("CREATE VIRTUAL TABLE " + TABLE_FTS + " USING fts4(" +
+                        ftsColumns + ", prefix=\"2,3\");");
+            } catch (SQLiteException e) {
+                db.execSQL("CREATE VIRTUAL TABLE " + TABLE_FTS + " USING fts4(" +
+                        ftsColumns + ");");
+            }
+            db.execSQL("CREATE TRIGGER " + TABLE_FTS + "_insert AFTER INSERT ON " +
+                    TABLE_GALLERIES + " BEGIN INSERT INTO " + TABLE_FTS + " (docid, " +
+                    COLUMN_TITLE + ", " + COLUMN_UPLOADER + ", " + COLUMN_TAGS + ") VALUES (new." +
+                    COLUMN_GID + ", new." + COLUMN_TITLE + ", new." + COLUMN_UPLOADER +
+                    ", new." + COLUMN_TAGS + "); END;");
+            // Most updates only refresh the row, do not reindex unchanged text
+            db.execSQL("CREATE TRIGGER " + TABLE_FTS + "_update AFTER UPDATE OF " +
+                    COLUMN_TITLE + ", " + COLUMN_UPLOADER + ", " + COLUMN_TAGS + " ON " +
+                    TABLE_GALLERIES + " WHEN old." + COLUMN_TITLE + " IS NOT new." + COLUMN_TITLE +
+                    " OR old." + COLUMN_UPLOADER + " IS NOT new." + COLUMN_UPLOADER +
+                    " OR old." + COLUMN_TAGS + " IS NOT new." + COLUMN_TAGS +
+                    " BEGIN UPDATE " + TABLE_FTS + " SET " +
+                    COLUMN_TITLE + " = new." + COLUMN_TITLE + ", " +
+                    COLUMN_UPLOADER + " = new." + COLUMN_UPLOADER + ", " +
+                    COLUMN_TAGS + " = new." + COLUMN_TAGS +
+                    " WHERE docid = new." + COLUMN_GID + "; END;");
+            db.execSQL("CREATE TRIGGER " + TABLE_FTS + "_delete AFTER DELETE ON " +
+                    TABLE_GALLERIES + " BEGIN DELETE FROM " + TABLE_FTS +
+                    " WHERE docid = old." + COLUMN_GID + "; END;");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // Only a cache, get them again
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_GALLERIES);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_LAST_LIST);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_FTS);
+            onCreate(db);
+        }
+    }
+}
@@ -17,8 +17,7 @@ package com.hippo.ehviewer.data;
 
 import android.os.Parcel;
 import android.os.Parcelable;
-
-import java.util.regex.Pattern;
+import android.support.annotation.NonNull;
 
 public class GalleryInfo implements Parcelable {
 
@@ -59,6 +58,12 @@ public class GalleryInfo implements Parcelable {
         S_LANG_NL,
     };
 
+    /**
+     * Patterns for {@link #S_LANGS}, case insensitive. They are the reference
+     * only and not compiled in the app, {@link KeywordLanguageClassifier} keeps
+     * a hand expanded copy as keywords. Change both together,
+     * KeywordLanguageClassifierTest checks they agree.
+     */
     public static final String[] S_LANG_PATTERNS = {
         "[(\\[]eng(?:lish)?[)\\]]",
         "[(（\\[]chinese[)）\\]]|[汉漢]化|中[国國][语語]|中文|[(\\[]CN[)\\]]",
@@ -76,6 +81,8 @@ public class GalleryInfo implements Parcelable {
         "[(\\[]dutch[)\\]]",
     };
 
+    private static LanguageClassifier sLanguageClassifier;
+
     public int gid;
     public String token;
     public String title;
@@ -96,6 +103,14 @@ public class GalleryInfo implements Parcelable {
      * language get from title
      */
     public String simpleLanguage;
+    /**
+     * Tags from api, like <code>female:glasses</code>, null for unknown
+     */
+    public String[] tags;
+    /**
+     * The number of pages, 0 for unknown
+     */
+    public int fileCount;
 
     public static final Creator<GalleryInfo> CREATOR =
             new Creator<GalleryInfo>() {
@@ -111,6 +126,8 @@ public class GalleryInfo implements Parcelable {
                     p.uploader = source.readString();
                     p.rating = source.readFloat();
                     p.simpleLanguage = source.readString();
+                    p.tags = source.createStringArray();
+                    p.fileCount = source.readInt();
                     return p;
                 }
 
@@ -136,6 +153,8 @@ public class GalleryInfo implements Parcelable {
         dest.writeString(uploader);
         dest.writeFloat(rating);
         dest.writeString(simpleLanguage);
+        dest.writeStringArray(tags);
+        dest.writeInt(fileCount);
     }
 
     public GalleryInfo() {
@@ -152,6 +171,8 @@ public class GalleryInfo implements Parcelable {
         uploader = gi.uploader;
         rating = gi.rating;
         simpleLanguage = gi.simpleLanguage;
+        tags = gi.tags;
+        fileCount = gi.fileCount;
     }
 
     @Override
@@ -162,13 +183,23 @@ public class GalleryInfo implements Parcelable {
             return false;
     }
 
-    public final void generateSLang() {
-        for (int i = 0; i < S_LANGS.length; i++) {
-            if (Pattern.compile(S_LANG_PATTERNS[i], Pattern.CASE_INSENSITIVE).matcher(title).find()) {
-                simpleLanguage = S_LANGS[i];
-                return;
-            }
+    /**
+     * Set the classifier for {@link #generateSLang()}
+     *
+     * @param classifier the classifier
+     */
+    public static void setLanguageClassifier(@NonNull LanguageClassifier classifier) {
+        sLanguageClassifier = classifier;
+    }
+
+    public static @NonNull LanguageClassifier getLanguageClassifier() {
+        if (sLanguageClassifier == null) {
+            sLanguageClassifier = KeywordLanguageClassifier.getInstance();
         }
-        simpleLanguage = null;
+        return sLanguageClassifier;
+    }
+
+    public final void generateSLang() {
+        simpleLanguage = title == null ? null : getLanguageClassifier().classify(title);
     }
 }
@@ -0,0 +1,876 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.data;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.SparseIntArray;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A list of {@link GalleryInfo} stored by column. Numbers are kept in
+ * primitive arrays, posted time is kept as epoch millis, token is kept as a
+ * long, and the same uploader or language is kept once. Title and thumb are
+ * not kept as String, their chars are packed in one byte array, one byte for
+ * each char if all chars are below 256, or two. So it takes less than half
+ * the heap of the objects.
+ * <p>
+ * {@link #get(int)} returns a snapshot, a new {@link GalleryInfo} copied from
+ * the row. Changing it does not change the list, write it back by
+ * {@link #set(int, GalleryInfo)}. To avoid creating objects, read the columns
+ * by index, or fill a reused one as a flyweight by {@link #read(int, GalleryInfo)}.
+ * Rating is kept as it is. Posted text which is not like
+ * <code>2015-07-01 12:34</code> and token which is not 10 hex digits are
+ * kept as they are. It is not thread safe.
+ */
+public final class GalleryInfoList extends AbstractList<GalleryInfo> implements RandomAccess {
+
+    private static final int DEFAULT_CAPACITY = 25;
+
+    public static final long NO_POSTED = Long.MIN_VALUE;
+
+    /**
+     * Like <code>2015-07-01 12:34</code>
+     */
+    public static final int POSTED_LENGTH = 16;
+
+    private static final long MINUTE_MILLIS = 60 * 1000;
+    private static final int[] DAYS_IN_MONTH = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    /**
+     * Token is 10 hex digits, like <code>5f1a2b3c4d</code>
+     */
+    private static final int TOKEN_LENGTH = 10;
+    private static final long NO_TOKEN = -1;
+
+    /**
+     * Text length for null
+     */
+    private static final int NULL_TEXT = -1;
+    /**
+     * Average bytes of title and thumb for each row, for the first allocation
+     */
+    private static final int TEXT_BYTES_PER_ROW = 64;
+
+    private int mSize;
+
+    private int[] mGids;
+    private int[] mCategories;
+    /**
+     * {@link Float#NaN} for unknown
+     */
+    private float[] mRatings;
+    private int[] mThumbWidths;
+    private int[] mThumbHeights;
+    private int[] mFileCounts;
+    /**
+     * {@link #NO_POSTED} for null or the text can not be parsed
+     */
+    private long[] mPosteds;
+    /**
+     * The value of the hex digits, {@link #NO_TOKEN} for the ones in {@link #mTokenTexts}
+     */
+    private long[] mTokens;
+    /**
+     * Start of title in {@link #mText}, thumb follows title
+     */
+    private int[] mTextStarts;
+    /**
+     * Length in chars shifted left by one, the last bit is set if two bytes
+     * are used for each char. {@link #NULL_TEXT} for null.
+     */
+    private int[] mTitleLengths;
+    private int[] mThumbLengths;
+    private String[] mUploaders;
+    private String[] mLanguages;
+    private String[][] mTags;
+    /**
+     * Null for not a {@link LofiGalleryInfo}
+     */
+    private String[][] mLofiTags;
+    /**
+     * The posted text which can not be parsed, created when needed
+     */
+    private String[] mPostedTexts;
+    /**
+     * The token which is not 10 hex digits, created when needed
+     */
+    private String[] mTokenTexts;
+
+    /**
+     * Chars of title and thumb
+     */
+    private byte[] mText;
+    /**
+     * Bytes used in {@link #mText}
+     */
+    private int mTextLength;
+    /**
+     * Bytes in {@link #mText} which no row uses
+     */
+    private int mTextGarbage;
+
+    /**
+     * Gid to the first index, created when needed
+     */
+    private SparseIntArray mGidIndex;
+
+    /**
+     * Keep one instance for the same uploader and language
+     */
+    private final Map<String, String> mStringPool = new HashMap<>();
+
+    public GalleryInfoList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public GalleryInfoList(int capacity) {
+        capacity = Math.max(capacity, 1);
+        allocate(capacity);
+        mText = new byte[capacity * TEXT_BYTES_PER_ROW];
+    }
+
+    private void allocate(int capacity) {
+        mGids = copyOf(mGids, capacity);
+        mCategories = copyOf(mCategories, capacity);
+        float[] ratings = new float[capacity];
+        if (mRatings != null) {
+            System.arraycopy(mRatings, 0, ratings, 0, mSize);
+        }
+        mRatings = ratings;
+        mThumbWidths = copyOf(mThumbWidths, capacity);
+        mThumbHeights = copyOf(mThumbHeights, capacity);
+        mFileCounts = copyOf(mFileCounts, capacity);
+        mPosteds = copyOf(mPosteds, capacity);
+        mTokens = copyOf(mTokens, capacity);
+        mTextStarts = copyOf(mTextStarts, capacity);
+        mTitleLengths = copyOf(mTitleLengths, capacity);
+        mThumbLengths = copyOf(mThumbLengths, capacity);
+        mUploaders = copyOf(mUploaders, capacity);
+        mLanguages = copyOf(mLanguages, capacity);
+        String[][] tags = new String[capacity][];
+        String[][] lofiTags = new String[capacity][];
+        if (mTags != null) {
+            System.arraycopy(mTags, 0, tags, 0, mSize);
+            System.arraycopy(mLofiTags, 0, lofiTags, 0, mSize);
+        }
+        mTags = tags;
+        mLofiTags = lofiTags;
+        if (mPostedTexts != null) {
+            mPostedTexts = copyOf(mPostedTexts, capacity);
+        }
+        if (mTokenTexts != null) {
+            mTokenTexts = copyOf(mTokenTexts, capacity);
+        }
+    }
+
+    private int[] copyOf(@Nullable int[] array, int capacity) {
+        int[] newArray = new int[capacity];
+        if (array != null) {
+            System.arraycopy(array, 0, newArray, 0, mSize);
+        }
+        return newArray;
+    }
+
+    private long[] copyOf(@Nullable long[] array, int capacity) {
+        long[] newArray = new long[capacity];
+        if (array != null) {
+            System.arraycopy(array, 0, newArray, 0, mSize);
+        }
+        return newArray;
+    }
+
+    private String[] copyOf(@Nullable String[] array, int capacity) {
+        String[] newArray = new String[capacity];
+        if (array != null) {
+            System.arraycopy(array, 0, newArray, 0, mSize);
+        }
+        return newArray;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        int capacity = mGids.length;
+        if (minCapacity > capacity) {
+            allocate(Math.max(minCapacity, capacity + (capacity >> 1)));
+        }
+    }
+
+    /**
+     * Move rows from the index to the end to the new index
+     */
+    private void moveRows(int from, int to) {
+        int count = mSize - from;
+        if (count <= 0 || from == to) {
+            return;
+        }
+        System.arraycopy(mGids, from, mGids, to, count);
+        System.arraycopy(mCategories, from, mCategories, to, count);
+        System.arraycopy(mRatings, from, mRatings, to, count);
+        System.arraycopy(mThumbWidths, from, mThumbWidths, to, count);
+        System.arraycopy(mThumbHeights, from, mThumbHeights, to, count);
+        System.arraycopy(mFileCounts, from, mFileCounts, to, count);
+        System.arraycopy(mPosteds, from, mPosteds, to, count);
+        System.arraycopy(mTokens, from, mTokens, to, count);
+        System.arraycopy(mTextStarts, from, mTextStarts, to, count);
+        System.arraycopy(mTitleLengths, from, mTitleLengths, to, count);
+        System.arraycopy(mThumbLengths, from, mThumbLengths, to, count);
+        System.arraycopy(mUploaders, from, mUploaders, to, count);
+        System.arraycopy(mLanguages, from, mLanguages, to, count);
+        System.arraycopy(mTags, from, mTags, to, count);
+        System.arraycopy(mLofiTags, from, mLofiTags, to, count);
+        if (mPostedTexts != null) {
+            System.arraycopy(mPostedTexts, from, mPostedTexts, to, count);
+        }
+        if (mTokenTexts != null) {
+            System.arraycopy(mTokenTexts, from, mTokenTexts, to, count);
+        }
+    }
+
+    /**
+     * Clear references of the rows, so they can be collected
+     */
+    private void clearRows(int from, int to) {
+        for (int i = from; i < to; i++) {
+            mUploaders[i] = null;
+            mLanguages[i] = null;
+            mTags[i] = null;
+            mLofiTags[i] = null;
+            if (mPostedTexts != null) {
+                mPostedTexts[i] = null;
+            }
+            if (mTokenTexts != null) {
+                mTokenTexts[i] = null;
+            }
+        }
+    }
+
+    private @Nullable String pool(@Nullable String str) {
+        if (str == null) {
+            return null;
+        }
+        String pooled = mStringPool.get(str);
+        if (pooled == null) {
+            mStringPool.put(str, str);
+            pooled = str;
+        }
+        return pooled;
+    }
+
+    /**
+     * Drop the strings which are not used by any row
+     */
+    private void trimPool() {
+        if (mSize == 0) {
+            mStringPool.clear();
+        } else if (mStringPool.size() > mSize * 2) {
+            mStringPool.clear();
+            for (int i = 0; i < mSize; i++) {
+                pool(mUploaders[i]);
+                pool(mLanguages[i]);
+            }
+        }
+    }
+
+    private static int getTextBytes(int length) {
+        return length == NULL_TEXT ? 0 : (length >> 1) << (length & 1);
+    }
+
+    private int getRowTextBytes(int index) {
+        return getTextBytes(mTitleLengths[index]) + getTextBytes(mThumbLengths[index]);
+    }
+
+    /**
+     * Append the chars of the string to {@link #mText}
+     *
+     * @return the length to keep
+     */
+    private int appendText(@Nullable String str) {
+        if (str == null) {
+            return NULL_TEXT;
+        }
+        int n = str.length();
+        int wide = 0;
+        for (int i = 0; i < n; i++) {
+            if (str.charAt(i) > 0xff) {
+                wide = 1;
+                break;
+            }
+        }
+
+        int bytes = n << wide;
+        byte[] text = mText;
+        int offset = mTextLength;
+        if (offset + bytes > text.length) {
+            int capacity = Math.max(offset + bytes, text.length + (text.length >> 1));
+            byte[] newText = new byte[capacity];
+            System.arraycopy(text, 0, newText, 0, offset);
+            mText = text = newText;
+        }
+        if (wide == 0) {
+            for (int i = 0; i < n; i++) {
+                text[offset + i] = (byte) str.charAt(i);
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                char c = str.charAt(i);
+                text[offset + 2 * i] = (byte) (c >> 8);
+                text[offset + 2 * i + 1] = (byte) c;
+            }
+        }
+        mTextLength = offset + bytes;
+        return (n << 1) | wide;
+    }
+
+    private @Nullable String getText(int start, int length) {
+        if (length == NULL_TEXT) {
+            return null;
+        }
+        int n = length >> 1;
+        char[] chars = new char[n];
+        byte[] text = mText;
+        if ((length & 1) == 0) {
+            for (int i = 0; i < n; i++) {
+                chars[i] = (char) (text[start + i] & 0xff);
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                chars[i] = (char) (((text[start + 2 * i] & 0xff) << 8) |
+                        (text[start + 2 * i + 1] & 0xff));
+            }
+        }
+        return new String(chars);
+    }
+
+    private boolean isTextEquals(int start, int length, @Nullable String str) {
+        if (length == NULL_TEXT || str == null) {
+            return length == NULL_TEXT && str == null;
+        }
+        int n = length >> 1;
+        if (str.length() != n) {
+            return false;
+        }
+        byte[] text = mText;
+        if ((length & 1) == 0) {
+            for (int i = 0; i < n; i++) {
+                if (str.charAt(i) != (text[start + i] & 0xff)) {
+                    return false;
+                }
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                char c = (char) (((text[start + 2 * i] & 0xff) << 8) |
+                        (text[start + 2 * i + 1] & 0xff));
+                if (str.charAt(i) != c) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy the text of rows to a new array without the garbage, when the
+     * garbage is more than the half
+     */
+    private void compactText() {
+        if (mTextGarbage == 0 || mTextGarbage * 2 < mTextLength) {
+            return;
+        }
+        int used = mTextLength - mTextGarbage;
+        byte[] text = new byte[Math.max(used + (used >> 1), TEXT_BYTES_PER_ROW)];
+        int offset = 0;
+        for (int i = 0; i < mSize; i++) {
+            int bytes = getRowTextBytes(i);
+            System.arraycopy(mText, mTextStarts[i], text, offset, bytes);
+            mTextStarts[i] = offset;
+            offset += bytes;
+        }
+        mText = text;
+        mTextLength = offset;
+        mTextGarbage = 0;
+    }
+
+    /**
+     * @return the value of the hex digits, {@link #NO_TOKEN} if it is not
+     * 10 lower case hex digits
+     */
+    private static long parseToken(@Nullable String token) {
+        if (token == null || token.length() != TOKEN_LENGTH) {
+            return NO_TOKEN;
+        }
+        long value = 0;
+        for (int i = 0; i < TOKEN_LENGTH; i++) {
+            char c = token.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else {
+                return NO_TOKEN;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private static String formatToken(long value) {
+        char[] chars = new char[TOKEN_LENGTH];
+        for (int i = TOKEN_LENGTH - 1; i >= 0; i--) {
+            int digit = (int) (value & 0xf);
+            chars[i] = (char) (digit < 10 ? '0' + digit : 'a' + digit - 10);
+            value >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Write the row. The text of the row in the index must be released
+     * before, it is not counted as garbage here.
+     */
+    private void writeRow(int index, @NonNull GalleryInfo gi) {
+        mGids[index] = gi.gid;
+        mCategories[index] = gi.category;
+        mRatings[index] = gi.rating;
+        mThumbWidths[index] = gi.thumbWidth;
+        mThumbHeights[index] = gi.thumbHeight;
+        mFileCounts[index] = gi.fileCount;
+        mTextStarts[index] = mTextLength;
+        mTitleLengths[index] = appendText(gi.title);
+        mThumbLengths[index] = appendText(gi.thumb);
+        mUploaders[index] = pool(gi.uploader);
+        mLanguages[index] = pool(gi.simpleLanguage);
+        mTags[index] = gi.tags;
+        mLofiTags[index] = gi instanceof LofiGalleryInfo ? ((LofiGalleryInfo) gi).lofiTags : null;
+
+        long token = parseToken(gi.token);
+        mTokens[index] = token;
+        if (token == NO_TOKEN && gi.token != null) {
+            if (mTokenTexts == null) {
+                mTokenTexts = new String[mGids.length];
+            }
+            mTokenTexts[index] = gi.token;
+        } else if (mTokenTexts != null) {
+            mTokenTexts[index] = null;
+        }
+
+        long posted = parsePosted(gi.posted);
+        mPosteds[index] = posted;
+        if (posted == NO_POSTED && gi.posted != null) {
+            if (mPostedTexts == null) {
+                mPostedTexts = new String[mGids.length];
+            }
+            mPostedTexts[index] = gi.posted;
+        } else if (mPostedTexts != null) {
+            mPostedTexts[index] = null;
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        }
+    }
+
+    private void checkPositionIndex(int index) {
+        if (index < 0 || index > mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        }
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Fill the gallery info with the row
+     *
+     * @param index the index of the row
+     * @param out the gallery info to fill, lofi tags is filled
+     *            if it is a {@link LofiGalleryInfo}
+     */
+    public void read(int index, @NonNull GalleryInfo out) {
+        checkIndex(index);
+        out.gid = mGids[index];
+        out.token = getToken(index);
+        out.title = getTitle(index);
+        out.posted = getPosted(index);
+        out.category = mCategories[index];
+        out.thumb = getThumb(index);
+        out.uploader = mUploaders[index];
+        out.rating = mRatings[index];
+        out.thumbWidth = mThumbWidths[index];
+        out.thumbHeight = mThumbHeights[index];
+        out.simpleLanguage = mLanguages[index];
+        out.tags = mTags[index];
+        out.fileCount = mFileCounts[index];
+        if (out instanceof LofiGalleryInfo) {
+            ((LofiGalleryInfo) out).lofiTags = mLofiTags[index];
+        }
+    }
+
+    /**
+     * Get a snapshot of the row
+     *
+     * @param index the index of the row
+     * @return a new gallery info, it is not backed by the list
+     */
+    @Override
+    public GalleryInfo get(int index) {
+        checkIndex(index);
+        GalleryInfo gi = mLofiTags[index] != null ? new LofiGalleryInfo() : new GalleryInfo();
+        read(index, gi);
+        return gi;
+    }
+
+    /**
+     * Replace the row with the gallery info
+     *
+     * @param index the index of the row
+     * @param gi the gallery info, its fields are copied
+     * @return a snapshot of the old row
+     */
+    @Override
+    public GalleryInfo set(int index, GalleryInfo gi) {
+        GalleryInfo old = get(index);
+        if (mGids[index] != gi.gid) {
+            mGidIndex = null;
+        }
+        mTextGarbage += getRowTextBytes(index);
+        writeRow(index, gi);
+        compactText();
+        return old;
+    }
+
+    @Override
+    public void add(int index, GalleryInfo gi) {
+        checkPositionIndex(index);
+        ensureCapacity(mSize + 1);
+        moveRows(index, index + 1);
+        mSize++;
+        writeRow(index, gi);
+        mGidIndex = null;
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends GalleryInfo> c) {
+        return addAll(mSize, c);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends GalleryInfo> c) {
+        checkPositionIndex(index);
+        int count = c.size();
+        if (count == 0) {
+            return false;
+        }
+        ensureCapacity(mSize + count);
+        moveRows(index, index + count);
+        mSize += count;
+        if (c instanceof GalleryInfoList) {
+            // Do not create objects for each row
+            GalleryInfoList list = (GalleryInfoList) c;
+            // Lofi tags is null for the rows which are not lofi
+            LofiGalleryInfo gi = new LofiGalleryInfo();
+            for (int i = 0; i < count; i++) {
+                list.read(i, gi);
+                writeRow(index + i, gi);
+            }
+        } else {
+            int i = index;
+            for (GalleryInfo gi : c) {
+                writeRow(i++, gi);
+            }
+        }
+        mGidIndex = null;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public GalleryInfo remove(int index) {
+        GalleryInfo old = get(index);
+        removeRange(index, index + 1);
+        return old;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        if (fromIndex >= toIndex) {
+            return;
+        }
+        if (fromIndex == 0 && toIndex == mSize) {
+            // All text is garbage
+            mTextLength = 0;
+            mTextGarbage = 0;
+        } else {
+            for (int i = fromIndex; i < toIndex; i++) {
+                mTextGarbage += getRowTextBytes(i);
+            }
+        }
+        int oldSize = mSize;
+        moveRows(toIndex, fromIndex);
+        mSize -= toIndex - fromIndex;
+        clearRows(mSize, oldSize);
+        trimPool();
+        compactText();
+        mGidIndex = null;
+        modCount++;
+    }
+
+    public int getGid(int index) {
+        checkIndex(index);
+        return mGids[index];
+    }
+
+    /**
+     * Find the row by gid. The gid index is built in the first call after
+     * the rows change, then each call is a binary search.
+     *
+     * @return the index of the first row with the gid, -1 for none
+     */
+    public int indexOfGid(int gid) {
+        SparseIntArray gidIndex = mGidIndex;
+        if (gidIndex == null) {
+            gidIndex = new SparseIntArray(mSize);
+            // From the end, so the first row wins
+            for (int i = mSize - 1; i >= 0; i--) {
+                gidIndex.put(mGids[i], i);
+            }
+            mGidIndex = gidIndex;
+        }
+        return gidIndex.get(gid, -1);
+    }
+
+    public String getToken(int index) {
+        checkIndex(index);
+        long token = mTokens[index];
+        if (token == NO_TOKEN) {
+            return mTokenTexts == null ? null : mTokenTexts[index];
+        } else {
+            return formatToken(token);
+        }
+    }
+
+    /**
+     * @return a new String of the title
+     */
+    public String getTitle(int index) {
+        checkIndex(index);
+        return getText(mTextStarts[index], mTitleLengths[index]);
+    }
+
+    /**
+     * @return a new String of the thumb url
+     */
+    public String getThumb(int index) {
+        checkIndex(index);
+        int start = mTextStarts[index] + getTextBytes(mTitleLengths[index]);
+        return getText(start, mThumbLengths[index]);
+    }
+
+    /**
+     * Compare thumb url without creating a String
+     */
+    public boolean isThumbEquals(int index, @Nullable String thumb) {
+        checkIndex(index);
+        int start = mTextStarts[index] + getTextBytes(mTitleLengths[index]);
+        return isTextEquals(start, mThumbLengths[index], thumb);
+    }
+
+    /**
+     * @return 0 for unknown
+     */
+    public int getThumbWidth(int index) {
+        checkIndex(index);
+        return mThumbWidths[index];
+    }
+
+    /**
+     * @return 0 for unknown
+     */
+    public int getThumbHeight(int index) {
+        checkIndex(index);
+        return mThumbHeights[index];
+    }
+
+    public String getUploader(int index) {
+        checkIndex(index);
+        return mUploaders[index];
+    }
+
+    public String getSimpleLanguage(int index) {
+        checkIndex(index);
+        return mLanguages[index];
+    }
+
+    public int getCategory(int index) {
+        checkIndex(index);
+        return mCategories[index];
+    }
+
+    /**
+     * @return {@link Float#NaN} for unknown
+     */
+    public float getRating(int index) {
+        checkIndex(index);
+        return mRatings[index];
+    }
+
+    /**
+     * @return epoch millis of the posted time, {@link #NO_POSTED} for unknown
+     */
+    public long getPostedTime(int index) {
+        checkIndex(index);
+        return mPosteds[index];
+    }
+
+    /**
+     * @return posted text like <code>2015-07-01 12:34</code>
+     */
+    public @Nullable String getPosted(int index) {
+        checkIndex(index);
+        long posted = mPosteds[index];
+        if (posted == NO_POSTED) {
+            return mPostedTexts == null ? null : mPostedTexts[index];
+        } else {
+            char[] chars = new char[POSTED_LENGTH];
+            formatPosted(posted, chars);
+            return new String(chars);
+        }
+    }
+
+    /**
+     * Write posted time to the buffer without creating a String.
+     * Posted text which is kept as it is is not written, it might be longer
+     * than the buffer, get it by {@link #getPosted(int)}.
+     *
+     * @param buffer at least {@link #POSTED_LENGTH} long
+     * @return the length, 0 for no posted text, -1 for posted text kept as it is
+     */
+    public int getPosted(int index, @NonNull char[] buffer) {
+        checkIndex(index);
+        long posted = mPosteds[index];
+        if (posted != NO_POSTED) {
+            formatPosted(posted, buffer);
+            return POSTED_LENGTH;
+        }
+        String text = mPostedTexts == null ? null : mPostedTexts[index];
+        return text == null ? 0 : -1;
+    }
+
+    public @Nullable String[] getTags(int index) {
+        checkIndex(index);
+        return mTags[index];
+    }
+
+    public int getFileCount(int index) {
+        checkIndex(index);
+        return mFileCounts[index];
+    }
+
+    private static int parseDigits(String str, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    /**
+     * Parse the time like <code>2015-07-01 12:34</code> as UTC
+     *
+     * @return epoch millis, {@link #NO_POSTED} for unsupported text
+     */
+    public static long parsePosted(@Nullable String str) {
+        if (str == null || str.length() != POSTED_LENGTH || str.charAt(4) != '-' ||
+                str.charAt(7) != '-' || str.charAt(10) != ' ' || str.charAt(13) != ':') {
+            return NO_POSTED;
+        }
+
+        int year = parseDigits(str, 0, 4);
+        int month = parseDigits(str, 5, 7);
+        int day = parseDigits(str, 8, 10);
+        int hour = parseDigits(str, 11, 13);
+        int minute = parseDigits(str, 14, 16);
+        if (year < 1970 || month < 1 || month > 12 || day < 1 ||
+                day > DAYS_IN_MONTH[month - 1] || (month == 2 && day == 29 && !isLeapYear(year)) ||
+                hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+            return NO_POSTED;
+        }
+
+        // Days from civil, see http://howardhinnant.github.io/date_algorithms.html
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        long days = era * 146097L + doe - 719468;
+        return ((days * 24 + hour) * 60 + minute) * MINUTE_MILLIS;
+    }
+
+    private static void putDigits(char[] buffer, int start, int end, int value) {
+        for (int i = end - 1; i >= start; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * Format the epoch millis from {@link #parsePosted(String)} back
+     */
+    public static void formatPosted(long posted, char[] buffer) {
+        long minutes = posted / MINUTE_MILLIS;
+        int minute = (int) (minutes % 60);
+        int hour = (int) (minutes / 60 % 24);
+
+        // Civil from days
+        long z = minutes / (60 * 24) + 719468;
+        int era = (int) (z / 146097);
+        int doe = (int) (z - era * 146097L);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        putDigits(buffer, 0, 4, year);
+        buffer[4] = '-';
+        putDigits(buffer, 5, 7, month);
+        buffer[7] = '-';
+        putDigits(buffer, 8, 10, day);
+        buffer[10] = ' ';
+        putDigits(buffer, 11, 13, hour);
+        buffer[13] = ':';
+        putDigits(buffer, 14, 16, minute);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.data;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.hippo.util.AhoCorasick;
+
+/**
+ * A {@link LanguageClassifier} matching all keywords in one pass.
+ * The keywords are {@link GalleryInfo#S_LANG_PATTERNS} expanded by hand in the
+ * constructor, so update them when a pattern changes. The language with the
+ * smallest index wins, same as trying the patterns in order.
+ */
+public final class KeywordLanguageClassifier implements LanguageClassifier {
+
+    private static final String[] OPEN = {"(", "["};
+    private static final String[] OPEN_FULL = {"(", "（", "["};
+    private static final String[] CLOSE = {")", "]"};
+    private static final String[] CLOSE_FULL = {")", "）", "]"};
+    private static final String[] NONE = {""};
+
+    private static KeywordLanguageClassifier sInstance;
+
+    private final String[] mLangs;
+    private final AhoCorasick mMatcher;
+
+    public static KeywordLanguageClassifier getInstance() {
+        if (sInstance == null) {
+            sInstance = new KeywordLanguageClassifier();
+        }
+        return sInstance;
+    }
+
+    private KeywordLanguageClassifier() {
+        mLangs = GalleryInfo.S_LANGS;
+
+        AhoCorasick.Builder builder = new AhoCorasick.Builder();
+        // Keep the same order as GalleryInfo.S_LANGS
+        add(builder, 0, OPEN, CLOSE, "eng", "english");
+        add(builder, 1, OPEN_FULL, CLOSE_FULL, "chinese");
+        add(builder, 1, NONE, NONE, "汉化", "漢化", "中国语", "中國语", "中国語", "中國語", "中文");
+        add(builder, 1, OPEN, CLOSE, "cn");
+        add(builder, 2, OPEN, CLOSE, "spanish", "español");
+        add(builder, 3, OPEN, CLOSE, "korea", "korean");
+        add(builder, 4, OPEN, CLOSE, "rus", "russian");
+        add(builder, 5, OPEN, CLOSE, "fr", "french");
+        add(builder, 6, OPEN, NONE, "portuguese");
+        add(builder, 7, OPEN, CLOSE, "thai", "thai ภาษาไทย");
+        add(builder, 8, OPEN, CLOSE, "german");
+        add(builder, 9, OPEN, CLOSE, "italian", "italiano");
+        add(builder, 10, OPEN, CLOSE, "vietnamese", "vietnamese tiếng việt");
+        add(builder, 11, OPEN, CLOSE, "polish");
+        add(builder, 12, OPEN, CLOSE, "hun", "hungarian");
+        add(builder, 13, OPEN, CLOSE, "dutch");
+        mMatcher = builder.build();
+    }
+
+    /**
+     * Add every open + word + close
+     */
+    private static void add(AhoCorasick.Builder builder, int index,
+            String[] opens, String[] closes, String... words) {
+        for (String open : opens) {
+            for (String word : words) {
+                for (String close : closes) {
+                    builder.add(open + word + close, index);
+                }
+            }
+        }
+    }
+
+    @Override
+    public @Nullable String classify(@NonNull String title) {
+        int index = mMatcher.search(title);
+        return index == -1 ? null : mLangs[index];
+    }
+}
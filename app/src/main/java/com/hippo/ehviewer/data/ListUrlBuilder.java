@@ -60,6 +60,14 @@ public class ListUrlBuilder {
         mMinRating = -1;
     }
 
+    /**
+     * @return true if it points to homepage, page index is ignored
+     */
+    public boolean isHomepage() {
+        return mMode == MODE_NORMAL && mCategory == EhUtils.NONE && mKeyword == null &&
+                mAdvanceSearch == -1 && mMinRating == -1;
+    }
+
     public int getMode() {
         return mMode;
     }
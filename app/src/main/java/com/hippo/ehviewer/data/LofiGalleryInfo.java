@@ -37,6 +37,8 @@ public class LofiGalleryInfo extends GalleryInfo {
                     p.uploader = source.readString();
                     p.rating = source.readFloat();
                     p.simpleLanguage = source.readString();
+                    p.tags = source.createStringArray();
+                    p.fileCount = source.readInt();
 
                     length = source.readInt();
                     p.lofiTags = new String[length];
@@ -64,6 +66,8 @@ public class LofiGalleryInfo extends GalleryInfo {
         uploader = galleryInfo.uploader;
         rating = galleryInfo.rating;
         simpleLanguage = galleryInfo.simpleLanguage;
+        tags = galleryInfo.tags;
+        fileCount = galleryInfo.fileCount;
         lofiTags = new String[0];
     }
 
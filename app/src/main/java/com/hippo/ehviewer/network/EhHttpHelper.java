@@ -18,6 +18,7 @@ package com.hippo.ehviewer.network;
 import android.support.annotation.NonNull;
 
 import com.hippo.network.HttpHelper;
+import com.hippo.util.MemoryGovernor;
 import com.hippo.util.Pool;
 
 import java.net.HttpURLConnection;
@@ -27,6 +28,10 @@ public class EhHttpHelper extends HttpHelper {
 
     private static final Pool<EhHttpHelper> sPool = new Pool<>(10);
 
+    static {
+        MemoryGovernor.getInstance().register("Http helpers", sPool);
+    }
+
     public static @NonNull EhHttpHelper obtain() {
         EhHttpHelper ehh = sPool.obtain();
         if (ehh == null) {
@@ -40,6 +45,11 @@ public class EhHttpHelper extends HttpHelper {
         sPool.recycle(ehh);
     }
 
+    @Override
+    protected @NonNull HttpHelper newInstance() {
+        return new EhHttpHelper();
+    }
+
     @Override
     protected String getCookie(URL url) {
         return super.getCookie(url);
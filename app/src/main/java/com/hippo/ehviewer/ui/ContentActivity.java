@@ -27,6 +27,7 @@ import com.hippo.content.VectorContext;
 import com.hippo.ehviewer.R;
 import com.hippo.ehviewer.ui.scene.GalleryListScene;
 import com.hippo.ehviewer.util.Config;
+import com.hippo.ehviewer.widget.SearchDatabase;
 import com.hippo.ehviewer.widget.StatusBarLayout;
 import com.hippo.scene.StageActivity;
 import com.hippo.scene.StageLayout;
@@ -45,6 +46,17 @@ public class ContentActivity extends StageActivity
         return Config.getShowApplicationStats();
     }
 
+    @Override
+    protected void appendStats(StringBuilder sb) {
+        SearchDatabase searchDatabase = SearchDatabase.getInstance(this);
+        appendValue(sb, "Suggestion count:        ",
+                Long.toString(searchDatabase.getSuggestionCount()), "\n");
+        appendValue(sb, "Suggestion avg time:     ",
+                Long.toString(searchDatabase.getAverageSuggestionTime()), " ms\n");
+        appendValue(sb, "Suggestion max time:     ",
+                Long.toString(searchDatabase.getMaxSuggestionTime()), " ms\n");
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
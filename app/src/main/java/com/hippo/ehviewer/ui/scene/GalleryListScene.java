@@ -41,14 +41,25 @@ import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.facebook.datasource.DataSource;
+import com.facebook.drawee.backends.pipeline.Fresco;
+import com.facebook.drawee.controller.BaseControllerListener;
+import com.facebook.drawee.controller.ControllerListener;
+import com.facebook.drawee.interfaces.DraweeController;
 import com.facebook.drawee.view.SimpleDraweeView;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.image.ImageInfo;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.ImageRequestBuilder;
 import com.hippo.animation.SimpleAnimatorListener;
 import com.hippo.drawable.AddDeleteDrawable;
 import com.hippo.effect.ViewTransition;
 import com.hippo.ehviewer.R;
 import com.hippo.ehviewer.client.EhClient;
 import com.hippo.ehviewer.client.ListParser;
+import com.hippo.ehviewer.data.GalleryDatabase;
 import com.hippo.ehviewer.data.GalleryInfo;
+import com.hippo.ehviewer.data.GalleryInfoList;
 import com.hippo.ehviewer.data.ListUrlBuilder;
 import com.hippo.ehviewer.data.UnsupportedSearchException;
 import com.hippo.ehviewer.ui.ContentActivity;
@@ -60,17 +71,28 @@ import com.hippo.ehviewer.widget.RatingView;
 import com.hippo.ehviewer.widget.SearchBar;
 import com.hippo.ehviewer.widget.SearchDatabase;
 import com.hippo.ehviewer.widget.SearchLayout;
+import com.hippo.network.CachePolicy;
+import com.hippo.network.RequestScheduler;
 import com.hippo.scene.Scene;
 import com.hippo.scene.SimpleDialog;
 import com.hippo.util.AnimationUtils;
 import com.hippo.util.AppHandler;
 import com.hippo.util.AssertUtils;
+import com.hippo.util.LayoutManagerUtils;
+import com.hippo.util.Log;
 import com.hippo.util.MathUtils;
+import com.hippo.util.Pipeline;
+import com.hippo.util.UiExecutor;
 import com.hippo.util.ViewUtils;
 import com.hippo.widget.FabLayout;
 import com.hippo.widget.FloatingActionButton;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 // TODO remeber the data in ContentHelper after screen dirction change
 // TODO Must refresh when change source
@@ -79,8 +101,21 @@ public class GalleryListScene extends Scene implements SearchBar.Helper,
         View.OnClickListener, FabLayout.OnCancelListener,
         SearchLayout.SearhLayoutHelper {
 
+    private static final String TAG = GalleryListScene.class.getSimpleName();
+
     private static final long ANIMATE_TIME = 300l;
 
+    /**
+     * Use cache directly in 1 min, use cache and revalidate in 30 min
+     */
+    private static final CachePolicy PAGE_CACHE_POLICY =
+            new CachePolicy(60 * 1000, 30 * 60 * 1000);
+
+    /**
+     * Decode thumbnails of 10 rows ahead in scroll direction
+     */
+    private static final int THUMB_PREFETCH_COUNT = 10;
+
     private final static int STATE_NORMAL = 0;
     private final static int STATE_SIMPLE_SEARCH = 1;
     private final static int STATE_SEARCH = 2;
@@ -92,6 +127,21 @@ public class GalleryListScene extends Scene implements SearchBar.Helper,
     private ContentActivity mActivity;
     private Resources mResources;
     private SearchDatabase mSearchDatabase;
+    private GalleryDatabase mGalleryDatabase;
+
+    /**
+     * Only show the last list for the first scene after the app starts
+     */
+    private static boolean sLastListShown;
+
+    /**
+     * Show at most 50 local results while searching
+     */
+    private static final int MAX_LOCAL_RESULTS = 50;
+    /**
+     * Increased for each search, the local result of an old search is dropped
+     */
+    private int mSearchSerial;
 
     private SearchBar mSearchBar;
     private ContentLayout mContentLayout;
@@ -105,6 +155,12 @@ public class GalleryListScene extends Scene implements SearchBar.Helper,
     private ViewTransition mViewTransition;
 
     private GalleryListHelper mGalleryListHelper;
+    private ThumbPrefetcher mThumbPrefetcher;
+    /**
+     * Size of thumb view in pixels, thumbnails are decoded to fit it
+     */
+    private int mThumbBoxWidth;
+    private int mThumbBoxHeight;
 
     private int mSearchBarOriginalTop;
     private int mSearchBarOriginalBottom;
@@ -119,6 +175,19 @@ public class GalleryListScene extends Scene implements SearchBar.Helper,
 
     private ListUrlBuilder mListUrlBuilder = new ListUrlBuilder();
 
+    /**
+     * Tag for requests of this scene, it is passed to the new scene when replaced
+     */
+    private Object mRequestTag = new Object();
+    /**
+     * Tag for prefetching next page, so page requests do not cancel it
+     */
+    private Object mPrefetchTag = new Object();
+    /**
+     * Tag for getting metadata of the rows from api
+     */
+    private Object mFillTag = new Object();
+
     private SimpleDialog.OnCreateCustomViewListener mGoToCreateCustomViewListener =
             new SimpleDialog.OnCreateCustomViewListener() {
                 @Override
@@ -186,6 +255,32 @@ public class GalleryListScene extends Scene implements SearchBar.Helper,
         GalleryListScene oldGalleryListScene = (GalleryListScene) oldScene;
         mGalleryListHelper = oldGalleryListScene.mGalleryListHelper
                 .newInstance(getStageActivity());
+        // Keep requests of old scene
+        mRequestTag = oldGalleryListScene.mRequestTag;
+        oldGalleryListScene.mRequestTag = null;
+        mPrefetchTag = oldGalleryListScene.mPrefetchTag;
+        oldGalleryListScene.mPrefetchTag = null;
+        mFillTag = oldGalleryListScene.mFillTag;
+        oldGalleryListScene.mFillTag = null;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        if (mRequestTag != null) {
+            EhClient.getInstance().cancel(mRequestTag);
+        }
+        if (mPrefetchTag != null) {
+            EhClient.getInstance().cancel(mPrefetchTag);
+        }
+        if (mFillTag != null) {
+            EhClient.getInstance().cancel(mFillTag);
+        }
+        if (mThumbPrefetcher != null) {
+            mThumbPrefetcher.cancel();
+            mThumbPrefetcher = null;
+        }
     }
 
     @SuppressWarnings("deprecation")
@@ -196,7 +291,10 @@ public class GalleryListScene extends Scene implements SearchBar.Helper,
 
         mActivity = (ContentActivity) getStageActivity();
         mResources = mActivity.getResources();
+        mThumbBoxWidth = mResources.getDimensionPixelSize(R.dimen.list_thumb_width);
+        mThumbBoxHeight = mResources.getDimensionPixelSize(R.dimen.list_thumb_height);
         mSearchDatabase = SearchDatabase.getInstance(getStageActivity());
+        mGalleryDatabase = GalleryDatabase.getInstance(getStageActivity());
 
         mSearchBar = (SearchBar) findViewById(R.id.search_bar);
         mContentLayout = (ContentLayout) findViewById(R.id.content_layout);
@@ -237,6 +335,8 @@ public class GalleryListScene extends Scene implements SearchBar.Helper,
         }
 
         mContentLayout.setHelper(mGalleryListHelper);
+        mThumbPrefetcher = new ThumbPrefetcher();
+        mContentRecyclerView.addOnScrollListener(mThumbPrefetcher);
 
         // Fab Layout
         mFabLayout.setOnCancelListener(this);
@@ -256,9 +356,38 @@ public class GalleryListScene extends Scene implements SearchBar.Helper,
         // When scene start
         if (savedInstanceState == null) {
             mGalleryListHelper.firstRefresh();
+            if (!sLastListShown && mListUrlBuilder.isHomepage()) {
+                sLastListShown = true;
+                showLastList();
+            }
         }
     }
 
+    /**
+     * Show the homepage got last time while refreshing
+     */
+    private void showLastList() {
+        Pipeline.create(new Pipeline.Stage<GalleryDatabase, GalleryInfoList>() {
+            @Override
+            public GalleryInfoList apply(GalleryDatabase galleryDatabase) {
+                return galleryDatabase.getLastList();
+            }
+        }).execute(mGalleryDatabase.getExecutor(), mGalleryDatabase, UiExecutor.getInstance(),
+                new Pipeline.Callback<GalleryDatabase, GalleryInfoList>() {
+                    @Override
+                    public void onSuccess(GalleryDatabase galleryDatabase, GalleryInfoList list) {
+                        if (mGalleryListHelper != null) {
+                            mGalleryListHelper.showSnapshot(list);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(GalleryDatabase galleryDatabase, Exception e) {
+                        Log.e(TAG, "Can't get last list", e);
+                    }
+                });
+    }
+
     @Override
     protected void onRestoreInstanceState(@NonNull SparseArray<Parcelable> savedStates) {
         super.onRestoreInstanceState(savedStates);
@@ -449,7 +578,8 @@ public class GalleryListScene extends Scene implements SearchBar.Helper,
 
         mSearchDatabase.addQuery(query);
 
-        if (mViewTransition.getShownViewIndex() == 0) {
+        boolean simpleSearch = mViewTransition.getShownViewIndex() == 0;
+        if (simpleSearch) {
             mListUrlBuilder.reset();
             mListUrlBuilder.setKeyword(query);
         } else {
@@ -467,6 +597,37 @@ public class GalleryListScene extends Scene implements SearchBar.Helper,
         setFabState(FAB_STATE_NORMAL);
 
         mGalleryListHelper.refresh();
+        mSearchSerial++;
+        if (simpleSearch) {
+            // Local result does not know the filters of advanced search
+            showLocalResults(query);
+        }
+    }
+
+    /**
+     * Show galleries seen before which match the query while searching
+     */
+    private void showLocalResults(String query) {
+        final int serial = mSearchSerial;
+        Pipeline.create(new Pipeline.Stage<String, GalleryInfoList>() {
+            @Override
+            public GalleryInfoList apply(String query) {
+                return mGalleryDatabase.search(query, MAX_LOCAL_RESULTS);
+            }
+        }).execute(mGalleryDatabase.getExecutor(), query, UiExecutor.getInstance(),
+                new Pipeline.Callback<String, GalleryInfoList>() {
+                    @Override
+                    public void onSuccess(String query, GalleryInfoList list) {
+                        if (serial == mSearchSerial && mGalleryListHelper != null) {
+                            mGalleryListHelper.showSnapshot(list);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(String query, Exception e) {
+                        Log.e(TAG, "Can't search " + query, e);
+                    }
+                });
     }
 
     private RecyclerView getVaildRecyclerView() {
@@ -620,6 +781,124 @@ public class GalleryListScene extends Scene implements SearchBar.Helper,
         }
     }
 
+    /**
+     * Decode to the size shown in the thumb box, fit center. The thumb size
+     * from the list page gives the aspect ratio, the box is used if it is unknown.
+     * Same url gets same request, so prefetched bitmaps are hit.
+     */
+    private ImageRequest newThumbRequest(String url, int width, int height) {
+        int boxWidth = mThumbBoxWidth;
+        int boxHeight = mThumbBoxHeight;
+        int targetWidth;
+        int targetHeight;
+        if (width > 0 && height > 0) {
+            float scale = Math.min((float) boxWidth / width, (float) boxHeight / height);
+            targetWidth = Math.max(1, Math.round(width * scale));
+            targetHeight = Math.max(1, Math.round(height * scale));
+        } else {
+            targetWidth = boxWidth;
+            targetHeight = boxHeight;
+        }
+        return ImageRequestBuilder.newBuilderWithSource(Uri.parse(url))
+                .setResizeOptions(new ResizeOptions(targetWidth, targetHeight))
+                .build();
+    }
+
+    /**
+     * Decode thumbnails of the rows ahead in scroll direction to bitmap cache,
+     * including the prefetched next page, and cancel the ones out of range.
+     */
+    private class ThumbPrefetcher extends RecyclerView.OnScrollListener {
+
+        /**
+         * Thumb url to the prefetching
+         */
+        private final Map<String, DataSource<Void>> mDataSources = new HashMap<>();
+        private final Set<String> mWanted = new HashSet<>();
+        private boolean mScrollDown = true;
+
+        private final Runnable mUpdateTask = new Runnable() {
+            @Override
+            public void run() {
+                update();
+            }
+        };
+
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            if (dy != 0) {
+                mScrollDown = dy > 0;
+                update();
+            }
+        }
+
+        public void postUpdate() {
+            mContentRecyclerView.removeCallbacks(mUpdateTask);
+            mContentRecyclerView.post(mUpdateTask);
+        }
+
+        private void want(String url, int width, int height) {
+            if (url != null && mWanted.add(url) && !mDataSources.containsKey(url)) {
+                mDataSources.put(url, Fresco.getImagePipeline().prefetchToBitmapCache(
+                        newThumbRequest(url, width, height), this));
+            }
+        }
+
+        private void update() {
+            if (mGalleryListHelper == null) {
+                return;
+            }
+            GalleryInfoList galleryInfos = mGalleryListHelper.mGalleryInfos;
+            RecyclerView.LayoutManager layoutManager = mContentRecyclerView.getLayoutManager();
+            int size = galleryInfos.size();
+
+            mWanted.clear();
+            if (mScrollDown) {
+                int start = LayoutManagerUtils.getLastVisibleItemPostion(layoutManager) + 1;
+                int end = start + THUMB_PREFETCH_COUNT;
+                for (int i = start; i < size && i < end; i++) {
+                    want(galleryInfos.getThumb(i), galleryInfos.getThumbWidth(i),
+                            galleryInfos.getThumbHeight(i));
+                }
+                // Go on with the next page waiting to be shown
+                List<GalleryInfo> nextPage = mGalleryListHelper.getPrefetchData();
+                if (nextPage != null) {
+                    for (int i = 0, n = Math.min(nextPage.size(), end - Math.max(start, size));
+                            i < n; i++) {
+                        GalleryInfo gi = nextPage.get(i);
+                        want(gi.thumb, gi.thumbWidth, gi.thumbHeight);
+                    }
+                }
+            } else {
+                int start = LayoutManagerUtils.getFirstVisibleItemPostion(layoutManager) - 1;
+                int end = start - THUMB_PREFETCH_COUNT;
+                for (int i = Math.min(start, size - 1); i >= 0 && i > end; i--) {
+                    want(galleryInfos.getThumb(i), galleryInfos.getThumbWidth(i),
+                            galleryInfos.getThumbHeight(i));
+                }
+            }
+
+            // Cancel the ones out of range, done ones are kept in bitmap cache
+            Iterator<Map.Entry<String, DataSource<Void>>> iterator =
+                    mDataSources.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, DataSource<Void>> entry = iterator.next();
+                if (!mWanted.contains(entry.getKey())) {
+                    entry.getValue().close();
+                    iterator.remove();
+                }
+            }
+        }
+
+        public void cancel() {
+            mContentRecyclerView.removeCallbacks(mUpdateTask);
+            for (DataSource<Void> dataSource : mDataSources.values()) {
+                dataSource.close();
+            }
+            mDataSources.clear();
+        }
+    }
+
     private class GalleryHolder extends RecyclerView.ViewHolder {
 
         public SimpleDraweeView thumb;
@@ -629,6 +908,25 @@ public class GalleryListScene extends Scene implements SearchBar.Helper,
         public TextView category;
         public TextView posted;
         public TextView simpleLanguage;
+        /**
+         * The category shown, -1 for none
+         */
+        public int shownCategory = -1;
+        /**
+         * The thumb url shown, null for none or failed
+         */
+        public String shownThumb;
+        public char[] postedBuffer = new char[GalleryInfoList.POSTED_LENGTH];
+        /**
+         * Forget the failed thumb, so next bind of the row tries it again
+         */
+        public final ControllerListener<ImageInfo> thumbListener =
+                new BaseControllerListener<ImageInfo>() {
+                    @Override
+                    public void onFailure(String id, Throwable throwable) {
+                        shownThumb = null;
+                    }
+                };
 
         public GalleryHolder(View itemView) {
             super(itemView);
@@ -645,6 +943,7 @@ public class GalleryListScene extends Scene implements SearchBar.Helper,
     private class GalleryListHelper extends ContentLayout.ContentHelper<GalleryInfo, GalleryHolder> {
 
         private LayoutInflater mInflater;
+        private GalleryInfoList mGalleryInfos;
 
         private Runnable mSearchBarPositionTask = new Runnable() {
             @Override
@@ -654,12 +953,23 @@ public class GalleryListScene extends Scene implements SearchBar.Helper,
         };
 
         public GalleryListHelper(Context context) {
-            super(context);
+            this(context, new GalleryInfoList());
+        }
+
+        private GalleryListHelper(Context context, GalleryInfoList galleryInfos) {
+            super(context, galleryInfos);
+            mGalleryInfos = galleryInfos;
             init();
         }
 
         private GalleryListHelper(Context context, GalleryListHelper oldContentHelper) {
-            super(context, oldContentHelper);
+            this(context, new GalleryInfoList(), oldContentHelper);
+        }
+
+        private GalleryListHelper(Context context, GalleryInfoList galleryInfos,
+                GalleryListHelper oldContentHelper) {
+            super(context, galleryInfos, oldContentHelper);
+            mGalleryInfos = galleryInfos;
             init();
         }
 
@@ -690,13 +1000,50 @@ public class GalleryListScene extends Scene implements SearchBar.Helper,
                 mListUrlBuilder.setPageIndex(page);
                 String url =  mListUrlBuilder.build(source);
                 GalleryListListener listener = new GalleryListListener(taskId, type,
-                        page, source);
-                EhClient.getInstance().getGalleryList(source, url, listener);
+                        page, source, false);
+                EhClient client = EhClient.getInstance();
+                // Only the newest task is wanted
+                client.cancel(mRequestTag);
+                // Refresh wants the newest, it is cheap if the server returns 304
+                CachePolicy policy = type == ContentLayout.ContentHelper.TYPE_REFRESH ?
+                        CachePolicy.REVALIDATE : PAGE_CACHE_POLICY;
+                client.getGalleryList(source, url, RequestScheduler.PRIORITY_FOREGROUND,
+                        mRequestTag, policy, listener);
             } catch (UnsupportedSearchException e) {
                 onGetPageData(taskId, e);
             }
         }
 
+        @Override
+        protected void prefetchPageData(int taskId, int page) {
+            try {
+                int source = Config.getEhSource();
+                mListUrlBuilder.setPageIndex(page);
+                String url =  mListUrlBuilder.build(source);
+                GalleryListListener listener = new GalleryListListener(taskId,
+                        ContentLayout.ContentHelper.TYPE_NEXT_PAGE, page, source, true);
+                // Same key as getPageData, the page request joins it if it is not done
+                EhClient.getInstance().getGalleryList(source, url,
+                        RequestScheduler.PRIORITY_PREFETCH, mPrefetchTag, PAGE_CACHE_POLICY,
+                        listener);
+            } catch (UnsupportedSearchException e) {
+                onPrefetchPageData(taskId, e);
+            }
+        }
+
+        @Override
+        protected void onShowPage(List<GalleryInfo> data) {
+            // Prefetched page is filled here too, when its rows are in the list
+            fillGalleryInfo(Config.getEhSource(), data);
+        }
+
+        @Override
+        protected void cancelPrefetchPageData() {
+            if (mPrefetchTag != null) {
+                EhClient.getInstance().cancel(mPrefetchTag);
+            }
+        }
+
         @Override
         public GalleryHolder onCreateViewHolder(ViewGroup parent, int viewType) {
             View view = mInflater.inflate(R.layout.item_gallery_list_detail, parent, false);
@@ -705,38 +1052,96 @@ public class GalleryListScene extends Scene implements SearchBar.Helper,
 
         @Override
         public void onBindViewHolder(GalleryHolder holder, int position) {
-            GalleryInfo gi = getDataAt(position);
-            holder.thumb.setImageURI(Uri.parse(gi.thumb));
-            holder.title.setText(gi.title);
-            holder.uploader.setText(gi.uploader);
-            holder.rating.setRating(gi.rating);
-            TextView category = holder.category;
-            String newCategoryText = EhUtils.getCategory(gi.category);
-            if (!newCategoryText.equals(category.getText())) {
-                category.setText(newCategoryText);
-                category.setBackgroundColor(EhUtils.getCategoryColor(gi.category));
-            }
-            holder.posted.setText(gi.posted);
-            holder.simpleLanguage.setText(gi.simpleLanguage);
+            // Read the columns, no GalleryInfo is created
+            GalleryInfoList galleryInfos = mGalleryInfos;
+            // The thumb view has fixed size, no layout is needed when the image arrives.
+            // Skip the same thumb when the row is bound again, unless it failed.
+            if (!galleryInfos.isThumbEquals(position, holder.shownThumb)) {
+                String thumb = galleryInfos.getThumb(position);
+                holder.shownThumb = thumb;
+                ImageRequest request = newThumbRequest(thumb, galleryInfos.getThumbWidth(position),
+                        galleryInfos.getThumbHeight(position));
+                DraweeController controller = Fresco.newDraweeControllerBuilder()
+                        .setImageRequest(request)
+                        .setOldController(holder.thumb.getController())
+                        .setControllerListener(holder.thumbListener)
+                        .build();
+                holder.thumb.setController(controller);
+            }
+            holder.title.setText(galleryInfos.getTitle(position));
+            holder.uploader.setText(galleryInfos.getUploader(position));
+            holder.rating.setRating(galleryInfos.getRating(position));
+            int category = galleryInfos.getCategory(position);
+            if (holder.shownCategory != category) {
+                holder.shownCategory = category;
+                holder.category.setText(EhUtils.getCategory(category));
+                holder.category.setBackgroundColor(EhUtils.getCategoryColor(category));
+            }
+            int postedLength = galleryInfos.getPosted(position, holder.postedBuffer);
+            if (postedLength >= 0) {
+                holder.posted.setText(holder.postedBuffer, 0, postedLength);
+            } else {
+                holder.posted.setText(galleryInfos.getPosted(position));
+            }
+            holder.simpleLanguage.setText(galleryInfos.getSimpleLanguage(position));
         }
     }
 
-    private class GalleryListListener extends EhClient.OnGetGalleryListListener {
+    /**
+     * List pages have no tags and file count, get them from api. The database
+     * keeps them for local search, rows still in the list are updated.
+     */
+    private void fillGalleryInfo(int source, List<GalleryInfo> glList) {
+        EhClient.getInstance().fillGalleryInfo(source, glList, mGalleryListHelper.mGalleryInfos,
+                mFillTag, new EhClient.OnFillGalleryInfoListener() {
+                    @Override
+                    public void onUpdate(int index) {
+                        mGalleryListHelper.notifyItemChanged(index);
+                    }
+
+                    @Override
+                    public void onSuccess() {
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        // The list is fine without them
+                        Log.d(TAG, "Can't get gallery metadata", e);
+                    }
+                });
+    }
+
+    private class GalleryListListener extends EhClient.OnStreamGalleryListListener {
 
         private int mTaskId;
         private int mTaskType;
         private int mTargetPage;
         private int mSource;
+        private boolean mPrefetch;
+        private boolean mSaveLastList;
 
-        public GalleryListListener(int taskId, int taskType, int targetPage, int source) {
+        public GalleryListListener(int taskId, int taskType, int targetPage, int source,
+                boolean prefetch) {
             mTaskId = taskId;
             mTaskType = taskType;
             mTargetPage = targetPage;
             mSource = source;
+            mPrefetch = prefetch;
+            mSaveLastList = taskType == ContentLayout.ContentHelper.TYPE_REFRESH &&
+                    mListUrlBuilder.isHomepage();
         }
 
         @Override
         public void onSuccess(List<GalleryInfo> glList, int pageNum) {
+            if (mPrefetch && !mGalleryListHelper.isPrefetching(mTaskId)) {
+                // Dropped, the page size might be for another query
+                return;
+            }
+            if (!mPrefetch && !mGalleryListHelper.isCurrentTask(mTaskId)) {
+                // Out of date, the page is not shown, only stop the progress
+                mGalleryListHelper.onGetPageData(mTaskId, glList);
+                return;
+            }
             if (mSource == EhClient.SOURCE_LOFI) {
                 if (pageNum == ListParser.CURRENT_PAGE_IS_LAST) {
                     mGalleryListHelper.setPageSize(mTargetPage);
@@ -746,12 +1151,35 @@ public class GalleryListScene extends Scene implements SearchBar.Helper,
             } else {
                 mGalleryListHelper.setPageSize(pageNum);
             }
-            mGalleryListHelper.onGetPageData(mTaskId, glList);
+            if (mPrefetch) {
+                mGalleryListHelper.onPrefetchPageData(mTaskId, glList);
+            } else {
+                mGalleryListHelper.onGetPageData(mTaskId, glList);
+            }
+            if (mThumbPrefetcher != null) {
+                // Start on the new rows as soon as they are laid out
+                mThumbPrefetcher.postUpdate();
+            }
+            if (mSaveLastList) {
+                mGalleryDatabase.setLastListAsync(glList);
+            }
+        }
+
+        @Override
+        public void onGetPart(List<GalleryInfo> part) {
+            // Prefetched page is not shown until it is done
+            if (!mPrefetch) {
+                mGalleryListHelper.onGetPageDataPart(mTaskId, part);
+            }
         }
 
         @Override
         public void onFailure(Exception e) {
-            mGalleryListHelper.onGetPageData(mTaskId, e);
+            if (mPrefetch) {
+                mGalleryListHelper.onPrefetchPageData(mTaskId, e);
+            } else {
+                mGalleryListHelper.onGetPageData(mTaskId, e);
+            }
         }
     }
 }
@@ -63,9 +63,9 @@ public final class EhUtils {
             new String[] { "misc" },
             new String[] { "doujinshi" },
             new String[] { "manga" },
-            new String[] { "artistcg", "Artist CG Sets" },
-            new String[] { "gamecg", "Game CG Sets" },
-            new String[] { "imageset", "Image Sets" },
+            new String[] { "artistcg", "Artist CG Sets", "Artist CG" },
+            new String[] { "gamecg", "Game CG Sets", "Game CG" },
+            new String[] { "imageset", "Image Sets", "Image Set" },
             new String[] { "cosplay" },
             new String[] { "asianporn", "Asian Porn" },
             new String[] { "non-h" },
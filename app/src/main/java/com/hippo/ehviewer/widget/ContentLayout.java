@@ -18,6 +18,7 @@ package com.hippo.ehviewer.widget;
 import android.content.Context;
 import android.os.Bundle;
 import android.os.Parcelable;
+import android.support.annotation.Nullable;
 import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 import android.view.LayoutInflater;
@@ -32,6 +33,7 @@ import com.hippo.ehviewer.R;
 import com.hippo.util.AssertUtils;
 import com.hippo.util.IntIdGenerator;
 import com.hippo.util.LayoutManagerUtils;
+import com.hippo.util.MemoryGovernor;
 import com.hippo.util.UiUtils;
 import com.hippo.widget.Snackbar;
 import com.hippo.widget.recyclerview.EasyRecyclerView;
@@ -128,7 +130,8 @@ public class ContentLayout extends FrameLayout {
     public abstract static class ContentHelper<E, VH extends RecyclerView.ViewHolder>
             extends EasyRecyclerView.Adapter<VH>
             implements RefreshLayout.OnHeaderRefreshListener,
-            RefreshLayout.OnFooterRefreshListener, View.OnClickListener {
+            RefreshLayout.OnFooterRefreshListener, View.OnClickListener,
+            MemoryGovernor.Trimmable {
 
         private static final String STATE_KEY_SUPER = "super";
         private static final String STATE_KEY_SHOWN_VIEW = "shown_view";
@@ -142,6 +145,17 @@ public class ContentLayout extends FrameLayout {
         public static final int TYPE_NEXT_PAGE_KEEP_POS = 4;
         public static final int TYPE_SOMEWHERE = 5;
 
+        /**
+         * Prefetch next page when the last visible item passes
+         * half of the last page
+         */
+        public static final float DEFAULT_PREFETCH_THRESHOLD = 0.5f;
+
+        /**
+         * Keep at most 5 pages in memory
+         */
+        public static final int DEFAULT_MAX_PAGE_COUNT = 5;
+
         private Context mContext;
 
         private ProgressBar mProgressBar;
@@ -184,10 +198,38 @@ public class ContentLayout extends FrameLayout {
         private int mPageSize;
         private int mCurrentPage;
         private int mPageVolume;
+        /**
+         * Data size of each shown page, from mFirstPage to mLastPage - 1
+         */
+        private List<Integer> mPageVolumes;
+        private int mMaxPageCount = DEFAULT_MAX_PAGE_COUNT;
 
         private int mCurrentTaskId;
         private int mCurrentTaskType;
         private int mCurrentTaskPage;
+        /**
+         * How many data of current task are added by
+         * {@link #onGetPageDataPart(int, List)}
+         */
+        private int mStreamedSize;
+
+        private float mPrefetchThreshold = DEFAULT_PREFETCH_THRESHOLD;
+        /**
+         * The page which is prefetched, -1 for none
+         */
+        private int mPrefetchPage = -1;
+        private int mPrefetchTaskId;
+        private boolean mPrefetching;
+        /**
+         * The lookahead buffer, the prefetched page waiting to be shown
+         */
+        private List<E> mPrefetchData;
+
+        /**
+         * True if the data is set by {@link #showSnapshot(List)}
+         * and no page is got yet
+         */
+        private boolean mShowingSnapshot;
 
         private RecyclerView.OnScrollListener mOnScrollListener = new RecyclerView.OnScrollListener() {
 
@@ -219,6 +261,15 @@ public class ContentLayout extends FrameLayout {
                     }
                 }
             }
+
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0) {
+                    checkPrefetch();
+                } else if (dy < 0) {
+                    checkPreviousPage();
+                }
+            }
         };
 
         private LayoutManagerUtils.OnScrollToPositionListener mOnScrollToPositionListener =
@@ -230,14 +281,28 @@ public class ContentLayout extends FrameLayout {
                 };
 
         public ContentHelper(Context context) {
+            this(context, new ArrayList<E>());
+        }
+
+        /**
+         * @param data the empty list to store data, it can be a compact one
+         */
+        public ContentHelper(Context context, List<E> data) {
             mContext = context;
-            mData = new ArrayList<>();
+            mData = data;
+            mPageVolumes = new ArrayList<>();
             mIdGenerator = IntIdGenerator.create();
+            MemoryGovernor.getInstance().register(getClass().getSimpleName(), this);
         }
 
         @SuppressWarnings("unchecked")
         protected ContentHelper(Context context, ContentHelper oldContentHelper) {
-            this(context);
+            this(context, new ArrayList<E>(), oldContentHelper);
+        }
+
+        @SuppressWarnings("unchecked")
+        protected ContentHelper(Context context, List<E> data, ContentHelper oldContentHelper) {
+            this(context, data);
             mData.addAll(oldContentHelper.mData);
 
             mFirstPage = oldContentHelper.mFirstPage;
@@ -247,9 +312,17 @@ public class ContentLayout extends FrameLayout {
             mPageSize = oldContentHelper.mPageSize;
             mCurrentPage = oldContentHelper.mCurrentPage;
             mPageVolume = oldContentHelper.mPageVolume;
+            mPageVolumes.addAll(oldContentHelper.mPageVolumes);
+            mMaxPageCount = oldContentHelper.mMaxPageCount;
             mCurrentTaskId = oldContentHelper.mCurrentTaskId;
             mCurrentTaskType = oldContentHelper.mCurrentTaskType;
             mCurrentTaskPage = oldContentHelper.mCurrentTaskPage;
+            mStreamedSize = oldContentHelper.mStreamedSize;
+            mPrefetchThreshold = oldContentHelper.mPrefetchThreshold;
+            mPrefetchPage = oldContentHelper.mPrefetchPage;
+            mPrefetchTaskId = oldContentHelper.mPrefetchTaskId;
+            mPrefetching = oldContentHelper.mPrefetching;
+            mPrefetchData = oldContentHelper.mPrefetchData;
         }
 
         private void init(ContentLayout contentLayout) {
@@ -305,13 +378,57 @@ public class ContentLayout extends FrameLayout {
         }
 
         /**
-         * Call {@link #onGetPageData(int, List)} when get data
+         * Call {@link #onGetPageData(int, List)} when get data,
+         * {@link #onGetPageDataPart(int, List)} can be called before it
          *
          * @param taskId task id
          * @param page the page to get
          */
         protected abstract void getPageData(int taskId, int type, int page);
 
+        /**
+         * Get the next page before it is wanted. Call
+         * {@link #onPrefetchPageData(int, List)} when get data.
+         * It does nothing by default, so nothing is prefetched.
+         * The request should be shared with {@link #getPageData(int, int, int)}
+         * of the same page, then showing the page while it is prefetching
+         * does not get it twice.
+         *
+         * @param taskId task id
+         * @param page the page to get
+         */
+        protected void prefetchPageData(int taskId, int page) {
+        }
+
+        /**
+         * Called when a page is added to the data, got by a task or taken
+         * from the prefetched page. Out of date tasks do not reach here.
+         *
+         * @param data the page
+         */
+        protected void onShowPage(List<E> data) {
+        }
+
+        /**
+         * Cancel the prefetching request, the result is ignored anyway
+         */
+        protected void cancelPrefetchPageData() {
+        }
+
+        /**
+         * Set when to prefetch next page. Next page is got when the last
+         * visible item passes this fraction of the last page.
+         *
+         * @param threshold 0.0f for as soon as the last page is shown,
+         *                  negative for never prefetching
+         */
+        public void setPrefetchThreshold(float threshold) {
+            mPrefetchThreshold = threshold;
+            if (threshold < 0.0f) {
+                dropPrefetch();
+            }
+        }
+
         public void setPageSize(int pageSize) {
             mPageSize = pageSize;
         }
@@ -328,11 +445,144 @@ public class ContentLayout extends FrameLayout {
             mPageSize = Integer.MAX_VALUE;
         }
 
+        /**
+         * Set how many pages can be kept in memory. The pages far from
+         * current page are removed when new page is got, they are got
+         * again when scrolling back.
+         *
+         * @param maxPageCount at least 1
+         */
+        public void setMaxPageCount(int maxPageCount) {
+            if (maxPageCount < 1) {
+                throw new IllegalArgumentException("Max page count must be at least 1, it is "
+                        + maxPageCount);
+            }
+            mMaxPageCount = maxPageCount;
+        }
+
+        public int getMaxPageCount() {
+            return mMaxPageCount;
+        }
+
+        private void trimPages(boolean head) {
+            trimPages(head, mMaxPageCount);
+        }
+
+        /**
+         * Remove pages until there are not more than maxPageCount pages.
+         * Current page is always kept.
+         *
+         * @param head true for removing pages from the head,
+         *             false for removing pages from the tail
+         */
+        private void trimPages(boolean head, int maxPageCount) {
+            while (mLastPage - mFirstPage > maxPageCount) {
+                if (head) {
+                    if (mFirstPage >= mCurrentPage) {
+                        break;
+                    }
+                    int volume = mPageVolumes.remove(0);
+                    mData.subList(0, volume).clear();
+                    notifyItemRangeRemoved(0, volume);
+                    mFirstPage++;
+                    mFirstIndex -= volume;
+                    mLastIndex -= volume;
+                } else {
+                    if (mLastPage - 1 <= mCurrentPage) {
+                        break;
+                    }
+                    int volume = mPageVolumes.remove(mPageVolumes.size() - 1);
+                    int dataSize = mData.size();
+                    mData.subList(dataSize - volume, dataSize).clear();
+                    notifyItemRangeRemoved(dataSize - volume, volume);
+                    mLastPage--;
+                }
+            }
+        }
+
+        /**
+         * Drop the prefetched page, and the pages far from current page by the ratio.
+         * Pages are not touched while a task is running, the task might add
+         * a page next to them.
+         */
+        @Override
+        public void trimMemory(float ratio) {
+            dropPrefetch();
+            if (mRefreshLayout == null || mRefreshLayout.isRefreshing() || mStreamedSize != 0) {
+                return;
+            }
+            int pageCount = mLastPage - mFirstPage;
+            int maxPageCount = Math.max(1, (int) Math.ceil(pageCount * (1.0f - ratio)));
+            if (pageCount > maxPageCount) {
+                // Remove the pages after current page first, they are got again by scrolling
+                trimPages(false, maxPageCount);
+                trimPages(true, maxPageCount);
+            }
+        }
+
+        @Override
+        public int getCacheSize() {
+            return mData.size() + (mPrefetchData == null ? 0 : mPrefetchData.size());
+        }
+
+        /**
+         * Add the data which is not added by {@link #onGetPageDataPart(int, List)}
+         * to the end
+         */
+        private void addRemainData(List<E> data, int streamedSize) {
+            int remainSize = data.size() - streamedSize;
+            if (remainSize > 0) {
+                int oldDataSize = mData.size();
+                mData.addAll(data.subList(streamedSize, data.size()));
+                notifyItemRangeInserted(oldDataSize, remainSize);
+            }
+        }
+
+        /**
+         * Show data got before, like the last list saved on disk or local search
+         * result, while a refresh with progress bar is running. It is replaced by
+         * the page. It does nothing if the page is got or the refresh failed.
+         *
+         * @param data the data to show
+         */
+        public void showSnapshot(List<E> data) {
+            if (data.isEmpty() || mCurrentTaskType != TYPE_REFRESH || mStreamedSize != 0 ||
+                    mViewTransition.getShownViewIndex() != 1) {
+                return;
+            }
+
+            mShowingSnapshot = true;
+            mData.clear();
+            mData.addAll(data);
+            notifyDataSetChanged();
+            showContent();
+            mRecyclerView.stopScroll();
+            LayoutManagerUtils.scrollToPositionWithOffset(mLayoutManager, 0, 0);
+            onScrollToPosition();
+            // Still refreshing
+            mRefreshLayout.setHeaderRefreshing(true);
+        }
+
+        /**
+         * Remove the data set by {@link #showSnapshot(List)}
+         */
+        private void dropSnapshot() {
+            if (mShowingSnapshot) {
+                mShowingSnapshot = false;
+                mData.clear();
+                notifyDataSetChanged();
+            }
+        }
+
         public void onGetPageData(int taskId, List<E> data) {
             showContent();
             int pageVolume = data.size();
             mPageVolume = pageVolume;
             if (mCurrentTaskId == taskId) {
+                // Replaced below as streamed size is 0
+                mShowingSnapshot = false;
+                int streamedSize = Math.min(mStreamedSize, pageVolume);
+                mStreamedSize = 0;
                 switch (mCurrentTaskType) {
                     case TYPE_REFRESH:
                         mFirstPage = 0;
@@ -340,24 +590,33 @@ public class ContentLayout extends FrameLayout {
                         mCurrentPage = 0;
                         mFirstIndex = 0;
                         mLastIndex = pageVolume;
+                        mPageVolumes.clear();
+                        mPageVolumes.add(pageVolume);
 
-                        mData.clear();
-                        mData.addAll(data);
-                        notifyDataSetChanged();
+                        if (streamedSize > 0) {
+                            // Already cleared and scrolled to top
+                            addRemainData(data, streamedSize);
+                        } else {
+                            mData.clear();
+                            mData.addAll(data);
+                            notifyDataSetChanged();
 
-                        mRecyclerView.stopScroll();
-                        LayoutManagerUtils.scrollToPositionWithOffset(mLayoutManager, 0, 0);
-                        onScrollToPosition();
+                            mRecyclerView.stopScroll();
+                            LayoutManagerUtils.scrollToPositionWithOffset(mLayoutManager, 0, 0);
+                            onScrollToPosition();
+                        }
                         break;
                     case TYPE_PRE_PAGE:
                     case TYPE_PRE_PAGE_KEEP_POS:
                         mData.addAll(0, data);
                         notifyItemRangeInserted(0, pageVolume);
+                        mPageVolumes.add(0, pageVolume);
 
                         mFirstPage--;
                         if (mCurrentTaskType == TYPE_PRE_PAGE_KEEP_POS) {
                             mFirstIndex += pageVolume;
                             mLastIndex += pageVolume;
+                            trimPages(false);
 
                             mRecyclerView.stopScroll();
                             LayoutManagerUtils.scrollToPositionProperly(mLayoutManager, mContext, mFirstIndex - 1, mOnScrollToPositionListener);
@@ -365,6 +624,7 @@ public class ContentLayout extends FrameLayout {
                             mCurrentPage = mFirstPage;
                             mFirstIndex = 0;
                             mLastIndex = pageVolume;
+                            trimPages(false);
 
                             mRecyclerView.stopScroll();
                             LayoutManagerUtils.scrollToPositionWithOffset(mLayoutManager, 0, 0);
@@ -373,45 +633,266 @@ public class ContentLayout extends FrameLayout {
                         break;
                     case TYPE_NEXT_PAGE:
                     case TYPE_NEXT_PAGE_KEEP_POS:
-                        int oldDataSize = mData.size();
-                        mData.addAll(data);
-                        notifyItemRangeInserted(oldDataSize, pageVolume);
+                        addRemainData(data, streamedSize);
+                        mPageVolumes.add(pageVolume);
 
                         mLastPage++;
-                        if (mCurrentTaskType != TYPE_NEXT_PAGE_KEEP_POS) {
+                        if (mCurrentTaskType == TYPE_NEXT_PAGE_KEEP_POS) {
+                            trimPages(true);
+                        } else {
                             mCurrentPage = mLastPage - 1;
+                            trimPages(true);
                             mFirstIndex = mData.size() - pageVolume;
                             mLastIndex = mData.size();
 
-                            mRecyclerView.stopScroll();
-                            LayoutManagerUtils.scrollToPositionWithOffset(mLayoutManager, mFirstIndex, 0);
-                            onScrollToPosition();
+                            if (streamedSize == 0) {
+                                mRecyclerView.stopScroll();
+                                LayoutManagerUtils.scrollToPositionWithOffset(mLayoutManager, mFirstIndex, 0);
+                                onScrollToPosition();
+                            }
                         }
                         break;
                     case TYPE_SOMEWHERE:
-                        mData.clear();
-                        mData.addAll(data);
-                        notifyDataSetChanged();
+                        if (streamedSize > 0) {
+                            addRemainData(data, streamedSize);
+                        } else {
+                            mData.clear();
+                            mData.addAll(data);
+                            notifyDataSetChanged();
+                        }
 
                         mFirstPage = mCurrentTaskPage;
                         mLastPage = mCurrentTaskPage + 1;
                         mCurrentPage = mCurrentTaskPage;
                         mFirstIndex = 0;
                         mLastIndex = pageVolume;
+                        mPageVolumes.clear();
+                        mPageVolumes.add(pageVolume);
 
-                        mRecyclerView.stopScroll();
-                        LayoutManagerUtils.scrollToPositionWithOffset(mLayoutManager, 0, 0);
-                        onScrollToPosition();
+                        if (streamedSize == 0) {
+                            mRecyclerView.stopScroll();
+                            LayoutManagerUtils.scrollToPositionWithOffset(mLayoutManager, 0, 0);
+                            onScrollToPosition();
+                        }
                         break;
                 }
+                onShowPage(data);
             }
 
             mRefreshLayout.setHeaderRefreshing(false);
             mRefreshLayout.setFooterRefreshing(false);
         }
 
+        /**
+         * Add part of the page before {@link #onGetPageData(int, List)},
+         * so the first item can be shown before the whole page is got.
+         * {@link #onGetPageData(int, List)} must still be called with the whole page.
+         * Only work for refresh, next page and somewhere, it is ignored
+         * for previous page, because inserting to the top will move the shown items.
+         *
+         * @param taskId task id
+         * @param part the new data since last call
+         */
+        public void onGetPageDataPart(int taskId, List<E> part) {
+            if (mCurrentTaskId != taskId || part.isEmpty()) {
+                return;
+            }
+
+            int partSize = part.size();
+            switch (mCurrentTaskType) {
+                case TYPE_REFRESH:
+                case TYPE_SOMEWHERE:
+                    if (mStreamedSize == 0) {
+                        mShowingSnapshot = false;
+                        showContent();
+                        mData.clear();
+                        mData.addAll(part);
+                        notifyDataSetChanged();
+
+                        mRecyclerView.stopScroll();
+                        LayoutManagerUtils.scrollToPositionWithOffset(mLayoutManager, 0, 0);
+                        onScrollToPosition();
+                    } else {
+                        int oldDataSize = mData.size();
+                        mData.addAll(part);
+                        notifyItemRangeInserted(oldDataSize, partSize);
+                    }
+                    break;
+                case TYPE_NEXT_PAGE:
+                case TYPE_NEXT_PAGE_KEEP_POS:
+                    int oldDataSize = mData.size();
+                    mData.addAll(part);
+                    notifyItemRangeInserted(oldDataSize, partSize);
+
+                    if (mStreamedSize == 0 && mCurrentTaskType == TYPE_NEXT_PAGE) {
+                        mRecyclerView.stopScroll();
+                        LayoutManagerUtils.scrollToPositionWithOffset(mLayoutManager, oldDataSize, 0);
+                        onScrollToPosition();
+                    }
+                    break;
+                default:
+                    return;
+            }
+            mStreamedSize += partSize;
+        }
+
+        /**
+         * Remove the data added by {@link #onGetPageDataPart(int, List)}
+         * if current task will not finish
+         */
+        private void dropStreamedData() {
+            int streamedSize = mStreamedSize;
+            if (streamedSize == 0) {
+                return;
+            }
+            mStreamedSize = 0;
+
+            switch (mCurrentTaskType) {
+                case TYPE_REFRESH:
+                case TYPE_SOMEWHERE:
+                    // Old data is gone, no page is loaded now
+                    mData.clear();
+                    notifyDataSetChanged();
+                    mFirstPage = mCurrentTaskPage;
+                    mLastPage = mCurrentTaskPage;
+                    mCurrentPage = mCurrentTaskPage;
+                    mFirstIndex = 0;
+                    mLastIndex = 0;
+                    mPageVolumes.clear();
+                    break;
+                case TYPE_NEXT_PAGE:
+                case TYPE_NEXT_PAGE_KEEP_POS:
+                    int dataSize = mData.size();
+                    mData.subList(dataSize - streamedSize, dataSize).clear();
+                    notifyItemRangeRemoved(dataSize - streamedSize, streamedSize);
+                    break;
+            }
+        }
+
+        private boolean isNextPageTask() {
+            return mCurrentTaskType == TYPE_NEXT_PAGE ||
+                    mCurrentTaskType == TYPE_NEXT_PAGE_KEEP_POS;
+        }
+
+        private void checkPrefetch() {
+            int page = mLastPage;
+            if (mPrefetchThreshold < 0.0f || mPageVolume <= 0 || page >= mPageSize ||
+                    page == mPrefetchPage || mViewTransition.getShownViewIndex() != 0 ||
+                    mRefreshLayout.isRefreshing()) {
+                // Do not compete with the page task user is waiting for
+                return;
+            }
+
+            int lastPageStart = mData.size() - mPageVolume;
+            int lastVisiblePosition = LayoutManagerUtils.getLastVisibleItemPostion(mLayoutManager);
+            if (lastVisiblePosition - lastPageStart >= (int) (mPageVolume * mPrefetchThreshold)) {
+                dropPrefetch();
+                mPrefetchPage = page;
+                mPrefetchTaskId = mIdGenerator.nextId();
+                mPrefetching = true;
+                prefetchPageData(mPrefetchTaskId, page);
+            }
+        }
+
+        /**
+         * Get the previous page when scrolled up to the first item, so trimmed
+         * pages come back without a header pull. Footer does the same for the
+         * trimmed pages after.
+         */
+        private void checkPreviousPage() {
+            if (mFirstPage <= 0 || mShowingSnapshot || mViewTransition.getShownViewIndex() != 0 ||
+                    mRefreshLayout.isRefreshing()) {
+                return;
+            }
+            if (LayoutManagerUtils.getFirstVisibleItemPostion(mLayoutManager) == 0) {
+                mRefreshLayout.setFooterRefreshing(false);
+                mRefreshLayout.setHeaderRefreshing(true);
+                onHeaderRefresh();
+            }
+        }
+
+        /**
+         * Cancel prefetching and clear the lookahead buffer
+         */
+        private void dropPrefetch() {
+            if (mPrefetching) {
+                mPrefetching = false;
+                cancelPrefetchPageData();
+            }
+            mPrefetchPage = -1;
+            mPrefetchData = null;
+        }
+
+        /**
+         * Show the prefetched page as the result of a new next page task
+         *
+         * @return false if next page is not prefetched
+         */
+        private boolean showPrefetchedPage(int type) {
+            if (mPrefetchData == null || mPrefetchPage != mLastPage || mLastPage >= mPageSize) {
+                return false;
+            }
+
+            List<E> data = mPrefetchData;
+            mPrefetchData = null;
+            mCurrentTaskId = nextTaskId();
+            mCurrentTaskType = type;
+            mCurrentTaskPage = mLastPage;
+            onGetPageData(mCurrentTaskId, data);
+            return true;
+        }
+
+        /**
+         * @return the prefetched next page waiting to be shown, null for none
+         */
+        public @Nullable List<E> getPrefetchData() {
+            return mPrefetchPage == mLastPage ? mPrefetchData : null;
+        }
+
+        /**
+         * @return true if the task is the one the data is waiting for
+         */
+        public boolean isCurrentTask(int taskId) {
+            return mCurrentTaskId == taskId;
+        }
+
+        /**
+         * @return true if the prefetching task is running and not dropped
+         */
+        public boolean isPrefetching(int taskId) {
+            return mPrefetching && mPrefetchTaskId == taskId;
+        }
+
+        public void onPrefetchPageData(int taskId, List<E> data) {
+            if (!isPrefetching(taskId)) {
+                return;
+            }
+            mPrefetching = false;
+
+            int page = mPrefetchPage;
+            if (page != mLastPage || (isNextPageTask() && mCurrentTaskPage == page)) {
+                // Out of date, or the next page task shares the request and gets it too
+                return;
+            }
+            mPrefetchData = data;
+        }
+
+        public void onPrefetchPageData(int taskId, Exception e) {
+            if (isPrefetching(taskId)) {
+                // Keep mPrefetchPage, leave the page to footer refresh
+                mPrefetching = false;
+            }
+        }
+
+        private int nextTaskId() {
+            dropStreamedData();
+            return mIdGenerator.nextId();
+        }
+
         public void onGetPageData(int taskId, Exception e) {
             if (mCurrentTaskId == taskId) {
+                dropStreamedData();
+                dropSnapshot();
                 mRefreshLayout.setHeaderRefreshing(false);
                 mRefreshLayout.setFooterRefreshing(false);
                 showText(e.getClass().getName());
@@ -420,10 +901,13 @@ public class ContentLayout extends FrameLayout {
 
         @Override
         public boolean onFooterRefresh() {
-            if (mLastPage >= mPageSize) {
+            if (mLastPage >= mPageSize || mShowingSnapshot) {
+                return false;
+            } else if (showPrefetchedPage(TYPE_NEXT_PAGE_KEEP_POS)) {
+                // Shown at once, no footer progress
                 return false;
             } else {
-                mCurrentTaskId = mIdGenerator.nextId();
+                mCurrentTaskId = nextTaskId();
                 mCurrentTaskType = TYPE_NEXT_PAGE_KEEP_POS;
                 mCurrentTaskPage = mLastPage;
                 getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
@@ -434,7 +918,7 @@ public class ContentLayout extends FrameLayout {
         @Override
         public void onHeaderRefresh() {
             if (mFirstPage > 0) {
-                mCurrentTaskId = mIdGenerator.nextId();
+                mCurrentTaskId = nextTaskId();
                 mCurrentTaskType = TYPE_PRE_PAGE_KEEP_POS;
                 mCurrentTaskPage = mFirstPage - 1;
                 getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
@@ -451,7 +935,9 @@ public class ContentLayout extends FrameLayout {
         }
 
         private void doRefresh() {
-            mCurrentTaskId = mIdGenerator.nextId();
+            // The query might be changed
+            dropPrefetch();
+            mCurrentTaskId = nextTaskId();
             mCurrentTaskType = TYPE_REFRESH;
             mCurrentTaskPage = 0;
             getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
@@ -488,11 +974,11 @@ public class ContentLayout extends FrameLayout {
         }
 
         public void cancelCurrentTask() {
-            mCurrentTaskId = mIdGenerator.nextId();
+            mCurrentTaskId = nextTaskId();
         }
 
         public boolean canGoTo() {
-            return mViewTransition.getShownViewIndex() == 0;
+            return mViewTransition.getShownViewIndex() == 0 && !mShowingSnapshot;
         }
 
         /**
@@ -501,7 +987,11 @@ public class ContentLayout extends FrameLayout {
         public void goTo(int page) {
             if (page < 0 || page >= mPageSize) {
                 throw new IndexOutOfBoundsException("Page size is " + mPageSize + ", page is " + page);
-            } else if (page >= mFirstPage && page < mLastPage) {
+            }
+
+            // Current task is always replaced, make shown pages right first
+            dropStreamedData();
+            if (page >= mFirstPage && page < mLastPage) {
                 cancelCurrentTask();
 
                 mCurrentPage = page;
@@ -515,23 +1005,28 @@ public class ContentLayout extends FrameLayout {
                 mRefreshLayout.setFooterRefreshing(false);
                 mRefreshLayout.setHeaderRefreshing(true);
 
-                mCurrentTaskId = mIdGenerator.nextId();
+                mCurrentTaskId = nextTaskId();
                 mCurrentTaskType = TYPE_PRE_PAGE;
                 mCurrentTaskPage = page;
                 getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
             } else if (page == mLastPage) {
+                if (showPrefetchedPage(TYPE_NEXT_PAGE)) {
+                    return;
+                }
+
                 mRefreshLayout.setFooterRefreshing(false);
                 mRefreshLayout.setHeaderRefreshing(true);
 
-                mCurrentTaskId = mIdGenerator.nextId();
+                mCurrentTaskId = nextTaskId();
                 mCurrentTaskType = TYPE_NEXT_PAGE;
                 mCurrentTaskPage = page;
                 getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
             } else {
+                dropPrefetch();
                 mRefreshLayout.setFooterRefreshing(false);
                 mRefreshLayout.setHeaderRefreshing(true);
 
-                mCurrentTaskId = mIdGenerator.nextId();
+                mCurrentTaskId = nextTaskId();
                 mCurrentTaskType = TYPE_SOMEWHERE;
                 mCurrentTaskPage = page;
                 getPageData(mCurrentTaskId, mCurrentTaskType, mCurrentTaskPage);
@@ -26,11 +26,13 @@ import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v7.widget.CardView;
 import android.text.Editable;
 import android.text.Spannable;
 import android.text.SpannableStringBuilder;
+import android.text.TextUtils;
 import android.text.TextWatcher;
 import android.text.style.ImageSpan;
 import android.util.AttributeSet;
@@ -52,9 +54,12 @@ import com.hippo.effect.ViewTransition;
 import com.hippo.ehviewer.Constants;
 import com.hippo.ehviewer.R;
 import com.hippo.ehviewer.client.EhClient;
+import com.hippo.ehviewer.data.GalleryDatabase;
 import com.hippo.ehviewer.util.Config;
 import com.hippo.util.MathUtils;
 import com.hippo.util.Messenger;
+import com.hippo.util.Pipeline;
+import com.hippo.util.UiExecutor;
 import com.hippo.util.UiUtils;
 import com.hippo.util.ViewUtils;
 import com.hippo.widget.SimpleImageView;
@@ -72,6 +77,15 @@ public class SearchBar extends CardView implements View.OnClickListener,
 
     private static final long ANIMATE_TIME = 300l;
 
+    private static final int MAX_GALLERY_SUGGESTIONS = 5;
+
+    private static final String[] EMPTY_SUGGESTIONS = new String[0];
+
+    /**
+     * Wait for typing to pause before looking for suggestions
+     */
+    private static final long SUGGESTION_DELAY = 150L;
+
     public static final int STATE_NORMAL = 0;
     public static final int STATE_SEARCH = 1;
     public static final int STATE_SEARCH_LIST = 2;
@@ -96,8 +110,21 @@ public class SearchBar extends CardView implements View.OnClickListener,
     private AddDeleteDrawable mAddDeleteDrawable;
 
     private SearchDatabase mSearchDatabase;
+    private GalleryDatabase mGalleryDatabase;
     private List<String> mSuggestionList;
     private ArrayAdapter mSuggestionAdapter;
+    private Pipeline<String, String[]> mHistoryPipeline;
+    private Pipeline<String, String[]> mGalleryPipeline;
+    /**
+     * Suggestions of current serial, history ones go first
+     */
+    private String[] mHistorySuggestions = EMPTY_SUGGESTIONS;
+    private String[] mGallerySuggestions = EMPTY_SUGGESTIONS;
+    /**
+     * Increase it to drop the suggestions on the way
+     */
+    private int mSuggestionSerial;
+    private long mSuggestionStartTime;
 
     private Helper mHelper;
 
@@ -122,6 +149,7 @@ public class SearchBar extends CardView implements View.OnClickListener,
 
     private void init(Context context) {
         mSearchDatabase = SearchDatabase.getInstance(getContext());
+        mGalleryDatabase = GalleryDatabase.getInstance(getContext());
 
         setRadius(UiUtils.dp2pix(context, 2));
         setCardElevation(UiUtils.dp2pix(context, 2));
@@ -167,6 +195,19 @@ public class SearchBar extends CardView implements View.OnClickListener,
             }
         });
 
+        mHistoryPipeline = Pipeline.create(new Pipeline.Stage<String, String[]>() {
+            @Override
+            public String[] apply(String prefix) {
+                return mSearchDatabase.getSuggestions(prefix);
+            }
+        });
+        mGalleryPipeline = Pipeline.create(new Pipeline.Stage<String, String[]>() {
+            @Override
+            public String[] apply(String prefix) {
+                return mGalleryDatabase.suggest(prefix, MAX_GALLERY_SUGGESTIONS);
+            }
+        });
+
         // TODO get source from config
         setSource(Config.getEhSource());
     }
@@ -181,16 +222,83 @@ public class SearchBar extends CardView implements View.OnClickListener,
     public void onDetachedFromWindow() {
         super.onDetachedFromWindow();
         Messenger.getInstance().unregister(Constants.MESSENGER_ID_EH_SOURCE, this);
+        removeCallbacks(mUpdateSuggestionsRunnable);
+        mSuggestionSerial++;
     }
 
-    private void updateSuggestions() {
-        String prefix = mEditText.getText().toString();
-        String[] suggestions = mSearchDatabase.getSuggestions(prefix);
+    private final Runnable mUpdateSuggestionsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            updateSuggestions();
+        }
+    };
+
+    /**
+     * Show history, then titles of galleries seen
+     */
+    private void showSuggestions() {
         mSuggestionList.clear();
-        Collections.addAll(mSuggestionList, suggestions);
+        Collections.addAll(mSuggestionList, mHistorySuggestions);
+        for (String title : mGallerySuggestions) {
+            if (!mSuggestionList.contains(title)) {
+                mSuggestionList.add(title);
+            }
+        }
         mSuggestionAdapter.notifyDataSetChanged();
     }
 
+    private void postUpdateSuggestions() {
+        // Drop the suggestions on the way, they are out of date
+        mSuggestionSerial++;
+        removeCallbacks(mUpdateSuggestionsRunnable);
+        postDelayed(mUpdateSuggestionsRunnable, SUGGESTION_DELAY);
+    }
+
+    private void updateSuggestions() {
+        removeCallbacks(mUpdateSuggestionsRunnable);
+        final int serial = ++mSuggestionSerial;
+        mSuggestionStartTime = SystemClock.elapsedRealtime();
+        mHistorySuggestions = EMPTY_SUGGESTIONS;
+        mGallerySuggestions = EMPTY_SUGGESTIONS;
+        String prefix = mEditText.getText().toString();
+        // History is in memory, it does not wait for the gallery database which
+        // might be busy with saving lists and searching
+        mHistoryPipeline.execute(mSearchDatabase.getExecutor(), prefix,
+                UiExecutor.getInstance(), new Pipeline.Callback<String, String[]>() {
+                    @Override
+                    public void onSuccess(String input, String[] result) {
+                        if (serial == mSuggestionSerial) {
+                            mHistorySuggestions = result;
+                            showSuggestions();
+                            mSearchDatabase.recordSuggestionTime(
+                                    SystemClock.elapsedRealtime() - mSuggestionStartTime);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(String input, Exception e) {
+                        // Keep the old suggestions
+                    }
+                });
+        if (!TextUtils.isEmpty(prefix)) {
+            mGalleryPipeline.execute(mGalleryDatabase.getExecutor(), prefix,
+                    UiExecutor.getInstance(), new Pipeline.Callback<String, String[]>() {
+                        @Override
+                        public void onSuccess(String input, String[] result) {
+                            if (serial == mSuggestionSerial) {
+                                mGallerySuggestions = result;
+                                showSuggestions();
+                            }
+                        }
+
+                        @Override
+                        public void onFailure(String input, Exception e) {
+                            // Only history is shown
+                        }
+                    });
+        }
+    }
+
     @SuppressWarnings({"deprecation", "ConstantConditions"})
     public void setSource(int source) {
         if (mSource != source) {
@@ -409,7 +517,7 @@ public class SearchBar extends CardView implements View.OnClickListener,
 
     @Override
     public void afterTextChanged(Editable s) {
-        updateSuggestions();
+        postUpdateSuggestions();
     }
 
     @Override
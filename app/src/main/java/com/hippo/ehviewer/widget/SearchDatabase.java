@@ -15,18 +15,33 @@
 
 package com.hippo.ehviewer.widget;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
 import com.hippo.util.Log;
+import com.hippo.util.PriorityThreadFactory;
+import com.hippo.util.SerialThreadExecutor;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Search history. Suggestions are got from a trie in memory, changes are
+ * written to database in background, batched in one transaction.
+ */
 public class SearchDatabase {
 
     private static final String TAG = SearchDatabase.class.getSimpleName();
@@ -35,11 +50,37 @@ public class SearchDatabase {
     public static final String COLUMN_DATE = "date";
 
     private static final String DATABASE_NAME = "search_database.db";
+    private static final int VERSION = 2;
     private static final String TABLE_SUGGESTIONS = "suggestions";
 
     private static final int MAX_HISTORY = 100;
+    private static final int MAX_SUGGESTIONS = 5;
+
+    /**
+     * Pending date for a deleted query
+     */
+    private static final long DELETED = -1L;
 
     private SQLiteDatabase mDatabase;
+    private final Context mContext;
+    private final SerialThreadExecutor mExecutor;
+
+    /**
+     * Guarded by itself
+     */
+    private final QueryTrie mTrie = new QueryTrie();
+
+    private final Object mPendingLock = new Object();
+    /**
+     * Query to date, or {@link #DELETED}, in order
+     */
+    private Map<String, Long> mPending = new LinkedHashMap<>();
+    private boolean mPendingClear;
+    private boolean mFlushPosted;
+
+    private long mSuggestionCount;
+    private long mSuggestionTotalTime;
+    private long mSuggestionMaxTime;
 
     private static SearchDatabase sInstance;
 
@@ -51,57 +92,185 @@ public class SearchDatabase {
     }
 
     private SearchDatabase(Context context) {
-        DatabaseHelper databaseHelper = new DatabaseHelper(context);
-        mDatabase = databaseHelper.getWritableDatabase();
+        mContext = context;
+        mExecutor = new SerialThreadExecutor(10L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new PriorityThreadFactory(TAG, Process.THREAD_PRIORITY_BACKGROUND));
+        // Open database and load history in background
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
     }
 
-    public String[] getSuggestions(String prefix) {
-        List<String> queryList = new LinkedList<>();
-
-        // TODO add limit
-        StringBuilder sb = new StringBuilder();
-        sb.append("SELECT * FROM ").append(TABLE_SUGGESTIONS);
-        if (!TextUtils.isEmpty(prefix)) {
-            sb.append(" WHERE ").append(COLUMN_QUERY).append(" LIKE '")
-                    .append(prefix).append("%'");
-        }
-        sb.append(" ORDER BY ").append(COLUMN_DATE).append(" DESC")
-                .append(" LIMIT 5");
-        Cursor cursor = mDatabase.rawQuery(sb.toString(), null);
-        int queryIndex = cursor.getColumnIndex(COLUMN_QUERY);
-        if (cursor.moveToFirst()) {
-            while (!cursor.isAfterLast()) {
-                String suggestion = cursor.getString(queryIndex);
-                if (!prefix.equals(suggestion)) {
-                    queryList.add(suggestion);
+    /**
+     * The executor which the database is accessed in, jobs run one by one
+     */
+    public Executor getExecutor() {
+        return mExecutor;
+    }
+
+    /**
+     * Only called in executor
+     */
+    private SQLiteDatabase getDatabase() {
+        if (mDatabase == null) {
+            mDatabase = new DatabaseHelper(mContext).getWritableDatabase();
+        }
+        return mDatabase;
+    }
+
+    private void load() {
+        try {
+            Cursor cursor = getDatabase().query(TABLE_SUGGESTIONS,
+                    new String[]{COLUMN_QUERY, COLUMN_DATE}, null, null, null, null,
+                    COLUMN_DATE + " DESC", Integer.toString(MAX_HISTORY));
+            try {
+                synchronized (mTrie) {
+                    // Changes made before loading are still pending, flush runs after it
+                    synchronized (mPendingLock) {
+                        while (!mPendingClear && cursor.moveToNext()) {
+                            String query = cursor.getString(0);
+                            Long date = mPending.get(query);
+                            if (date == null || date != DELETED) {
+                                // Do not replace the queries added while loading
+                                mTrie.putIfNewer(query, cursor.getLong(1));
+                            }
+                        }
+                    }
+                    // Queries added while loading are counted too
+                    mTrie.truncate(MAX_HISTORY);
                 }
-                cursor.moveToNext();
+            } finally {
+                cursor.close();
             }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Can't load history", e);
+        }
+    }
+
+    /**
+     * Get the newest queries starting with the prefix, case insensitive.
+     * It only reads memory, but history might be still loading
+     * just after the app starts.
+     */
+    public String[] getSuggestions(String prefix) {
+        List<String> queryList;
+        synchronized (mTrie) {
+            queryList = mTrie.find(prefix == null ? "" : prefix, MAX_SUGGESTIONS + 1);
+        }
+        queryList.remove(prefix);
+        if (queryList.size() > MAX_SUGGESTIONS) {
+            queryList = queryList.subList(0, MAX_SUGGESTIONS);
         }
-        cursor.close();
         return queryList.toArray(new String[queryList.size()]);
     }
 
     public void addQuery(final String query) {
         if (!TextUtils.isEmpty(query)) {
-            // Delete old first
-            deleteQuery(query);
-            // Add it to database
-            ContentValues values = new ContentValues();
-            values.put(COLUMN_QUERY, query);
-            values.put(COLUMN_DATE, System.currentTimeMillis());
-            mDatabase.insert(TABLE_SUGGESTIONS, null, values);
-            // Remove history if more than max
-            truncateHistory(MAX_HISTORY);
+            long date = System.currentTimeMillis();
+            synchronized (mTrie) {
+                mTrie.put(query, date);
+                // Remove history if more than max
+                mTrie.truncate(MAX_HISTORY);
+            }
+            postChange(query, date);
         }
     }
 
     public void deleteQuery(final String query) {
-        mDatabase.delete(TABLE_SUGGESTIONS, COLUMN_QUERY + "=?", new String[]{query});
+        // Post it with trie locked, so loading sees either both or neither
+        synchronized (mTrie) {
+            mTrie.remove(query);
+            postChange(query, DELETED);
+        }
     }
 
     public void clearQuery() {
-        truncateHistory(0);
+        synchronized (mTrie) {
+            mTrie.clear();
+            synchronized (mPendingLock) {
+                mPending.clear();
+                mPendingClear = true;
+                postFlushLocked();
+            }
+        }
+    }
+
+    private void postChange(String query, long date) {
+        synchronized (mPendingLock) {
+            // Keep the order of changes
+            mPending.remove(query);
+            mPending.put(query, date);
+            postFlushLocked();
+        }
+    }
+
+    private void postFlushLocked() {
+        if (!mFlushPosted) {
+            mFlushPosted = true;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+        }
+    }
+
+    /**
+     * Write all pending changes in one transaction
+     */
+    private void flush() {
+        Map<String, Long> pending;
+        boolean clear;
+        synchronized (mPendingLock) {
+            pending = mPending;
+            clear = mPendingClear;
+            mPending = new LinkedHashMap<>();
+            mPendingClear = false;
+            mFlushPosted = false;
+        }
+
+        SQLiteDatabase db;
+        try {
+            db = getDatabase();
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Can't open database", e);
+            return;
+        }
+
+        SQLiteStatement delete = db.compileStatement("DELETE FROM " + TABLE_SUGGESTIONS +
+                " WHERE " + COLUMN_QUERY + " = ?");
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE_SUGGESTIONS +
+                " (" + COLUMN_QUERY + ", " + COLUMN_DATE + ") VALUES (?, ?)");
+        db.beginTransaction();
+        try {
+            if (clear) {
+                db.delete(TABLE_SUGGESTIONS, null, null);
+            }
+            for (Map.Entry<String, Long> entry : pending.entrySet()) {
+                // Delete old first
+                delete.bindString(1, entry.getKey());
+                delete.execute();
+                long date = entry.getValue();
+                if (date != DELETED) {
+                    insert.bindString(1, entry.getKey());
+                    insert.bindLong(2, date);
+                    insert.executeInsert();
+                }
+            }
+            truncateHistory(db, MAX_HISTORY);
+            db.setTransactionSuccessful();
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Can't save history", e);
+        } finally {
+            db.endTransaction();
+            delete.close();
+            insert.close();
+        }
     }
 
     /**
@@ -109,26 +278,259 @@ public class SearchDatabase {
      *
      * @param maxEntries Max entries to leave in the table. 0 means remove all entries.
      */
-    protected void truncateHistory(int maxEntries) {
+    protected void truncateHistory(SQLiteDatabase db, int maxEntries) {
         if (maxEntries < 0) {
             throw new IllegalArgumentException();
         }
 
-        try {
-            // null means "delete all".  otherwise "delete but leave n newest"
-            String selection = null;
-            if (maxEntries > 0) {
-                selection = "_id IN " +
-                        "(SELECT _id FROM " + TABLE_SUGGESTIONS +
-                        " ORDER BY " + COLUMN_DATE + " DESC" +
-                        " LIMIT -1 OFFSET " + String.valueOf(maxEntries) + ")";
-            }
-            mDatabase.delete(TABLE_SUGGESTIONS, selection, null);
-        } catch (RuntimeException e) {
-            Log.e(TAG, "truncateHistory", e);
+        // null means "delete all".  otherwise "delete but leave n newest"
+        String selection = null;
+        if (maxEntries > 0) {
+            selection = "_id IN " +
+                    "(SELECT _id FROM " + TABLE_SUGGESTIONS +
+                    " ORDER BY " + COLUMN_DATE + " DESC" +
+                    " LIMIT -1 OFFSET " + String.valueOf(maxEntries) + ")";
+        }
+        db.delete(TABLE_SUGGESTIONS, selection, null);
+    }
+
+    /**
+     * Record how long it takes to show suggestions
+     *
+     * @param time in ms
+     */
+    public synchronized void recordSuggestionTime(long time) {
+        mSuggestionCount++;
+        mSuggestionTotalTime += time;
+        if (time > mSuggestionMaxTime) {
+            mSuggestionMaxTime = time;
         }
     }
 
+    public synchronized long getSuggestionCount() {
+        return mSuggestionCount;
+    }
+
+    /**
+     * @return average time to show suggestions, in ms
+     */
+    public synchronized long getAverageSuggestionTime() {
+        return mSuggestionCount == 0 ? 0 : mSuggestionTotalTime / mSuggestionCount;
+    }
+
+    /**
+     * @return max time to show suggestions, in ms
+     */
+    public synchronized long getMaxSuggestionTime() {
+        return mSuggestionMaxTime;
+    }
+
+    /**
+     * A trie of lower case queries. Each query node keeps the original query
+     * and its date, a lower case query only keeps the newest one.
+     * Nodes left without query and children are removed.
+     */
+    static final class QueryTrie {
+
+        private static final class Node {
+            private char[] mKeys = new char[0];
+            private Node[] mChildren = new Node[0];
+            private String mQuery;
+            private long mDate;
+
+            private int indexOf(char key) {
+                int low = 0;
+                int high = mKeys.length - 1;
+                while (low <= high) {
+                    int mid = (low + high) >>> 1;
+                    char midKey = mKeys[mid];
+                    if (midKey < key) {
+                        low = mid + 1;
+                    } else if (midKey > key) {
+                        high = mid - 1;
+                    } else {
+                        return mid;
+                    }
+                }
+                return -(low + 1);
+            }
+
+            private @Nullable Node get(char key) {
+                int index = indexOf(key);
+                return index >= 0 ? mChildren[index] : null;
+            }
+
+            private @NonNull Node getOrCreate(char key) {
+                int index = indexOf(key);
+                if (index >= 0) {
+                    return mChildren[index];
+                }
+                index = -(index + 1);
+                int length = mKeys.length;
+                char[] keys = new char[length + 1];
+                Node[] children = new Node[length + 1];
+                System.arraycopy(mKeys, 0, keys, 0, index);
+                System.arraycopy(mChildren, 0, children, 0, index);
+                System.arraycopy(mKeys, index, keys, index + 1, length - index);
+                System.arraycopy(mChildren, index, children, index + 1, length - index);
+                Node node = new Node();
+                keys[index] = key;
+                children[index] = node;
+                mKeys = keys;
+                mChildren = children;
+                return node;
+            }
+
+            private void removeChildAt(int index) {
+                int length = mKeys.length - 1;
+                char[] keys = new char[length];
+                Node[] children = new Node[length];
+                System.arraycopy(mKeys, 0, keys, 0, index);
+                System.arraycopy(mChildren, 0, children, 0, index);
+                System.arraycopy(mKeys, index + 1, keys, index, length - index);
+                System.arraycopy(mChildren, index + 1, children, index, length - index);
+                mKeys = keys;
+                mChildren = children;
+            }
+
+            private boolean isEmpty() {
+                return mQuery == null && mKeys.length == 0;
+            }
+        }
+
+        private Node mRoot = new Node();
+        private int mSize;
+
+        private @Nullable Node find(String str, boolean create) {
+            Node node = mRoot;
+            for (int i = 0, n = str.length(); i < n && node != null; i++) {
+                char c = Character.toLowerCase(str.charAt(i));
+                node = create ? node.getOrCreate(c) : node.get(c);
+            }
+            return node;
+        }
+
+        public void put(String query, long date) {
+            Node node = find(query, true);
+            if (node.mQuery == null) {
+                mSize++;
+            }
+            node.mQuery = query;
+            node.mDate = date;
+        }
+
+        public void putIfNewer(String query, long date) {
+            Node node = find(query, true);
+            if (node.mQuery == null) {
+                mSize++;
+            } else if (node.mDate >= date) {
+                return;
+            }
+            node.mQuery = query;
+            node.mDate = date;
+        }
+
+        public void remove(String query) {
+            remove(mRoot, query, 0);
+        }
+
+        /**
+         * @return true if the node is empty now, so its parent can drop it
+         */
+        private boolean remove(Node node, String query, int index) {
+            if (index == query.length()) {
+                if (query.equals(node.mQuery)) {
+                    node.mQuery = null;
+                    mSize--;
+                }
+            } else {
+                int childIndex = node.indexOf(Character.toLowerCase(query.charAt(index)));
+                if (childIndex >= 0 && remove(node.mChildren[childIndex], query, index + 1)) {
+                    node.removeChildAt(childIndex);
+                }
+            }
+            return node.isEmpty();
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        private static int countNodes(Node node) {
+            int count = 1;
+            for (Node child : node.mChildren) {
+                count += countNodes(child);
+            }
+            return count;
+        }
+
+        /**
+         * @return the number of nodes, with the root
+         */
+        int getNodeCount() {
+            return countNodes(mRoot);
+        }
+
+        public void clear() {
+            mRoot = new Node();
+            mSize = 0;
+        }
+
+        private static void collect(Node node, List<Node> nodes) {
+            if (node.mQuery != null) {
+                nodes.add(node);
+            }
+            for (Node child : node.mChildren) {
+                collect(child, nodes);
+            }
+        }
+
+        /**
+         * Remove the oldest queries until there are not more than max size
+         */
+        public void truncate(int maxSize) {
+            while (mSize > maxSize) {
+                List<Node> nodes = new ArrayList<>(mSize);
+                collect(mRoot, nodes);
+                Node oldest = nodes.get(0);
+                for (Node node : nodes) {
+                    if (node.mDate < oldest.mDate) {
+                        oldest = node;
+                    }
+                }
+                remove(oldest.mQuery);
+            }
+        }
+
+        /**
+         * @return the newest queries with the prefix, newest first
+         */
+        public List<String> find(String prefix, int limit) {
+            List<String> result = new ArrayList<>(limit);
+            Node node = find(prefix, false);
+            if (node == null) {
+                return result;
+            }
+
+            List<Node> nodes = new ArrayList<>();
+            collect(node, nodes);
+            // Selection sort, only a few are wanted
+            int count = Math.min(limit, nodes.size());
+            for (int i = 0; i < count; i++) {
+                int newest = i;
+                for (int j = i + 1, n = nodes.size(); j < n; j++) {
+                    if (nodes.get(j).mDate > nodes.get(newest).mDate) {
+                        newest = j;
+                    }
+                }
+                Node temp = nodes.get(i);
+                nodes.set(i, nodes.get(newest));
+                nodes.set(newest, temp);
+                result.add(nodes.get(i).mQuery);
+            }
+            return result;
+        }
+    }
 
     /**
      * Builds the database.  This version has extra support for using the version field
@@ -138,7 +540,14 @@ public class SearchDatabase {
     private static class DatabaseHelper extends SQLiteOpenHelper {
 
         public DatabaseHelper(Context context) {
-            super(context, DATABASE_NAME, null, 1);
+            super(context, DATABASE_NAME, null, VERSION);
+        }
+
+        private static void createIndexes(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_SUGGESTIONS + "_" + COLUMN_QUERY +
+                    " ON " + TABLE_SUGGESTIONS + " (" + COLUMN_QUERY + ");");
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_SUGGESTIONS + "_" + COLUMN_DATE +
+                    " ON " + TABLE_SUGGESTIONS + " (" + COLUMN_DATE + ");");
         }
 
         @Override
@@ -148,12 +557,18 @@ public class SearchDatabase {
                     "," + COLUMN_QUERY + " TEXT" +
                     "," + COLUMN_DATE + " LONG" +
                     ");");
+            createIndexes(db);
         }
 
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_SUGGESTIONS);
-            onCreate(db);
+            if (oldVersion == 1) {
+                // Keep history, only indexes are added
+                createIndexes(db);
+            } else {
+                db.execSQL("DROP TABLE IF EXISTS " + TABLE_SUGGESTIONS);
+                onCreate(db);
+            }
         }
     }
 }
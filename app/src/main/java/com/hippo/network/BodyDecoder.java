@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import android.support.annotation.NonNull;
+
+import com.hippo.util.MemoryGovernor;
+import com.hippo.util.Pool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Read a response body into a reused byte array and decode it into a
+ * reused char buffer, so the final String is the only new copy of a body.
+ * Get one by {@link #obtain()}, {@link #recycle()} it after use.
+ */
+final class BodyDecoder {
+
+    private static final int DEFAULT_SIZE = 16 * 1024;
+    /**
+     * Larger buffers are dropped when recycled
+     */
+    private static final int MAX_KEEP_SIZE = 256 * 1024;
+
+    private static final Pool<BodyDecoder> sPool = new Pool<>(3);
+
+    static {
+        MemoryGovernor.getInstance().register("Body decoders", sPool);
+    }
+
+    private byte[] mBytes = new byte[DEFAULT_SIZE];
+    private int mCount;
+    private CharBuffer mChars;
+    private String mCharsetName;
+    private CharsetDecoder mDecoder;
+    private long mBytesCopied;
+
+    private BodyDecoder() {
+    }
+
+    static @NonNull BodyDecoder obtain() {
+        BodyDecoder decoder = sPool.obtain();
+        return decoder != null ? decoder : new BodyDecoder();
+    }
+
+    void recycle() {
+        if (mBytes.length > MAX_KEEP_SIZE) {
+            mBytes = new byte[DEFAULT_SIZE];
+        }
+        if (mChars != null && mChars.capacity() > MAX_KEEP_SIZE) {
+            mChars = null;
+        }
+        mCount = 0;
+        sPool.recycle(this);
+    }
+
+    /**
+     * Read the stream to the end
+     *
+     * @param is the stream
+     * @param sizeHint the expected size, like Content-Length, -1 for unknown
+     * @throws IOException
+     */
+    void read(@NonNull InputStream is, int sizeHint) throws IOException {
+        byte[] bytes = mBytes;
+        long copied = 0;
+        // One more byte, so reading the end does not expand it
+        if (sizeHint >= bytes.length) {
+            bytes = new byte[sizeHint + 1];
+        }
+        int count = 0;
+        for (;;) {
+            if (count == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                copied += count;
+            }
+            int n = is.read(bytes, count, bytes.length - count);
+            if (n == -1) {
+                break;
+            }
+            count += n;
+        }
+        mBytes = bytes;
+        mCount = count;
+        mBytesCopied = copied + count;
+    }
+
+    private @NonNull CharsetDecoder getDecoder(@NonNull String charsetName)
+            throws UnsupportedEncodingException {
+        if (mDecoder == null || !charsetName.equalsIgnoreCase(mCharsetName)) {
+            Charset charset;
+            try {
+                charset = Charset.forName(charsetName);
+            } catch (IllegalArgumentException e) {
+                throw new UnsupportedEncodingException(charsetName);
+            }
+            // Same as new String(byte[], String)
+            mDecoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            mCharsetName = charsetName;
+        }
+        return mDecoder.reset();
+    }
+
+    /**
+     * Decode the bytes read by {@link #read(InputStream, int)}
+     *
+     * @param charsetName the charset name
+     * @return the string
+     * @throws UnsupportedEncodingException
+     */
+    @NonNull String decode(@NonNull String charsetName) throws UnsupportedEncodingException {
+        CharsetDecoder decoder = getDecoder(charsetName);
+        int maxChars = (int) Math.ceil(mCount * (double) decoder.maxCharsPerByte());
+        CharBuffer chars = mChars;
+        if (chars == null || chars.capacity() < maxChars) {
+            chars = CharBuffer.allocate(Math.max(maxChars, DEFAULT_SIZE));
+            mChars = chars;
+        } else {
+            chars.clear();
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(mBytes, 0, mCount);
+        CoderResult result = decoder.decode(in, chars, true);
+        if (!result.isOverflow()) {
+            result = decoder.flush(chars);
+        }
+        if (result.isOverflow()) {
+            // Should not happen with maxCharsPerByte
+            mBytesCopied += mCount;
+            return new String(mBytes, 0, mCount, charsetName);
+        }
+
+        chars.flip();
+        // To the char buffer, then to the string
+        mBytesCopied += 4L * chars.remaining();
+        return chars.toString();
+    }
+
+    /**
+     * @return the length of the body read
+     */
+    int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return bytes written to memory for the body, including expanding
+     * and decoding
+     */
+    long getBytesCopied() {
+        return mBytesCopied;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+/**
+ * How to use {@link HttpCache} for a request
+ */
+public final class CachePolicy {
+
+    /**
+     * Always ask the server, but only download the body if it is modified
+     */
+    public static final CachePolicy REVALIDATE = new CachePolicy(0, 0);
+
+    private final long mFreshTime;
+    private final long mStaleTime;
+
+    /**
+     * @param freshTime in this age, the cache is used without asking the server, in ms
+     * @param staleTime in this time after fresh time, the cache is used, and it is
+     *                  revalidated in background, in ms
+     */
+    public CachePolicy(long freshTime, long staleTime) {
+        if (freshTime < 0 || staleTime < 0) {
+            throw new IllegalArgumentException("Time can't be negative");
+        }
+        mFreshTime = freshTime;
+        mStaleTime = staleTime;
+    }
+
+    public long getFreshTime() {
+        return mFreshTime;
+    }
+
+    public long getStaleTime() {
+        return mStaleTime;
+    }
+
+    /**
+     * @param age the age of the cache
+     * @return true if the cache can be used without asking the server
+     */
+    public boolean isFresh(long age) {
+        return age < mFreshTime;
+    }
+
+    /**
+     * @param age the age of the cache
+     * @return true if the cache can be used while it is revalidated in background
+     */
+    public boolean isUsableWhileRevalidate(long age) {
+        return age < mFreshTime + mStaleTime;
+    }
+}
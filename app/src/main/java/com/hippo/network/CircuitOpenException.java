@@ -0,0 +1,26 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+/**
+ * Thrown without connecting when the host keeps failing
+ */
+public class CircuitOpenException extends Exception {
+
+    public CircuitOpenException(String host, long retryIn) {
+        super("Too many failures from " + host + ", try again in " + (retryIn / 1000 + 1) + "s");
+    }
+}
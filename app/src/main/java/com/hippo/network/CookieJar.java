@@ -0,0 +1,480 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.hippo.util.Log;
+import com.hippo.util.PriorityThreadFactory;
+import com.hippo.util.SerialThreadExecutor;
+import com.hippo.util.Utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpCookie;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cookies kept in memory and saved to a file in background.
+ * Getting cookie does not lock, the cookies matching a host are
+ * collected once and joined to a header string until any cookie changes.
+ */
+public final class CookieJar {
+
+    private static final String TAG = CookieJar.class.getSimpleName();
+
+    private static final String FIELD_SEPARATOR = "\t";
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private static final Comparator<Cookie> PATH_LENGTH_COMPARATOR = new Comparator<Cookie>() {
+        @Override
+        public int compare(Cookie lhs, Cookie rhs) {
+            // Longer path first
+            return rhs.path.length() - lhs.path.length();
+        }
+    };
+
+    /**
+     * Domain or host to cookies, the lists are never modified
+     */
+    private final Map<String, List<Cookie>> mDomainMap = new ConcurrentHashMap<>();
+    private final Map<String, HostCookies> mHostMap = new ConcurrentHashMap<>();
+    private final Object mWriteLock = new Object();
+    /**
+     * Increase when any cookie changes
+     */
+    private volatile int mVersion;
+
+    private final File mFile;
+    private final SerialThreadExecutor mSaveExecutor;
+    private volatile HttpCache mCache;
+    private boolean mSavePending;
+    private final Runnable mSaveTask = new Runnable() {
+        @Override
+        public void run() {
+            save();
+        }
+    };
+
+    /**
+     * @param file the file to load and save cookies, null for memory only
+     */
+    public CookieJar(@Nullable File file) {
+        mFile = file;
+        if (file != null) {
+            mSaveExecutor = new SerialThreadExecutor(10L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new PriorityThreadFactory(TAG, Process.THREAD_PRIORITY_BACKGROUND));
+            load();
+        } else {
+            mSaveExecutor = null;
+        }
+    }
+
+    /**
+     * Set the cache which stores pages got with these cookies,
+     * it is cleared with the cookies
+     */
+    public void setCache(@Nullable HttpCache cache) {
+        mCache = cache;
+    }
+
+    private static long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Get the value for Cookie header
+     *
+     * @param url the url to request
+     * @return null if no cookie
+     */
+    public @Nullable String getCookieHeader(@NonNull URL url) {
+        String host = url.getHost().toLowerCase();
+        HostCookies hostCookies = mHostMap.get(host);
+        if (hostCookies == null || hostCookies.version != mVersion ||
+                hostCookies.expiresAt <= now()) {
+            hostCookies = collect(host);
+            mHostMap.put(host, hostCookies);
+        }
+        return hostCookies.getHeader(url);
+    }
+
+    /**
+     * Find all cookies for the host
+     */
+    private @NonNull HostCookies collect(@NonNull String host) {
+        int version = mVersion;
+        long now = now();
+        List<Cookie> cookies = new ArrayList<>();
+        // Look up the host, then the parent domains
+        for (int index = 0; index != -1; index = host.indexOf('.', index)) {
+            if (index != 0) {
+                index++;
+            }
+            String domain = host.substring(index);
+            List<Cookie> list = mDomainMap.get(domain);
+            if (list != null) {
+                for (Cookie cookie : list) {
+                    if ((!cookie.hostOnly || index == 0) && !cookie.isExpired(now)) {
+                        cookies.add(cookie);
+                    }
+                }
+            }
+        }
+        Collections.sort(cookies, PATH_LENGTH_COMPARATOR);
+        return new HostCookies(cookies, version);
+    }
+
+    /**
+     * Store the cookies in a Set-Cookie header
+     *
+     * @param url the url which the header is from
+     * @param header the value of Set-Cookie
+     */
+    public void storeCookie(@NonNull URL url, @NonNull String header) {
+        List<HttpCookie> httpCookies;
+        try {
+            httpCookies = HttpCookie.parse(header);
+        } catch (IllegalArgumentException e) {
+            Log.d(TAG, "Bad cookie " + header, e);
+            return;
+        }
+
+        String host = url.getHost().toLowerCase();
+        long now = now();
+        boolean persistentChanged = false;
+        synchronized (mWriteLock) {
+            for (HttpCookie httpCookie : httpCookies) {
+                Cookie cookie = Cookie.from(httpCookie, host, url.getPath(), now);
+                if (cookie != null) {
+                    persistentChanged |= put(cookie, now);
+                }
+            }
+            mVersion++;
+        }
+        if (persistentChanged) {
+            scheduleSave();
+        }
+    }
+
+    /**
+     * Replace the cookie with the same name, domain and path,
+     * or remove it if the new one is expired.
+     *
+     * @return true if a persistent cookie is changed
+     */
+    private boolean put(@NonNull Cookie cookie, long now) {
+        List<Cookie> oldList = mDomainMap.get(cookie.domain);
+        List<Cookie> newList = new ArrayList<>();
+        boolean persistentChanged = cookie.isPersistent();
+        if (oldList != null) {
+            for (Cookie old : oldList) {
+                if (old.isSame(cookie)) {
+                    persistentChanged |= old.isPersistent();
+                } else if (!old.isExpired(now)) {
+                    newList.add(old);
+                }
+            }
+        }
+        if (!cookie.isExpired(now)) {
+            newList.add(cookie);
+        }
+
+        if (newList.isEmpty()) {
+            mDomainMap.remove(cookie.domain);
+        } else {
+            mDomainMap.put(cookie.domain, Collections.unmodifiableList(newList));
+        }
+        return persistentChanged;
+    }
+
+    /**
+     * Remove all cookies, and the pages in the cache
+     */
+    public void clear() {
+        synchronized (mWriteLock) {
+            mDomainMap.clear();
+            mVersion++;
+        }
+        mHostMap.clear();
+        scheduleSave();
+        HttpCache cache = mCache;
+        if (cache != null) {
+            cache.evictAll();
+        }
+    }
+
+    private void scheduleSave() {
+        if (mSaveExecutor == null) {
+            return;
+        }
+        synchronized (mWriteLock) {
+            // Changes before the task runs are saved together
+            if (mSavePending) {
+                return;
+            }
+            mSavePending = true;
+        }
+        mSaveExecutor.execute(mSaveTask);
+    }
+
+    private void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+        long now = now();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(mFile), "UTF-8"));
+            String line;
+            synchronized (mWriteLock) {
+                while ((line = reader.readLine()) != null) {
+                    Cookie cookie = Cookie.fromLine(line);
+                    if (cookie != null && !cookie.isExpired(now)) {
+                        put(cookie, now);
+                    }
+                }
+                mVersion++;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Can't load cookies", e);
+        } finally {
+            Utils.closeQuietly(reader);
+        }
+    }
+
+    private void save() {
+        List<Cookie> cookies = new ArrayList<>();
+        synchronized (mWriteLock) {
+            mSavePending = false;
+            for (List<Cookie> list : mDomainMap.values()) {
+                cookies.addAll(list);
+            }
+        }
+
+        long now = now();
+        File tempFile = new File(mFile.getPath() + TEMP_EXTENSION);
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+            for (Cookie cookie : cookies) {
+                if (cookie.isPersistent() && !cookie.isExpired(now)) {
+                    writer.write(cookie.toLine());
+                    writer.write('\n');
+                }
+            }
+            writer.close();
+            writer = null;
+            if (!tempFile.renameTo(mFile)) {
+                Log.e(TAG, "Can't rename " + tempFile.getPath());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Can't save cookies", e);
+        } finally {
+            Utils.closeQuietly(writer);
+        }
+    }
+
+    private static final class Cookie {
+        private final String name;
+        private final String value;
+        /**
+         * The host if host only
+         */
+        private final String domain;
+        private final String path;
+        private final boolean hostOnly;
+        private final boolean secure;
+        /**
+         * -1 for session cookie
+         */
+        private final long expiresAt;
+
+        private Cookie(String name, String value, String domain, String path,
+                boolean hostOnly, boolean secure, long expiresAt) {
+            this.name = name;
+            this.value = value;
+            this.domain = domain;
+            this.path = path;
+            this.hostOnly = hostOnly;
+            this.secure = secure;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * @return null if the host can not set the cookie
+         */
+        private static @Nullable Cookie from(@NonNull HttpCookie httpCookie,
+                @NonNull String host, @NonNull String urlPath, long now) {
+            String domain = httpCookie.getDomain();
+            boolean hostOnly;
+            if (domain == null) {
+                domain = host;
+                hostOnly = true;
+            } else {
+                domain = domain.toLowerCase();
+                if (domain.startsWith(".")) {
+                    domain = domain.substring(1);
+                }
+                // The host must be in the domain, and the domain can not be top level
+                if (!host.equals(domain) &&
+                        (!host.endsWith("." + domain) || domain.indexOf('.') == -1)) {
+                    return null;
+                }
+                hostOnly = false;
+            }
+
+            String path = httpCookie.getPath();
+            if (path == null || !path.startsWith("/")) {
+                // Default path is the directory of the url
+                int index = urlPath.lastIndexOf('/');
+                path = index <= 0 ? "/" : urlPath.substring(0, index);
+            }
+
+            long maxAge = httpCookie.getMaxAge();
+            long expiresAt = maxAge < 0 ? -1 : now + maxAge * 1000;
+
+            return new Cookie(httpCookie.getName(), httpCookie.getValue(), domain, path,
+                    hostOnly, httpCookie.getSecure(), expiresAt);
+        }
+
+        private static @Nullable Cookie fromLine(@NonNull String line) {
+            String[] fields = line.split(FIELD_SEPARATOR, 7);
+            if (fields.length != 7) {
+                return null;
+            }
+            try {
+                return new Cookie(fields[5], fields[6], fields[0], fields[1],
+                        Boolean.parseBoolean(fields[2]), Boolean.parseBoolean(fields[3]),
+                        Long.parseLong(fields[4]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private String toLine() {
+            return domain + FIELD_SEPARATOR + path + FIELD_SEPARATOR + hostOnly +
+                    FIELD_SEPARATOR + secure + FIELD_SEPARATOR + expiresAt +
+                    FIELD_SEPARATOR + name + FIELD_SEPARATOR + value;
+        }
+
+        private boolean isPersistent() {
+            return expiresAt != -1;
+        }
+
+        private boolean isExpired(long now) {
+            return expiresAt != -1 && expiresAt <= now;
+        }
+
+        private boolean isSame(@NonNull Cookie other) {
+            return name.equals(other.name) && domain.equals(other.domain) &&
+                    path.equals(other.path);
+        }
+
+        private boolean matchPath(@NonNull String urlPath) {
+            if (path.equals("/") || urlPath.equals(path)) {
+                return true;
+            }
+            // The path is a directory of the url path
+            return urlPath.startsWith(path) &&
+                    (path.endsWith("/") || urlPath.charAt(path.length()) == '/');
+        }
+    }
+
+    /**
+     * Cookies for a host, and the header if path and scheme do not matter
+     */
+    private static final class HostCookies {
+        private final List<Cookie> cookies;
+        private final int version;
+        /**
+         * When the first one expires, Long.MAX_VALUE for never
+         */
+        private final long expiresAt;
+        /**
+         * Null if it depends on url
+         */
+        private final String header;
+
+        private HostCookies(@NonNull List<Cookie> cookies, int version) {
+            this.cookies = cookies;
+            this.version = version;
+
+            long expiresAt = Long.MAX_VALUE;
+            boolean dependOnUrl = false;
+            for (Cookie cookie : cookies) {
+                if (cookie.isPersistent()) {
+                    expiresAt = Math.min(expiresAt, cookie.expiresAt);
+                }
+                dependOnUrl |= cookie.secure || !cookie.path.equals("/");
+            }
+            this.expiresAt = expiresAt;
+            header = dependOnUrl ? null : join(cookies, null);
+        }
+
+        private @Nullable String getHeader(@NonNull URL url) {
+            if (header != null || cookies.isEmpty()) {
+                return header;
+            } else {
+                return join(cookies, url);
+            }
+        }
+
+        /**
+         * @param url the url to match, null for all cookies
+         */
+        private static @Nullable String join(@NonNull List<Cookie> cookies, @Nullable URL url) {
+            StringBuilder sb = null;
+            boolean https = url != null && "https".equalsIgnoreCase(url.getProtocol());
+            String urlPath = null;
+            if (url != null) {
+                urlPath = url.getPath();
+                if (urlPath.isEmpty()) {
+                    urlPath = "/";
+                }
+            }
+            for (Cookie cookie : cookies) {
+                if (url != null && ((cookie.secure && !https) || !cookie.matchPath(urlPath))) {
+                    continue;
+                }
+                if (sb == null) {
+                    sb = new StringBuilder();
+                } else {
+                    sb.append("; ");
+                }
+                sb.append(cookie.name).append('=').append(cookie.value);
+            }
+            return sb == null ? null : sb.toString();
+        }
+    }
+}
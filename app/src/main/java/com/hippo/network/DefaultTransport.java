@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import android.support.annotation.NonNull;
+
+import com.hippo.util.Utils;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * A {@link Transport} with the platform defaults. It does not disconnect
+ * after a successful request, so the platform can keep the connection alive.
+ * It changes no global config.
+ */
+public class DefaultTransport implements Transport {
+
+    @Override
+    public @NonNull HttpURLConnection open(@NonNull URL url) throws IOException {
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    /**
+     * @return true if the connection is put back to the platform pool
+     */
+    protected boolean keepAlive(@NonNull HttpURLConnection conn) {
+        // Closing the exhausted stream put the socket back to the platform pool,
+        // disconnect() would close it
+        try {
+            Utils.closeQuietly(conn.getInputStream());
+            return true;
+        } catch (IOException e) {
+            conn.disconnect();
+            return false;
+        }
+    }
+
+    @Override
+    public void release(@NonNull HttpURLConnection conn, boolean reusable) {
+        if (reusable) {
+            keepAlive(conn);
+        } else {
+            conn.disconnect();
+        }
+    }
+}
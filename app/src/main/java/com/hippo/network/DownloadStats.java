@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+/**
+ * Received bytes, speed and remaining time of a download. Each one also
+ * adds to the global stats of all downloads, see {@link #getGlobal()}.
+ */
+public final class DownloadStats {
+
+    /**
+     * Speed is sampled in windows of it, in ms
+     */
+    private static final long SPEED_WINDOW = 1000;
+    /**
+     * Weight of the latest window in speed
+     */
+    private static final float SPEED_SMOOTHING = 0.3f;
+
+    private static final DownloadStats sGlobal = new DownloadStats(null);
+
+    private final DownloadStats mParent;
+
+    private int mActiveCount;
+    private long mStartTime = -1;
+    private long mReceivedBytes;
+    private long mTotalBytes = -1;
+
+    private long mWindowStart;
+    private long mWindowBytes;
+    private float mSpeed;
+
+    public DownloadStats() {
+        this(sGlobal);
+    }
+
+    private DownloadStats(DownloadStats parent) {
+        mParent = parent;
+    }
+
+    /**
+     * @return the stats of all downloads, total bytes is always -1
+     */
+    public static @NonNull DownloadStats getGlobal() {
+        return sGlobal;
+    }
+
+    /**
+     * Called when the body starts coming
+     *
+     * @param receivedBytes the bytes received before, like resuming
+     * @param totalBytes the total length, -1 for unknown
+     */
+    synchronized void onStart(long receivedBytes, long totalBytes) {
+        long now = SystemClock.elapsedRealtime();
+        if (mActiveCount++ == 0) {
+            mWindowStart = now;
+            mWindowBytes = 0;
+        }
+        if (mStartTime == -1) {
+            mStartTime = now;
+        }
+        if (mParent != null) {
+            mReceivedBytes = receivedBytes;
+            mTotalBytes = totalBytes;
+            mParent.onStart(0, -1);
+        }
+    }
+
+    synchronized void onReceived(long bytes) {
+        mReceivedBytes += bytes;
+        mWindowBytes += bytes;
+        long now = SystemClock.elapsedRealtime();
+        long interval = now - mWindowStart;
+        if (interval >= SPEED_WINDOW) {
+            float speed = mWindowBytes * 1000f / interval;
+            mSpeed = mSpeed == 0 ? speed : mSpeed + SPEED_SMOOTHING * (speed - mSpeed);
+            mWindowStart = now;
+            mWindowBytes = 0;
+        }
+        if (mParent != null) {
+            mParent.onReceived(bytes);
+        }
+    }
+
+    /**
+     * Called when the download succeeds, fails or stops
+     */
+    synchronized void onFinish() {
+        if (mActiveCount == 0) {
+            return;
+        }
+        if (--mActiveCount == 0) {
+            mSpeed = 0;
+        }
+        if (mParent != null) {
+            mParent.onFinish();
+        }
+    }
+
+    /**
+     * @return the number of running downloads
+     */
+    public synchronized int getActiveCount() {
+        return mActiveCount;
+    }
+
+    public synchronized long getReceivedBytes() {
+        return mReceivedBytes;
+    }
+
+    /**
+     * @return the total length, -1 for unknown
+     */
+    public synchronized long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * @return recent speed in bytes per second, 0 if not running
+     */
+    public synchronized long getSpeed() {
+        if (mActiveCount == 0) {
+            return 0;
+        }
+        if (mSpeed == 0) {
+            // The first window is not full yet
+            long interval = SystemClock.elapsedRealtime() - mWindowStart;
+            return interval <= 0 ? 0 : mWindowBytes * 1000 / interval;
+        }
+        return (long) mSpeed;
+    }
+
+    /**
+     * @return average speed since first started in bytes per second
+     */
+    public synchronized long getAverageSpeed() {
+        if (mStartTime == -1) {
+            return 0;
+        }
+        long interval = SystemClock.elapsedRealtime() - mStartTime;
+        return interval <= 0 ? 0 : mReceivedBytes * 1000 / interval;
+    }
+
+    /**
+     * @return estimated remaining time in ms, -1 for unknown
+     */
+    public synchronized long getEta() {
+        long speed = getSpeed();
+        if (mTotalBytes == -1 || speed == 0) {
+            return -1;
+        }
+        return Math.max(0, mTotalBytes - mReceivedBytes) * 1000 / speed;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Failures of a host, shared by all requests to it. It limits retries
+ * by a budget, and stops requests for a while when the host keeps failing,
+ * like a circuit breaker.
+ */
+public final class HostHealth {
+
+    public static final int STATE_CLOSED = 0;
+    public static final int STATE_OPEN = 1;
+    public static final int STATE_HALF_OPEN = 2;
+
+    /**
+     * Open the circuit after so many failures in a row
+     */
+    static final int FAILURE_THRESHOLD = 5;
+    static final long MIN_OPEN_TIME = 10 * 1000;
+    private static final long MAX_OPEN_TIME = 2 * 60 * 1000;
+
+    /**
+     * Retry takes one token, success gives some back.
+     * No retry when half of tokens are used.
+     */
+    static final float MAX_TOKENS = 10f;
+    private static final float TOKENS_PER_SUCCESS = 0.1f;
+
+    private static final Map<String, HostHealth> sHostMap = new HashMap<>();
+
+    private final String mHost;
+    private int mState = STATE_CLOSED;
+    private int mFailures;
+    private long mOpenTime = MIN_OPEN_TIME;
+    private long mOpenUntil;
+    private boolean mTrialRunning;
+    private float mTokens = MAX_TOKENS;
+
+    private long mSuccessCount;
+    private long mFailureCount;
+    private long mRetryCount;
+    private long mRejectedCount;
+
+    private HostHealth(String host) {
+        mHost = host;
+    }
+
+    public static @NonNull HostHealth get(@NonNull String host) {
+        host = host.toLowerCase();
+        synchronized (sHostMap) {
+            HostHealth health = sHostMap.get(host);
+            if (health == null) {
+                health = new HostHealth(host);
+                sHostMap.put(host, health);
+            }
+            return health;
+        }
+    }
+
+    /**
+     * @return health of all hosts which have been requested
+     */
+    public static @NonNull List<HostHealth> getAll() {
+        synchronized (sHostMap) {
+            return new ArrayList<>(sHostMap.values());
+        }
+    }
+
+    /**
+     * Forget all hosts
+     */
+    static void clear() {
+        synchronized (sHostMap) {
+            sHostMap.clear();
+        }
+    }
+
+    /**
+     * Call it before connecting
+     *
+     * @throws CircuitOpenException if the host keeps failing
+     */
+    public synchronized void checkCircuit() throws CircuitOpenException {
+        switch (mState) {
+            case STATE_OPEN:
+                long now = SystemClock.elapsedRealtime();
+                if (now < mOpenUntil) {
+                    mRejectedCount++;
+                    throw new CircuitOpenException(mHost, mOpenUntil - now);
+                }
+                mState = STATE_HALF_OPEN;
+                // Fall through
+            case STATE_HALF_OPEN:
+                // Only one request to find out whether the host is back
+                if (mTrialRunning) {
+                    mRejectedCount++;
+                    throw new CircuitOpenException(mHost, 0);
+                }
+                mTrialRunning = true;
+                break;
+        }
+    }
+
+    /**
+     * @return true if the retry is in budget, it takes one token
+     */
+    public synchronized boolean acquireRetry() {
+        if (mTokens <= MAX_TOKENS / 2) {
+            return false;
+        }
+        mTokens -= 1f;
+        mRetryCount++;
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        mSuccessCount++;
+        mFailures = 0;
+        mTokens = Math.min(MAX_TOKENS, mTokens + TOKENS_PER_SUCCESS);
+        if (mState != STATE_CLOSED) {
+            mState = STATE_CLOSED;
+            mTrialRunning = false;
+            mOpenTime = MIN_OPEN_TIME;
+        }
+    }
+
+    public synchronized void onFailure() {
+        mFailureCount++;
+        mFailures++;
+        if (mState == STATE_HALF_OPEN) {
+            // Still bad, wait longer
+            mTrialRunning = false;
+            mOpenTime = Math.min(mOpenTime * 2, MAX_OPEN_TIME);
+            open();
+        } else if (mState == STATE_CLOSED && mFailures >= FAILURE_THRESHOLD) {
+            open();
+        }
+    }
+
+    /**
+     * Called when the request ends without telling whether the host is fine
+     */
+    public synchronized void onNeutral() {
+        if (mState == STATE_HALF_OPEN) {
+            mTrialRunning = false;
+        }
+    }
+
+    private void open() {
+        mState = STATE_OPEN;
+        mOpenUntil = SystemClock.elapsedRealtime() + mOpenTime;
+    }
+
+    public @NonNull String getHost() {
+        return mHost;
+    }
+
+    /**
+     * @return one of {@link #STATE_CLOSED}, {@link #STATE_OPEN} and {@link #STATE_HALF_OPEN}
+     */
+    public synchronized int getState() {
+        return mState;
+    }
+
+    public synchronized float getRetryTokens() {
+        return mTokens;
+    }
+
+    public synchronized long getSuccessCount() {
+        return mSuccessCount;
+    }
+
+    public synchronized long getFailureCount() {
+        return mFailureCount;
+    }
+
+    public synchronized long getRetryCount() {
+        return mRetryCount;
+    }
+
+    /**
+     * @return how many requests fail fast by open circuit
+     */
+    public synchronized long getRejectedCount() {
+        return mRejectedCount;
+    }
+}
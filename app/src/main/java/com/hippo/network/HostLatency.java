@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import android.support.annotation.NonNull;
+
+import com.hippo.util.MathUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Connect time, time to first byte and throughput of a host, shared by all
+ * requests to it. Once there are enough recent samples, a timeout is twice
+ * the 95th percentile of them. Before that it is like TCP retransmission
+ * timeout, the smoothed time plus four times its deviation. Downloads from
+ * a slow host also wait longer for each burst of data.
+ */
+public final class HostLatency {
+
+    /**
+     * Small call, like api.php
+     */
+    public static final int TYPE_API = 0;
+    /**
+     * Web page or image
+     */
+    public static final int TYPE_PAGE = 1;
+    /**
+     * Large file
+     */
+    public static final int TYPE_DOWNLOAD = 2;
+
+    private static final int[] DEFAULT_READ_TIMEOUTS = {5000, 5000, 15000};
+    private static final int[] MIN_READ_TIMEOUTS = {3000, 4000, 10000};
+    private static final int[] MAX_READ_TIMEOUTS = {10000, 20000, 60000};
+
+    private static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    private static final int MIN_CONNECT_TIMEOUT = 2000;
+    private static final int MAX_CONNECT_TIMEOUT = 15000;
+
+    /**
+     * Shorter connect time is from a kept-alive connection,
+     * it does not tell how long a new connection takes
+     */
+    private static final long MIN_CONNECT_TIME = 5;
+
+    /**
+     * Bodies smaller than it do not tell throughput
+     */
+    private static final long MIN_THROUGHPUT_BYTES = 16 * 1024;
+    /**
+     * A download waits at least the time to receive it at the smoothed throughput,
+     * data come in long bursts on a slow link
+     */
+    private static final long DOWNLOAD_BURST_BYTES = 64 * 1024;
+
+    /**
+     * Recent connect time and time to first byte for percentiles
+     */
+    private static final int SAMPLE_SIZE = 64;
+    /**
+     * Timeouts are from percentile if there are so many samples
+     */
+    private static final int MIN_PERCENTILE_SAMPLES = 8;
+    private static final float TIMEOUT_PERCENTILE = 95;
+    private static final int TIMEOUT_FACTOR = 2;
+
+    private static final Map<String, HostLatency> sHostMap = new HashMap<>();
+
+    private final String mHost;
+    private final Ewma mConnectTime = new Ewma();
+    private final Ewma mFirstByteTime = new Ewma();
+    private final Ewma mThroughput = new Ewma();
+    private final Samples mConnectSamples = new Samples();
+    private final Samples mFirstByteSamples = new Samples();
+    private long mConnectCount;
+    private long mReusedConnectCount;
+
+    private HostLatency(String host) {
+        mHost = host;
+    }
+
+    public static @NonNull HostLatency get(@NonNull String host) {
+        host = host.toLowerCase();
+        synchronized (sHostMap) {
+            HostLatency latency = sHostMap.get(host);
+            if (latency == null) {
+                latency = new HostLatency(host);
+                sHostMap.put(host, latency);
+            }
+            return latency;
+        }
+    }
+
+    /**
+     * @return latency of all hosts which have been requested
+     */
+    public static @NonNull List<HostLatency> getAll() {
+        synchronized (sHostMap) {
+            return new ArrayList<>(sHostMap.values());
+        }
+    }
+
+    /**
+     * Forget all hosts
+     */
+    static void clear() {
+        synchronized (sHostMap) {
+            sHostMap.clear();
+        }
+    }
+
+    private static void checkType(int type) {
+        if (type < TYPE_API || type > TYPE_DOWNLOAD) {
+            throw new IllegalArgumentException("Invalid type " + type);
+        }
+    }
+
+    /**
+     * @param time time to connect, in ms, a kept-alive connection is skipped
+     */
+    public synchronized void onConnect(long time) {
+        mConnectCount++;
+        if (time >= MIN_CONNECT_TIME) {
+            mConnectTime.add(time);
+            mConnectSamples.add(time);
+        } else {
+            mReusedConnectCount++;
+        }
+    }
+
+    /**
+     * @param time time from request sent to response header received, in ms
+     */
+    public synchronized void onFirstByte(long time) {
+        mFirstByteTime.add(time);
+        mFirstByteSamples.add(time);
+    }
+
+    /**
+     * @param bytes the size of the body
+     * @param time time to receive the body, in ms
+     */
+    public synchronized void onTransfer(long bytes, long time) {
+        if (bytes >= MIN_THROUGHPUT_BYTES && time > 0) {
+            mThroughput.add(bytes * 1000 / time);
+        }
+    }
+
+    public synchronized int getConnectTimeout() {
+        if (mConnectTime.isEmpty()) {
+            return DEFAULT_CONNECT_TIMEOUT;
+        }
+        return MathUtils.clamp((int) getTimeout(mConnectTime, mConnectSamples),
+                MIN_CONNECT_TIMEOUT, MAX_CONNECT_TIMEOUT);
+    }
+
+    /**
+     * @param type one of {@link #TYPE_API}, {@link #TYPE_PAGE} and {@link #TYPE_DOWNLOAD}
+     * @return the time to wait for any byte
+     */
+    public synchronized int getReadTimeout(int type) {
+        checkType(type);
+        int timeout;
+        if (mFirstByteTime.isEmpty()) {
+            timeout = DEFAULT_READ_TIMEOUTS[type];
+        } else {
+            timeout = MathUtils.clamp((int) getTimeout(mFirstByteTime, mFirstByteSamples),
+                    MIN_READ_TIMEOUTS[type], MAX_READ_TIMEOUTS[type]);
+        }
+        if (type == TYPE_DOWNLOAD && mThroughput.mMean > 0) {
+            long burstTime = (long) (DOWNLOAD_BURST_BYTES * 1000 / mThroughput.mMean);
+            timeout = Math.max(timeout, (int) Math.min(burstTime, MAX_READ_TIMEOUTS[type]));
+        }
+        return timeout;
+    }
+
+    public @NonNull String getHost() {
+        return mHost;
+    }
+
+    /**
+     * @return smoothed connect time in ms, -1 for no sample
+     */
+    public synchronized long getConnectTime() {
+        return mConnectTime.isEmpty() ? -1 : (long) mConnectTime.mMean;
+    }
+
+    /**
+     * @return how many connections are made, new or kept-alive
+     */
+    public synchronized long getConnectCount() {
+        return mConnectCount;
+    }
+
+    /**
+     * The platform does not tell whether a connection is taken from its pool,
+     * a connect shorter than {@link #MIN_CONNECT_TIME} is counted as reused.
+     *
+     * @return how many connections are kept-alive ones
+     */
+    public synchronized long getReusedConnectCount() {
+        return mReusedConnectCount;
+    }
+
+    /**
+     * @return smoothed time to first byte in ms, -1 for no sample
+     */
+    public synchronized long getFirstByteTime() {
+        return mFirstByteTime.isEmpty() ? -1 : (long) mFirstByteTime.mMean;
+    }
+
+    /**
+     * @param percentile in [0, 100]
+     * @return the percentile of recent time to first byte in ms, -1 for no sample
+     */
+    public synchronized long getFirstByteTimePercentile(float percentile) {
+        return mFirstByteSamples.getPercentile(percentile);
+    }
+
+    /**
+     * @param percentile in [0, 100]
+     * @return the percentile of recent connect time in ms, kept-alive ones
+     * are not counted, -1 for no sample
+     */
+    public synchronized long getConnectTimePercentile(float percentile) {
+        return mConnectSamples.getPercentile(percentile);
+    }
+
+    private static float getTimeout(Ewma ewma, Samples samples) {
+        if (samples.size() >= MIN_PERCENTILE_SAMPLES) {
+            return TIMEOUT_FACTOR * samples.getPercentile(TIMEOUT_PERCENTILE);
+        } else {
+            return ewma.getTimeout();
+        }
+    }
+
+    /**
+     * @return smoothed throughput in bytes per second, -1 for no sample
+     */
+    public synchronized long getThroughput() {
+        return mThroughput.isEmpty() ? -1 : (long) mThroughput.mMean;
+    }
+
+    /**
+     * The recent samples in a ring
+     */
+    private static final class Samples {
+        private final long[] mValues = new long[SAMPLE_SIZE];
+        private int mCount;
+
+        public void add(long value) {
+            mValues[mCount % SAMPLE_SIZE] = value;
+            mCount++;
+        }
+
+        public int size() {
+            return Math.min(mCount, SAMPLE_SIZE);
+        }
+
+        public long getPercentile(float percentile) {
+            int count = size();
+            if (count == 0) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(mValues, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100f * count) - 1;
+            return sorted[MathUtils.clamp(index, 0, count - 1)];
+        }
+    }
+
+    /**
+     * Exponentially weighted moving average and mean deviation
+     */
+    private static final class Ewma {
+        private static final float MEAN_WEIGHT = 1f / 8;
+        private static final float DEVIATION_WEIGHT = 1f / 4;
+
+        private float mMean = -1;
+        private float mDeviation;
+
+        public boolean isEmpty() {
+            return mMean < 0;
+        }
+
+        public void add(float value) {
+            if (mMean < 0) {
+                mMean = value;
+                mDeviation = value / 2;
+            } else {
+                mDeviation += DEVIATION_WEIGHT * (Math.abs(value - mMean) - mDeviation);
+                mMean += MEAN_WEIGHT * (value - mMean);
+            }
+        }
+
+        public float getTimeout() {
+            return mMean + 4 * mDeviation;
+        }
+    }
+}
@@ -0,0 +1,553 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.hippo.util.Log;
+import com.hippo.util.Utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Disk cache for response body, with ETag and Last-Modified for revalidation.
+ * The total size is bounded, the least recently used is evicted first.
+ * Entries are keyed by url and the Cookie header sent, so pages got by
+ * different accounts are not shared. It is thread safe.
+ */
+public class HttpCache {
+
+    private static final String TAG = HttpCache.class.getSimpleName();
+
+    private static final int META_MAGIC = 0x48435631;
+
+    private static final String META_SUFFIX = ".meta";
+    private static final String BODY_SUFFIX = ".body";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final File mDir;
+    private final long mMaxSize;
+
+    /**
+     * Key to size of meta and body, in access order
+     */
+    private final LinkedHashMap<String, Long> mSizeMap = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize;
+    private boolean mInitialized;
+    private int mTempId;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mNotModifiedCount;
+    private long mStoreCount;
+    private long mEvictCount;
+
+    /**
+     * @param dir the dir to store cache
+     * @param maxSize max size in bytes
+     */
+    public HttpCache(@NonNull File dir, long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mDir = dir;
+        mMaxSize = maxSize;
+    }
+
+    private static String getKey(String url, @Nullable String cookie) {
+        String str = cookie == null ? url : url + '\n' + cookie;
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] bytes = md.digest(str.getBytes("UTF-8"));
+            char[] chars = new char[bytes.length * 2];
+            for (int i = 0; i < bytes.length; i++) {
+                int b = bytes[i] & 0xff;
+                chars[i * 2] = HEX_DIGITS[b >>> 4];
+                chars[i * 2 + 1] = HEX_DIGITS[b & 0xf];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(str.hashCode());
+        }
+    }
+
+    private File getMetaFile(String key) {
+        return new File(mDir, key + META_SUFFIX);
+    }
+
+    private File getBodyFile(String key) {
+        return new File(mDir, key + BODY_SUFFIX);
+    }
+
+    /**
+     * Read the dir for the first time, the oldest file is the least recently used
+     */
+    private void ensureInitialized() {
+        if (mInitialized) {
+            return;
+        }
+        mInitialized = true;
+
+        if (!mDir.mkdirs() && !mDir.isDirectory()) {
+            Log.e(TAG, "Can't create cache dir " + mDir);
+            return;
+        }
+
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                // Unfinished
+                file.delete();
+            } else if (name.endsWith(META_SUFFIX)) {
+                String key = name.substring(0, name.length() - META_SUFFIX.length());
+                File body = getBodyFile(key);
+                if (body.isFile()) {
+                    long size = file.length() + body.length();
+                    mSizeMap.put(key, size);
+                    mSize += size;
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        trimToSize();
+    }
+
+    private void removeLocked(String key) {
+        Long size = mSizeMap.remove(key);
+        if (size != null) {
+            mSize -= size;
+        }
+        getMetaFile(key).delete();
+        getBodyFile(key).delete();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = mSizeMap.entrySet().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            String key = eldest.getKey();
+            mSize -= eldest.getValue();
+            iterator.remove();
+            getMetaFile(key).delete();
+            getBodyFile(key).delete();
+            mEvictCount++;
+        }
+    }
+
+    private synchronized File newTempFile(String key) {
+        return new File(mDir, key + '.' + (mTempId++) + TEMP_SUFFIX);
+    }
+
+    private static void writeString(DataOutputStream dos, @Nullable String str) throws IOException {
+        dos.writeUTF(str == null ? "" : str);
+    }
+
+    private static @Nullable String readString(DataInputStream dis) throws IOException {
+        String str = dis.readUTF();
+        return str.isEmpty() ? null : str;
+    }
+
+    private static void writeMeta(File file, Entry entry) throws IOException {
+        DataOutputStream dos = null;
+        try {
+            dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            dos.writeInt(META_MAGIC);
+            writeString(dos, entry.mUrl);
+            writeString(dos, entry.mETag);
+            writeString(dos, entry.mLastModified);
+            writeString(dos, entry.mCharset);
+            dos.writeLong(entry.mStoredTime);
+            dos.flush();
+        } finally {
+            Utils.closeQuietly(dos);
+        }
+    }
+
+    private @Nullable Entry readMeta(String key) {
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new FileInputStream(getMetaFile(key)));
+            if (dis.readInt() != META_MAGIC) {
+                return null;
+            }
+            String url = readString(dis);
+            String eTag = readString(dis);
+            String lastModified = readString(dis);
+            String charset = readString(dis);
+            long storedTime = dis.readLong();
+            return new Entry(key, url, eTag, lastModified, charset, storedTime, getBodyFile(key));
+        } catch (IOException e) {
+            return null;
+        } finally {
+            Utils.closeQuietly(dis);
+        }
+    }
+
+    /**
+     * Get the cache entry for the url
+     *
+     * @param url the url
+     * @param cookie the Cookie header to send, null for none
+     * @return null if no cache
+     */
+    public synchronized @Nullable Entry get(@NonNull String url, @Nullable String cookie) {
+        ensureInitialized();
+
+        String key = getKey(url, cookie);
+        if (mSizeMap.get(key) == null) {
+            mMissCount++;
+            return null;
+        }
+
+        Entry entry = readMeta(key);
+        if (entry == null || !url.equals(entry.mUrl)) {
+            removeLocked(key);
+            mMissCount++;
+            return null;
+        }
+
+        mHitCount++;
+        return entry;
+    }
+
+    /**
+     * Start to store body for the url. Nothing is changed until
+     * {@link Editor#commit()}.
+     *
+     * @param url the url
+     * @param cookie the Cookie header sent, null for none
+     * @param eTag the ETag header
+     * @param lastModified the Last-Modified header
+     * @param charset the charset of the body
+     * @return the editor
+     */
+    public @NonNull Editor edit(@NonNull String url, @Nullable String cookie,
+            @Nullable String eTag, @Nullable String lastModified, @Nullable String charset) {
+        synchronized (this) {
+            ensureInitialized();
+        }
+        String key = getKey(url, cookie);
+        return new Editor(key, new Entry(key, url, eTag, lastModified, charset, 0,
+                getBodyFile(key)));
+    }
+
+    /**
+     * The server says the body is not modified, make the entry fresh again
+     *
+     * @param entry the entry
+     * @param eTag new ETag, null for not changed
+     * @param lastModified new Last-Modified, null for not changed
+     */
+    public void onNotModified(@NonNull Entry entry, @Nullable String eTag,
+            @Nullable String lastModified) {
+        String key = entry.mKey;
+        Entry newEntry = new Entry(key, entry.mUrl, eTag != null ? eTag : entry.mETag,
+                lastModified != null ? lastModified : entry.mLastModified,
+                entry.mCharset, System.currentTimeMillis(), entry.mBody);
+        File temp = newTempFile(key);
+        try {
+            writeMeta(temp, newEntry);
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            mNotModifiedCount++;
+            if (mSizeMap.get(key) == null || !temp.renameTo(getMetaFile(key))) {
+                // Evicted or failed
+                temp.delete();
+            }
+        }
+    }
+
+    public synchronized void remove(@NonNull String url, @Nullable String cookie) {
+        ensureInitialized();
+        removeLocked(getKey(url, cookie));
+    }
+
+    public synchronized void evictAll() {
+        ensureInitialized();
+        for (String key : mSizeMap.keySet()) {
+            getMetaFile(key).delete();
+            getBodyFile(key).delete();
+        }
+        mSizeMap.clear();
+        mSize = 0;
+    }
+
+    public synchronized long getSize() {
+        ensureInitialized();
+        return mSize;
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return how many times the server returns 304
+     */
+    public synchronized long getNotModifiedCount() {
+        return mNotModifiedCount;
+    }
+
+    public synchronized long getStoreCount() {
+        return mStoreCount;
+    }
+
+    public synchronized long getEvictCount() {
+        return mEvictCount;
+    }
+
+    public static final class Entry {
+
+        private final String mKey;
+        private final String mUrl;
+        private final String mETag;
+        private final String mLastModified;
+        private final String mCharset;
+        private final long mStoredTime;
+        private final File mBody;
+
+        private Entry(String key, String url, String eTag, String lastModified, String charset,
+                long storedTime, File body) {
+            mKey = key;
+            mUrl = url;
+            mETag = eTag;
+            mLastModified = lastModified;
+            mCharset = charset;
+            mStoredTime = storedTime;
+            mBody = body;
+        }
+
+        public String getUrl() {
+            return mUrl;
+        }
+
+        public @Nullable String getETag() {
+            return mETag;
+        }
+
+        public @Nullable String getLastModified() {
+            return mLastModified;
+        }
+
+        public @Nullable String getCharset() {
+            return mCharset;
+        }
+
+        /**
+         * @return how long since it is stored or revalidated, in ms
+         */
+        public long getAge() {
+            return Math.max(0, System.currentTimeMillis() - mStoredTime);
+        }
+
+        /**
+         * @throws IOException if it is evicted
+         */
+        public @NonNull InputStream openBody() throws IOException {
+            return new FileInputStream(mBody);
+        }
+    }
+
+    public final class Editor {
+
+        private final String mKey;
+        private final Entry mEntry;
+        private final File mTempBody;
+        private OutputStream mOs;
+        private boolean mFailed;
+        private boolean mDone;
+
+        private Editor(String key, Entry entry) {
+            mKey = key;
+            mEntry = entry;
+            mTempBody = newTempFile(key);
+            try {
+                mOs = new BufferedOutputStream(new FileOutputStream(mTempBody));
+            } catch (IOException e) {
+                mFailed = true;
+            }
+        }
+
+        /**
+         * Write body. Error is not thrown, but the editor can't commit
+         */
+        public void write(byte[] buffer, int offset, int length) {
+            if (mFailed || mDone) {
+                return;
+            }
+            try {
+                mOs.write(buffer, offset, length);
+            } catch (IOException e) {
+                mFailed = true;
+            }
+        }
+
+        /**
+         * Get a stream which writes to the editor what is read from the input
+         *
+         * @param is the input
+         * @return the stream
+         */
+        public @NonNull InputStream tee(@NonNull InputStream is) {
+            return new TeeInputStream(is, this);
+        }
+
+        /**
+         * Store the body
+         *
+         * @return true if stored
+         */
+        public boolean commit() {
+            if (mDone) {
+                return false;
+            }
+            mDone = true;
+
+            Utils.closeQuietly(mOs);
+            if (mFailed) {
+                mTempBody.delete();
+                return false;
+            }
+
+            Entry entry = new Entry(mKey, mEntry.mUrl, mEntry.mETag, mEntry.mLastModified,
+                    mEntry.mCharset, System.currentTimeMillis(), mEntry.mBody);
+            File tempMeta = newTempFile(mKey);
+            try {
+                writeMeta(tempMeta, entry);
+            } catch (IOException e) {
+                tempMeta.delete();
+                mTempBody.delete();
+                return false;
+            }
+
+            synchronized (HttpCache.this) {
+                removeLocked(mKey);
+                File body = getBodyFile(mKey);
+                File meta = getMetaFile(mKey);
+                if (mTempBody.renameTo(body) && tempMeta.renameTo(meta)) {
+                    long size = body.length() + meta.length();
+                    mSizeMap.put(mKey, size);
+                    mSize += size;
+                    mStoreCount++;
+                    trimToSize();
+                    return true;
+                } else {
+                    mTempBody.delete();
+                    tempMeta.delete();
+                    body.delete();
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Give up
+         */
+        public void abort() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            Utils.closeQuietly(mOs);
+            mTempBody.delete();
+        }
+    }
+
+    private static final class TeeInputStream extends FilterInputStream {
+
+        private final Editor mEditor;
+
+        private TeeInputStream(InputStream in, Editor editor) {
+            super(in);
+            mEditor = editor;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                mEditor.write(new byte[]{(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+            int n = in.read(buffer, offset, count);
+            if (n > 0) {
+                mEditor.write(buffer, offset, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            // Read it, or the body will not be complete
+            byte[] buffer = new byte[(int) Math.min(byteCount, 4096)];
+            int n = read(buffer, 0, buffer.length);
+            return n == -1 ? 0 : n;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -17,35 +17,53 @@ package com.hippo.network;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.webkit.CookieManager;
 import android.webkit.MimeTypeMap;
 
 import com.hippo.util.FastByteArrayOutputStream;
 import com.hippo.util.Log;
+import com.hippo.util.MemoryGovernor;
+import com.hippo.util.Pool;
+import com.hippo.util.PriorityThreadFactory;
+import com.hippo.util.SerialThreadExecutor;
 import com.hippo.util.Utils;
 
 import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -54,10 +72,7 @@ import java.util.zip.GZIPInputStream;
 public class HttpHelper {
     private static final String TAG = HttpHelper.class.getSimpleName();
 
-    private static final int MAX_RETRY = 3;
     private static final int MAX_REDIRECTS = 3;
-    private static final int CONNECT_TIMEOUT = 5000;
-    private static final int READ_TIMEOUT = 5000;
 
     public static final String DEFAULT_USER_AGENT =
             "Mozilla/5.0 (Windows NT 6.1; WOW64) " +
@@ -71,25 +86,143 @@ public class HttpHelper {
     private static final String DEFAULT_CHARSET = "utf-8";
     private static final String CHARSET_KEY = "charset=";
 
-    private static final CookieManager sCookieManager = CookieManager.getInstance();
+    private static final int GZIP_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Longest wait before a retry in a worker of {@link RequestScheduler},
+     * other requests are queued behind it
+     */
+    private static final long MAX_WORKER_RETRY_DELAY = 2000;
+
+    private static CookieJar sCookieJar = new CookieJar(null);
+
+    private static Transport sTransport = new DefaultTransport();
+
+    private static HttpCache sCache;
+    private static final Executor sRevalidateExecutor = new SerialThreadExecutor(
+            10L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new PriorityThreadFactory("HttpCache", Process.THREAD_PRIORITY_BACKGROUND));
+    /**
+     * Urls which are revalidating in background
+     */
+    private static final Set<String> sRevalidatingUrls = new HashSet<>();
+
+    private static RetryPolicy sRetryPolicy = RetryPolicy.DEFAULT;
+
+    private static final AtomicInteger sRequestsInFlight = new AtomicInteger();
+    private static final AtomicLong sBytesReceived = new AtomicLong();
 
     private int mResponseCode = -1;
+    private long mBytesCopied;
+    /**
+     * Retry-After of last try in ms, -1 for none
+     */
+    private long mRetryAfter = -1;
+    /**
+     * Type of current request for timeout
+     */
+    private int mRequestType = HostLatency.TYPE_PAGE;
+
+    /**
+     * Set the transport for all HttpHelper
+     *
+     * @param transport the transport
+     */
+    public static void setTransport(@NonNull Transport transport) {
+        sTransport = transport;
+    }
+
+    public static @NonNull Transport getTransport() {
+        return sTransport;
+    }
+
+    /**
+     * Set the cookie jar for all HttpHelper, the default one does not save cookies
+     *
+     * @param cookieJar the cookie jar
+     */
+    public static void setCookieJar(@NonNull CookieJar cookieJar) {
+        sCookieJar = cookieJar;
+    }
+
+    public static @NonNull CookieJar getCookieJar() {
+        return sCookieJar;
+    }
+
+    /**
+     * Set the retry policy for {@link RequestHelper} which does not have its own
+     *
+     * @param policy the retry policy
+     */
+    public static void setDefaultRetryPolicy(@NonNull RetryPolicy policy) {
+        sRetryPolicy = policy;
+    }
+
+    public static @NonNull RetryPolicy getDefaultRetryPolicy() {
+        return sRetryPolicy;
+    }
+
+    /**
+     * Set the cache for {@link #get(String, BodyParser, CachePolicy)}
+     *
+     * @param cache the cache, null for no cache
+     */
+    public static void setCache(@Nullable HttpCache cache) {
+        sCache = cache;
+    }
+
+    public static @Nullable HttpCache getCache() {
+        return sCache;
+    }
+
+    /**
+     * @return the number of connections which are connecting or reading
+     */
+    public static int getRequestsInFlight() {
+        return sRequestsInFlight.get();
+    }
+
+    /**
+     * @return body bytes received from network since the app starts
+     */
+    public static long getBytesReceived() {
+        return sBytesReceived.get();
+    }
+
+    /**
+     * Create a helper to do request in background, like revalidating cache.
+     * Subclass should return its own type.
+     *
+     * @return a new helper
+     */
+    protected @NonNull HttpHelper newInstance() {
+        return new HttpHelper();
+    }
 
     public void reset() {
         mResponseCode = -1;
+        mBytesCopied = 0;
     }
 
     public int getResponseCode() {
         return mResponseCode;
     }
 
+    /**
+     * @return bytes written to memory to get the body string of last request,
+     * 0 if the body is not read as string
+     */
+    public long getBytesCopied() {
+        return mBytesCopied;
+    }
+
     /**
      * Get cookie for the url
      * @param url the URL
      * @return the cookie for the URL
      */
     protected String getCookie(URL url) {
-        return sCookieManager.getCookie(url.toString());
+        return sCookieJar.getCookieHeader(url);
     }
 
     /**
@@ -98,7 +231,7 @@ public class HttpHelper {
      * @param value the cookie for the URL
      */
     protected void storeCookie(URL url, String value) {
-        sCookieManager.setCookie(url.toString(), value);
+        sCookieJar.storeCookie(url, value);
     }
 
     /**
@@ -108,8 +241,23 @@ public class HttpHelper {
     protected void onBeforeConnect(HttpURLConnection conn) {
         conn.setInstanceFollowRedirects(true);
         conn.setRequestProperty("User-Agent", USER_AGENT);
-        conn.setConnectTimeout(CONNECT_TIMEOUT);
-        conn.setReadTimeout(READ_TIMEOUT);
+        // Timeouts follow the latency of the host
+        HostLatency latency = HostLatency.get(conn.getURL().getHost());
+        conn.setConnectTimeout(latency.getConnectTimeout());
+        conn.setReadTimeout(latency.getReadTimeout(mRequestType));
+    }
+
+    /**
+     * @return the type in {@link HostLatency} for timeout
+     */
+    private static int getRequestType(RequestHelper rh) {
+        if (rh instanceof DownloadHelper || rh instanceof DownloadHelper.SegmentRequest) {
+            return HostLatency.TYPE_DOWNLOAD;
+        } else if (rh instanceof PostJsonHelper) {
+            return HostLatency.TYPE_API;
+        } else {
+            return HostLatency.TYPE_PAGE;
+        }
     }
 
     /**
@@ -156,15 +304,36 @@ public class HttpHelper {
         return map;
     }
 
-    private Object doRequst(RequestHelper rh) throws Exception {
+    /**
+     * @return Retry-After in ms, -1 for none
+     */
+    private static long getRetryAfter(HttpURLConnection conn) {
+        String retryAfter = conn.getHeaderField("Retry-After");
+        if (retryAfter == null) {
+            return -1;
+        }
+        // Seconds or http date
+        int seconds = Utils.parseIntSafely(retryAfter.trim(), -1);
+        if (seconds >= 0) {
+            return seconds * 1000L;
+        }
+        long date = conn.getHeaderFieldDate("Retry-After", -1);
+        return date == -1 ? -1 : Math.max(0, date - System.currentTimeMillis());
+    }
+
+    private Object doRequst(RequestHelper rh, RetryPolicy policy) throws Exception {
         URL url;
         HttpURLConnection conn = null;
+        boolean reusable = false;
         int redirectionCount = 0;
+        mRequestType = getRequestType(rh);
+        sRequestsInFlight.incrementAndGet();
         try {
             url = rh.getUrl();
             while (redirectionCount++ < MAX_REDIRECTS) {
                 Log.d(TAG, "Request: " + url.toString());
-                conn = (HttpURLConnection) url.openConnection();
+                HostLatency latency = HostLatency.get(url.getHost());
+                conn = sTransport.open(url);
                 // Prepare before connecting
                 onBeforeConnect(conn);
                 // Set cookie
@@ -175,9 +344,19 @@ public class HttpHelper {
                 // Do custom staff
                 rh.onBeforeConnect(conn);
 
+                long startTime = SystemClock.elapsedRealtime();
                 conn.connect();
+                long connectedTime = SystemClock.elapsedRealtime();
+                latency.onConnect(connectedTime - startTime);
+                if (rh instanceof RequestBodyHelper) {
+                    // Write body after connect, so the connect is timed alone
+                    ((RequestBodyHelper) rh).onWriteBody(conn);
+                    connectedTime = SystemClock.elapsedRealtime();
+                }
+                Map<String, List<String>> headers = conn.getHeaderFields();
+                latency.onFirstByte(SystemClock.elapsedRealtime() - connectedTime);
                 // Store cookie
-                List<String> cookieList = conn.getHeaderFields().get("Set-Cookie");
+                List<String> cookieList = headers.get("Set-Cookie");
                 if (cookieList != null) {
                     for (String cookieTemp : cookieList) {
                         if (cookieTemp != null) {
@@ -197,21 +376,31 @@ public class HttpHelper {
                     // because conn.setInstanceFollowRedirects(true)
                     final String location = conn.getHeaderField("Location");
                     Log.d(TAG, "New location: " + location);
-                    conn.disconnect();
+                    sTransport.release(conn, false);
+                    conn = null;
                     url = new URL(url, location);
                     break;
                 default:
+                    if (policy.isRetryableResponse(responseCode)) {
+                        // Let it retry later
+                        mRetryAfter = getRetryAfter(conn);
+                        throw new ResponseCodeException(responseCode);
+                    }
                     // Check redirect
                     URL finalURL = conn.getURL();
                     if (!isURLEquals(url, finalURL)) {
                         rh.onRedirect(finalURL);
                     }
-                    return rh.onAfterConnect(conn);
+                    Object result = rh.onAfterConnect(conn);
+                    // Body is consumed, keep the connection alive
+                    reusable = true;
+                    return result;
                 }
             }
         } finally {
             if (conn != null)
-                conn.disconnect();
+                sTransport.release(conn, reusable);
+            sRequestsInFlight.decrementAndGet();
         }
 
         throw new RedirectionException();
@@ -219,14 +408,72 @@ public class HttpHelper {
 
     protected Object requst(@NonNull RequestHelper rh) throws Exception {
         Exception exception = null;
-        for (
-                int times = 0;
-                times < MAX_RETRY && (times == 0 || rh.onRetry(exception));
-                times++) {
+        mBytesCopied = 0;
+        RetryPolicy policy = rh.getRetryPolicy();
+        if (policy == null) {
+            policy = sRetryPolicy;
+        }
+        HostHealth health;
+        try {
+            health = HostHealth.get(rh.getUrl().getHost());
+        } catch (MalformedURLException e) {
+            rh.onRequestFailed(e);
+            throw e;
+        }
+
+        for (int times = 0; times < policy.getMaxTries(); times++) {
+            if (times != 0) {
+                if (!rh.onRetry(exception)) {
+                    break;
+                }
+                long delay = policy.getDelay(times, mRetryAfter);
+                if (delay > MAX_WORKER_RETRY_DELAY && RequestScheduler.isWorkerThread()) {
+                    if (mRetryAfter >= 0) {
+                        // The server asks to wait longer, fail now and let the caller try later
+                        Log.d(TAG, "Retry-After " + mRetryAfter + "ms is too long for worker thread");
+                        break;
+                    }
+                    delay = MAX_WORKER_RETRY_DELAY;
+                }
+                if (delay < 0 || !health.acquireRetry()) {
+                    break;
+                }
+                if (delay > 0) {
+                    Log.d(TAG, "Retry in " + delay + "ms");
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+
+            try {
+                health.checkCircuit();
+            } catch (CircuitOpenException e) {
+                // Keep the real reason if it has tried
+                if (exception == null) {
+                    exception = e;
+                }
+                break;
+            }
+
+            mRetryAfter = -1;
             try {
-                return doRequst(rh);
+                Object result = doRequst(rh, policy);
+                health.onSuccess();
+                if (rh instanceof GetStringHelper) {
+                    mBytesCopied = ((GetStringHelper) rh).mBytesCopied;
+                }
+                return result;
             } catch (Exception e) {
                 exception = e;
+                if (policy.isHostFailure(e)) {
+                    health.onFailure();
+                } else {
+                    health.onNeutral();
+                }
             }
         }
 
@@ -282,10 +529,34 @@ public class HttpHelper {
          * @param exception the final exception
          */
         void onRequestFailed(Exception exception);
+
+        /**
+         * Get how to retry
+         *
+         * @return null for {@link #getDefaultRetryPolicy()}
+         */
+        RetryPolicy getRetryPolicy();
+    }
+
+    /**
+     * RequestHelper with a request body, like POST
+     */
+    public interface RequestBodyHelper extends RequestHelper {
+
+        /**
+         * Write the body. It is called after connected, set request method
+         * and headers in {@link #onBeforeConnect(HttpURLConnection)}.
+         *
+         * @param conn the connection
+         * @throws Exception
+         */
+        void onWriteBody(HttpURLConnection conn) throws Exception;
     }
 
     public static abstract class GetStringHelper implements RequestHelper {
         private final String mUrl;
+        private long mBytesCopied;
+        private RetryPolicy mRetryPolicy;
 
         public GetStringHelper(String url) {
             mUrl = url;
@@ -302,7 +573,7 @@ public class HttpHelper {
             conn.addRequestProperty("Accept-Encoding", "gzip");
         }
 
-        private String getCharset(HttpURLConnection conn) {
+        protected String getCharset(HttpURLConnection conn) {
             String charset = parseMap(conn.getContentType()).get("charset");
             if (charset != null) {
                 return charset;
@@ -311,40 +582,49 @@ public class HttpHelper {
             }
         }
 
+        /**
+         * Get the body stream, error stream if failed, unzip it if necessary
+         */
+        protected InputStream getInputStream(HttpURLConnection conn)
+                throws IOException {
+            InputStream is;
+            try {
+                // First try to get input stream
+                is = conn.getInputStream();
+            } catch (Exception t){
+                // If we get error, get error stream
+                is = conn.getErrorStream();
+            }
+            String encoding = conn.getContentEncoding();
+            if (encoding != null && encoding.equalsIgnoreCase("gzip"))
+                is = new GZIPInputStream(is, GZIP_BUFFER_SIZE);
+            return is;
+        }
+
         private String getBody(HttpURLConnection conn)
                 throws Exception {
-            String body = null;
             InputStream is = null;
-            ByteArrayOutputStream baos = null;
+            BodyDecoder decoder = BodyDecoder.obtain();
             try {
-                try {
-                    // First try to get input stream
-                    is = conn.getInputStream();
-                } catch (Exception t){
-                    // If we get error, get error stream
-                    is = conn.getErrorStream();
-                }
-                String encoding = conn.getContentEncoding();
-                if (encoding != null && encoding.equalsIgnoreCase("gzip"))
-                    is = new GZIPInputStream(is);
-
-                int length = conn.getContentLength();
-                if (length >= 0) {
-                    baos = new ByteArrayOutputStream(length);
-                } else {
-                    baos = new ByteArrayOutputStream();
-                }
-
-                Utils.copy(is, baos);
-
-                body = baos.toString(getCharset(conn));
-
+                is = getInputStream(conn);
+
+                // Content-Length is not the body length if it is gzipped
+                int length = is instanceof GZIPInputStream ? -1 : conn.getContentLength();
+                long startTime = SystemClock.elapsedRealtime();
+                decoder.read(is, length);
+                sBytesReceived.addAndGet(decoder.getCount());
+                HostLatency.get(conn.getURL().getHost()).onTransfer(decoder.getCount(),
+                        SystemClock.elapsedRealtime() - startTime);
+                String body = decoder.decode(getCharset(conn));
+
+                mBytesCopied = decoder.getBytesCopied();
+                Log.d(TAG, "Body: " + decoder.getCount() + " bytes, "
+                        + mBytesCopied + " bytes copied");
+                return body;
             } finally {
                 Utils.closeQuietly(is);
-                Utils.closeQuietly(baos);
+                decoder.recycle();
             }
-
-            return body;
         }
 
         @Override
@@ -368,6 +648,18 @@ public class HttpHelper {
         public void onRequestFailed(@NonNull Exception exception) {
             // Empty
         }
+
+        /**
+         * @param policy the retry policy, null for default
+         */
+        public void setRetryPolicy(RetryPolicy policy) {
+            mRetryPolicy = policy;
+        }
+
+        @Override
+        public RetryPolicy getRetryPolicy() {
+            return mRetryPolicy;
+        }
     }
 
     /**
@@ -387,10 +679,202 @@ public class HttpHelper {
         }
     }
 
+    public interface BodyParser {
+
+        /**
+         * Parse the body while it is downloading
+         *
+         * @param is the body stream, do not close it
+         * @param charset the charset of the body
+         * @return what you want to return
+         * @throws Exception
+         */
+        Object parse(InputStream is, String charset) throws Exception;
+
+        /**
+         * Whether parse again from a new connection. Return false if
+         * the parsed content has been delivered somewhere.
+         *
+         * @param previousException previous thrown
+         * @return true for retry, false for stop
+         */
+        boolean onRetry(Exception previousException);
+    }
+
+    /**
+     * RequstHelper for GET method, the body is passed to a {@link BodyParser}
+     * without being read into a string first
+     */
+    public static class GetStreamHelper extends GetHelper {
+        private final BodyParser mParser;
+
+        public GetStreamHelper(String url, @NonNull BodyParser parser) {
+            super(url);
+            mParser = parser;
+        }
+
+        @Override
+        public Object onAfterConnect(@NonNull HttpURLConnection conn)
+                throws Exception {
+            InputStream is = null;
+            try {
+                is = getInputStream(conn);
+                return mParser.parse(is, getCharset(conn));
+            } finally {
+                Utils.closeQuietly(is);
+            }
+        }
+
+        @Override
+        public boolean onRetry(@NonNull Exception previousException) {
+            // Only retry for network error, parser error will come again
+            return previousException instanceof IOException &&
+                    mParser.onRetry(previousException);
+        }
+    }
+
+    private static Object parseCache(@NonNull HttpCache.Entry entry,
+            @NonNull BodyParser parser) throws Exception {
+        InputStream is = entry.openBody();
+        try {
+            String charset = entry.getCharset();
+            return parser.parse(is, charset != null ? charset : DEFAULT_CHARSET);
+        } finally {
+            Utils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * RequstHelper for GET method with {@link HttpCache}. It sends
+     * conditional request if there is a cache entry, parse the cache if
+     * the server returns 304, or store the new body while parsing it.
+     */
+    public static class CachedGetHelper extends GetHelper {
+        private final String mUrl;
+        private final BodyParser mParser;
+        private final HttpCache mCache;
+        private HttpCache.Entry mEntry;
+        private String mCookie;
+
+        /**
+         * @param parser the parser, null for only storing the body
+         * @param entry the cache entry to revalidate, null for none
+         */
+        public CachedGetHelper(String url, @Nullable BodyParser parser,
+                @NonNull HttpCache cache, @Nullable HttpCache.Entry entry) {
+            super(url);
+            mUrl = url;
+            mParser = parser;
+            mCache = cache;
+            mEntry = entry;
+        }
+
+        @Override
+        public void onBeforeConnect(@NonNull HttpURLConnection conn) throws Exception {
+            super.onBeforeConnect(conn);
+            // The body is stored for the cookie it is got with
+            mCookie = conn.getRequestProperty("Cookie");
+            if (mEntry != null) {
+                String eTag = mEntry.getETag();
+                if (eTag != null) {
+                    conn.setRequestProperty("If-None-Match", eTag);
+                }
+                String lastModified = mEntry.getLastModified();
+                if (lastModified != null) {
+                    conn.setRequestProperty("If-Modified-Since", lastModified);
+                }
+            }
+        }
+
+        private static boolean isStorable(HttpURLConnection conn) {
+            String cacheControl = conn.getHeaderField("Cache-Control");
+            return cacheControl == null || !cacheControl.toLowerCase().contains("no-store");
+        }
+
+        @Override
+        public Object onAfterConnect(@NonNull HttpURLConnection conn) throws Exception {
+            int responseCode = conn.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && mEntry != null) {
+                HttpCache.Entry entry = mEntry;
+                mCache.onNotModified(entry, conn.getHeaderField("ETag"),
+                        conn.getHeaderField("Last-Modified"));
+                if (mParser == null) {
+                    return null;
+                }
+                try {
+                    return parseCache(entry, mParser);
+                } catch (FileNotFoundException e) {
+                    // Evicted, retry without condition
+                    mEntry = null;
+                    throw e;
+                }
+            }
+
+            String charset = getCharset(conn);
+            InputStream is = null;
+            HttpCache.Editor editor = null;
+            try {
+                is = getInputStream(conn);
+                if (responseCode == HttpURLConnection.HTTP_OK && isStorable(conn)) {
+                    editor = mCache.edit(mUrl, mCookie, conn.getHeaderField("ETag"),
+                            conn.getHeaderField("Last-Modified"), charset);
+                    is = editor.tee(is);
+                }
+                Object result = mParser == null ? null : mParser.parse(is, charset);
+                if (editor != null) {
+                    // Parser might stop early, read the rest to complete the cache
+                    byte[] buffer = new byte[4096];
+                    while (is.read(buffer) != -1);
+                    editor.commit();
+                    editor = null;
+                }
+                return result;
+            } finally {
+                if (editor != null) {
+                    editor.abort();
+                }
+                Utils.closeQuietly(is);
+            }
+        }
+
+        @Override
+        public boolean onRetry(@NonNull Exception previousException) {
+            return previousException instanceof IOException &&
+                    (mParser == null || mParser.onRetry(previousException));
+        }
+    }
+
+    /**
+     * Revalidate the cache entry in background, only once for the same url at a time
+     */
+    private void revalidateInBackground(final String url, final HttpCache cache,
+            final HttpCache.Entry entry) {
+        synchronized (sRevalidatingUrls) {
+            if (!sRevalidatingUrls.add(url)) {
+                return;
+            }
+        }
+        final HttpHelper helper = newInstance();
+        sRevalidateExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    helper.requst(new CachedGetHelper(url, null, cache, entry));
+                } catch (Exception e) {
+                    Log.d(TAG, "Can't revalidate " + url, e);
+                } finally {
+                    synchronized (sRevalidatingUrls) {
+                        sRevalidatingUrls.remove(url);
+                    }
+                }
+            }
+        });
+    }
+
     /**
      * RequstHelper for post form data, use POST method
      */
-    public static class PostFormHelper extends GetStringHelper {
+    public static class PostFormHelper extends GetStringHelper implements RequestBodyHelper {
         private final String[][] mArgs;
 
         public PostFormHelper(String url, String[][] args) {
@@ -408,7 +892,10 @@ public class HttpHelper {
             conn.setRequestMethod("POST");
             conn.setRequestProperty("Content-Type",
                     "application/x-www-form-urlencoded");
+        }
 
+        @Override
+        public void onWriteBody(HttpURLConnection conn) throws Exception {
             DataOutputStream out = new DataOutputStream(conn.getOutputStream());
             StringBuilder sb = new StringBuilder();
             int i = 0;
@@ -429,7 +916,7 @@ public class HttpHelper {
     /**
      * RequstHelper for post json, use POST method
      */
-    public static class PostJsonHelper extends GetStringHelper {
+    public static class PostJsonHelper extends GetStringHelper implements RequestBodyHelper {
         private final JSONObject mJo;
 
         public PostJsonHelper(String url, JSONObject jo) {
@@ -445,7 +932,10 @@ public class HttpHelper {
             conn.setUseCaches(false);
             conn.setRequestMethod("POST");
             conn.setRequestProperty("Content-Type", "application/json");
+        }
 
+        @Override
+        public void onWriteBody(HttpURLConnection conn) throws Exception {
             DataOutputStream out = new DataOutputStream(conn.getOutputStream());
             String body = mJo.toString();
             Log.d(TAG, "Post json: " + body);
@@ -543,7 +1033,7 @@ public class HttpHelper {
         }
     }
 
-    public static class PostFormDataHelper extends GetStringHelper {
+    public static class PostFormDataHelper extends GetStringHelper implements RequestBodyHelper {
         private static final String BOUNDARY = "----WebKitFormBoundary7eDB0hDQ91s22Tkf";
 
         private final List<FormData> mDataList;
@@ -563,7 +1053,10 @@ public class HttpHelper {
             conn.setRequestMethod("POST");
             conn.setRequestProperty("Content-Type",
                     "multipart/form-data; boundary=" + BOUNDARY);
+        }
 
+        @Override
+        public void onWriteBody(HttpURLConnection conn) throws Exception {
             DataOutputStream out = new DataOutputStream(conn.getOutputStream());
 
             for (FormData data : mDataList) {
@@ -631,8 +1124,20 @@ public class HttpHelper {
         public void onRequestFailed(Exception exception) {
             // Empty
         }
+
+        @Override
+        public RetryPolicy getRetryPolicy() {
+            return null;
+        }
     }
 
+    /**
+     * All callbacks except {@link #onDownload(int, int)} are called on the
+     * thread which runs the download. {@code onDownload} might be called on a
+     * segment thread, but calls of one download never overlap and are ordered,
+     * and they all happen before {@link #onSuccess()}, {@link #onStop()} or
+     * {@link #onFailure(Exception)}.
+     */
     public interface OnDownloadListener {
 
         /**
@@ -655,7 +1160,8 @@ public class HttpHelper {
         void onNameFix(String newName);
 
         /**
-         * Called repeatedly during downloading
+         * Called during downloading, at most once in 100 ms, and after all received.
+         * It might be called on a segment thread, see {@link OnDownloadListener}.
          *
          * @param downloadSize downloaded size
          * @param totalSize content length, -1 for unknown
@@ -682,6 +1188,7 @@ public class HttpHelper {
 
     public static class DownloadControlor {
         private boolean mStop = false;
+        private final DownloadStats mStats = new DownloadStats();
 
         public void stop() {
             mStop = true;
@@ -694,12 +1201,62 @@ public class HttpHelper {
         public boolean isStop() {
             return mStop;
         }
+
+        /**
+         * @return the speed and remaining time of the download
+         */
+        public @NonNull DownloadStats getStats() {
+            return mStats;
+        }
     }
 
     public static class DownloadHelper implements RequestHelper {
 
         private static final String DOWNLOAD_EXTENSION = ".download";
 
+        private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+        /**
+         * Report progress at most once in it, in ms
+         */
+        private static final long PROGRESS_MIN_INTERVAL = 100;
+        /**
+         * Report progress at least once in it if anything received, in ms
+         */
+        private static final long PROGRESS_MAX_INTERVAL = 500;
+        /**
+         * Report progress if received so many bytes since last report
+         */
+        private static final long PROGRESS_BYTES = 256 * 1024;
+        /**
+         * Do not split a file into segments smaller than it
+         */
+        private static final long MIN_SEGMENT_SIZE = 512 * 1024;
+
+        /**
+         * Most segments transferred at the same time by all downloads, the first
+         * segment of each download runs on the caller thread and is not counted
+         */
+        private static final int MAX_SEGMENT_THREADS = 4;
+
+        /**
+         * Extra segments wait in the queue. It never deadlocks, segment tasks are
+         * only waited by download threads, never by each other.
+         */
+        private static final ThreadPoolExecutor sSegmentExecutor = new ThreadPoolExecutor(
+                MAX_SEGMENT_THREADS, MAX_SEGMENT_THREADS, 10L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new PriorityThreadFactory("DownloadSegment", Process.THREAD_PRIORITY_BACKGROUND));
+
+        /**
+         * Transfer buffers shared by all downloads
+         */
+        private static final Pool<byte[]> sBufferPool = new Pool<>(8);
+
+        static {
+            sSegmentExecutor.allowCoreThreadTimeOut(true);
+            MemoryGovernor.getInstance().register("Download buffers", sBufferPool);
+        }
+
         private final String mUrl;
         private final File mDir;
         private String mFileName;
@@ -708,7 +1265,24 @@ public class HttpHelper {
         private final DownloadControlor mControlor;
         private final OnDownloadListener mListener;
         private int mContentLength;
-        private int mReceivedSize;
+        private long mReceivedSize;
+        private long mReportedSize;
+        private long mReportTime;
+        private final DownloadStats mStats;
+
+        private HttpHelper mSegmentHttpHelper;
+        private int mSegmentCount = 1;
+
+        /**
+         * ETag or Last-Modified for If-Range
+         */
+        private String mValidator;
+        private boolean mAcceptRanges;
+        /**
+         * Null if the temp file can not be resumed
+         */
+        private Segment[] mSegments;
+        private volatile boolean mAborted;
 
         public DownloadHelper(String url, File dir, String fileName,
                 DownloadControlor controlor, OnDownloadListener listener) {
@@ -717,6 +1291,19 @@ public class HttpHelper {
             mFileName = fileName;
             mControlor = controlor;
             mListener = listener;
+            mStats = controlor != null ? controlor.getStats() : new DownloadStats();
+        }
+
+        /**
+         * Split large file into segments and download them in parallel,
+         * if the server supports range requests
+         *
+         * @param httpHelper the helper to create HttpHelper for other segments
+         * @param segmentCount the max number of segments
+         */
+        public void setParallel(@NonNull HttpHelper httpHelper, int segmentCount) {
+            mSegmentHttpHelper = httpHelper;
+            mSegmentCount = Math.max(1, segmentCount);
         }
 
         @Override
@@ -730,20 +1317,71 @@ public class HttpHelper {
             }
         }
 
+        /**
+         * @return the first unfinished segment of the temp file,
+         * null if it can not be resumed
+         */
+        private @Nullable Segment getResumeSegment() {
+            if (mSegments == null || mValidator == null || !mAcceptRanges ||
+                    mTempFile == null || !mTempFile.exists()) {
+                return null;
+            }
+            for (Segment segment : mSegments) {
+                if (!segment.isDone()) {
+                    return segment;
+                }
+            }
+            return null;
+        }
+
         @Override
         public void onBeforeConnect(HttpURLConnection conn) throws Exception {
             checkStop();
 
             conn.setRequestMethod("GET");
-            // Sometimes for application/octet-stream, we need to add this line
-            // to get content length
-            conn.setRequestProperty("Range", "bytes=0-");
+            Segment segment = getResumeSegment();
+            if (segment != null) {
+                // Continue from where last try stopped, or get whole file if it has changed
+                conn.setRequestProperty("Range", "bytes=" + segment.pos + "-");
+                conn.setRequestProperty("If-Range", mValidator);
+            } else {
+                // Sometimes for application/octet-stream, we need to add this line
+                // to get content length
+                conn.setRequestProperty("Range", "bytes=0-");
+            }
 
             if (mListener != null) {
                 mListener.onStartConnecting();
             }
         }
 
+        private static long parseLongSafely(String str, long defaultValue) {
+            try {
+                return Long.parseLong(str.trim());
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+
+        /**
+         * @return the first byte position of the body, -1 for unknown
+         */
+        private static long getRangeStart(HttpURLConnection conn) throws IOException {
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                return 0;
+            }
+            // Content-Range looks like bytes 500-999/1234
+            String range = conn.getHeaderField("Content-Range");
+            if (range == null || !range.startsWith("bytes ")) {
+                return -1;
+            }
+            int index = range.indexOf('-');
+            if (index == -1) {
+                return -1;
+            }
+            return parseLongSafely(range.substring("bytes ".length(), index), -1);
+        }
+
         private int getContentLength(HttpURLConnection conn) {
             int contentLength = conn.getContentLength();
             String range;
@@ -758,6 +1396,16 @@ public class HttpHelper {
             return contentLength;
         }
 
+        private static @Nullable String getValidator(HttpURLConnection conn) {
+            String eTag = conn.getHeaderField("ETag");
+            // Weak ETag can not be used in If-Range
+            if (eTag != null && !eTag.startsWith("W/")) {
+                return eTag;
+            } else {
+                return conn.getHeaderField("Last-Modified");
+            }
+        }
+
         @Override
         public void onRedirect(@NonNull URL newURL) {
             // TODO
@@ -773,22 +1421,12 @@ public class HttpHelper {
             return null;
         }
 
-        @Override
-        public Object onAfterConnect(HttpURLConnection conn) throws Exception {
-            // Check stop
-            if (mControlor != null && mControlor.isStop())
-                throw new StopRequestException();
-
+        private void prepareFile(HttpURLConnection conn) throws FileNotFoundException {
             String contentType = conn.getContentType();
             int index = contentType.indexOf(';');
             if (index != -1)
                 contentType = contentType.substring(0, index);
 
-            mContentLength = getContentLength(conn);
-            if (mListener != null) {
-                mListener.onStartDownloading(mContentLength);
-            }
-
             // Fix extension
             MimeTypeMap mime = MimeTypeMap.getSingleton();
             String newExtension = mime.getExtensionFromMimeType(contentType);
@@ -816,9 +1454,82 @@ public class HttpHelper {
 
             mFile = new File(mDir, mFileName);
             mTempFile = new File(mDir, mFileName + DOWNLOAD_EXTENSION);
+        }
 
-            // Transfer
-            transferData(conn.getInputStream(), new FileOutputStream(mTempFile));
+        /**
+         * Split the file into segments for a new download
+         */
+        private void planSegments(HttpURLConnection conn) throws IOException {
+            mValidator = getValidator(conn);
+            mAcceptRanges = conn.getResponseCode() == HttpURLConnection.HTTP_PARTIAL ||
+                    "bytes".equalsIgnoreCase(conn.getHeaderField("Accept-Ranges"));
+
+            long length = mContentLength;
+            int count = 1;
+            if (mSegmentHttpHelper != null && mAcceptRanges && length > 0) {
+                count = (int) Math.max(1, Math.min(mSegmentCount, length / MIN_SEGMENT_SIZE));
+            }
+            mSegments = new Segment[count];
+            if (length <= 0) {
+                mSegments[0] = new Segment(0, -1);
+            } else {
+                long segmentSize = length / count;
+                for (int i = 0; i < count; i++) {
+                    long start = i * segmentSize;
+                    long end = i == count - 1 ? length : start + segmentSize;
+                    mSegments[i] = new Segment(start, end);
+                }
+            }
+        }
+
+        @Override
+        public Object onAfterConnect(HttpURLConnection conn) throws Exception {
+            checkStop();
+
+            Segment first = getResumeSegment();
+            long rangeStart = getRangeStart(conn);
+            if (first != null && conn.getResponseCode() == HttpURLConnection.HTTP_PARTIAL &&
+                    first.pos == rangeStart) {
+                // Resume, the content length is still the total length
+                mContentLength = (int) mSegments[mSegments.length - 1].end;
+                mReceivedSize = 0;
+                for (Segment segment : mSegments) {
+                    mReceivedSize += segment.pos - segment.start;
+                }
+            } else if (rangeStart == 0) {
+                // New download, or the file is changed
+                if (mFile == null) {
+                    prepareFile(conn);
+                }
+                mContentLength = getContentLength(conn);
+                mReceivedSize = 0;
+                planSegments(conn);
+                first = mSegments[0];
+            } else {
+                // The body is not where it is wanted, get the whole file again
+                mSegments = null;
+                Utils.deleteFile(mTempFile);
+                throw new UncompletedException("Can't get range from " +
+                        (first == null ? 0 : first.pos) + ", got " + rangeStart);
+            }
+            if (mListener != null) {
+                mListener.onStartDownloading(mContentLength);
+            }
+
+            mReportedSize = mReceivedSize;
+            mReportTime = SystemClock.elapsedRealtime();
+            mStats.onStart(mReceivedSize, mContentLength);
+            RandomAccessFile raf = new RandomAccessFile(mTempFile, "rw");
+            try {
+                if (first.pos == 0) {
+                    raf.setLength(mSegments.length > 1 ? mContentLength : 0);
+                }
+                transferSegments(conn, raf.getChannel(), first);
+            } finally {
+                Utils.closeQuietly(raf);
+                mStats.onFinish();
+            }
+            reportProgress();
 
             // Get ok, rename
             Utils.deleteFile(mFile);
@@ -836,38 +1547,135 @@ public class HttpHelper {
             return null;
         }
 
-        private void transferData(InputStream in, OutputStream out)
+        /**
+         * Transfer the first segment by the connection, others in parallel
+         */
+        private void transferSegments(HttpURLConnection conn, FileChannel channel, Segment first)
                 throws Exception {
-            final byte data[] = new byte[512 * 1024];
-            mReceivedSize = 0;
+            List<FutureTask<Void>> tasks = new ArrayList<>();
+            mAborted = false;
+            for (Segment segment : mSegments) {
+                if (segment != first && !segment.isDone()) {
+                    FutureTask<Void> task = new FutureTask<>(
+                            new SegmentRequest(segment, channel));
+                    sSegmentExecutor.execute(task);
+                    tasks.add(task);
+                }
+            }
+
+            Exception exception = null;
+            try {
+                transferData(conn.getInputStream(), channel, first);
+                if (first.end != -1 && first.end < mContentLength) {
+                    // The rest of the body is for other segments
+                    conn.disconnect();
+                }
+            } catch (Exception e) {
+                exception = e;
+                mAborted = true;
+            }
+
+            // Must wait them before closing the file
+            for (FutureTask<Void> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    mAborted = true;
+                    if (exception == null) {
+                        Throwable cause = e.getCause();
+                        exception = cause instanceof Exception ?
+                                (Exception) cause : new ExecutionException(cause);
+                    }
+                }
+            }
+            if (exception != null) {
+                throw exception;
+            }
+        }
+
+        private void transferData(InputStream in, FileChannel channel, Segment segment)
+                throws Exception {
+            byte[] data = sBufferPool.obtain();
+            if (data == null) {
+                data = new byte[TRANSFER_BUFFER_SIZE];
+            }
+            long startPos = segment.pos;
+            long startTime = SystemClock.elapsedRealtime();
+            try {
+                transferData(in, channel, segment, data);
+            } finally {
+                sBufferPool.recycle(data);
+            }
+            HostLatency.get(getUrl().getHost()).onTransfer(segment.pos - startPos,
+                    SystemClock.elapsedRealtime() - startTime);
+        }
+
+        private void transferData(InputStream in, FileChannel channel, Segment segment,
+                byte[] data) throws Exception {
+            final ByteBuffer buffer = ByteBuffer.wrap(data);
 
             while (true) {
                 // Check stop first
                 checkStop();
+                if (mAborted) {
+                    // Another segment failed
+                    throw new StopRequestException();
+                }
 
-                int bytesRead = in.read(data);
+                int length = data.length;
+                if (segment.end != -1) {
+                    length = (int) Math.min(length, segment.end - segment.pos);
+                    if (length == 0)
+                        break;
+                }
+                int bytesRead = in.read(data, 0, length);
                 if (bytesRead == -1)
                     break;
-                out.write(data, 0, bytesRead);
-                mReceivedSize += bytesRead;
 
-                if (mListener != null) {
-                    mListener.onDownload(mReceivedSize, mContentLength);
+                buffer.clear();
+                buffer.limit(bytesRead);
+                long position = segment.pos;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
                 }
+                segment.pos = position;
+
+                onReceived(bytesRead);
+                sBytesReceived.addAndGet(bytesRead);
+            }
+
+            if (segment.end != -1 && segment.pos != segment.end) {
+                throw new UncompletedException("Received to " + segment.pos
+                        + ", but segment ends at " + segment.end);
+            }
+        }
+
+        private synchronized void onReceived(int size) {
+            mReceivedSize += size;
+            mStats.onReceived(size);
+
+            // Do not let progress callback take the time of transferring
+            long interval = SystemClock.elapsedRealtime() - mReportTime;
+            if (interval >= PROGRESS_MAX_INTERVAL || (interval >= PROGRESS_MIN_INTERVAL &&
+                    mReceivedSize - mReportedSize >= PROGRESS_BYTES)) {
+                reportProgress();
             }
+        }
 
-            if (mContentLength != -1 && mReceivedSize != mContentLength) {
-                throw new UncompletedException("Received size is " + mReceivedSize
-                        + ", but ContentLength is " + mContentLength);
+        private synchronized void reportProgress() {
+            if (mReportedSize == mReceivedSize) {
+                return;
+            }
+            mReportedSize = mReceivedSize;
+            mReportTime = SystemClock.elapsedRealtime();
+            if (mListener != null) {
+                mListener.onDownload((int) mReceivedSize, mContentLength);
             }
         }
 
         @Override
         public boolean onRetry(Exception previousException) {
-            // Delete unfinished file
-            Utils.deleteFile(mTempFile);
-            Utils.deleteFile(mFile);
-
+            // Keep the temp file to resume
             if (previousException instanceof StopRequestException) {
                 return false;
             } else {
@@ -877,6 +1685,9 @@ public class HttpHelper {
 
         @Override
         public void onRequestFailed(Exception exception) {
+            // It can not be resumed by a new DownloadHelper
+            Utils.deleteFile(mTempFile);
+
             if (mListener != null) {
                 if (exception instanceof StopRequestException) {
                     mListener.onStop();
@@ -885,6 +1696,104 @@ public class HttpHelper {
                 }
             }
         }
+
+        @Override
+        public RetryPolicy getRetryPolicy() {
+            return null;
+        }
+
+        private static final class Segment {
+            private final long start;
+            /**
+             * Exclusive, -1 for unknown
+             */
+            private final long end;
+            private long pos;
+
+            public Segment(long start, long end) {
+                this.start = start;
+                this.end = end;
+                pos = start;
+            }
+
+            public boolean isDone() {
+                return end != -1 && pos >= end;
+            }
+        }
+
+        /**
+         * Get a segment by a new HttpHelper
+         */
+        private final class SegmentRequest implements RequestHelper, Callable<Void> {
+
+            private final Segment mSegment;
+            private final FileChannel mChannel;
+
+            public SegmentRequest(Segment segment, FileChannel channel) {
+                mSegment = segment;
+                mChannel = channel;
+            }
+
+            @Override
+            public Void call() throws Exception {
+                if (mAborted) {
+                    // Another segment failed while this one was queued
+                    throw new StopRequestException();
+                }
+                mSegmentHttpHelper.newInstance().requst(this);
+                return null;
+            }
+
+            @Override
+            public URL getUrl() throws MalformedURLException {
+                return new URL(mUrl);
+            }
+
+            @Override
+            public void onBeforeConnect(HttpURLConnection conn) throws Exception {
+                checkStop();
+
+                conn.setRequestMethod("GET");
+                conn.setRequestProperty("Range", "bytes=" + mSegment.pos + "-" + (mSegment.end - 1));
+                if (mValidator != null) {
+                    conn.setRequestProperty("If-Range", mValidator);
+                }
+            }
+
+            @Override
+            public void onRedirect(URL newURL) {
+                // Empty
+            }
+
+            @Override
+            public Object onAfterConnect(HttpURLConnection conn) throws Exception {
+                checkStop();
+
+                if (getRangeStart(conn) != mSegment.pos ||
+                        conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                    // The file might be changed, let the first segment find out
+                    throw new UncompletedException("Can't get range from " + mSegment.pos);
+                }
+                transferData(conn.getInputStream(), mChannel, mSegment);
+                return null;
+            }
+
+            @Override
+            public boolean onRetry(Exception previousException) {
+                return !(previousException instanceof StopRequestException) &&
+                        !(previousException instanceof UncompletedException);
+            }
+
+            @Override
+            public void onRequestFailed(Exception exception) {
+                // Empty
+            }
+
+            @Override
+            public RetryPolicy getRetryPolicy() {
+                return null;
+            }
+        }
     }
 
     /**
@@ -896,6 +1805,52 @@ public class HttpHelper {
         return (String) requst(new GetHelper(url));
     }
 
+    /**
+     * Http GET method, parse the body as a stream
+     * @param url the url to get
+     * @param parser the parser for body
+     * @return what the parser return
+     */
+    public Object get(String url, BodyParser parser) throws Exception {
+        return requst(new GetStreamHelper(url, parser));
+    }
+
+    /**
+     * Http GET method with cache, parse the body as a stream
+     * @param url the url to get
+     * @param parser the parser for body
+     * @param policy how to use cache, null for not using it
+     * @return what the parser return
+     */
+    public Object get(String url, BodyParser parser, @Nullable CachePolicy policy)
+            throws Exception {
+        HttpCache cache = sCache;
+        if (cache == null || policy == null) {
+            return get(url, parser);
+        }
+
+        HttpCache.Entry entry = cache.get(url, getCookie(new URL(url)));
+        if (entry != null) {
+            long age = entry.getAge();
+            if (policy.isFresh(age) || policy.isUsableWhileRevalidate(age)) {
+                // Only 200 is stored
+                mResponseCode = HttpURLConnection.HTTP_OK;
+                try {
+                    Object result = parseCache(entry, parser);
+                    if (!policy.isFresh(age)) {
+                        revalidateInBackground(url, cache, entry);
+                    }
+                    return result;
+                } catch (FileNotFoundException e) {
+                    // Evicted
+                    entry = null;
+                }
+            }
+        }
+
+        return requst(new CachedGetHelper(url, parser, cache, entry));
+    }
+
     /**
      * Post form data
      * @param url the url to post
@@ -948,4 +1903,17 @@ public class HttpHelper {
             DownloadControlor controlor, OnDownloadListener listener) throws Exception {
         requst(new DownloadHelper(url, dir, file, controlor, listener));
     }
+
+    /**
+     * Download large file in segments in parallel
+     *
+     * @param segmentCount the max number of segments
+     * @see #download(String, File, String, DownloadControlor, OnDownloadListener)
+     */
+    public void download(String url, File dir, String file, int segmentCount,
+            DownloadControlor controlor, OnDownloadListener listener) throws Exception {
+        DownloadHelper helper = new DownloadHelper(url, dir, file, controlor, listener);
+        helper.setParallel(this, segmentCount);
+        requst(helper);
+    }
 }
@@ -0,0 +1,435 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Run requests in a thread pool by priority, first in first out for
+ * the same priority. Queued requests can be cancelled by tag, and a request
+ * with the same key as a queued or running one is coalesced to it instead of queued.
+ */
+public class RequestScheduler {
+
+    /**
+     * For what user is waiting for
+     */
+    public static final int PRIORITY_FOREGROUND = 0;
+    /**
+     * For small API call
+     */
+    public static final int PRIORITY_API = 1;
+    /**
+     * For what user might need later
+     */
+    public static final int PRIORITY_PREFETCH = 2;
+    /**
+     * For background download
+     */
+    public static final int PRIORITY_DOWNLOAD = 3;
+
+    private static final int PRIORITY_COUNT = 4;
+
+    /**
+     * Set while the thread is running a request
+     */
+    private static final ThreadLocal<Boolean> sRunningRequest = new ThreadLocal<>();
+
+    private final ThreadPoolExecutor mExecutor;
+    private final PriorityBlockingQueue<Runnable> mQueue;
+
+    private final Object mLock = new Object();
+    /**
+     * Queued and running requests which have key
+     */
+    private final Map<String, Request> mKeyMap = new HashMap<>();
+    private long mSequence;
+
+    private final int[] mQueueDepths = new int[PRIORITY_COUNT];
+    private final long[] mExecutedCounts = new long[PRIORITY_COUNT];
+    private final long[] mTotalWaitTimes = new long[PRIORITY_COUNT];
+    private final long[] mMaxWaitTimes = new long[PRIORITY_COUNT];
+    private long mCoalescedCount;
+    private long mCoalescedRunningCount;
+    private long mCancelledCount;
+
+    public RequestScheduler(int poolSize, @NonNull ThreadFactory threadFactory) {
+        mQueue = new PriorityBlockingQueue<>();
+        mExecutor = new ThreadPoolExecutor(poolSize, poolSize,
+                1L, TimeUnit.SECONDS, mQueue, threadFactory);
+    }
+
+    /**
+     * @return true if the current thread is a worker running a request,
+     * it should not block for long
+     */
+    public static boolean isWorkerThread() {
+        return sRunningRequest.get() != null;
+    }
+
+    private static void checkPriority(int priority) {
+        if (priority < 0 || priority >= PRIORITY_COUNT) {
+            throw new IllegalArgumentException("Invalid priority " + priority);
+        }
+    }
+
+    /**
+     * Queue the request, or coalesce it to a queued or running request with the same key.
+     * A request can only be submitted once.
+     *
+     * @param request the request
+     */
+    public void submit(@NonNull Request request) {
+        synchronized (mLock) {
+            if (request.mScheduler != null) {
+                throw new IllegalStateException("The request has been submitted");
+            }
+            request.mScheduler = this;
+            request.mEnqueueTime = SystemClock.elapsedRealtime();
+
+            String key = request.mKey;
+            if (key != null) {
+                Request leader = mKeyMap.get(key);
+                if (leader != null) {
+                    leader.addFollower(request);
+                    mCoalescedCount++;
+                    if (!leader.mRunning && mQueue.remove(leader)) {
+                        if (request.mPriority < leader.mPriority) {
+                            // The leader should be as urgent as its followers
+                            mQueueDepths[leader.mPriority]--;
+                            leader.mPriority = request.mPriority;
+                            mQueueDepths[leader.mPriority]++;
+                        }
+                        mQueue.add(leader);
+                    } else {
+                        // Running, or taken from the queue by a worker and about to run
+                        mCoalescedRunningCount++;
+                    }
+                    request.onJoin(leader);
+                    return;
+                }
+                mKeyMap.put(key, request);
+            }
+
+            request.mSequence = mSequence++;
+            mQueueDepths[request.mPriority]++;
+            mExecutor.execute(request);
+        }
+    }
+
+    /**
+     * Cancel all queued requests with the tag, and the ones waiting for
+     * a running request. Running requests are not affected.
+     * {@link Request#onCancel()} is called for each cancelled request.
+     *
+     * @param tag the tag
+     * @return the number of cancelled requests
+     */
+    public int cancel(@NonNull Object tag) {
+        List<Request> cancelled = new ArrayList<>();
+        synchronized (mLock) {
+            for (Runnable runnable : mQueue.toArray(new Runnable[mQueue.size()])) {
+                Request request = (Request) runnable;
+                request.removeFollowers(tag, cancelled);
+                if (tag.equals(request.mTag) && mQueue.remove(request)) {
+                    mQueueDepths[request.mPriority]--;
+                    cancelled.add(request);
+
+                    Request newLeader = request.pollFollower();
+                    if (newLeader != null) {
+                        // Take the place of the cancelled one
+                        newLeader.mFollowers = request.mFollowers;
+                        request.mFollowers = null;
+                        newLeader.mSequence = request.mSequence;
+                        mKeyMap.put(newLeader.mKey, newLeader);
+                        mQueueDepths[newLeader.mPriority]++;
+                        mQueue.add(newLeader);
+                        if (newLeader.mFollowers != null) {
+                            for (Request follower : newLeader.mFollowers) {
+                                follower.onJoin(newLeader);
+                            }
+                        }
+                    } else if (request.mKey != null) {
+                        mKeyMap.remove(request.mKey);
+                    }
+                }
+            }
+            // Leaders not in queue, including the ones taken but not started
+            for (Request leader : mKeyMap.values()) {
+                leader.removeFollowers(tag, cancelled);
+            }
+            mCancelledCount += cancelled.size();
+        }
+
+        for (Request request : cancelled) {
+            request.onCancel();
+        }
+        return cancelled.size();
+    }
+
+    /**
+     * Called in worker thread before the request run
+     */
+    private void onStart(@NonNull Request request) {
+        synchronized (mLock) {
+            int priority = request.mPriority;
+            long waitTime = SystemClock.elapsedRealtime() - request.mEnqueueTime;
+            mQueueDepths[priority]--;
+            mExecutedCounts[priority]++;
+            mTotalWaitTimes[priority] += waitTime;
+            if (waitTime > mMaxWaitTimes[priority]) {
+                mMaxWaitTimes[priority] = waitTime;
+            }
+            request.mRunning = true;
+        }
+    }
+
+    /**
+     * Called in worker thread after the request run
+     *
+     * @return the followers
+     */
+    private @Nullable List<Request> onFinish(@NonNull Request request) {
+        synchronized (mLock) {
+            request.mRunning = false;
+            if (request.mKey != null) {
+                mKeyMap.remove(request.mKey);
+            }
+            // No one can join it now
+            List<Request> followers = request.mFollowers;
+            request.mFollowers = null;
+            return followers;
+        }
+    }
+
+    /**
+     * @return the number of queued requests
+     */
+    public int getQueueDepth() {
+        synchronized (mLock) {
+            int depth = 0;
+            for (int d : mQueueDepths) {
+                depth += d;
+            }
+            return depth;
+        }
+    }
+
+    /**
+     * @return the number of queued requests of the priority
+     */
+    public int getQueueDepth(int priority) {
+        checkPriority(priority);
+        synchronized (mLock) {
+            return mQueueDepths[priority];
+        }
+    }
+
+    /**
+     * @return the number of requests of the priority which have started
+     */
+    public long getExecutedCount(int priority) {
+        checkPriority(priority);
+        synchronized (mLock) {
+            return mExecutedCounts[priority];
+        }
+    }
+
+    /**
+     * @return average time in queue of the priority, in ms
+     */
+    public long getAverageWaitTime(int priority) {
+        checkPriority(priority);
+        synchronized (mLock) {
+            long count = mExecutedCounts[priority];
+            return count == 0 ? 0 : mTotalWaitTimes[priority] / count;
+        }
+    }
+
+    /**
+     * @return max time in queue of the priority, in ms
+     */
+    public long getMaxWaitTime(int priority) {
+        checkPriority(priority);
+        synchronized (mLock) {
+            return mMaxWaitTimes[priority];
+        }
+    }
+
+    /**
+     * @return how many requests are coalesced to a queued or running one
+     */
+    public long getCoalescedCount() {
+        synchronized (mLock) {
+            return mCoalescedCount;
+        }
+    }
+
+    /**
+     * @return how many requests are coalesced to a running one
+     */
+    public long getCoalescedRunningCount() {
+        synchronized (mLock) {
+            return mCoalescedRunningCount;
+        }
+    }
+
+    /**
+     * @return how many requests are cancelled in queue
+     */
+    public long getCancelledCount() {
+        synchronized (mLock) {
+            return mCancelledCount;
+        }
+    }
+
+    public abstract static class Request implements Runnable, Comparable<Request> {
+
+        private int mPriority;
+        private final Object mTag;
+        private final String mKey;
+
+        private RequestScheduler mScheduler;
+        private long mSequence;
+        private long mEnqueueTime;
+        private boolean mRunning;
+        private List<Request> mFollowers;
+
+        /**
+         * @param priority one of {@link #PRIORITY_FOREGROUND}, {@link #PRIORITY_API},
+         *                 {@link #PRIORITY_PREFETCH} and {@link #PRIORITY_DOWNLOAD}
+         * @param tag the tag to cancel it, null for none
+         * @param key requests with the same key do the same job, null for none
+         */
+        public Request(int priority, @Nullable Object tag, @Nullable String key) {
+            checkPriority(priority);
+            mPriority = priority;
+            mTag = tag;
+            mKey = key;
+        }
+
+        public int getPriority() {
+            return mPriority;
+        }
+
+        public @Nullable Object getTag() {
+            return mTag;
+        }
+
+        public @Nullable String getKey() {
+            return mKey;
+        }
+
+        private void addFollower(@NonNull Request follower) {
+            if (mFollowers == null) {
+                mFollowers = new ArrayList<>(2);
+            }
+            mFollowers.add(follower);
+        }
+
+        private @Nullable Request pollFollower() {
+            if (mFollowers == null || mFollowers.isEmpty()) {
+                return null;
+            } else {
+                return mFollowers.remove(0);
+            }
+        }
+
+        private void removeFollowers(@NonNull Object tag, @NonNull List<Request> removed) {
+            if (mFollowers == null) {
+                return;
+            }
+            Iterator<Request> iterator = mFollowers.iterator();
+            while (iterator.hasNext()) {
+                Request follower = iterator.next();
+                if (tag.equals(follower.mTag)) {
+                    iterator.remove();
+                    removed.add(follower);
+                }
+            }
+        }
+
+        /**
+         * Do the job in worker thread
+         */
+        protected abstract void onRun();
+
+        /**
+         * Called in worker thread after the leader has run.
+         * Take the result of the leader instead of doing the job again.
+         *
+         * @param leader the request which has done the job
+         */
+        protected abstract void onCoalesce(@NonNull Request leader);
+
+        /**
+         * Called when it is cancelled in queue, or while waiting for the leader
+         */
+        protected void onCancel() {
+        }
+
+        /**
+         * Called when it is coalesced to a queued or running leader, with the
+         * scheduler locked, so keep it short. It is called again with the new
+         * leader if the queued leader is cancelled and a follower takes its place.
+         * It is called before {@link #onCoalesce(Request)}.
+         *
+         * @param leader the request which does the job
+         */
+        protected void onJoin(@NonNull Request leader) {
+        }
+
+        @Override
+        public final void run() {
+            mScheduler.onStart(this);
+            sRunningRequest.set(Boolean.TRUE);
+            try {
+                onRun();
+            } finally {
+                sRunningRequest.remove();
+                List<Request> followers = mScheduler.onFinish(this);
+                if (followers != null) {
+                    for (Request follower : followers) {
+                        follower.onCoalesce(this);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(@NonNull Request another) {
+            if (mPriority != another.mPriority) {
+                return mPriority < another.mPriority ? -1 : 1;
+            } else if (mSequence != another.mSequence) {
+                return mSequence < another.mSequence ? -1 : 1;
+            } else {
+                return 0;
+            }
+        }
+    }
+}
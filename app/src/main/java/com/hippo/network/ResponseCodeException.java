@@ -65,6 +65,10 @@ public class ResponseCodeException extends Exception {
         mMessage = message;
     }
 
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
     @Override
     public String getMessage() {
         return mMessage;
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+/**
+ * How {@link HttpHelper} retries a failed request. It waits longer and longer
+ * between tries with random jitter, or the time in Retry-After.
+ * Override the methods for other rules.
+ */
+public class RetryPolicy {
+
+    /**
+     * For common requests
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3, 500, 8000, 30 * 1000);
+    /**
+     * Try only once
+     */
+    public static final RetryPolicy NO_RETRY = new RetryPolicy(1, 0, 0, 0);
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final Random sRandom = new Random();
+
+    private final int mMaxTries;
+    private final long mBaseDelay;
+    private final long mMaxDelay;
+    private final long mMaxRetryAfter;
+
+    /**
+     * @param maxTries the max number of tries, including the first one
+     * @param baseDelay the delay before first retry, doubled for each retry, in ms
+     * @param maxDelay the max delay, in ms
+     * @param maxRetryAfter give up if the server asks to wait longer than it, in ms
+     */
+    public RetryPolicy(int maxTries, long baseDelay, long maxDelay, long maxRetryAfter) {
+        if (maxTries < 1 || baseDelay < 0 || maxDelay < baseDelay || maxRetryAfter < 0) {
+            throw new IllegalArgumentException("Invalid retry policy");
+        }
+        mMaxTries = maxTries;
+        mBaseDelay = baseDelay;
+        mMaxDelay = maxDelay;
+        mMaxRetryAfter = maxRetryAfter;
+    }
+
+    public int getMaxTries() {
+        return mMaxTries;
+    }
+
+    /**
+     * @param responseCode the response code
+     * @return true if the response should be treated as a failure and retried
+     */
+    public boolean isRetryableResponse(int responseCode) {
+        // Too Many Requests and Service Unavailable
+        return responseCode == HTTP_TOO_MANY_REQUESTS ||
+                responseCode == HttpURLConnection.HTTP_UNAVAILABLE;
+    }
+
+    /**
+     * @param e the exception thrown in last try
+     * @return true if the exception means the host is in trouble,
+     * it is counted for retry budget and circuit breaker
+     */
+    public boolean isHostFailure(Exception e) {
+        if (e instanceof IOException) {
+            return true;
+        } else if (e instanceof ResponseCodeException) {
+            int code = ((ResponseCodeException) e).getResponseCode();
+            return code >= 500 || isRetryableResponse(code);
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * @param retry the number of the retry, starts from 1
+     * @param retryAfter the time in Retry-After header in ms, -1 for none
+     * @return the time to wait before the retry in ms, -1 for giving up
+     */
+    public long getDelay(int retry, long retryAfter) {
+        if (retryAfter >= 0) {
+            return retryAfter <= mMaxRetryAfter ? retryAfter : -1;
+        }
+        long delay = mBaseDelay << Math.min(retry - 1, 16);
+        delay = Math.min(delay, mMaxDelay);
+        // Half fixed, half random, so clients do not retry at the same time
+        long half = delay / 2;
+        return half + (half > 0 ? (long) (sRandom.nextDouble() * half) : 0);
+    }
+}
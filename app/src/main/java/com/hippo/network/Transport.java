@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Open and release connections for {@link HttpHelper}
+ */
+public interface Transport {
+
+    /**
+     * Open a connection to the URL, it is not connected yet
+     *
+     * @param url the URL
+     * @return the connection
+     * @throws IOException
+     */
+    @NonNull HttpURLConnection open(@NonNull URL url) throws IOException;
+
+    /**
+     * Called when the request is done with the connection
+     *
+     * @param conn the connection
+     * @param reusable true if the response body has been consumed completely,
+     *                 so the connection can be kept alive for next request
+     */
+    void release(@NonNull HttpURLConnection conn, boolean reusable);
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.util;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho–Corasick automaton to find keywords in text in one pass.
+ * Each keyword has an int value, {@link #search(CharSequence)} returns
+ * the smallest value of the keywords found. Case of ASCII letters is ignored,
+ * like {@link java.util.regex.Pattern#CASE_INSENSITIVE}.
+ * <p>
+ * It is immutable and thread safe once built.
+ */
+public final class AhoCorasick {
+
+    private static final int ROOT = 0;
+
+    /**
+     * Sorted transition chars of each state
+     */
+    private final char[][] mChars;
+    /**
+     * Target states of {@link #mChars}
+     */
+    private final int[][] mNexts;
+    private final int[] mFails;
+    /**
+     * The smallest value of keywords ending at the state
+     * or at its fail states, -1 for none
+     */
+    private final int[] mOutputs;
+    /**
+     * Root transitions for ASCII, most text is ASCII
+     */
+    private final int[] mRootAscii = new int[128];
+
+    private AhoCorasick(char[][] chars, int[][] nexts, int[] fails, int[] outputs) {
+        mChars = chars;
+        mNexts = nexts;
+        mFails = fails;
+        mOutputs = outputs;
+
+        Arrays.fill(mRootAscii, ROOT);
+        char[] rootChars = chars[ROOT];
+        int[] rootNexts = nexts[ROOT];
+        for (int i = 0, n = rootChars.length; i < n; i++) {
+            char c = rootChars[i];
+            if (c < 128) {
+                mRootAscii[c] = rootNexts[i];
+            }
+        }
+    }
+
+    private static char toLowerAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * @return the next state, -1 for no transition
+     */
+    private int goTo(int state, char c) {
+        if (state == ROOT && c < 128) {
+            return mRootAscii[c];
+        }
+        char[] chars = mChars[state];
+        int index = Arrays.binarySearch(chars, c);
+        return index >= 0 ? mNexts[state][index] : -1;
+    }
+
+    /**
+     * Find keywords in text
+     *
+     * @param text the text
+     * @return the smallest value of the keywords found, -1 if none is found
+     */
+    public int search(@NonNull CharSequence text) {
+        int result = -1;
+        int state = ROOT;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = toLowerAscii(text.charAt(i));
+            int next;
+            while ((next = goTo(state, c)) == -1 && state != ROOT) {
+                state = mFails[state];
+            }
+            state = next == -1 ? ROOT : next;
+
+            int output = mOutputs[state];
+            if (output != -1 && (result == -1 || output < result)) {
+                result = output;
+                if (result == 0) {
+                    // Can't be smaller
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    public static class Builder {
+
+        private final List<Node> mNodes = new ArrayList<>();
+
+        public Builder() {
+            mNodes.add(new Node());
+        }
+
+        /**
+         * Add a keyword
+         *
+         * @param keyword the keyword, must not be empty
+         * @param value the value, must not be negative
+         * @return this builder
+         */
+        public Builder add(@NonNull String keyword, int value) {
+            if (keyword.isEmpty()) {
+                throw new IllegalArgumentException("Empty keyword");
+            }
+            if (value < 0) {
+                throw new IllegalArgumentException("value < 0");
+            }
+
+            int state = ROOT;
+            for (int i = 0, n = keyword.length(); i < n; i++) {
+                char c = toLowerAscii(keyword.charAt(i));
+                Node node = mNodes.get(state);
+                int index = node.chars.indexOf(c);
+                if (index >= 0) {
+                    state = node.nexts.get(index);
+                } else {
+                    int newState = mNodes.size();
+                    mNodes.add(new Node());
+                    node.chars.add(c);
+                    node.nexts.add(newState);
+                    state = newState;
+                }
+            }
+            Node node = mNodes.get(state);
+            if (node.output == -1 || value < node.output) {
+                node.output = value;
+            }
+            return this;
+        }
+
+        public AhoCorasick build() {
+            int size = mNodes.size();
+            char[][] chars = new char[size][];
+            int[][] nexts = new int[size][];
+            int[] fails = new int[size];
+            int[] outputs = new int[size];
+
+            // Sort transitions for binary search
+            for (int i = 0; i < size; i++) {
+                Node node = mNodes.get(i);
+                int count = node.chars.size();
+                long[] pairs = new long[count];
+                for (int j = 0; j < count; j++) {
+                    pairs[j] = ((long) node.chars.get(j) << 32) | node.nexts.get(j);
+                }
+                Arrays.sort(pairs);
+                char[] c = new char[count];
+                int[] n = new int[count];
+                for (int j = 0; j < count; j++) {
+                    c[j] = (char) (pairs[j] >>> 32);
+                    n[j] = (int) pairs[j];
+                }
+                chars[i] = c;
+                nexts[i] = n;
+                outputs[i] = node.output;
+            }
+
+            // Breadth-first to set fail links, parents are done before children
+            int[] queue = new int[size];
+            int head = 0;
+            int tail = 0;
+            fails[ROOT] = ROOT;
+            for (int next : nexts[ROOT]) {
+                fails[next] = ROOT;
+                queue[tail++] = next;
+            }
+            while (head < tail) {
+                int state = queue[head++];
+                char[] c = chars[state];
+                int[] n = nexts[state];
+                for (int j = 0; j < c.length; j++) {
+                    int child = n[j];
+                    int fail = fails[state];
+                    int target;
+                    while (true) {
+                        int index = Arrays.binarySearch(chars[fail], c[j]);
+                        if (index >= 0) {
+                            target = nexts[fail][index];
+                            break;
+                        } else if (fail == ROOT) {
+                            target = ROOT;
+                            break;
+                        }
+                        fail = fails[fail];
+                    }
+                    fails[child] = target;
+                    int failOutput = outputs[target];
+                    if (failOutput != -1 && (outputs[child] == -1 || failOutput < outputs[child])) {
+                        outputs[child] = failOutput;
+                    }
+                    queue[tail++] = child;
+                }
+            }
+
+            return new AhoCorasick(chars, nexts, fails, outputs);
+        }
+    }
+
+    private static class Node {
+        public final List<Character> chars = new ArrayList<>(2);
+        public final List<Integer> nexts = new ArrayList<>(2);
+        public int output = -1;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.util;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Choreographer;
+
+/**
+ * Measure frame time by {@link Choreographer}, only works on Jelly Bean or above.
+ * Keep it running only when needed, it wakes up for every frame.
+ */
+public final class FrameMonitor {
+
+    /**
+     * Longer frames are jank, more than one vsync is missed
+     */
+    private static final long JANK_FRAME_TIME_NS = 2 * 16666667L;
+
+    private static FrameMonitor sInstance;
+
+    private final Metrics.Counter mFrameCount = new Metrics.Counter();
+    private final Metrics.Counter mJankCount = new Metrics.Counter();
+    private long mMaxFrameTime;
+
+    private boolean mRunning;
+    private long mLastFrameTime;
+    private Object mFrameCallback;
+
+    private final Metrics.Gauge mMaxFrameTimeGauge = new Metrics.Gauge() {
+        @Override
+        public long getValue() {
+            synchronized (FrameMonitor.this) {
+                long value = mMaxFrameTime / 1000000;
+                mMaxFrameTime = 0;
+                return value;
+            }
+        }
+    };
+
+    public static FrameMonitor getInstance() {
+        if (sInstance == null) {
+            sInstance = new FrameMonitor();
+        }
+        return sInstance;
+    }
+
+    private FrameMonitor() {
+    }
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+    }
+
+    /**
+     * @return frames, register it as a rate to get fps
+     */
+    public Metrics.Gauge getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return frames longer than two vsync
+     */
+    public Metrics.Gauge getJankCount() {
+        return mJankCount;
+    }
+
+    /**
+     * @return the longest frame time in ms since last read
+     */
+    public Metrics.Gauge getMaxFrameTime() {
+        return mMaxFrameTimeGauge;
+    }
+
+    /**
+     * Call it in UI thread
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void start() {
+        if (mRunning || !isSupported()) {
+            return;
+        }
+        mRunning = true;
+        mLastFrameTime = 0;
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    onFrame(frameTimeNanos);
+                    if (mRunning) {
+                        Choreographer.getInstance().postFrameCallback(this);
+                    }
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+    }
+
+    /**
+     * Call it in UI thread
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void stop() {
+        if (mRunning) {
+            mRunning = false;
+            Choreographer.getInstance().removeFrameCallback(
+                    (Choreographer.FrameCallback) mFrameCallback);
+        }
+    }
+
+    private void onFrame(long frameTimeNanos) {
+        if (mLastFrameTime != 0) {
+            long frameTime = frameTimeNanos - mLastFrameTime;
+            mFrameCount.add(1);
+            if (frameTime > JANK_FRAME_TIME_NS) {
+                mJankCount.add(1);
+            }
+            synchronized (this) {
+                if (frameTime > mMaxFrameTime) {
+                    mMaxFrameTime = frameTime;
+                }
+            }
+        }
+        mLastFrameTime = frameTimeNanos;
+    }
+}
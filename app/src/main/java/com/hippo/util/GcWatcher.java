@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Count garbage collections by an unreachable object whose finalizer
+ * creates the next one. It counts the collections which run finalizers,
+ * but does not depend on any API level.
+ */
+public final class GcWatcher {
+
+    private static final AtomicLong sCount = new AtomicLong();
+    private static boolean sStarted;
+
+    private static final Metrics.Gauge GAUGE = new Metrics.Gauge() {
+        @Override
+        public long getValue() {
+            return sCount.get();
+        }
+    };
+
+    private GcWatcher() {
+    }
+
+    public static synchronized void start() {
+        if (!sStarted) {
+            sStarted = true;
+            new Sentinel();
+        }
+    }
+
+    public static long getCount() {
+        return sCount.get();
+    }
+
+    public static Metrics.Gauge getGauge() {
+        return GAUGE;
+    }
+
+    private static final class Sentinel {
+
+        @Override
+        protected void finalize() throws Throwable {
+            try {
+                sCount.incrementAndGet();
+                new Sentinel();
+            } finally {
+                super.finalize();
+            }
+        }
+    }
+}
@@ -48,6 +48,7 @@ public class Log {
     static {
         sSaveLogThreadPool = new SaveLogThreadExecutor();
         sSaveLogTaskPool = new Pool<>(10);
+        MemoryGovernor.getInstance().register("Log tasks", sSaveLogTaskPool);
         sDataFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.ENGLISH);
         sLogFile = AppConfig.getFileInAppDir(LOG_FILENAME);
         sSupportSaveLog = FileUtils.ensureFile(sLogFile);
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.util;
+
+import android.content.ComponentCallbacks2;
+import android.support.annotation.NonNull;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches and pools register here, they are trimmed together when
+ * memory is low, more is released for higher trim level.
+ * Trimmables are held weakly, so the owner must keep a reference.
+ */
+public final class MemoryGovernor {
+
+    public interface Trimmable {
+
+        /**
+         * Called in UI thread
+         *
+         * @param ratio how much to release, 0 for nothing, 1 for all
+         */
+        void trimMemory(float ratio);
+
+        /**
+         * @return the number of items kept, -1 for unknown
+         */
+        int getCacheSize();
+    }
+
+    private static final MemoryGovernor sInstance = new MemoryGovernor();
+
+    private final List<Entry> mEntries = new ArrayList<>();
+
+    public static MemoryGovernor getInstance() {
+        return sInstance;
+    }
+
+    private MemoryGovernor() {
+    }
+
+    /**
+     * @param name the name shown in stats
+     * @param trimmable the trimmable, held weakly
+     */
+    public void register(@NonNull String name, @NonNull Trimmable trimmable) {
+        synchronized (mEntries) {
+            mEntries.add(new Entry(name, trimmable));
+        }
+    }
+
+    public void unregister(@NonNull Trimmable trimmable) {
+        synchronized (mEntries) {
+            Iterator<Entry> iterator = mEntries.iterator();
+            while (iterator.hasNext()) {
+                Trimmable t = iterator.next().mTrimmable.get();
+                if (t == null || t == trimmable) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the live trimmables, the collected ones are removed
+     */
+    private List<Entry> getEntries(List<Trimmable> trimmables) {
+        List<Entry> entries = new ArrayList<>();
+        synchronized (mEntries) {
+            Iterator<Entry> iterator = mEntries.iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                Trimmable trimmable = entry.mTrimmable.get();
+                if (trimmable == null) {
+                    iterator.remove();
+                } else {
+                    entries.add(entry);
+                    trimmables.add(trimmable);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * How much to release for the level of {@link ComponentCallbacks2#onTrimMemory(int)}.
+     * Nothing for UI hidden, a quarter when the process is about to be
+     * killed or running moderate, half for moderate or running low,
+     * all for complete.
+     */
+    public static float getTrimRatio(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            return 1.0f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return 0.0f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0.75f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return 0.25f;
+        } else {
+            return 0.0f;
+        }
+    }
+
+    /**
+     * Call it in UI thread
+     *
+     * @param level the level of {@link ComponentCallbacks2#onTrimMemory(int)}
+     */
+    public void trim(int level) {
+        trim(getTrimRatio(level));
+    }
+
+    /**
+     * Call it in UI thread
+     *
+     * @param ratio how much to release, 0 for nothing, 1 for all
+     */
+    public void trim(float ratio) {
+        if (ratio <= 0.0f) {
+            return;
+        }
+        ratio = Math.min(ratio, 1.0f);
+        List<Trimmable> trimmables = new ArrayList<>();
+        getEntries(trimmables);
+        for (Trimmable trimmable : trimmables) {
+            trimmable.trimMemory(ratio);
+        }
+    }
+
+    /**
+     * @return name to the number of items kept, in order of registration,
+     * sizes with the same name are added, -1 for unknown
+     */
+    public Map<String, Integer> getCacheSizes() {
+        List<Trimmable> trimmables = new ArrayList<>();
+        List<Entry> entries = getEntries(trimmables);
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        for (int i = 0, n = entries.size(); i < n; i++) {
+            String name = entries.get(i).mName;
+            int size = trimmables.get(i).getCacheSize();
+            Integer old = sizes.get(name);
+            if (old != null && old >= 0 && size >= 0) {
+                size += old;
+            } else if (old != null) {
+                size = -1;
+            }
+            sizes.put(name, size);
+        }
+        return sizes;
+    }
+
+    private static final class Entry {
+
+        private final String mName;
+        private final WeakReference<Trimmable> mTrimmable;
+
+        private Entry(String name, Trimmable trimmable) {
+            mName = name;
+            mTrimmable = new WeakReference<>(trimmable);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.util;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A registry of metrics. Each {@link #sample()} reads all metrics and
+ * records the values to a ring buffer, which can be dumped to a file.
+ * When recording, it is sampled every second in UI thread.
+ */
+public final class Metrics {
+
+    /**
+     * Keep 5 min if sampled every second
+     */
+    public static final int DEFAULT_CAPACITY = 300;
+
+    private static final long SAMPLE_INTERVAL = 1000;
+
+    public interface Gauge {
+
+        /**
+         * Called once for each sample
+         */
+        long getValue();
+    }
+
+    /**
+     * A thread safe counter, register it as a rate to get the change per second
+     */
+    public static final class Counter implements Gauge {
+
+        private long mCount;
+
+        public synchronized void add(long n) {
+            mCount += n;
+        }
+
+        @Override
+        public synchronized long getValue() {
+            return mCount;
+        }
+    }
+
+    private static Metrics sInstance;
+
+    private final int mCapacity;
+    private final List<Metric> mMetrics = new ArrayList<>();
+    private final long[] mTimes;
+    /**
+     * Index of the next sample
+     */
+    private int mHead;
+    private int mCount;
+    /**
+     * Elapsed realtime of last sample, 0 for none
+     */
+    private long mLastSampleTime;
+
+    private boolean mRecording;
+    private final Runnable mSampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sample();
+            AppHandler.getInstance().postDelayed(this, SAMPLE_INTERVAL);
+        }
+    };
+
+    public static Metrics getInstance() {
+        if (sInstance == null) {
+            sInstance = new Metrics(DEFAULT_CAPACITY);
+        }
+        return sInstance;
+    }
+
+    public Metrics(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive, it is " + capacity);
+        }
+        mCapacity = capacity;
+        mTimes = new long[capacity];
+    }
+
+    /**
+     * Record the value of the gauge
+     */
+    public synchronized void register(@NonNull String name, @NonNull Gauge gauge) {
+        mMetrics.add(new Metric(name, gauge, false, mCapacity));
+    }
+
+    /**
+     * Record the change per second of the gauge, like bytes per second
+     * of a byte counter
+     */
+    public synchronized void registerRate(@NonNull String name, @NonNull Gauge gauge) {
+        Metric metric = new Metric(name, gauge, true, mCapacity);
+        metric.mLastValue = gauge.getValue();
+        mMetrics.add(metric);
+    }
+
+    /**
+     * Start sampling every second. Call it in UI thread.
+     */
+    public void startRecording() {
+        if (mRecording) {
+            return;
+        }
+        mRecording = true;
+        synchronized (this) {
+            // Rates are not counted over the time not recorded
+            mLastSampleTime = 0;
+        }
+        mSampleRunnable.run();
+    }
+
+    /**
+     * Stop sampling, the recorded samples are kept. Call it in UI thread.
+     */
+    public void stopRecording() {
+        if (mRecording) {
+            mRecording = false;
+            AppHandler.getInstance().removeCallbacks(mSampleRunnable);
+        }
+    }
+
+    public boolean isRecording() {
+        return mRecording;
+    }
+
+    /**
+     * Read all metrics and record the values
+     */
+    public void sample() {
+        sample(System.currentTimeMillis(), SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * @param time the wall time, only for the output
+     * @param elapsed the monotonic time, rates are counted with it
+     */
+    synchronized void sample(long time, long elapsed) {
+        long interval = mLastSampleTime == 0 ? 0 : elapsed - mLastSampleTime;
+        mLastSampleTime = elapsed;
+
+        int index = mHead;
+        mTimes[index] = time;
+        for (Metric metric : mMetrics) {
+            long value = metric.mGauge.getValue();
+            if (metric.mRate) {
+                long change = value - metric.mLastValue;
+                metric.mLastValue = value;
+                value = interval > 0 ? change * 1000 / interval : 0;
+            }
+            metric.mSamples[index] = value;
+        }
+        mHead = (index + 1) % mCapacity;
+        mCount = Math.min(mCount + 1, mCapacity);
+    }
+
+    /**
+     * @return name to the value of last sample, in order of registration,
+     * empty if it is not sampled
+     */
+    public synchronized Map<String, Long> getLatestValues() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        if (mCount > 0) {
+            int index = (mHead + mCapacity - 1) % mCapacity;
+            for (Metric metric : mMetrics) {
+                values.put(metric.mName, metric.mSamples[index]);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return samples in CSV, the first column is time, oldest first
+     */
+    public synchronized String toCsv() {
+        DateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        StringBuilder sb = new StringBuilder();
+        sb.append("time");
+        for (Metric metric : mMetrics) {
+            sb.append(',').append(metric.mName.replace(',', ' '));
+        }
+        sb.append('\n');
+        for (int i = 0; i < mCount; i++) {
+            int index = (mHead - mCount + i + mCapacity) % mCapacity;
+            sb.append(format.format(new Date(mTimes[index])));
+            for (Metric metric : mMetrics) {
+                sb.append(',').append(metric.mSamples[index]);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write samples to the file in CSV. Do not call it in UI thread.
+     */
+    public void dump(@NonNull File file) throws IOException {
+        byte[] bytes = toCsv().getBytes("UTF-8");
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(file);
+            os.write(bytes);
+        } finally {
+            Utils.closeQuietly(os);
+        }
+    }
+
+    private static final class Metric {
+
+        private final String mName;
+        private final Gauge mGauge;
+        private final boolean mRate;
+        private final long[] mSamples;
+        private long mLastValue;
+
+        private Metric(String name, Gauge gauge, boolean rate, int capacity) {
+            mName = name;
+            mGauge = gauge;
+            mRate = rate;
+            mSamples = new long[capacity];
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.util;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * A chain of stages run one by one in background, the result is delivered
+ * by a completion executor, like {@link UiExecutor}. It is immutable,
+ * build it once and create a {@link Task} for each input.
+ * <p>
+ * It does not depend on Android, so it can run on JVM.
+ *
+ * @param <I> the input type
+ * @param <O> the output type
+ */
+public final class Pipeline<I, O> {
+
+    /**
+     * Run callback in the thread which completes the task
+     */
+    public static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    public interface Stage<I, O> {
+
+        /**
+         * Called in background thread
+         *
+         * @param input output of previous stage, or the input of the task
+         * @return the input of next stage, or the output of the task
+         * @throws Exception
+         */
+        O apply(I input) throws Exception;
+    }
+
+    public interface Callback<I, O> {
+
+        /**
+         * Called in completion executor
+         *
+         * @param input the input of the task
+         * @param result the output of the last stage
+         */
+        void onSuccess(I input, O result);
+
+        /**
+         * Called in completion executor
+         *
+         * @param input the input of the task
+         * @param e the exception thrown by a stage, or an
+         *          {@link ExecutionException} wrapping the error thrown
+         */
+        void onFailure(I input, Exception e);
+    }
+
+    private final Stage[] mStages;
+
+    private Pipeline(Stage[] stages) {
+        mStages = stages;
+    }
+
+    public static <I, O> Pipeline<I, O> create(Stage<I, O> stage) {
+        return new Pipeline<>(new Stage[]{stage});
+    }
+
+    /**
+     * Create a new pipeline with one more stage at the end
+     *
+     * @param stage the new stage
+     * @return a new pipeline
+     */
+    public <N> Pipeline<I, N> then(Stage<? super O, N> stage) {
+        int length = mStages.length;
+        Stage[] stages = new Stage[length + 1];
+        System.arraycopy(mStages, 0, stages, 0, length);
+        stages[length] = stage;
+        return new Pipeline<>(stages);
+    }
+
+    /**
+     * Create a task. Pass it to a executor, it will run the stages and
+     * post itself to the completion executor to call the callback.
+     *
+     * @param input the input of the first stage
+     * @param completionExecutor the executor to call the callback
+     * @param callback the callback, null for none
+     * @return the task
+     */
+    public Task<I, O> newTask(I input, Executor completionExecutor,
+            Callback<? super I, ? super O> callback) {
+        return new Task<>(mStages, input, completionExecutor, callback);
+    }
+
+    /**
+     * Create a task and execute it
+     *
+     * @see #newTask(Object, Executor, Callback)
+     */
+    public Task<I, O> execute(Executor executor, I input, Executor completionExecutor,
+            Callback<? super I, ? super O> callback) {
+        Task<I, O> task = newTask(input, completionExecutor, callback);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * The same Runnable runs twice, first for stages in background,
+     * then for the callback in completion executor, so no other object
+     * is allocated.
+     */
+    public static final class Task<I, O> implements Runnable {
+
+        private static final int STATE_NEW = 0;
+        private static final int STATE_DELIVERING = 1;
+        private static final int STATE_DONE = 2;
+
+        private final Stage[] mStages;
+        private final I mInput;
+        private final Executor mCompletionExecutor;
+        private Callback<? super I, ? super O> mCallback;
+
+        private int mState = STATE_NEW;
+        private volatile boolean mCancelled;
+        private O mResult;
+        private Exception mException;
+
+        private Task(Stage[] stages, I input, Executor completionExecutor,
+                Callback<? super I, ? super O> callback) {
+            mStages = stages;
+            mInput = input;
+            mCompletionExecutor = completionExecutor;
+            mCallback = callback;
+        }
+
+        public I getInput() {
+            return mInput;
+        }
+
+        /**
+         * Stop running the rest stages and do not call the callback.
+         * It is sure that callback will not be called if it is cancelled
+         * in the thread of completion executor.
+         */
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void runStages() {
+            Object data = mInput;
+            try {
+                for (Stage stage : mStages) {
+                    if (mCancelled) {
+                        break;
+                    }
+                    data = stage.apply(data);
+                }
+                mResult = (O) data;
+            } catch (Exception e) {
+                mException = e;
+            } catch (Throwable t) {
+                // Like AssertError from parser, tasks waiting for it must fail too
+                mException = new ExecutionException(t);
+            }
+        }
+
+        private void deliver() {
+            Callback<? super I, ? super O> callback = mCallback;
+            mCallback = null;
+            if (callback != null && !mCancelled) {
+                if (mException == null) {
+                    callback.onSuccess(mInput, mResult);
+                } else {
+                    callback.onFailure(mInput, mException);
+                }
+            }
+        }
+
+        /**
+         * Take the result of a task which does the same job, instead of
+         * running the stages, then deliver it. Call it after the other
+         * task has run its stages.
+         *
+         * @param other the other task
+         */
+        public void completeFrom(Task<?, ? extends O> other) {
+            if (mState != STATE_NEW) {
+                throw new IllegalStateException("The task has run");
+            }
+            mResult = other.mResult;
+            mException = other.mException;
+            mState = STATE_DELIVERING;
+            mCompletionExecutor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            switch (mState) {
+                case STATE_NEW:
+                    runStages();
+                    mState = STATE_DELIVERING;
+                    mCompletionExecutor.execute(this);
+                    break;
+                case STATE_DELIVERING:
+                    mState = STATE_DONE;
+                    deliver();
+                    break;
+                default:
+                    throw new IllegalStateException("The task is done");
+            }
+        }
+    }
+}
@@ -18,7 +18,7 @@ package com.hippo.util;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
-public class Pool<E> {
+public class Pool<E> implements MemoryGovernor.Trimmable {
 
     private static final int MAX_POOL_SIZE = 50;
 
@@ -84,6 +84,30 @@ public class Pool<E> {
         }
     }
 
+    public int size() {
+        synchronized (mPoolSync) {
+            return mPoolSize;
+        }
+    }
+
+    /**
+     * Drop items in pool by the ratio
+     */
+    @Override
+    public void trimMemory(float ratio) {
+        synchronized (mPoolSync) {
+            int keep = (int) (mPoolSize * (1.0f - ratio));
+            while (mPoolSize > keep) {
+                obtain();
+            }
+        }
+    }
+
+    @Override
+    public int getCacheSize() {
+        return size();
+    }
+
     private @NonNull Node<E> obtainEmptyNode() {
         if (mLastNode == null || mLastNode.value != null) {
             // No empty node
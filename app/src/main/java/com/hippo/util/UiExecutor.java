@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.util;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executor to run in UI thread by {@link AppHandler}
+ */
+public final class UiExecutor implements Executor {
+
+    private static final UiExecutor sInstance = new UiExecutor();
+
+    public static UiExecutor getInstance() {
+        return sInstance;
+    }
+
+    private UiExecutor() {
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        AppHandler.getInstance().post(command);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.data;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+public class GalleryDatabaseTest extends TestCase {
+
+    private static final float DELTA = 1e-5f;
+
+    private static final int TITLE = 0;
+    private static final int UPLOADER = 1;
+    private static final int TAGS = 2;
+
+    /**
+     * Build matchinfo blob of format pcx for 3 columns,
+     * hits[phrase][column] is {hitsThisRow, hitsAllRows, docsWithHits}
+     */
+    private static byte[] matchinfo(int[][][] hits) {
+        int columnCount = 3;
+        ByteBuffer buffer = ByteBuffer.allocate(4 * (2 + 3 * hits.length * columnCount))
+                .order(ByteOrder.nativeOrder());
+        buffer.putInt(hits.length).putInt(columnCount);
+        for (int[][] phrase : hits) {
+            for (int c = 0; c < columnCount; c++) {
+                int[] column = phrase[c];
+                buffer.putInt(column[0]).putInt(column[1]).putInt(column[2]);
+            }
+        }
+        return buffer.array();
+    }
+
+    private static int[][] phrase(int column, int hitsThisRow, int hitsAllRows, int docsWithHits) {
+        int[][] phrase = new int[3][3];
+        phrase[column] = new int[] {hitsThisRow, hitsAllRows, docsWithHits};
+        return phrase;
+    }
+
+    private static int[] rank(int limit, int[] gids, float[] scores) {
+        GalleryDatabase.TopRows top = new GalleryDatabase.TopRows(limit);
+        for (int i = 0; i < gids.length; i++) {
+            top.offer(gids[i], scores[i]);
+        }
+        return top.getGids();
+    }
+
+    public void testMatchQuerySeparators() {
+        assertEquals("\"abc*\" \"def*\"", GalleryDatabase.buildMatchQuery("abc def"));
+        assertEquals("\"abc*\" \"def*\" \"gh*\"", GalleryDatabase.buildMatchQuery("  abc-def,gh.  "));
+        assertEquals("\"C88*\" \"Artist*\" \"Title*\"",
+                GalleryDatabase.buildMatchQuery("(C88) [Artist] Title"));
+        // FTS syntax in user input is split away
+        assertEquals("\"abc*\" \"def*\"", GalleryDatabase.buildMatchQuery("\"abc\" -def*"));
+        assertEquals("\"female*\" \"big*\"", GalleryDatabase.buildMatchQuery("female:big_"));
+    }
+
+    public void testMatchQueryOperators() {
+        // Quoted, so they are words, not FTS operators
+        assertEquals("\"cat*\" \"OR*\" \"dog*\"", GalleryDatabase.buildMatchQuery("cat OR dog"));
+        assertEquals("\"NOT*\" \"NEAR*\" \"AND*\"", GalleryDatabase.buildMatchQuery("NOT NEAR AND"));
+    }
+
+    public void testMatchQueryNonAscii() {
+        assertEquals("\"漢化*\" \"中文*\"", GalleryDatabase.buildMatchQuery("漢化 中文"));
+        // Chars from 0x80 are word chars, like FTS simple tokenizer
+        assertEquals("\"C88漢化*\"", GalleryDatabase.buildMatchQuery("C88漢化"));
+        assertEquals("\"中文（漢化）*\"", GalleryDatabase.buildMatchQuery("[中文（漢化）]"));
+        assertEquals("\"café*\" \"ü\"", GalleryDatabase.buildMatchQuery("café ü"));
+    }
+
+    public void testMatchQueryWordCap() {
+        assertEquals("\"a1*\" \"a2*\" \"a3*\" \"a4*\" \"a5*\" \"a6*\" \"a7*\" \"a8*\"",
+                GalleryDatabase.buildMatchQuery("a1 a2 a3 a4 a5 a6 a7 a8"));
+        assertEquals("\"a1*\" \"a2*\" \"a3*\" \"a4*\" \"a5*\" \"a6*\" \"a7*\" \"a8*\"",
+                GalleryDatabase.buildMatchQuery("a1 a2 a3 a4 a5 a6 a7 a8 a9 a10"));
+        // Separators do not count as words
+        assertEquals("\"a1*\" \"a2*\" \"a3*\" \"a4*\" \"a5*\" \"a6*\" \"a7*\" \"a8*\"",
+                GalleryDatabase.buildMatchQuery("- a1 - a2 - a3 - a4 - a5 - a6 - a7 - a8 - a9"));
+    }
+
+    public void testMatchQueryPrefixThreshold() {
+        assertEquals("\"a\"", GalleryDatabase.buildMatchQuery("a"));
+        assertEquals("\"ab*\"", GalleryDatabase.buildMatchQuery("ab"));
+        assertEquals("\"a\" \"ab*\" \"b\"", GalleryDatabase.buildMatchQuery("a ab b"));
+        assertEquals("\"中\"", GalleryDatabase.buildMatchQuery("中"));
+        assertEquals("\"中文*\"", GalleryDatabase.buildMatchQuery("中文"));
+    }
+
+    public void testMatchQueryNoWord() {
+        assertNull(GalleryDatabase.buildMatchQuery(""));
+        assertNull(GalleryDatabase.buildMatchQuery("   "));
+        assertNull(GalleryDatabase.buildMatchQuery("-_,.:[]()\"*"));
+    }
+
+    public void testScoreNoHit() {
+        assertEquals(0.0f, GalleryDatabase.score(matchinfo(new int[][][] {
+                phrase(TITLE, 0, 10, 5)})), DELTA);
+    }
+
+    public void testScoreColumnWeights() {
+        // 2 of 4 hits in all rows
+        assertEquals(0.5f, GalleryDatabase.score(matchinfo(new int[][][] {
+                phrase(TITLE, 2, 4, 2)})), DELTA);
+        assertEquals(0.75f, GalleryDatabase.score(matchinfo(new int[][][] {
+                phrase(UPLOADER, 2, 4, 2)})), DELTA);
+        assertEquals(1.0f, GalleryDatabase.score(matchinfo(new int[][][] {
+                phrase(TAGS, 2, 4, 2)})), DELTA);
+    }
+
+    public void testScoreRareWord() {
+        float rare = GalleryDatabase.score(matchinfo(new int[][][] {phrase(TITLE, 1, 2, 2)}));
+        float common = GalleryDatabase.score(matchinfo(new int[][][] {phrase(TITLE, 1, 200, 150)}));
+        assertEquals(0.5f, rare, DELTA);
+        assertEquals(0.005f, common, DELTA);
+    }
+
+    public void testScoreSum() {
+        int[][] first = new int[][] {{1, 4, 3}, {1, 2, 2}, {0, 7, 6}};
+        int[][] second = phrase(TAGS, 3, 6, 2);
+        // 1.0 * 1 / 4 + 1.5 * 1 / 2 + 2.0 * 3 / 6
+        assertEquals(2.0f, GalleryDatabase.score(matchinfo(new int[][][] {first, second})), DELTA);
+    }
+
+    public void testRankOrder() {
+        int[] gids = {100, 99, 98, 97};
+        float[] scores = {0.5f, 2.0f, 1.0f, 0.25f};
+        assertTrue(Arrays.equals(new int[] {99, 98, 100, 97}, rank(10, gids, scores)));
+    }
+
+    public void testRankLimit() {
+        int[] gids = {100, 99, 98, 97, 96};
+        float[] scores = {0.5f, 2.0f, 1.0f, 0.25f, 3.0f};
+        assertTrue(Arrays.equals(new int[] {96, 99}, rank(2, gids, scores)));
+        // Lower scores after it is full are skipped
+        assertTrue(Arrays.equals(new int[] {100}, rank(1, new int[] {100, 99}, new float[] {1.0f, 0.5f})));
+        assertTrue(Arrays.equals(new int[0], rank(0, gids, scores)));
+    }
+
+    public void testRankTie() {
+        // Newer, with larger gid, goes first for the same score
+        int[] gids = {100, 99, 98};
+        float[] scores = {1.0f, 1.0f, 1.0f};
+        assertTrue(Arrays.equals(new int[] {100, 99, 98}, rank(3, gids, scores)));
+        assertTrue(Arrays.equals(new int[] {100, 99}, rank(2, gids, scores)));
+        // Not depend on the order of rows
+        assertTrue(Arrays.equals(new int[] {100, 99}, rank(2, new int[] {98, 99, 100}, scores)));
+        assertTrue(Arrays.equals(new int[] {200, 100, 99},
+                rank(3, new int[] {99, 200, 100}, new float[] {0.5f, 1.0f, 1.0f})));
+    }
+}
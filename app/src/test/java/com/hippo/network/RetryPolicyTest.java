@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import junit.framework.TestCase;
+
+import java.net.HttpURLConnection;
+
+public class RetryPolicyTest extends TestCase {
+
+    public void testInvalidArguments() {
+        try {
+            new RetryPolicy(0, 0, 0, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Empty
+        }
+        try {
+            new RetryPolicy(3, 100, 50, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Empty
+        }
+    }
+
+    public void testBackoff() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, 0);
+        long[] full = {100, 200, 400, 800, 1000, 1000};
+        for (int i = 0; i < full.length; i++) {
+            for (int j = 0; j < 20; j++) {
+                long delay = policy.getDelay(i + 1, -1);
+                // Half fixed, half random
+                assertTrue("Retry " + (i + 1) + " delay " + delay,
+                        delay >= full[i] / 2 && delay <= full[i]);
+            }
+        }
+        // No overflow for many retries
+        long delay = policy.getDelay(100, -1);
+        assertTrue(delay >= 500 && delay <= 1000);
+    }
+
+    public void testRetryAfter() {
+        RetryPolicy policy = new RetryPolicy(3, 100, 1000, 5000);
+        assertEquals(0, policy.getDelay(1, 0));
+        assertEquals(3000, policy.getDelay(1, 3000));
+        assertEquals(5000, policy.getDelay(2, 5000));
+        // Too long, give up
+        assertEquals(-1, policy.getDelay(1, 5001));
+    }
+
+    public void testRetryableResponse() {
+        RetryPolicy policy = RetryPolicy.DEFAULT;
+        assertTrue(policy.isRetryableResponse(429));
+        assertTrue(policy.isRetryableResponse(HttpURLConnection.HTTP_UNAVAILABLE));
+        assertFalse(policy.isRetryableResponse(HttpURLConnection.HTTP_OK));
+        assertFalse(policy.isRetryableResponse(HttpURLConnection.HTTP_NOT_FOUND));
+        assertFalse(policy.isRetryableResponse(HttpURLConnection.HTTP_INTERNAL_ERROR));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.util;
+
+import junit.framework.TestCase;
+
+public class AhoCorasickTest extends TestCase {
+
+    public void testNoMatch() {
+        AhoCorasick ac = new AhoCorasick.Builder()
+                .add("english", 0)
+                .add("chinese", 1)
+                .build();
+        assertEquals(-1, ac.search(""));
+        assertEquals(-1, ac.search("englis"));
+        assertEquals(-1, ac.search("e n g l i s h"));
+    }
+
+    public void testSingleKeyword() {
+        AhoCorasick ac = new AhoCorasick.Builder()
+                .add("eng", 3)
+                .build();
+        assertEquals(3, ac.search("eng"));
+        assertEquals(3, ac.search("[eng]"));
+        assertEquals(3, ac.search("eeng"));
+        assertEquals(3, ac.search("enengg"));
+    }
+
+    public void testOverlappingKeywords() {
+        // Classic he/she/his/hers
+        AhoCorasick ac = new AhoCorasick.Builder()
+                .add("hers", 0)
+                .add("his", 1)
+                .add("she", 2)
+                .add("he", 3)
+                .build();
+        assertEquals(3, ac.search("he"));
+        assertEquals(2, ac.search("she"));
+        assertEquals(1, ac.search("ahishe"));
+        // "he" and "she" end inside "hers"
+        assertEquals(0, ac.search("ushers"));
+    }
+
+    public void testKeywordInsideLongerKeyword() {
+        // Only reachable through fail links
+        AhoCorasick ac = new AhoCorasick.Builder()
+                .add("abcde", 1)
+                .add("bcd", 0)
+                .build();
+        assertEquals(0, ac.search("abcde"));
+        assertEquals(0, ac.search("abcdx"));
+        assertEquals(-1, ac.search("abce"));
+
+        ac = new AhoCorasick.Builder()
+                .add("abcde", 0)
+                .add("bcd", 1)
+                .build();
+        assertEquals(0, ac.search("abcde"));
+        assertEquals(1, ac.search("abcdx"));
+    }
+
+    public void testLongerKeywordSharesPrefix() {
+        AhoCorasick ac = new AhoCorasick.Builder()
+                .add("[thai]", 1)
+                .add("[thai ภาษาไทย]", 0)
+                .build();
+        assertEquals(1, ac.search("title [thai]"));
+        assertEquals(0, ac.search("title [thai ภาษาไทย]"));
+        assertEquals(-1, ac.search("title [thai ภาษา]"));
+    }
+
+    public void testSmallestValueWins() {
+        AhoCorasick ac = new AhoCorasick.Builder()
+                .add("b", 1)
+                .add("a", 2)
+                .add("c", 0)
+                .build();
+        assertEquals(1, ac.search("ab"));
+        assertEquals(1, ac.search("ba"));
+        assertEquals(0, ac.search("abc"));
+        assertEquals(0, ac.search("cab"));
+    }
+
+    public void testSameKeywordTwice() {
+        AhoCorasick ac = new AhoCorasick.Builder()
+                .add("cn", 5)
+                .add("cn", 2)
+                .add("cn", 7)
+                .build();
+        assertEquals(2, ac.search("[cn]"));
+    }
+
+    public void testCaseFolding() {
+        AhoCorasick ac = new AhoCorasick.Builder()
+                .add("English", 0)
+                .add("español", 1)
+                .build();
+        assertEquals(0, ac.search("ENGLISH"));
+        assertEquals(0, ac.search("english"));
+        assertEquals(0, ac.search("eNgLiSh"));
+        assertEquals(1, ac.search("ESPAñOL"));
+        // Only ASCII letters are folded, like Pattern.CASE_INSENSITIVE
+        assertEquals(-1, ac.search("ESPAÑOL"));
+    }
+
+    public void testNonAsciiKeywords() {
+        AhoCorasick ac = new AhoCorasick.Builder()
+                .add("汉化", 0)
+                .add("中文", 1)
+                .build();
+        assertEquals(0, ac.search("[某某汉化组]"));
+        assertEquals(1, ac.search("中中文"));
+        assertEquals(-1, ac.search("汉 化"));
+    }
+
+    public void testIllegalArguments() {
+        AhoCorasick.Builder builder = new AhoCorasick.Builder();
+        try {
+            builder.add("", 0);
+            fail("Empty keyword should be rejected");
+        } catch (IllegalArgumentException e) {
+            // Empty
+        }
+        try {
+            builder.add("a", -1);
+            fail("Negative value should be rejected");
+        } catch (IllegalArgumentException e) {
+            // Empty
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.util;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.ExecutionException;
+
+public class PipelineTest extends TestCase {
+
+    private static class RecordCallback implements Pipeline.Callback<String, Integer> {
+
+        public int successCount;
+        public Integer result;
+        public Exception exception;
+
+        @Override
+        public void onSuccess(String input, Integer result) {
+            successCount++;
+            this.result = result;
+        }
+
+        @Override
+        public void onFailure(String input, Exception e) {
+            exception = e;
+        }
+    }
+
+    private static final Pipeline<String, Integer> PARSE = Pipeline.create(
+            new Pipeline.Stage<String, Integer>() {
+                @Override
+                public Integer apply(String input) throws Exception {
+                    return Integer.parseInt(input);
+                }
+            });
+
+    public void testSuccess() {
+        RecordCallback callback = new RecordCallback();
+        PARSE.then(new Pipeline.Stage<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer input) {
+                return input * 2;
+            }
+        }).execute(Pipeline.DIRECT_EXECUTOR, "21", Pipeline.DIRECT_EXECUTOR, callback);
+        assertEquals(1, callback.successCount);
+        assertEquals(Integer.valueOf(42), callback.result);
+        assertNull(callback.exception);
+    }
+
+    public void testException() {
+        RecordCallback callback = new RecordCallback();
+        PARSE.execute(Pipeline.DIRECT_EXECUTOR, "x", Pipeline.DIRECT_EXECUTOR, callback);
+        assertEquals(0, callback.successCount);
+        assertTrue(callback.exception instanceof NumberFormatException);
+    }
+
+    public void testErrorFailsFollowers() {
+        Pipeline<String, Integer> pipeline = PARSE.then(new Pipeline.Stage<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer input) {
+                throw new AssertError("Bad page");
+            }
+        });
+        RecordCallback leaderCallback = new RecordCallback();
+        RecordCallback followerCallback = new RecordCallback();
+        Pipeline.Task<String, Integer> leader = pipeline.newTask("1",
+                Pipeline.DIRECT_EXECUTOR, leaderCallback);
+        Pipeline.Task<String, Integer> follower = pipeline.newTask("1",
+                Pipeline.DIRECT_EXECUTOR, followerCallback);
+        leader.run();
+        follower.completeFrom(leader);
+
+        for (RecordCallback callback : new RecordCallback[] {leaderCallback, followerCallback}) {
+            assertEquals(0, callback.successCount);
+            assertTrue(callback.exception instanceof ExecutionException);
+            assertTrue(callback.exception.getCause() instanceof AssertError);
+        }
+    }
+
+    public void testCancel() {
+        RecordCallback callback = new RecordCallback();
+        Pipeline.Task<String, Integer> task = PARSE.newTask("1", Pipeline.DIRECT_EXECUTOR, callback);
+        task.cancel();
+        task.run();
+        assertEquals(0, callback.successCount);
+        assertNull(callback.exception);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.util;
+
+import junit.framework.TestCase;
+
+public class PoolTest extends TestCase {
+
+    private static Pool<Integer> newPool(int count) {
+        Pool<Integer> pool = new Pool<>(count);
+        for (int i = 0; i < count; i++) {
+            pool.recycle(i);
+        }
+        return pool;
+    }
+
+    public void testObtainRecycle() {
+        Pool<Integer> pool = new Pool<>(2);
+        assertNull(pool.obtain());
+        pool.recycle(1);
+        pool.recycle(2);
+        // Full
+        pool.recycle(3);
+        assertEquals(2, pool.size());
+        assertEquals(Integer.valueOf(2), pool.obtain());
+        assertEquals(Integer.valueOf(1), pool.obtain());
+        assertNull(pool.obtain());
+        assertEquals(0, pool.size());
+    }
+
+    public void testTrimMemoryRatio() {
+        Pool<Integer> pool = newPool(8);
+        pool.trimMemory(0.0f);
+        assertEquals(8, pool.size());
+        pool.trimMemory(0.25f);
+        assertEquals(6, pool.size());
+        pool.trimMemory(0.5f);
+        assertEquals(3, pool.size());
+        pool.trimMemory(1.0f);
+        assertEquals(0, pool.size());
+        assertEquals(0, pool.getCacheSize());
+    }
+
+    public void testTrimMemoryRoundDown() {
+        // Keep 2.5 items, round down
+        Pool<Integer> pool = newPool(5);
+        pool.trimMemory(0.5f);
+        assertEquals(2, pool.size());
+        // Keep 0.75 item
+        pool = newPool(1);
+        pool.trimMemory(0.25f);
+        assertEquals(0, pool.size());
+    }
+
+    public void testTrimMemoryKeepNewest() {
+        Pool<Integer> pool = newPool(4);
+        pool.trimMemory(0.5f);
+        assertEquals(Integer.valueOf(1), pool.obtain());
+        assertEquals(Integer.valueOf(0), pool.obtain());
+        assertNull(pool.obtain());
+    }
+
+    public void testReuseAfterTrim() {
+        Pool<Integer> pool = newPool(4);
+        pool.trimMemory(1.0f);
+        for (int i = 10; i < 20; i++) {
+            pool.recycle(i);
+        }
+        assertEquals(4, pool.size());
+        assertEquals(Integer.valueOf(13), pool.obtain());
+        assertEquals(Integer.valueOf(12), pool.obtain());
+        assertEquals(2, pool.size());
+    }
+}